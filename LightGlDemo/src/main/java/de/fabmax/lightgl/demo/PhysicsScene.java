@@ -3,15 +3,18 @@ package de.fabmax.lightgl.demo;
 import android.os.Bundle;
 import android.util.Log;
 
+import java.util.ArrayList;
+
+import de.fabmax.lightgl.InstancedShader;
 import de.fabmax.lightgl.Light;
 import de.fabmax.lightgl.LightGlActivity;
 import de.fabmax.lightgl.LightGlContext;
-import de.fabmax.lightgl.Shader;
 import de.fabmax.lightgl.SimpleShader;
 import de.fabmax.lightgl.Texture;
 import de.fabmax.lightgl.physics.PhysicsBody;
 import de.fabmax.lightgl.physics.PhysicsFactory;
 import de.fabmax.lightgl.scene.Group;
+import de.fabmax.lightgl.scene.InstancedMesh;
 import de.fabmax.lightgl.scene.Mesh;
 import de.fabmax.lightgl.util.BufferedTouchListener;
 import de.fabmax.lightgl.util.GlMath;
@@ -27,8 +30,10 @@ public class PhysicsScene extends LightGlActivity {
 
     private static final String TAG = "PhysicsScene";
 
-    private Shader mCubeMaterial;
     private Group mScene;
+    // all cubes are drawn as instances of a single mesh
+    private InstancedMesh mCubes;
+    private final ArrayList<PhysicsBody> mCubeBodies = new ArrayList<>();
 
     private final BufferedTouchListener mTouchHandler = new BufferedTouchListener();
     private float mPhi = 0, mTheta = GlMath.PI / 2;
@@ -79,16 +84,19 @@ public class PhysicsScene extends LightGlActivity {
         float z = 20 * (float) Math.sin(mTheta) * (float) Math.cos(mPhi);
         float y = 20 * (float) Math.cos(mTheta);
         glContext.getEngine().getCamera().setPosition(x, y, z);
+
+        // update cube instances with the current body transforms
+        for (int i = 0; i < mCubeBodies.size(); i++) {
+            mCubes.setInstanceTransform(i, mCubeBodies.get(i).getTransformation(), 0);
+        }
     }
 
     private void spawnCube(LightGlContext glContext) {
-        // add a color cube
-        Mesh boxMesh = MeshFactory.createStaticMesh(MeshFactory.createColorCube(1, 1, 1, null));
-        //Mesh boxMesh = MeshFactory.createCylinder(0.5f, 1, 20);
-        boxMesh.setShader(mCubeMaterial);
-        PhysicsBody cube = PhysicsFactory.createBox(boxMesh, 1, 1, 1, 1);
+        // add a physics body without a mesh, the cube is rendered as instance of mCubes
+        PhysicsBody cube = PhysicsFactory.createBox(null, 1, 1, 1, 1);
         cube.setPosition((float)Math.random(), 10, (float)Math.random());
-        mScene.addChild(cube);
+        mCubeBodies.add(cube);
+        mCubes.addInstance();
         glContext.getEngine().getPhysicsEngine().addObject(cube);
 
         Log.d(TAG, "Cube count: " + ++mCubeCount);
@@ -106,10 +114,15 @@ public class PhysicsScene extends LightGlActivity {
         Light light = Light.createDirectionalLight(1, 1, 1, 0.7f, 0.7f, 0.7f);
         glContext.getEngine().addLight(light);
 
-        mCubeMaterial = SimpleShader.createPhongColorShader(glContext.getShaderManager());
         mScene = new Group();
         glContext.getEngine().setScene(mScene);
 
+        // instanced color cube mesh for all spawned cubes
+        mCubes = new InstancedMesh(MeshFactory.toMeshData(MeshFactory.createColorCube(1, 1, 1, null)),
+                new InstancedShader(glContext.getShaderManager()));
+        mCubes.setInstanceCount(mCubeBodies.size());
+        mScene.addChild(mCubes);
+
         // add a color cube as floor
         float floorX = 100;
         float floorY = 1;
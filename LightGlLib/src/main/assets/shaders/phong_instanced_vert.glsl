@@ -0,0 +1,48 @@
+/*
+ * A phong vertex shader for pseudo instancing. The mesh geometry is replicated for every instance
+ * of a batch, each copy has its own instance index attribute, which is used to look up the
+ * instance transform and color from uniform arrays. MAX_INSTANCES must match
+ * InstancedShader.MAX_INSTANCES.
+ *
+ * @author fabmax
+ */
+
+#define MAX_INSTANCES 20
+
+uniform mat4 uMvpMatrix;
+uniform mat4 uModelMatrix;
+uniform mat4 uViewMatrix;
+uniform vec3 uLightDirection_worldspace;
+uniform mat4 uInstanceMatrices[MAX_INSTANCES];
+uniform vec4 uInstanceColors[MAX_INSTANCES];
+
+attribute vec3 aVertexPosition_modelspace;
+attribute vec3 aVertexNormal_modelspace;
+attribute vec4 aVertexColor;
+attribute float aInstanceIndex;
+
+varying vec4 vFragmentColor;
+varying vec3 vEyeDirection_cameraspace;
+varying vec3 vLightDirection_cameraspace;
+varying vec3 vNormal_cameraspace;
+
+void main() {
+	int instance = int(aInstanceIndex);
+	mat4 instanceMatrix = uInstanceMatrices[instance];
+	vec4 position = instanceMatrix * vec4(aVertexPosition_modelspace, 1);
+
+	// vertex color is modulated by the instance color
+	vFragmentColor = aVertexColor * uInstanceColors[instance];
+
+	// Output position of the vertex in clip space : MVP * instance transform * position
+	gl_Position = uMvpMatrix * position;
+
+	// Vector from vertex to camera, in camera space. In camera space, the camera is at the origin (0, 0, 0).
+	vEyeDirection_cameraspace = -(uViewMatrix * uModelMatrix * position).xyz;
+
+	// Light direction, in camera space. M is left out because light position is already in world space.
+	vLightDirection_cameraspace = (uViewMatrix * vec4(uLightDirection_worldspace, 0)).xyz;
+
+	// Normal of the the vertex, in camera space
+	vNormal_cameraspace = (uViewMatrix * uModelMatrix * instanceMatrix * vec4(aVertexNormal_modelspace, 0)).xyz;
+}
@@ -8,6 +8,7 @@
 uniform mat4 uMvpMatrix;
 uniform mat4 uModelMatrix;
 uniform mat4 uViewMatrix;
+uniform vec4 uTexCoordTransform;
 uniform vec3 uLightDirection_worldspace;
 uniform mat4 uShadowMvpMatrix;
 
@@ -23,7 +24,7 @@ varying vec4 vShadowCoord;
 
 void main() {
 	// interpolate vertex color for usage in fragment shader
-	vTexCoord = aVertexTexCoord;
+	vTexCoord = aVertexTexCoord * uTexCoordTransform.xy + uTexCoordTransform.zw;
 	
 	// compute vertex position in shadow map
 	vShadowCoord = uShadowMvpMatrix * vec4(aVertexPosition_modelspace, 1);
@@ -8,6 +8,7 @@
 uniform mat4 uMvpMatrix;
 uniform mat4 uModelMatrix;
 uniform mat4 uViewMatrix;
+uniform vec4 uTexCoordTransform;
 uniform vec3 uLightDirection_worldspace;
 
 attribute vec3 aVertexPosition_modelspace;
@@ -21,7 +22,7 @@ varying vec3 vNormal_cameraspace;
 
 void main() {
 	// interpolate vertex color for usage in fragment shader
-	vTexCoord = aVertexTexCoord;
+	vTexCoord = aVertexTexCoord * uTexCoordTransform.xy + uTexCoordTransform.zw;
 	
 	// Output position of the vertex in clip space : MVP * position
     gl_Position = uMvpMatrix * vec4(aVertexPosition_modelspace, 1);
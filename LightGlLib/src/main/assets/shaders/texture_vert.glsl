@@ -7,6 +7,7 @@
 uniform mat4 uMvpMatrix;
 uniform mat4 uModelMatrix;
 uniform mat4 uViewMatrix;
+uniform vec4 uTexCoordTransform;
 
 attribute vec3 aVertexPosition_modelspace;
 attribute vec2 aVertexTexCoord;
@@ -15,7 +16,7 @@ varying vec2 vTexCoord;
 
 void main() {
 	// interpolate vertex color for usage in fragment shader
-	vTexCoord = aVertexTexCoord;
+	vTexCoord = aVertexTexCoord * uTexCoordTransform.xy + uTexCoordTransform.zw;
 	
 	// Output position of the vertex in clip space : MVP * position
     gl_Position = uMvpMatrix * vec4(aVertexPosition_modelspace, 1);
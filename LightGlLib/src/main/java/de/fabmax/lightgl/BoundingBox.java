@@ -148,6 +148,47 @@ public class BoundingBox {
         }
     }
 
+    /**
+     * Adds a box to this BoundingBox. The BoundingBox is expanded to include the specified box.
+     *
+     * @param box   the box to add
+     */
+    public void addBox(BoundingBox box) {
+        minX = Math.min(minX, box.minX);
+        minY = Math.min(minY, box.minY);
+        minZ = Math.min(minZ, box.minZ);
+        maxX = Math.max(maxX, box.maxX);
+        maxY = Math.max(maxY, box.maxY);
+        maxZ = Math.max(maxZ, box.maxZ);
+    }
+
+    /**
+     * Transforms this BoundingBox by the specified 4x4 transform matrix. The resulting box is
+     * the axis aligned box enclosing the transformed original box.
+     *
+     * @param m44   4x4 transform matrix in column-major order
+     * @param off   Matrix array offset
+     */
+    public void transform(float[] m44, int off) {
+        float cx = getCenterX(), cy = getCenterY(), cz = getCenterZ();
+        float ex = getSizeX() * 0.5f, ey = getSizeY() * 0.5f, ez = getSizeZ() * 0.5f;
+        for (int i = 0; i < 3; i++) {
+            float c = m44[off + i] * cx + m44[off + 4 + i] * cy + m44[off + 8 + i] * cz + m44[off + 12 + i];
+            float e = Math.abs(m44[off + i]) * ex + Math.abs(m44[off + 4 + i]) * ey +
+                    Math.abs(m44[off + 8 + i]) * ez;
+            if (i == 0) {
+                minX = c - e;
+                maxX = c + e;
+            } else if (i == 1) {
+                minY = c - e;
+                maxY = c + e;
+            } else {
+                minZ = c - e;
+                maxZ = c + e;
+            }
+        }
+    }
+
     /**
      * Convenience method for retrieving the box' width. Same as box.maxX - box.minX.
      *
@@ -32,7 +32,7 @@ public abstract class Camera {
      */
     public void setPosition(float x, float y, float z) {
         mEye.set(x, y, z);
-        mDirty = true;
+        setDirty();
     }
 
     /**
@@ -41,7 +41,7 @@ public abstract class Camera {
      */
     public void setLookAt(float x, float y, float z) {
         mLookAt.set(x, y, z);
-        mDirty = true;
+        setDirty();
     }
 
     /**
@@ -49,7 +49,7 @@ public abstract class Camera {
      */
     public void setUpDirection(float x, float y, float z) {
         mUp.set(x, y, z);
-        mDirty = true;
+        setDirty();
     }
 
     /**
@@ -57,6 +57,7 @@ public abstract class Camera {
      */
     public void animatePositionTo(float x, float y, float z) {
         mEye.animateTo(x, y, z);
+        RedrawTracker.notifyChanged();
     }
 
     /**
@@ -64,6 +65,7 @@ public abstract class Camera {
      */
     public void animateLookAtTo(float x, float y, float z) {
         mLookAt.animateTo(x, y, z);
+        RedrawTracker.notifyChanged();
     }
 
     /**
@@ -71,6 +73,7 @@ public abstract class Camera {
      */
     public void animateUpTo(float x, float y, float z) {
         mUp.animateTo(x, y, z);
+        RedrawTracker.notifyChanged();
     }
 
     /**
@@ -87,8 +90,8 @@ public abstract class Camera {
 
     /**
      * Called on every {@link de.fabmax.lightgl.GfxEngine#onDrawFrame(javax.microedition.khronos.opengles.GL10)}
-     * in order to animate the camera position and direction. deltaT is filtered by GfxEngine to
-     * achieve a smoother animation.
+     * in order to animate the camera position and direction. deltaT is the exact time between the
+     * last two frames as measured by {@link de.fabmax.lightgl.FrameScheduler}.
      *
      * @param deltaT    time since last frame.
      */
@@ -103,6 +106,17 @@ public abstract class Camera {
      */
     protected void setDirty() {
         mDirty = true;
+        RedrawTracker.notifyChanged();
+    }
+
+    /**
+     * Returns true if the camera is currently animated towards a target position, look-at point
+     * or up direction.
+     *
+     * @return true if the camera is animated
+     */
+    public boolean isAnimating() {
+        return mEye.mAnimated || mLookAt.mAnimated || mUp.mAnimated;
     }
     
     /**
@@ -178,6 +192,9 @@ public abstract class Camera {
      * with quickly increasing speed and then slows down until he destination value is reached.
      */
     private static class AnimatedVector {
+        // animation is stopped if error and speed are below this value
+        private static final float SETTLE_EPSILON = 1e-4f;
+
         float x;
         float y;
         float z;
@@ -240,9 +257,18 @@ public abstract class Camera {
             mDZ += (e * mStiffness - mDZ * mDamping) * deltaT;
             z += mDZ * deltaT;
 
+            // stop animation as soon as the target is reached
+            if (isSettled(mDstX - x, mDX) && isSettled(mDstY - y, mDY) &&
+                    isSettled(mDstZ - z, mDZ)) {
+                set(mDstX, mDstY, mDstZ);
+            }
             return true;
         }
 
+        private static boolean isSettled(float error, float speed) {
+            return Math.abs(error) < SETTLE_EPSILON && Math.abs(speed) < SETTLE_EPSILON;
+        }
+
         /**
          * Set animation speed.
          */
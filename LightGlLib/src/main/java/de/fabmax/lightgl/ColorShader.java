@@ -3,7 +3,6 @@ package de.fabmax.lightgl;
 import android.util.Log;
 
 import static android.opengl.GLES20.glGetUniformLocation;
-import static android.opengl.GLES20.glUniformMatrix4fv;
 
 /**
  * A very basic shader. Meshes rendered with this shader must have defined color attributes.
@@ -59,7 +58,7 @@ public class ColorShader extends Shader {
     @Override
     public void onBind(LightGlContext glContext) {
         // pass current MVP matrix to shader
-        glUniformMatrix4fv(muMvpMatrixHandle, 1, false, glContext.getState().getMvpMatrix(), 0);
+        onMatrixUpdate(glContext.getState());
     }
 
     /**
@@ -70,7 +69,8 @@ public class ColorShader extends Shader {
     @Override
     public void onMatrixUpdate(GfxState state) {
         // pass current MVP matrix to shader
-        glUniformMatrix4fv(muMvpMatrixHandle, 1, false, state.getMvpMatrix(), 0);
+        setUniformMatrix4fv(muMvpMatrixHandle, state.getMvpMatrix(), 0,
+                state.getMvpMatrixVersion());
     }
 
 }
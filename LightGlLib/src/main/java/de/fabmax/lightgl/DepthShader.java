@@ -3,13 +3,12 @@ package de.fabmax.lightgl;
 import android.util.Log;
 
 import static android.opengl.GLES20.glGetUniformLocation;
-import static android.opengl.GLES20.glUniformMatrix4fv;
 
 public class DepthShader extends Shader {
 
     private static final String TAG = "DepthShader";
     
-    private int muMvpMatrixHandle = 0;
+    private int muMvpMatrixHandle = -1;
     
     /**
      * Creates a new DepthShader.
@@ -53,7 +52,7 @@ public class DepthShader extends Shader {
     @Override
     public void onBind(LightGlContext glContext) {
         // pass current MVP matrix to shader
-        glUniformMatrix4fv(muMvpMatrixHandle, 1, false, glContext.getState().getMvpMatrix(), 0);
+        onMatrixUpdate(glContext.getState());
     }
 
     /**
@@ -64,6 +63,7 @@ public class DepthShader extends Shader {
     @Override
     public void onMatrixUpdate(GfxState state) {
         // pass current MVP matrix to shader
-        glUniformMatrix4fv(muMvpMatrixHandle, 1, false, state.getMvpMatrix(), 0);
+        setUniformMatrix4fv(muMvpMatrixHandle, state.getMvpMatrix(), 0,
+                state.getMvpMatrixVersion());
     }
 }
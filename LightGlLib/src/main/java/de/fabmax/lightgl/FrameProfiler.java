@@ -0,0 +1,283 @@
+package de.fabmax.lightgl;
+
+import java.util.Arrays;
+
+/**
+ * FrameProfiler records timings and counters of the last rendered frames. Timings are measured
+ * with {@link System#nanoTime()} for the individual phases of
+ * {@link GfxEngine#onDrawFrame(javax.microedition.khronos.opengles.GL10)}. Counters are
+ * incremented by {@link de.fabmax.lightgl.scene.Mesh}, {@link ShaderManager},
+ * {@link Shader} and {@link TextureManager}.
+ *
+ * Frames are stored in a ring buffer of fixed size. Recording does not allocate memory and does
+ * not lock, so the profiler can be left enabled. Frames are recorded by the GL thread, other
+ * threads can read them. A frame is published after it is completely written; however, a reader
+ * can observe a frame that is being overwritten if it reads slower than the ring buffer wraps.
+ * GLES 2.0 has no timer queries, hence all timings are CPU times: A pass' time includes issuing
+ * the GL commands, not their execution on the GPU.
+ *
+ * @author fabmax
+ */
+public class FrameProfiler {
+
+    /** Phase: Synchronization of physics bodies */
+    public static final int PHASE_PHYSICS_SYNC = 0;
+    /** Phase: {@link GfxEngineListener} callbacks */
+    public static final int PHASE_LISTENER = 1;
+    /** Phase: Pre-pass rendering */
+    public static final int PHASE_PRE_PASS = 2;
+    /** Phase: Main-pass rendering */
+    public static final int PHASE_MAIN_PASS = 3;
+    /** Phase: The whole frame, without frame rate limiting */
+    public static final int PHASE_FRAME = 4;
+    /** Phase: Texture eviction and upload of asynchronously loaded textures */
+    public static final int PHASE_TEXTURE_UPLOADS = 5;
+    /** Number of phases */
+    public static final int PHASE_COUNT = 6;
+
+    /** Counter: Draw calls */
+    public static final int COUNTER_DRAW_CALLS = 0;
+    /** Counter: Drawn triangles */
+    public static final int COUNTER_TRIANGLES = 1;
+    /** Counter: Shader binds */
+    public static final int COUNTER_SHADER_BINDS = 2;
+    /** Counter: Texture binds */
+    public static final int COUNTER_TEXTURE_BINDS = 3;
+    /** Counter: Buffer and texture data uploads */
+    public static final int COUNTER_BUFFER_UPLOADS = 4;
+    /** Counter: Uniform uploads */
+    public static final int COUNTER_UNIFORM_UPLOADS = 5;
+    /** Number of counters */
+    public static final int COUNTER_COUNT = 6;
+
+    private static final int DEFAULT_FRAME_COUNT = 256;
+
+    private final int mCapacity;
+    private final long[] mTimes;
+    private final int[] mCounts;
+
+    // values of the frame currently recorded
+    private final long[] mFrameTimes = new long[PHASE_COUNT];
+    private final int[] mFrameCounts = new int[COUNTER_COUNT];
+    private long mFrameStart;
+    private long mPhaseStart;
+
+    // number of committed frames, written only by the GL thread
+    private volatile long mFrameCount = 0;
+
+    private volatile boolean mEnabled = true;
+    private boolean mRecording = false;
+
+    // scratch buffer for percentile computation
+    private final long[] mSortBuffer;
+
+    /**
+     * Creates a FrameProfiler, which keeps the last 256 frames.
+     */
+    public FrameProfiler() {
+        this(DEFAULT_FRAME_COUNT);
+    }
+
+    /**
+     * Creates a FrameProfiler, which keeps the specified number of frames.
+     *
+     * @param frameCount    number of frames to keep
+     */
+    public FrameProfiler(int frameCount) {
+        if (frameCount < 1) {
+            throw new IllegalArgumentException("frameCount must be at least 1");
+        }
+        mCapacity = frameCount;
+        mTimes = new long[frameCount * PHASE_COUNT];
+        mCounts = new int[frameCount * COUNTER_COUNT];
+        mSortBuffer = new long[frameCount];
+    }
+
+    /**
+     * Returns true if recording is enabled.
+     *
+     * @return true if recording is enabled
+     */
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * En-/ disables recording. Recording is enabled by default. Changes take effect with the next
+     * frame.
+     *
+     * @param enabled    true to enable recording
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * Starts recording a new frame. Is called by {@link GfxEngine}.
+     */
+    public void beginFrame() {
+        mRecording = mEnabled;
+        if (mRecording) {
+            Arrays.fill(mFrameTimes, 0);
+            Arrays.fill(mFrameCounts, 0);
+            mFrameStart = System.nanoTime();
+            mPhaseStart = mFrameStart;
+        }
+    }
+
+    /**
+     * Starts timing of a phase. Is called by {@link GfxEngine}.
+     */
+    public void beginPhase() {
+        if (mRecording) {
+            mPhaseStart = System.nanoTime();
+        }
+    }
+
+    /**
+     * Ends timing of the specified phase and adds the elapsed time since the last call of
+     * {@link #beginPhase()} to it. Is called by {@link GfxEngine}.
+     *
+     * @param phase    the phase to end
+     */
+    public void endPhase(int phase) {
+        if (mRecording) {
+            long t = System.nanoTime();
+            mFrameTimes[phase] += t - mPhaseStart;
+            mPhaseStart = t;
+        }
+    }
+
+    /**
+     * Ends and publishes the current frame. Is called by {@link GfxEngine}.
+     */
+    public void endFrame() {
+        if (mRecording) {
+            mFrameTimes[PHASE_FRAME] = System.nanoTime() - mFrameStart;
+            long frame = mFrameCount;
+            int slot = (int) (frame % mCapacity);
+            System.arraycopy(mFrameTimes, 0, mTimes, slot * PHASE_COUNT, PHASE_COUNT);
+            System.arraycopy(mFrameCounts, 0, mCounts, slot * COUNTER_COUNT, COUNTER_COUNT);
+            // volatile write publishes the frame
+            mFrameCount = frame + 1;
+            mRecording = false;
+        }
+    }
+
+    /**
+     * Increments the specified counter of the current frame.
+     *
+     * @param counter    the counter to increment
+     * @param value      value to add
+     */
+    public void count(int counter, int value) {
+        if (mRecording) {
+            mFrameCounts[counter] += value;
+        }
+    }
+
+    /**
+     * Counts a draw call with the specified number of triangles.
+     *
+     * @param triangles    number of drawn triangles
+     */
+    public void countDrawCall(int triangles) {
+        if (mRecording) {
+            mFrameCounts[COUNTER_DRAW_CALLS]++;
+            mFrameCounts[COUNTER_TRIANGLES] += triangles;
+        }
+    }
+
+    /**
+     * Returns the total number of recorded frames.
+     *
+     * @return the total number of recorded frames
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Returns the number of frames available in the ring buffer.
+     *
+     * @return the number of available frames
+     */
+    public int getAvailableFrameCount() {
+        return (int) Math.min(mFrameCount, mCapacity);
+    }
+
+    /**
+     * Returns the time of the specified phase in nanoseconds.
+     *
+     * @param phase        the phase
+     * @param framesAgo    0 for the last recorded frame, 1 for the frame before, etc.
+     * @return the time of the specified phase in nanoseconds
+     */
+    public long getTime(int phase, int framesAgo) {
+        return mTimes[getSlot(framesAgo) * PHASE_COUNT + phase];
+    }
+
+    /**
+     * Returns the value of the specified counter.
+     *
+     * @param counter      the counter
+     * @param framesAgo    0 for the last recorded frame, 1 for the frame before, etc.
+     * @return the value of the specified counter
+     */
+    public int getCount(int counter, int framesAgo) {
+        return mCounts[getSlot(framesAgo) * COUNTER_COUNT + counter];
+    }
+
+    /**
+     * Returns the specified percentile of the time of the specified phase over all available
+     * frames, e.g. 0.5 for the median, 0.95 for p95.
+     *
+     * @param phase         the phase
+     * @param percentile    the percentile in the range [0, 1]
+     * @return the percentile in nanoseconds or 0 if no frames are available
+     */
+    public synchronized long getTimePercentile(int phase, float percentile) {
+        int n = getAvailableFrameCount();
+        for (int i = 0; i < n; i++) {
+            mSortBuffer[i] = getTime(phase, i);
+        }
+        return percentile(n, percentile);
+    }
+
+    /**
+     * Returns the specified percentile of the specified counter over all available frames, e.g.
+     * 0.5 for the median, 0.95 for p95.
+     *
+     * @param counter       the counter
+     * @param percentile    the percentile in the range [0, 1]
+     * @return the percentile or 0 if no frames are available
+     */
+    public synchronized long getCountPercentile(int counter, float percentile) {
+        int n = getAvailableFrameCount();
+        for (int i = 0; i < n; i++) {
+            mSortBuffer[i] = getCount(counter, i);
+        }
+        return percentile(n, percentile);
+    }
+
+    private long percentile(int n, float percentile) {
+        if (n == 0) {
+            return 0;
+        }
+        if (percentile < 0 || percentile > 1) {
+            throw new IllegalArgumentException("percentile must be in [0, 1]");
+        }
+        Arrays.sort(mSortBuffer, 0, n);
+        // nearest rank method
+        int rank = (int) Math.ceil(percentile * n);
+        return mSortBuffer[Math.max(0, rank - 1)];
+    }
+
+    private int getSlot(int framesAgo) {
+        long frame = mFrameCount - 1 - framesAgo;
+        if (framesAgo < 0 || framesAgo >= mCapacity || frame < 0) {
+            throw new IndexOutOfBoundsException("Frame " + framesAgo + " is not available");
+        }
+        return (int) (frame % mCapacity);
+    }
+}
@@ -0,0 +1,220 @@
+package de.fabmax.lightgl;
+
+/**
+ * FrameScheduler paces frame rendering with nanosecond resolution and measures the exact time
+ * between frames. If a frame rate limit is set, frames are started on a fixed cadence: The
+ * scheduler sleeps until shortly before the next frame is due and spins for the remaining time,
+ * because {@link Thread#sleep(long, int)} has only millisecond accuracy on most devices.
+ *
+ * Besides the normal frame rate limit, lower limits can be set for an idle scene and for a
+ * thermally throttled device. The idle state is updated by {@link GfxEngine} after every frame:
+ * The scene is idle if its {@link RedrawTracker} didn't see any change during the last frame. The
+ * throttled state is set by the application with {@link #setThrottled(boolean)}. The lowest of
+ * all active limits is used. Limits and throttled state can be set from any thread.
+ *
+ * @author fabmax
+ */
+public class FrameScheduler {
+
+    // remaining time, which is spun instead of slept
+    private static final long SPIN_NANOS = 2000000L;
+    // frame deltas are clamped to this value, e.g. after the app was paused
+    private static final float MAX_DELTA_T = 0.25f;
+
+    private volatile long mMaxFpsInterval = 0;
+    private volatile long mIdleInterval = 0;
+    private volatile long mThrottledInterval = 0;
+    private volatile boolean mIdle = false;
+    private volatile boolean mThrottled = false;
+
+    private long mLastFrameStart = 0;
+    private long mNextFrameStart = 0;
+    private volatile float mDeltaT = 1.0f / 60.0f;
+    private volatile float mFps = 60.0f;
+
+    /**
+     * Waits until the next frame is due and updates the frame delta. Is called by
+     * {@link GfxEngine} before a frame is rendered.
+     */
+    public void waitForNextFrame() {
+        long interval = getFrameInterval();
+        long now = nanoTime();
+
+        if (interval > 0 && mLastFrameStart != 0) {
+            if (now - mNextFrameStart > interval) {
+                // we are more than a frame late, don't try to catch up
+                mNextFrameStart = now;
+            }
+            long remaining = mNextFrameStart - now;
+            if (remaining > SPIN_NANOS) {
+                sleep(remaining - SPIN_NANOS);
+            }
+            now = nanoTime();
+            while (now < mNextFrameStart) {
+                Thread.yield();
+                now = nanoTime();
+            }
+            mNextFrameStart += interval;
+        } else {
+            mNextFrameStart = now + interval;
+        }
+
+        if (mLastFrameStart != 0) {
+            float deltaT = Math.min((now - mLastFrameStart) / 1e9f, MAX_DELTA_T);
+            if (deltaT > 0) {
+                mFps = mFps * 0.85f + 0.15f / deltaT;
+            }
+            mDeltaT = deltaT;
+        }
+        mLastFrameStart = now;
+    }
+
+    /**
+     * Returns the current time in nanoseconds. Can be overridden by tests.
+     */
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Sleeps for the given number of nanoseconds. Can be overridden by tests.
+     */
+    void sleep(long nanos) {
+        try {
+            Thread.sleep(nanos / 1000000L, (int) (nanos % 1000000L));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Resets the frame timing, e.g. after the render thread was paused. The next frame is started
+     * immediately and its delta is computed from the last frame.
+     */
+    public void reset() {
+        mLastFrameStart = 0;
+    }
+
+    /**
+     * Returns the time between the start of the last two frames in seconds. Deltas are clamped to
+     * 0.25 seconds, so that animations don't jump after the app was paused.
+     *
+     * @return the current frame delta in seconds
+     */
+    public float getDeltaT() {
+        return mDeltaT;
+    }
+
+    /**
+     * Returns the current frame rate. The frame rate is filtered to get more steady values.
+     *
+     * @return the current frame rate
+     */
+    public float getFps() {
+        return mFps;
+    }
+
+    /**
+     * Returns the interval between two frames in nanoseconds for the current state, 0 if the
+     * frame rate is not limited.
+     *
+     * @return the current frame interval in nanoseconds
+     */
+    public long getFrameInterval() {
+        long interval = mMaxFpsInterval;
+        if (mIdle) {
+            interval = Math.max(interval, mIdleInterval);
+        }
+        if (mThrottled) {
+            interval = Math.max(interval, mThrottledInterval);
+        }
+        return interval;
+    }
+
+    /**
+     * Returns the maximum frame rate, 0 if no limit is set.
+     *
+     * @return the maximum frame rate
+     */
+    public float getMaximumFps() {
+        return intervalToFps(mMaxFpsInterval);
+    }
+
+    /**
+     * Sets the maximum frame rate. fps = 0 disables the frame rate limit.
+     *
+     * @param fps    the maximum frame rate
+     */
+    public void setMaximumFps(float fps) {
+        mMaxFpsInterval = fpsToInterval(fps);
+    }
+
+    /**
+     * Sets the maximum frame rate, which is used while the scene is idle. fps = 0 disables the
+     * limit.
+     *
+     * @param fps    the maximum frame rate for an idle scene
+     */
+    public void setIdleFps(float fps) {
+        mIdleInterval = fpsToInterval(fps);
+    }
+
+    /**
+     * Sets the maximum frame rate, which is used while the device is thermally throttled. fps = 0
+     * disables the limit.
+     *
+     * @param fps    the maximum frame rate for a throttled device
+     */
+    public void setThrottledFps(float fps) {
+        mThrottledInterval = fpsToInterval(fps);
+    }
+
+    /**
+     * Returns true if the scene is idle.
+     *
+     * @return true if the scene is idle
+     */
+    public boolean isIdle() {
+        return mIdle;
+    }
+
+    /**
+     * Sets whether the scene is idle, i.e. nothing moves and a lower frame rate is sufficient. Is
+     * called by {@link GfxEngine} after every frame, depending on whether its
+     * {@link RedrawTracker} saw any changes.
+     *
+     * @param idle    true if the scene is idle
+     */
+    public void setIdle(boolean idle) {
+        mIdle = idle;
+    }
+
+    /**
+     * Returns true if the device is thermally throttled.
+     *
+     * @return true if the device is thermally throttled
+     */
+    public boolean isThrottled() {
+        return mThrottled;
+    }
+
+    /**
+     * Sets whether the device is thermally throttled and the frame rate should be reduced.
+     *
+     * @param throttled    true if the device is thermally throttled
+     */
+    public void setThrottled(boolean throttled) {
+        mThrottled = throttled;
+    }
+
+    private static long fpsToInterval(float fps) {
+        if (fps < 0) {
+            throw new IllegalArgumentException("fps must not be negative");
+        }
+        return fps == 0.0f ? 0 : Math.round(1e9 / fps);
+    }
+
+    private static float intervalToFps(long interval) {
+        return interval == 0 ? 0.0f : (float) (1e9 / interval);
+    }
+}
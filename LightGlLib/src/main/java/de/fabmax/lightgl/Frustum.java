@@ -0,0 +1,131 @@
+package de.fabmax.lightgl;
+
+/**
+ * A view frustum given by six clip planes. The planes are extracted from a combined
+ * model-view-projection matrix, hence they are located in the coordinate system of the model
+ * matrix.
+ *
+ * @see "Gribb, Hartmann: Fast Extraction of Viewing Frustum Planes from the World-View-Projection
+ *      Matrix"
+ * @author fabmax
+ */
+public class Frustum {
+
+    /** Classification result: box is completely outside of the frustum. */
+    public static final int OUTSIDE = 0;
+    /** Classification result: box intersects the frustum. */
+    public static final int INTERSECTING = 1;
+    /** Classification result: box is completely inside of the frustum. */
+    public static final int INSIDE = 2;
+
+    /** Plane indices */
+    public static final int LEFT = 0;
+    public static final int RIGHT = 1;
+    public static final int BOTTOM = 2;
+    public static final int TOP = 3;
+    public static final int NEAR = 4;
+    public static final int FAR = 5;
+
+    // 6 planes (a, b, c, d), a point p is inside of a plane if a*px + b*py + c*pz + d >= 0
+    private final float[] mPlanes = new float[24];
+
+    /**
+     * Extracts the frustum planes from the specified 4x4 matrix in column-major order, as used
+     * by {@link android.opengl.Matrix}. Plane normals point into the frustum and are normalized.
+     *
+     * @param m     the model-view-projection matrix
+     * @param off   matrix array offset
+     */
+    public void setFromMatrix(float[] m, int off) {
+        for (int i = 0; i < 3; i++) {
+            // plane 2i is row 3 + row i, plane 2i+1 is row 3 - row i
+            for (int j = 0; j < 4; j++) {
+                float r3 = m[off + j * 4 + 3];
+                float ri = m[off + j * 4 + i];
+                mPlanes[i * 8 + j] = r3 + ri;
+                mPlanes[i * 8 + 4 + j] = r3 - ri;
+            }
+        }
+        for (int p = 0; p < 24; p += 4) {
+            float len = (float) Math.sqrt(mPlanes[p] * mPlanes[p] + mPlanes[p + 1] * mPlanes[p + 1] +
+                    mPlanes[p + 2] * mPlanes[p + 2]);
+            if (len > 0) {
+                mPlanes[p] /= len;
+                mPlanes[p + 1] /= len;
+                mPlanes[p + 2] /= len;
+                mPlanes[p + 3] /= len;
+            }
+        }
+    }
+
+    /**
+     * Returns the frustum planes. The returned array contains 6 planes with 4 elements (a, b, c, d)
+     * each, in the order left, right, bottom, top, near, far.
+     *
+     * @return the frustum planes
+     */
+    public float[] getPlanes() {
+        return mPlanes;
+    }
+
+    /**
+     * Classifies the specified box against this frustum. The test is conservative: Boxes, which
+     * are close to a frustum corner, may be classified as intersecting although they are outside.
+     *
+     * @param box   the box to classify
+     * @return {@link #OUTSIDE}, {@link #INTERSECTING} or {@link #INSIDE}
+     */
+    public int classify(BoundingBox box) {
+        int result = INSIDE;
+        for (int p = 0; p < 24; p += 4) {
+            float a = mPlanes[p], b = mPlanes[p + 1], c = mPlanes[p + 2], d = mPlanes[p + 3];
+
+            // box corner farthest along the plane normal
+            float dMax = a * (a > 0 ? box.maxX : box.minX) + b * (b > 0 ? box.maxY : box.minY) +
+                    c * (c > 0 ? box.maxZ : box.minZ) + d;
+            if (dMax < 0) {
+                return OUTSIDE;
+            }
+            // box corner farthest against the plane normal
+            float dMin = a * (a > 0 ? box.minX : box.maxX) + b * (b > 0 ? box.minY : box.maxY) +
+                    c * (c > 0 ? box.minZ : box.maxZ) + d;
+            if (dMin < 0) {
+                result = INTERSECTING;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Classifies the specified sphere against this frustum. Like {@link #classify(BoundingBox)}
+     * the test is conservative near frustum edges and corners.
+     *
+     * @param x         sphere center x
+     * @param y         sphere center y
+     * @param z         sphere center z
+     * @param radius    sphere radius
+     * @return {@link #OUTSIDE}, {@link #INTERSECTING} or {@link #INSIDE}
+     */
+    public int classifySphere(float x, float y, float z, float radius) {
+        int result = INSIDE;
+        for (int p = 0; p < 24; p += 4) {
+            float dist = mPlanes[p] * x + mPlanes[p + 1] * y + mPlanes[p + 2] * z + mPlanes[p + 3];
+            if (dist < -radius) {
+                return OUTSIDE;
+            } else if (dist < radius) {
+                result = INTERSECTING;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Tests whether the specified box is at least partially visible.
+     *
+     * @param box   the box to test
+     * @return true if the box is not completely outside of the frustum
+     */
+    public boolean isVisible(BoundingBox box) {
+        return classify(box) != OUTSIDE;
+    }
+}
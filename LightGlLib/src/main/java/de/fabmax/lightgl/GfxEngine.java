@@ -2,6 +2,7 @@ package de.fabmax.lightgl;
 
 import android.content.Context;
 import android.opengl.GLES20;
+import android.opengl.GLSurfaceView;
 import android.opengl.GLSurfaceView.Renderer;
 import android.util.Log;
 
@@ -37,6 +38,7 @@ public class GfxEngine implements Renderer {
     private final ShaderManager mShaderManager;
     private final TextureManager mTextureManager;
     private final GfxState mState;
+    private final FrameProfiler mProfiler = new FrameProfiler();
     private LightGlContext mGlContext;
 
     private final ArrayList<Light> mLights = new ArrayList<>();
@@ -51,9 +53,12 @@ public class GfxEngine implements Renderer {
 
     private PhysicsEngine mPhysics;
 
-    private long mLastFrameTime = System.currentTimeMillis();
-    private long mMaxFrameInterval = 0;
-    private float mFps = 60;
+    private final FrameScheduler mScheduler = new FrameScheduler();
+
+    private final RedrawTracker mRedrawTracker = new RedrawTracker();
+    private GLSurfaceView mSurfaceView;
+    private volatile boolean mRenderOnDemand = false;
+    private boolean mRenderContinuously = true;
 
     /**
      * Creates a new GfxEngine object.
@@ -65,8 +70,17 @@ public class GfxEngine implements Renderer {
         // ensure that we have the application context
         context = context.getApplicationContext();
 
-        mShaderManager = new ShaderManager(context);
-        mTextureManager = new TextureManager(context);
+        mShaderManager = new ShaderManager(context, mProfiler);
+        mTextureManager = new TextureManager(context, mProfiler);
+        mTextureManager.setUploadReadyCallback(new Runnable() {
+            @Override
+            public void run() {
+                if (mRenderOnDemand) {
+                    // decoded textures are uploaded with the next frame
+                    requestRender();
+                }
+            }
+        });
         mState = new GfxState(mShaderManager);
 
         // by default the scene is directly rendered to the screen
@@ -112,38 +126,63 @@ public class GfxEngine implements Renderer {
      */
     @Override
     public void onDrawFrame(GL10 unused) {
-        doTimeControl();
+        mScheduler.waitForNextFrame();
 
+        mProfiler.beginFrame();
         mState.reset(mGlContext);
+        mProfiler.beginPhase();
+        mTextureManager.beginFrame();
+        mProfiler.endPhase(FrameProfiler.PHASE_TEXTURE_UPLOADS);
+
         if (mPhysics != null) {
+            mProfiler.beginPhase();
             mPhysics.synchronizeBodyConfigurations();
+            mProfiler.endPhase(FrameProfiler.PHASE_PHYSICS_SYNC);
         }
 
         if (mEngineListener != null) {
+            mProfiler.beginPhase();
             mEngineListener.onRenderFrame(mGlContext);
+            mProfiler.endPhase(FrameProfiler.PHASE_LISTENER);
         }
 
         if (mPrePass != null) {
+            mProfiler.beginPhase();
             mState.setIsPrePass(true);
             mPrePass.onRender(mGlContext);
             mState.setIsPrePass(false);
+            mProfiler.endPhase(FrameProfiler.PHASE_PRE_PASS);
         }
 
+        mProfiler.beginPhase();
         if (mClearScreen) {
             GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
         }
 
         if (mMainPass != null) {
             if (mCamera != null) {
-                mCamera.animate(1.0f / mFps);
+                mCamera.animate(mScheduler.getDeltaT());
                 mCamera.setup(mState);
             }
 
             if (mEngineListener != null) {
+                mProfiler.endPhase(FrameProfiler.PHASE_MAIN_PASS);
                 mEngineListener.onRenderMainPass(mGlContext);
+                mProfiler.endPhase(FrameProfiler.PHASE_LISTENER);
             }
             mMainPass.onRender(mGlContext);
         }
+        mProfiler.endPhase(FrameProfiler.PHASE_MAIN_PASS);
+        mProfiler.endFrame();
+
+        boolean redraw = mRedrawTracker.endFrame(mCamera != null && mCamera.isAnimating(),
+                mPhysics != null && mPhysics.hasActiveBodies());
+        // uploads exceeding the budget of the last frame are continued with the next frame
+        redraw |= mTextureManager.hasPendingUploads();
+        mScheduler.setIdle(!redraw);
+        if (mRenderOnDemand) {
+            updateRenderMode(redraw);
+        }
 
         int err = glGetError();
         if (err != 0) {
@@ -152,35 +191,21 @@ public class GfxEngine implements Renderer {
     }
 
     /**
-     * Determines current FPS and controls the maximum frame rate if a limit is set.
+     * Switches the surface view between continuous and on-demand rendering, depending on whether
+     * the scene changed during the last frame.
+     *
+     * @param redraw    true if another frame has to be rendered
      */
-    private void doTimeControl() {
-        long t = System.currentTimeMillis();
-        long tLast = mLastFrameTime;
-
-        if (mMaxFrameInterval > 0) {
-            long tDif = t - mLastFrameTime;
-
-            // limit framerate
-            long s = mMaxFrameInterval - tDif;
-            if(s > 0) {
-                try {
-                    Thread.sleep(s);
-                } catch (InterruptedException e) {
-                    // mmh whatever
-                }
-                mLastFrameTime += mMaxFrameInterval;
+    private void updateRenderMode(boolean redraw) {
+        if (redraw != mRenderContinuously && mSurfaceView != null) {
+            mRenderContinuously = redraw;
+            if (redraw) {
+                mSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
             } else {
-                mLastFrameTime = t;
+                mSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+                // the next frame is not rendered before the scene changes, don't measure the gap
+                mScheduler.reset();
             }
-        } else {
-            mLastFrameTime = t;
-        }
-
-        // update fps
-        float deltaT = (mLastFrameTime - tLast) / 1000.0f;
-        if (deltaT > 0) {
-            mFps = mFps * 0.85f + 0.15f / deltaT;
         }
     }
 
@@ -328,6 +353,98 @@ public class GfxEngine implements Renderer {
         return mState;
     }
 
+    /**
+     * Returns the {@link FrameProfiler} of this GfxEngine. The profiler records timings and
+     * counters of the last rendered frames.
+     *
+     * @return the {@link FrameProfiler} of this GfxEngine
+     */
+    public FrameProfiler getProfiler() {
+        return mProfiler;
+    }
+
+    /**
+     * Returns the {@link FrameScheduler} of this GfxEngine. The scheduler limits the frame rate
+     * and measures the time between frames. Its idle state is updated after every frame, the idle
+     * frame rate limit applies as long as the scene doesn't change.
+     *
+     * @return the {@link FrameScheduler} of this GfxEngine
+     */
+    public FrameScheduler getFrameScheduler() {
+        return mScheduler;
+    }
+
+    /**
+     * Sets the GLSurfaceView this GfxEngine renders to. The view is needed to switch between
+     * continuous and on-demand rendering, see {@link #setRenderOnDemand(boolean)}.
+     *
+     * @param surfaceView    the GLSurfaceView this GfxEngine is set as renderer of
+     */
+    public void setSurfaceView(GLSurfaceView surfaceView) {
+        mSurfaceView = surfaceView;
+    }
+
+    /**
+     * Returns true if render on demand is enabled.
+     *
+     * @return true if render on demand is enabled
+     */
+    public boolean isRenderOnDemand() {
+        return mRenderOnDemand;
+    }
+
+    /**
+     * En-/ disables render on demand. If enabled, the surface view is switched to
+     * {@link GLSurfaceView#RENDERMODE_WHEN_DIRTY} as soon as a frame was rendered without any
+     * scene changes, the camera is not animated and all physics bodies are at rest. Rendering
+     * continues automatically if the scene is changed during a frame, e.g. by
+     * {@link GfxEngineListener#onRenderFrame(LightGlContext)}. Changes made from other threads
+     * while no frames are rendered (e.g. on touch input) must be followed by a call of
+     * {@link #requestRender()}. Render on demand requires a surface view set by
+     * {@link #setSurfaceView(GLSurfaceView)} and is disabled by default.
+     *
+     * @param enabled    true to enable render on demand
+     */
+    public void setRenderOnDemand(boolean enabled) {
+        mRenderOnDemand = enabled;
+        if (!enabled && mSurfaceView != null) {
+            mRenderContinuously = true;
+            mSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+        }
+        requestRender();
+    }
+
+    /**
+     * Requests rendering of a new frame. Only needed if render on demand is enabled and the scene
+     * was changed by another thread than the GL thread. Can be called from any thread.
+     */
+    public void requestRender() {
+        mRedrawTracker.requestRedraw();
+        if (mSurfaceView != null) {
+            mSurfaceView.requestRender();
+        }
+    }
+
+    /**
+     * Returns true if the {@link RenderQueue} is enabled.
+     *
+     * @return true if the render queue is enabled
+     */
+    public boolean isRenderQueueEnabled() {
+        return mState.getRenderQueue().isEnabled();
+    }
+
+    /**
+     * En-/ disables the {@link RenderQueue}. If enabled, render passes collect all meshes of the
+     * scene, sort them by shader, texture and depth and draw them afterwards. Otherwise meshes
+     * are drawn immediately in scene graph order. By default the render queue is disabled.
+     *
+     * @param enabled    true to enable the render queue
+     */
+    public void setRenderQueueEnabled(boolean enabled) {
+        mState.getRenderQueue().setEnabled(enabled);
+    }
+
     /**
      * Adds a light to the scene.
      *
@@ -336,6 +453,7 @@ public class GfxEngine implements Renderer {
      */
     public void addLight(Light light) {
         mLights.add(light);
+        RedrawTracker.notifyChanged();
     }
 
     /**
@@ -346,6 +464,7 @@ public class GfxEngine implements Renderer {
      */
     public void removeLight(Light light) {
         mLights.remove(light);
+        RedrawTracker.notifyChanged();
     }
 
     /**
@@ -374,6 +493,7 @@ public class GfxEngine implements Renderer {
      */
     public void setScene(Node scene) {
         this.mScene = scene;
+        RedrawTracker.notifyChanged();
     }
 
     /**
@@ -393,6 +513,7 @@ public class GfxEngine implements Renderer {
      */
     public void setCamera(Camera cam) {
         mCamera = cam;
+        RedrawTracker.notifyChanged();
     }
 
     /**
@@ -402,7 +523,16 @@ public class GfxEngine implements Renderer {
      * @return the current frame rate
      */
     public float getFps() {
-        return mFps;
+        return mScheduler.getFps();
+    }
+
+    /**
+     * Returns the time between the start of the current and the last frame in seconds.
+     *
+     * @return the current frame delta in seconds
+     */
+    public float getDeltaT() {
+        return mScheduler.getDeltaT();
     }
 
     /**
@@ -411,11 +541,7 @@ public class GfxEngine implements Renderer {
      * @return the maximum frame rate
      */
     public float getMaximumFps() {
-        if (mMaxFrameInterval == 0) {
-            return 0.0f;
-        } else {
-            return 1000.0f / (float) mMaxFrameInterval;
-        }
+        return mScheduler.getMaximumFps();
     }
 
     /**
@@ -425,11 +551,7 @@ public class GfxEngine implements Renderer {
      *            the maximum frame rate
      */
     public void setMaximumFps(float fps) {
-        if (fps == 0.0f) {
-            mMaxFrameInterval = 0;
-        } else {
-            mMaxFrameInterval = Math.round(1000.0f / fps);
-        }
+        mScheduler.setMaximumFps(fps);
     }
 
     /**
@@ -5,7 +5,9 @@ import android.opengl.Matrix;
 
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.util.Arrays;
 
+import de.fabmax.lightgl.scene.Node;
 import de.fabmax.lightgl.util.BufferHelper;
 
 import static android.opengl.GLES20.glClearColor;
@@ -19,6 +21,7 @@ import static android.opengl.GLES20.glViewport;
  */
 public class GfxState {
 
+    /** Initial size of the model matrix stack, the stack grows on demand */
     public static final int MODEL_MATRIX_STACK_SIZE = 20;
 
     // viewport dimensions (x, y, width, height)
@@ -30,15 +33,45 @@ public class GfxState {
     // view matrix - holds the camera position
     private final FloatBuffer mViewMatrixBuffer = BufferHelper.createFloatBuffer(16);
     private final float[] mViewMatrix = new float[16];
-    // model matrix stack - holds the geometry transformation
+    // model matrix - holds the geometry transformation
     private final FloatBuffer mModelMatrixBuffer = BufferHelper.createFloatBuffer(16);
-    private final float[][] mModelMatrix = new float[MODEL_MATRIX_STACK_SIZE][16];
+    private final float[] mModelMatrix = new float[16];
+    // model matrix stack - pushed matrices are stored back to back, grows on demand
+    private float[] mModelMatrixStack = new float[MODEL_MATRIX_STACK_SIZE * 16];
     private int mModelMatrixIdx = 0;
     // combined model view projection matrix
     private final float[] mMvpMatrix = new float[16];
     private final FloatBuffer mMvpMatrixBuffer = BufferHelper.createFloatBuffer(16);
-    // temp matrix buffer for calculations
-    private final float[] mTempMatrix = new float[16];
+    // combined view projection matrix
+    private final float[] mViewProjMatrix = new float[16];
+
+    // copies of the matrices the current MVP matrix was computed from, used to detect changes
+    private final float[] mMvpProjMatrix = new float[16];
+    private final float[] mMvpViewMatrix = new float[16];
+    private final float[] mMvpModelMatrix = new float[16];
+    // true if matrixUpdate() was called since the MVP matrix was last validated
+    private boolean mMatricesDirty = false;
+    // true if matrixUpdate() was called since the bound shader was last notified
+    private boolean mShaderUpdatePending = false;
+    // matrix versions, a new version is assigned on every change
+    private long mVersionCounter = 0;
+    private long mProjMatrixVersion;
+    private long mViewMatrixVersion;
+    private long mModelMatrixVersion;
+    private long mMvpMatrixVersion;
+
+    // view frustum of the current MVP matrix, updated on demand
+    private final Frustum mFrustum = new Frustum();
+    private long mFrustumMvpVersion = 0;
+    private boolean mFrustumCulling = true;
+    private int mCulledNodes = 0;
+    private int mDrawnNodes = 0;
+
+    // number of the current frame, incremented by reset()
+    private long mFrameNumber = 0;
+
+    // render queue for state sorted drawing
+    private final RenderQueue mRenderQueue = new RenderQueue();
     
     private final float[] mBackgroundColor;
 
@@ -56,12 +89,30 @@ public class GfxState {
 
         Matrix.setIdentityM(mProjMatrix, 0);
         Matrix.setIdentityM(mViewMatrix, 0);
-        Matrix.setIdentityM(mModelMatrix[0], 0);
+        Matrix.setIdentityM(mModelMatrix, 0);
         Matrix.setIdentityM(mMvpMatrix, 0);
+        Matrix.setIdentityM(mViewProjMatrix, 0);
+        Matrix.setIdentityM(mMvpProjMatrix, 0);
+        Matrix.setIdentityM(mMvpViewMatrix, 0);
+        Matrix.setIdentityM(mMvpModelMatrix, 0);
+        mProjMatrixVersion = ++mVersionCounter;
+        mViewMatrixVersion = ++mVersionCounter;
+        mModelMatrixVersion = ++mVersionCounter;
+        mMvpMatrixVersion = ++mVersionCounter;
         
         mBackgroundColor = new float[] { 0.0f, 0.0f, 0.0f };
     }
 
+    /**
+     * Returns the number of the current frame. The number is incremented every time a new frame
+     * is started.
+     *
+     * @return the number of the current frame
+     */
+    public long getFrameNumber() {
+        return mFrameNumber;
+    }
+
     protected void setIsPrePass(boolean isPrePass) {
         mIsPrePass = isPrePass;
     }
@@ -74,16 +125,23 @@ public class GfxState {
      * Resets the current engine state. This method is called before a new frame is rendered.
      */
     public void reset(LightGlContext context) {
-        // reset matrices
-        mModelMatrixIdx = 0;
-        Matrix.setIdentityM(mModelMatrix[0], 0);
-        Matrix.setIdentityM(mViewMatrix, 0);
-        Matrix.setIdentityM(mProjMatrix, 0);
-        Matrix.setIdentityM(mMvpMatrix, 0);
+        mFrameNumber++;
+
+        // reset culling statistics
+        mCulledNodes = 0;
+        mDrawnNodes = 0;
+        mRenderQueue.resetStatistics();
         
         // unbind shader, is needed so that Shader#onBind() is called on next frame render
         // if only one shader is used
         mShaderManager.bindShader(context, null);
+
+        // reset matrices
+        mModelMatrixIdx = 0;
+        Matrix.setIdentityM(mModelMatrix, 0);
+        Matrix.setIdentityM(mViewMatrix, 0);
+        Matrix.setIdentityM(mProjMatrix, 0);
+        matrixUpdate();
     }
 
     /**
@@ -122,6 +180,97 @@ public class GfxState {
         mGlobalSaturation = globalSaturation;
     }
 
+    /**
+     * Returns true if view frustum culling is enabled.
+     *
+     * @return true if view frustum culling is enabled
+     */
+    public boolean isFrustumCulling() {
+        return mFrustumCulling;
+    }
+
+    /**
+     * En-/ disables view frustum culling. By default culling is enabled.
+     *
+     * @param enabled    true to enable view frustum culling
+     */
+    public void setFrustumCulling(boolean enabled) {
+        mFrustumCulling = enabled;
+    }
+
+    /**
+     * Returns the view frustum of the current MVP matrix. The frustum planes are located in the
+     * coordinate system of the current model matrix.
+     *
+     * @return the view frustum of the current MVP matrix
+     */
+    public Frustum getFrustum() {
+        updateMatrices();
+        if (mFrustumMvpVersion != mMvpMatrixVersion) {
+            mFrustum.setFromMatrix(mMvpMatrix, 0);
+            mFrustumMvpVersion = mMvpMatrixVersion;
+        }
+        return mFrustum;
+    }
+
+    /**
+     * Tests the specified bounds against the current view frustum and updates the culling
+     * statistics. Bounds are given in the coordinate system of the current model matrix. Null
+     * bounds are never culled.
+     *
+     * @param bounds    bounds to test, can be null
+     * @return true if the bounds are outside of the view frustum and can be culled
+     */
+    public boolean cull(BoundingBox bounds) {
+        if (mFrustumCulling && bounds != null && !getFrustum().isVisible(bounds)) {
+            mCulledNodes++;
+            return true;
+        }
+        mDrawnNodes++;
+        return false;
+    }
+
+    /**
+     * Returns the number of nodes, which were culled since the current frame was started.
+     *
+     * @return the number of culled nodes
+     */
+    public int getCulledNodeCount() {
+        return mCulledNodes;
+    }
+
+    /**
+     * Returns the number of nodes, which passed the culling test since the current frame was
+     * started.
+     *
+     * @return the number of drawn nodes
+     */
+    public int getDrawnNodeCount() {
+        return mDrawnNodes;
+    }
+
+    /**
+     * Returns the render queue, which is used to collect and sort meshes during scene rendering.
+     *
+     * @return the render queue
+     */
+    public RenderQueue getRenderQueue() {
+        return mRenderQueue;
+    }
+
+    /**
+     * Renders the specified node. If the render queue is enabled, the node is rendered through
+     * the queue.
+     *
+     * @see RenderQueue#renderNode(LightGlContext, Node)
+     *
+     * @param context    graphics engine context
+     * @param node       node to render
+     */
+    public void renderNode(LightGlContext context, Node node) {
+        mRenderQueue.renderNode(context, node);
+    }
+
     /**
      * Returns the aspect ratio of the current viewport.
      * 
@@ -171,16 +320,29 @@ public class GfxState {
     }
 
     /**
-     * Pushes the current model matrix to the matrix stack.
+     * Pushes the current model matrix to the matrix stack. The stack grows if needed.
      */
     public void pushModelMatrix() {
-        if (mModelMatrixIdx >= MODEL_MATRIX_STACK_SIZE) {
-            // model matrix stack size is exceeded
-            throw new RuntimeException("Model matrix stack overflow");
-        }
-        // copy current model matrix to next index
-        System.arraycopy(mModelMatrix[mModelMatrixIdx], 0, mModelMatrix[mModelMatrixIdx + 1], 0, 16);
+        ensureModelMatrixStackSize(mModelMatrixIdx + 1);
+        System.arraycopy(mModelMatrix, 0, mModelMatrixStack, mModelMatrixIdx * 16, 16);
+        mModelMatrixIdx++;
+    }
+
+    /**
+     * Pushes the current model matrix to the matrix stack and multiplies the new model matrix
+     * with the specified transform. This is the same as calling {@link #pushModelMatrix()} and
+     * multiplying the model matrix but saves a matrix copy.
+     *
+     * @param transform    the transform matrix to apply
+     * @param offset       transform matrix array offset
+     */
+    public void pushModelMatrix(float[] transform, int offset) {
+        ensureModelMatrixStackSize(mModelMatrixIdx + 1);
+        int stackOffset = mModelMatrixIdx * 16;
+        System.arraycopy(mModelMatrix, 0, mModelMatrixStack, stackOffset, 16);
+        Matrix.multiplyMM(mModelMatrix, 0, mModelMatrixStack, stackOffset, transform, offset);
         mModelMatrixIdx++;
+        matrixUpdate();
     }
 
     /**
@@ -192,9 +354,26 @@ public class GfxState {
             throw new RuntimeException("Model matrix stack underflow");
         }
         mModelMatrixIdx--;
+        System.arraycopy(mModelMatrixStack, mModelMatrixIdx * 16, mModelMatrix, 0, 16);
         matrixUpdate();
     }
 
+    /**
+     * Returns the depth of the model matrix stack, 0 if no matrix is pushed.
+     *
+     * @return the depth of the model matrix stack
+     */
+    public int getModelMatrixStackDepth() {
+        return mModelMatrixIdx;
+    }
+
+    private void ensureModelMatrixStackSize(int size) {
+        if (size * 16 > mModelMatrixStack.length) {
+            mModelMatrixStack = Arrays.copyOf(mModelMatrixStack,
+                    Math.max(size * 16, mModelMatrixStack.length * 2));
+        }
+    }
+
     /**
      * Returns the current MVP matrix, that is model-, view- and projection matrix multiplied
      * together.
@@ -202,6 +381,7 @@ public class GfxState {
      * @return the current MVP matrix
      */
     public float[] getMvpMatrix() {
+        updateMatrices();
         return mMvpMatrix;
     }
 
@@ -213,7 +393,7 @@ public class GfxState {
      * @return the MVP matrix as an FloatBuffer
      */
     public FloatBuffer getMvpMatrixAsBuffer() {
-        mMvpMatrixBuffer.put(mMvpMatrix);
+        mMvpMatrixBuffer.put(getMvpMatrix());
         mMvpMatrixBuffer.flip();
         return mMvpMatrixBuffer;
     }
@@ -269,10 +449,11 @@ public class GfxState {
     /**
      * Returns the current model matrix. The matrix is returned by reference and changes to it
      * will be reflected immediately. However, for the MVP matrix to reflect the changes
-     * {@link GfxState#matrixUpdate()} must be called.
+     * {@link GfxState#matrixUpdate()} must be called. The returned array is the same for the
+     * entire lifetime of this GfxState, pushing and popping the matrix stack changes its content.
      */
     public float[] getModelMatrix() {
-        return mModelMatrix[mModelMatrixIdx];
+        return mModelMatrix;
     }
 
     /**
@@ -283,7 +464,7 @@ public class GfxState {
      * @return the model matrix as an FloatBuffer
      */
     public FloatBuffer getModelMatrixAsBuffer() {
-        mModelMatrixBuffer.put(mModelMatrix[mModelMatrixIdx]);
+        mModelMatrixBuffer.put(mModelMatrix);
         mModelMatrixBuffer.flip();
         return mModelMatrixBuffer;
     }
@@ -296,23 +477,127 @@ public class GfxState {
      *            the buffer to set as model matrix.
      */
     public void setModelMatrix(float[] modelMBuf) {
-        System.arraycopy(modelMBuf, 0, mModelMatrix[mModelMatrixIdx], 0, 16);
+        setModelMatrix(modelMBuf, 0);
+    }
+
+    /**
+     * Sets the current model matrix to the specified buffer. {@link GfxState#matrixUpdate()} is
+     * called automatically in order to update the MVP matrix.
+     *
+     * @param modelMBuf
+     *            the buffer to set as model matrix.
+     * @param offset
+     *            offset of the matrix in the buffer
+     */
+    public void setModelMatrix(float[] modelMBuf, int offset) {
+        System.arraycopy(modelMBuf, offset, mModelMatrix, 0, 16);
         matrixUpdate();
     }
 
     /**
-     * Computes the MVP matrix from the individual model-, view- and projection matrices. This
-     * method must be called after an update of any of these matrices.
+     * Returns the version of the current projection matrix. The version changes every time the
+     * matrix changes, shaders can use it to skip redundant uniform uploads.
+     *
+     * @return the version of the current projection matrix
+     */
+    public long getProjectionMatrixVersion() {
+        updateMatrices();
+        return mProjMatrixVersion;
+    }
+
+    /**
+     * Returns the version of the current view matrix. The version changes every time the matrix
+     * changes, shaders can use it to skip redundant uniform uploads.
+     *
+     * @return the version of the current view matrix
+     */
+    public long getViewMatrixVersion() {
+        updateMatrices();
+        return mViewMatrixVersion;
+    }
+
+    /**
+     * Returns the version of the current model matrix. The version changes every time the matrix
+     * changes, shaders can use it to skip redundant uniform uploads.
+     *
+     * @return the version of the current model matrix
+     */
+    public long getModelMatrixVersion() {
+        updateMatrices();
+        return mModelMatrixVersion;
+    }
+
+    /**
+     * Returns the version of the current MVP matrix. The version changes every time the matrix
+     * changes, shaders can use it to skip redundant uniform uploads.
+     *
+     * @return the version of the current MVP matrix
+     */
+    public long getMvpMatrixVersion() {
+        updateMatrices();
+        return mMvpMatrixVersion;
+    }
+
+    /**
+     * Must be called after an update of the model-, view- or projection matrix. The MVP matrix is
+     * not computed immediately but on its next use. The bound shader is notified about the change
+     * by {@link #flushMatrixUpdate()} before the next mesh is drawn.
      */
     public void matrixUpdate() {
-        // Combine projection, model and view matrices
-        Matrix.multiplyMM(mTempMatrix, 0, mViewMatrix, 0, mModelMatrix[mModelMatrixIdx], 0);
-        Matrix.multiplyMM(mMvpMatrix, 0, mProjMatrix, 0, mTempMatrix, 0);
+        mMatricesDirty = true;
+        mShaderUpdatePending = true;
+    }
+
+    /**
+     * Notifies the bound shader if matrices were updated since the last call. Is called by
+     * {@link de.fabmax.lightgl.scene.Mesh} before it is drawn. Code that draws without a Mesh
+     * must call this after changing matrices.
+     */
+    public void flushMatrixUpdate() {
+        if (mShaderUpdatePending) {
+            mShaderUpdatePending = false;
+            Shader bound = mShaderManager.getBoundShader();
+            if (bound != null) {
+                bound.onMatrixUpdate(this);
+            }
+        }
+    }
+
+    /**
+     * Recomputes the MVP matrix if any of the individual matrices changed since it was last
+     * computed.
+     */
+    private void updateMatrices() {
+        if (!mMatricesDirty) {
+            return;
+        }
+        mMatricesDirty = false;
 
-        // notify current shader about matrix update
-        Shader bound = mShaderManager.getBoundShader();
-        if (bound != null) {
-            bound.onMatrixUpdate(this);
+        boolean viewProjChanged = false;
+        if (!Arrays.equals(mProjMatrix, mMvpProjMatrix)) {
+            System.arraycopy(mProjMatrix, 0, mMvpProjMatrix, 0, 16);
+            mProjMatrixVersion = ++mVersionCounter;
+            viewProjChanged = true;
+        }
+        if (!Arrays.equals(mViewMatrix, mMvpViewMatrix)) {
+            System.arraycopy(mViewMatrix, 0, mMvpViewMatrix, 0, 16);
+            mViewMatrixVersion = ++mVersionCounter;
+            viewProjChanged = true;
+        }
+        float[] model = mModelMatrix;
+        boolean modelChanged = !Arrays.equals(model, mMvpModelMatrix);
+        if (modelChanged) {
+            System.arraycopy(model, 0, mMvpModelMatrix, 0, 16);
+            mModelMatrixVersion = ++mVersionCounter;
+        }
+
+        // Combine projection, model and view matrices
+        if (viewProjChanged) {
+            Matrix.multiplyMM(mViewProjMatrix, 0, mProjMatrix, 0, mViewMatrix, 0);
+        }
+        if (viewProjChanged || modelChanged) {
+            Matrix.multiplyMM(mMvpMatrix, 0, mViewProjMatrix, 0, model, 0);
+            mMvpMatrixVersion = ++mVersionCounter;
         }
     }
 }
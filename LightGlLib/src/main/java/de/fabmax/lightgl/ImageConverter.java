@@ -0,0 +1,318 @@
+package de.fabmax.lightgl;
+
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import de.fabmax.lightgl.util.BufferHelper;
+
+/**
+ * ImageConverter converts Bitmaps into tightly packed RGB or RGBA pixel buffers for texture
+ * uploads. ARGB_8888 bitmaps are stored with premultiplied alpha, their colors are
+ * un-premultiplied with a lookup table. Images of other formats are read row-wise.
+ *
+ * Pixel buffers, staging and row arrays are pooled: A buffer returned by
+ * {@link #convert(Bitmap, boolean)} should be handed back with {@link #release(ByteBuffer)} as
+ * soon as the data is uploaded. Pooled memory is freed by {@link #trim()}. Large images are split
+ * into row bands, which are converted in parallel. All methods can be called from any thread.
+ *
+ * @author fabmax
+ */
+class ImageConverter {
+
+    // images with fewer pixels are converted by the calling thread only
+    private static final int PARALLEL_MIN_PIXELS = 256 * 256;
+    // maximum number of unused buffers kept by each pool
+    private static final int MAX_POOLED_BUFFERS = 2;
+    // maximum number of unused row arrays, enough for the bands of two concurrent conversions
+    private static final int MAX_POOLED_ROWS = 16;
+
+    // un-premultiply table: UNPREMULTIPLY[(alpha << 8) | color] == (byte) (color * (255f / alpha))
+    private static final byte[] UNPREMULTIPLY = createUnpremultiplyTable();
+
+    // shared by all converters, threads are only created for large images
+    private static ExecutorService sExecutor;
+    private static int sThreadCount;
+
+    private final ArrayList<ByteBuffer> mBufferPool = new ArrayList<>();
+    private final ArrayList<int[]> mStagingPool = new ArrayList<>();
+    private final ArrayList<byte[]> mRowPool = new ArrayList<>();
+
+    /**
+     * Converts the given bitmap into a pixel buffer. If alpha is true the buffer contains 32-bit
+     * RGBA pixels, otherwise 24-bit RGB pixels. The returned buffer is taken from the pool, its
+     * limit is set to the size of the pixel data.
+     *
+     * @param image    Bitmap to convert
+     * @param alpha    true to include the alpha channel
+     * @return a direct buffer containing the pixel data
+     */
+    ByteBuffer convert(Bitmap image, boolean alpha) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int[] pixels = acquireStaging(w * h);
+        boolean premultiplied = image.getConfig() == Bitmap.Config.ARGB_8888;
+
+        if (premultiplied) {
+            // raw pixel copy, channels are in memory order and premultiplied by alpha
+            image.copyPixelsToBuffer(IntBuffer.wrap(pixels));
+        }
+        // non-premultiplied pixels are read from the image band-wise
+        ByteBuffer out = convert(premultiplied ? null : image, pixels, w, h, alpha, premultiplied);
+        releaseStaging(pixels);
+        return out;
+    }
+
+    /**
+     * Converts the given pixels into a pixel buffer, same as {@link #convert(Bitmap, boolean)}.
+     * If premultiplied is true, pixels contain premultiplied colors in memory order, i.e. as
+     * returned by {@link Bitmap#copyPixelsToBuffer(java.nio.Buffer)}, otherwise pixels contain
+     * non-premultiplied ARGB colors as returned by {@link Bitmap#getPixels(int[], int, int, int,
+     * int, int, int)}.
+     *
+     * @param pixels           pixel data, w * h pixels
+     * @param w                image width
+     * @param h                image height
+     * @param alpha            true to include the alpha channel
+     * @param premultiplied    true if pixels are premultiplied and in memory order
+     * @return a direct buffer containing the pixel data
+     */
+    ByteBuffer convert(int[] pixels, int w, int h, boolean alpha, boolean premultiplied) {
+        return convert(null, pixels, w, h, alpha, premultiplied);
+    }
+
+    /**
+     * Converts pixels into a pixel buffer. If image is not null, non-premultiplied pixels are read
+     * from it band-wise into pixels.
+     */
+    private ByteBuffer convert(final Bitmap image, final int[] pixels, final int w, int h,
+                               boolean alpha, final boolean premultiplied) {
+        final int stride = alpha ? 4 : 3;
+        final ByteBuffer out = acquireBuffer(w * h * stride);
+
+        int bands = w * h < PARALLEL_MIN_PIXELS ? 1 : Math.min(getThreadCount() + 1, h);
+        final byte[][] rows = acquireRows(bands, w * stride);
+        if (bands == 1) {
+            convertRows(image, pixels, out, rows[0], w, 0, h, stride, premultiplied);
+        } else {
+            int rowsPerBand = (h + bands - 1) / bands;
+            ArrayList<Future<?>> results = new ArrayList<>(bands);
+            int band = 1;
+            for (int y = rowsPerBand; y < h; y += rowsPerBand) {
+                final int y0 = y;
+                final int y1 = Math.min(y + rowsPerBand, h);
+                final byte[] row = rows[band++];
+                results.add(sExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        convertRows(image, pixels, out, row, w, y0, y1, stride, premultiplied);
+                    }
+                }));
+            }
+            // the calling thread converts the first band
+            convertRows(image, pixels, out, rows[0], w, 0, rowsPerBand, stride, premultiplied);
+            awaitAll(results);
+        }
+
+        releaseRows(rows);
+        return out;
+    }
+
+    /**
+     * Hands a buffer returned by {@link #convert(Bitmap, boolean)} back to the pool. The buffer
+     * must not be used afterwards.
+     *
+     * @param buffer    the buffer to release
+     */
+    void release(ByteBuffer buffer) {
+        synchronized (mBufferPool) {
+            if (mBufferPool.size() < MAX_POOLED_BUFFERS) {
+                mBufferPool.add(buffer);
+            }
+        }
+    }
+
+    /**
+     * Frees all pooled buffers and arrays. Buffers, which are currently in use, are not affected
+     * and can still be released afterwards.
+     */
+    void trim() {
+        synchronized (mBufferPool) {
+            mBufferPool.clear();
+        }
+        synchronized (mStagingPool) {
+            mStagingPool.clear();
+        }
+        synchronized (mRowPool) {
+            mRowPool.clear();
+        }
+    }
+
+    /**
+     * Converts the rows [y0, y1) of the image. Rows are converted into the row array and copied
+     * into the output buffer in bulk.
+     */
+    private static void convertRows(Bitmap image, int[] pixels, ByteBuffer out, byte[] row, int w,
+                                    int y0, int y1, int stride, boolean premultiplied) {
+        ByteBuffer dst = out.duplicate();
+        dst.position(y0 * w * stride);
+
+        if (image != null) {
+            // getPixels returns non-premultiplied ARGB colors
+            image.getPixels(pixels, y0 * w, w, 0, y0, w, y1 - y0);
+        }
+        for (int y = y0; y < y1; y++) {
+            int end = (y + 1) * w;
+            if (premultiplied) {
+                for (int i = y * w, j = 0; i < end; i++, j += stride) {
+                    int px = pixels[i];
+                    int a = px >>> 24;
+                    int lut = a << 8;
+                    row[j]     = UNPREMULTIPLY[lut |  (px        & 0xff)];
+                    row[j + 1] = UNPREMULTIPLY[lut | ((px >>  8) & 0xff)];
+                    row[j + 2] = UNPREMULTIPLY[lut | ((px >> 16) & 0xff)];
+                    if (stride == 4) {
+                        row[j + 3] = (byte) a;
+                    }
+                }
+            } else {
+                for (int i = y * w, j = 0; i < end; i++, j += stride) {
+                    int px = pixels[i];
+                    row[j]     = (byte) (px >> 16);
+                    row[j + 1] = (byte) (px >>  8);
+                    row[j + 2] = (byte)  px;
+                    if (stride == 4) {
+                        row[j + 3] = (byte) (px >>> 24);
+                    }
+                }
+            }
+            dst.put(row, 0, w * stride);
+        }
+    }
+
+    private static byte[] createUnpremultiplyTable() {
+        byte[] table = new byte[256 * 256];
+        // alpha = 0 maps all colors to 0
+        for (int a = 1; a < 256; a++) {
+            float fa = 255.0f / a;
+            for (int c = 0; c < 256; c++) {
+                table[(a << 8) | c] = (byte) (c * fa);
+            }
+        }
+        return table;
+    }
+
+    private static void awaitAll(ArrayList<Future<?>> results) {
+        boolean interrupted = false;
+        for (int i = 0; i < results.size(); i++) {
+            while (true) {
+                try {
+                    results.get(i).get();
+                    break;
+                } catch (InterruptedException e) {
+                    // the bands write into the returned buffer, they must be finished
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Image conversion failed", e.getCause());
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static synchronized int getThreadCount() {
+        if (sExecutor == null) {
+            sThreadCount = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            sExecutor = Executors.newFixedThreadPool(sThreadCount, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ImageConverter");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return sThreadCount;
+    }
+
+    private ByteBuffer acquireBuffer(int size) {
+        ByteBuffer buffer = null;
+        synchronized (mBufferPool) {
+            // use the smallest buffer that is large enough
+            int best = -1;
+            for (int i = 0; i < mBufferPool.size(); i++) {
+                int cap = mBufferPool.get(i).capacity();
+                if (cap >= size && (best < 0 || cap < mBufferPool.get(best).capacity())) {
+                    best = i;
+                }
+            }
+            if (best >= 0) {
+                buffer = mBufferPool.remove(best);
+            }
+        }
+        if (buffer == null) {
+            buffer = BufferHelper.createByteBuffer(size);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    private int[] acquireStaging(int size) {
+        synchronized (mStagingPool) {
+            for (int i = 0; i < mStagingPool.size(); i++) {
+                if (mStagingPool.get(i).length >= size) {
+                    return mStagingPool.remove(i);
+                }
+            }
+        }
+        return new int[size];
+    }
+
+    /**
+     * Returns count row arrays with at least the given size. One row is used per band, all rows
+     * of a conversion are kept for later use.
+     */
+    private byte[][] acquireRows(int count, int size) {
+        byte[][] rows = new byte[count][];
+        int n = 0;
+        synchronized (mRowPool) {
+            for (int i = mRowPool.size() - 1; i >= 0 && n < count; i--) {
+                if (mRowPool.get(i).length >= size) {
+                    rows[n++] = mRowPool.remove(i);
+                }
+            }
+        }
+        for (; n < count; n++) {
+            rows[n] = new byte[size];
+        }
+        return rows;
+    }
+
+    private void releaseRows(byte[][] rows) {
+        synchronized (mRowPool) {
+            for (byte[] row : rows) {
+                if (mRowPool.size() < MAX_POOLED_ROWS) {
+                    mRowPool.add(row);
+                }
+            }
+        }
+    }
+
+    private void releaseStaging(int[] staging) {
+        synchronized (mStagingPool) {
+            if (mStagingPool.size() < MAX_POOLED_BUFFERS) {
+                mStagingPool.add(staging);
+            }
+        }
+    }
+}
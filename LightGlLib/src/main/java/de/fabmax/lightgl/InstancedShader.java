@@ -0,0 +1,194 @@
+package de.fabmax.lightgl;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+
+import de.fabmax.lightgl.scene.InstancedMesh;
+import de.fabmax.lightgl.scene.Mesh;
+
+import static android.opengl.GLES20.glDisableVertexAttribArray;
+import static android.opengl.GLES20.glEnableVertexAttribArray;
+import static android.opengl.GLES20.glGetAttribLocation;
+import static android.opengl.GLES20.glGetUniformLocation;
+
+/**
+ * A phong shader for {@link InstancedMesh}es. GLES 2.0 has no hardware instancing, hence the
+ * shader uses pseudo instancing: The transforms and colors of up to {@link #MAX_INSTANCES}
+ * instances are passed as uniform arrays and every vertex selects its instance by an instance
+ * index attribute. Instance colors are multiplied with the vertex colors. Supports a single
+ * directional light like {@link SimpleShader}.
+ *
+ * @author fabmax
+ */
+public class InstancedShader extends Shader {
+
+    private static final String TAG = "InstancedShader";
+
+    /** Maximum number of instances drawn with a single draw call, must match the shader code */
+    public static final int MAX_INSTANCES = 20;
+
+    // uniform handles
+    private int muMvpMatrixHandle = -1;
+    private int muModelMatrixHandle = -1;
+    private int muViewMatrixHandle = -1;
+    private int muLightDirectionHandle = -1;
+    private int muShininessHandle = -1;
+    private int muLightColorHandle = -1;
+    private int muInstanceMatricesHandle = -1;
+    private int muInstanceColorsHandle = -1;
+
+    // instance index attribute handle
+    private int maInstanceIndexHandle = -1;
+
+    // shininess coefficient for phong lighting model
+    private float mShininess = 20.0f;
+
+    /**
+     * Creates a new InstancedShader.
+     *
+     * @param shaderMgr the {@link ShaderManager}
+     */
+    public InstancedShader(ShaderManager shaderMgr) {
+        super(shaderMgr);
+    }
+
+    /**
+     * Loads the instanced shader program. Is called automatically when this shader is
+     * bound for the first time and was not called manually before.
+     *
+     * @param shaderMgr
+     *            ShaderManager used to load the shader code
+     */
+    @Override
+    public void loadShader(ShaderManager shaderMgr) {
+        try {
+            // load shader
+            int handle = shaderMgr.loadShader("phong_instanced");
+            setGlHandle(handle);
+
+            // get uniform locations
+            muMvpMatrixHandle = glGetUniformLocation(handle, "uMvpMatrix");
+            muModelMatrixHandle = glGetUniformLocation(handle, "uModelMatrix");
+            muViewMatrixHandle = glGetUniformLocation(handle, "uViewMatrix");
+            muLightDirectionHandle = glGetUniformLocation(handle, "uLightDirection_worldspace");
+            muShininessHandle = glGetUniformLocation(handle, "uShininess");
+            muLightColorHandle = glGetUniformLocation(handle, "uLightColor");
+            muInstanceMatricesHandle = glGetUniformLocation(handle, "uInstanceMatrices");
+            muInstanceColorsHandle = glGetUniformLocation(handle, "uInstanceColors");
+
+            // enable attributes
+            enableAttribute(ATTRIBUTE_POSITIONS, "aVertexPosition_modelspace");
+            enableAttribute(ATTRIBUTE_NORMALS, "aVertexNormal_modelspace");
+            enableAttribute(ATTRIBUTE_COLORS, "aVertexColor");
+            maInstanceIndexHandle = glGetAttribLocation(handle, "aInstanceIndex");
+
+        } catch (LightGlException e) {
+            Log.e(TAG, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the phong lighting shininess coefficient.
+     *
+     * @return the shininess
+     */
+    public float getShininess() {
+        return mShininess;
+    }
+
+    /**
+     * Sets the phong lighting shininess coefficient.
+     *
+     * @param shininess
+     *            the shininess to set
+     */
+    public void setShininess(float shininess) {
+        mShininess = shininess;
+    }
+
+    /**
+     * Sets the transforms and colors of the instances drawn by the next draw call. Is called by
+     * {@link InstancedMesh} for every batch of instances.
+     *
+     * @param transforms    instance transform matrices, 16 elements per instance
+     * @param colors        instance colors (r, g, b, a), 4 elements per instance
+     * @param first         index of first instance to set
+     * @param count         number of instances to set, must not exceed {@link #MAX_INSTANCES}
+     */
+    public void setInstanceData(float[] transforms, float[] colors, int first, int count) {
+        setUniformMatrix4fv(muInstanceMatricesHandle, count, transforms, first * 16);
+        setUniform4fv(muInstanceColorsHandle, count, colors, first * 4);
+    }
+
+    /**
+     * Is called if this shader is bound.
+     *
+     * @see Shader#onBind(LightGlContext)
+     */
+    @Override
+    protected void onBind(LightGlContext glContext) {
+        // pass current transformation matrices to shader
+        onMatrixUpdate(glContext.getState());
+
+        // set shininess
+        setUniform1f(muShininessHandle, mShininess);
+
+        // take first light and interpret it as directional light
+        ArrayList<Light> lights = glContext.getEngine().getLights();
+        if (lights.size() > 0) {
+            Light l = lights.get(0);
+            setUniform3f(muLightDirectionHandle, l.position[0], l.position[1], l.position[2]);
+            setUniform3f(muLightColorHandle, l.color[0], l.color[1], l.color[2]);
+        } else {
+            // set some default light properties if no light is defines
+            setUniform3f(muLightDirectionHandle, 1, 1, 1);
+            setUniform3f(muLightColorHandle, 1, 1, 1);
+        }
+    }
+
+    /**
+     * Is called if the MVP matrix has changed.
+     *
+     * @see Shader#onMatrixUpdate(GfxState)
+     */
+    @Override
+    public void onMatrixUpdate(GfxState state) {
+        // pass current transformation matrices to shader
+        setUniformMatrix4fv(muModelMatrixHandle, state.getModelMatrix(), 0,
+                state.getModelMatrixVersion());
+        setUniformMatrix4fv(muViewMatrixHandle, state.getViewMatrix(), 0,
+                state.getViewMatrixVersion());
+        setUniformMatrix4fv(muMvpMatrixHandle, state.getMvpMatrix(), 0,
+                state.getMvpMatrixVersion());
+    }
+
+    /**
+     * Binds the vertex attributes of the specified mesh. If the mesh is an {@link InstancedMesh},
+     * its instance index attribute is bound as well.
+     *
+     * @see Shader#bindMesh(Mesh)
+     */
+    @Override
+    public void bindMesh(Mesh mesh) {
+        super.bindMesh(mesh);
+        if (maInstanceIndexHandle != -1 && mesh instanceof InstancedMesh) {
+            ShaderAttributeBinder binder = ((InstancedMesh) mesh).getInstanceIndexBinder();
+            binder.bindAttribute(maInstanceIndexHandle);
+            glEnableVertexAttribArray(maInstanceIndexHandle);
+        }
+    }
+
+    /**
+     * Disables all vertex attribute arrays that where bound with the last Mesh.
+     *
+     * @see Shader#unbindMesh()
+     */
+    @Override
+    public void unbindMesh() {
+        super.unbindMesh();
+        if (maInstanceIndexHandle != -1) {
+            glDisableVertexAttribArray(maInstanceIndexHandle);
+        }
+    }
+}
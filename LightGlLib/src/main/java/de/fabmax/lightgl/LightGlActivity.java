@@ -66,6 +66,7 @@ public abstract class LightGlActivity extends Activity implements GfxEngineListe
         mGlView.setEGLConfigChooser(config);
         // register graphics engine as GL renderer
         mGlView.setRenderer(mEngine);
+        mEngine.setSurfaceView(mGlView);
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
             // if available preserve the GL context for faster visibility changes
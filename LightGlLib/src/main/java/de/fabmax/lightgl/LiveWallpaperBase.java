@@ -92,6 +92,7 @@ public abstract class LiveWallpaperBase extends WallpaperService {
             
             // register graphics engine as GL renderer
             mGlView.setRenderer(mGfxEngine);
+            mGfxEngine.setSurfaceView(mGlView);
             mCreated = true;
 
             // enable homescreen touch feedback
@@ -99,7 +100,9 @@ public abstract class LiveWallpaperBase extends WallpaperService {
         }
 
         /**
-         * Is called if the user changes the homescreen.
+         * Is called if the user changes the homescreen. If render on demand is enabled,
+         * implementations, which change the scene on offset changes, must call
+         * {@link GfxEngine#requestRender()}.
          * 
          * @param xOffset         normalized x offset in range 0 .. 1
          * @param yOffset         normalized y offset in range 0 .. 1
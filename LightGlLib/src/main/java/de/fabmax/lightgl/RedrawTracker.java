@@ -0,0 +1,75 @@
+package de.fabmax.lightgl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RedrawTracker aggregates the sources of scene changes and decides whether another frame has to
+ * be rendered. It is used by {@link GfxEngine} if render on demand is enabled, see
+ * {@link GfxEngine#setRenderOnDemand(boolean)}. A redraw is needed if
+ * <ul>
+ *     <li>the scene graph was changed since the last frame, e.g. a
+ *     {@link de.fabmax.lightgl.scene.TransformGroup} was transformed or a
+ *     {@link de.fabmax.lightgl.scene.DynamicMesh} was updated,</li>
+ *     <li>the camera is animated,</li>
+ *     <li>physics bodies are awake or</li>
+ *     <li>a redraw was explicitly requested with {@link #requestRedraw()}.</li>
+ * </ul>
+ *
+ * Scene graph changes are counted globally by {@link #notifyChanged()}, the counter is shared by
+ * all GfxEngine instances. A change in one engine's scene might trigger a needless redraw of
+ * another engine but never suppresses a redraw.
+ *
+ * @author fabmax
+ */
+public class RedrawTracker {
+
+    // global scene change counter
+    private static final AtomicInteger sChangeCount = new AtomicInteger();
+
+    private int mLastChangeCount = 0;
+    private volatile boolean mRedrawRequested = true;
+
+    /**
+     * Is called by scene graph nodes if they are modified in a way that changes the rendered
+     * image. Can be called from any thread.
+     */
+    public static void notifyChanged() {
+        sChangeCount.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of scene changes since the app was started.
+     *
+     * @return the global scene change counter
+     */
+    static int getChangeCount() {
+        return sChangeCount.get();
+    }
+
+    /**
+     * Requests a redraw for changes, which are not tracked automatically. Can be called from any
+     * thread.
+     */
+    public void requestRedraw() {
+        mRedrawRequested = true;
+    }
+
+    /**
+     * Checks whether another frame has to be rendered and resets the change state. Is called by
+     * {@link GfxEngine} after every frame.
+     *
+     * @param cameraAnimated    true if the camera is animated
+     * @param physicsActive     true if physics bodies are awake
+     * @return true if another frame has to be rendered
+     */
+    public boolean endFrame(boolean cameraAnimated, boolean physicsActive) {
+        int changeCount = sChangeCount.get();
+        boolean changed = changeCount != mLastChangeCount;
+        mLastChangeCount = changeCount;
+
+        boolean requested = mRedrawRequested;
+        mRedrawRequested = false;
+
+        return changed || requested || cameraAnimated || physicsActive;
+    }
+}
@@ -0,0 +1,364 @@
+package de.fabmax.lightgl;
+
+import java.util.Arrays;
+
+import de.fabmax.lightgl.scene.Mesh;
+import de.fabmax.lightgl.scene.Node;
+
+/**
+ * The RenderQueue collects the meshes of a scene instead of drawing them immediately. After scene
+ * traversal the collected draw items are sorted by their render layer, transparency, shader,
+ * texture and depth and drawn in that order. This minimizes shader and texture switches, which
+ * otherwise happen in the order the scene graph was built. Opaque meshes are drawn front to back
+ * to benefit from early depth rejection, transparent meshes are drawn afterwards from back to
+ * front.
+ *
+ * Every draw item stores a snapshot of the model matrix, which was current when the mesh was
+ * collected. The depth of an item is the view space depth of its mesh bounds' center. The queue
+ * is disabled by default and can be enabled with {@link GfxEngine#setRenderQueueEnabled(boolean)}.
+ *
+ * Queued meshes are drawn with the vertex data they have when the queue is flushed, not when they
+ * were collected. A mesh, which is modified and rendered multiple times during scene traversal,
+ * would be drawn with its last contents only. Such meshes (e.g. {@link
+ * de.fabmax.lightgl.scene.DynamicMesh}) are therefore not queued, see {@link Mesh#isQueueable()}:
+ * they flush the queue and are drawn immediately.
+ *
+ * @author fabmax
+ */
+public class RenderQueue {
+
+    /** Maximum number of render layers */
+    public static final int MAX_LAYERS = 4;
+
+    // items are sorted by a 64-bit key, the lowest 16 bits hold the item index, hence the queue is
+    // flushed after this number of items
+    private static final int MAX_ITEMS = 1 << 16;
+    private static final int INITIAL_CAPACITY = 256;
+
+    // key layout (bit positions):
+    // opaque:      62-61 layer | 60 0 | 59-50 shader | 49-40 texture | 39-16 depth | 15-0 index
+    // transparent: 62-61 layer | 60 1 | 59-36 inv. depth | 35-26 shader | 25-16 texture | 15-0 index
+    private static final int LAYER_SHIFT = 61;
+    private static final long TRANSPARENT_BIT = 1L << 60;
+    static final int SORT_ID_MASK = 0x3ff;
+    private static final int DEPTH_MASK = 0xffffff;
+
+    // draw items
+    private long[] mKeys = new long[INITIAL_CAPACITY];
+    private Mesh[] mMeshes = new Mesh[INITIAL_CAPACITY];
+    private Shader[] mShaders = new Shader[INITIAL_CAPACITY];
+    private int[] mShaderIds = new int[INITIAL_CAPACITY];
+    private int[] mTextures = new int[INITIAL_CAPACITY];
+    private float[] mMatrices = new float[INITIAL_CAPACITY * 16];
+    private int mCount = 0;
+
+    private boolean mEnabled = false;
+    private boolean mCollecting = false;
+
+    // state of the last collected item, used to count state changes in traversal order
+    private int mLastShaderId;
+    private int mLastTexture;
+
+    // per frame statistics
+    private int mItemCount = 0;
+    private int mShaderChanges = 0;
+    private int mTextureChanges = 0;
+    private int mUnsortedShaderChanges = 0;
+    private int mUnsortedTextureChanges = 0;
+
+    // model matrix, which was current before the queue was flushed
+    private final float[] mSavedModelMatrix = new float[16];
+
+    /**
+     * Creates a new RenderQueue. Is called by {@link GfxState}.
+     */
+    protected RenderQueue() {
+    }
+
+    /**
+     * Returns true if the render queue is enabled.
+     *
+     * @return true if the render queue is enabled
+     */
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * En-/ disables the render queue. If the queue is disabled, meshes are drawn immediately
+     * during scene traversal.
+     *
+     * @param enabled    true to enable the render queue
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * Returns true if the queue currently collects meshes instead of drawing them.
+     *
+     * @return true if the queue currently collects meshes
+     */
+    public boolean isCollecting() {
+        return mCollecting;
+    }
+
+    /**
+     * Renders the specified node. If the render queue is enabled all meshes of the node are
+     * collected, sorted and drawn afterwards, otherwise the node is rendered directly. Render
+     * passes call this to render the scene.
+     *
+     * @param context    graphics engine context
+     * @param node       node to render
+     */
+    public void renderNode(LightGlContext context, Node node) {
+        if (!mEnabled || mCollecting) {
+            // queue is disabled or this is a nested call, items are added to the outer queue
+            node.render(context);
+        } else {
+            mCollecting = true;
+            try {
+                node.render(context);
+            } finally {
+                mCollecting = false;
+            }
+            flush(context);
+        }
+    }
+
+    /**
+     * Adds the specified mesh to this queue. The current model matrix is stored with the mesh.
+     * Is called by {@link Mesh#render(LightGlContext)} if the queue is collecting.
+     *
+     * @param context    graphics engine context
+     * @param mesh       mesh to add
+     */
+    public void add(LightGlContext context, Mesh mesh) {
+        if (mCount == MAX_ITEMS) {
+            // index bits are exhausted, draw what we have so far
+            flush(context);
+        }
+
+        GfxState state = context.getState();
+        Shader shader = mesh.getShader();
+        Texture texture = shader != null ? shader.getTexture() : null;
+        int texHandle = texture != null ? texture.getGlHandle() : 0;
+        addItem(mesh, shader, shader != null ? shader.getSortId() : 0, texHandle,
+                mesh.getRenderLayer(), mesh.isTransparent(),
+                computeDepth(state, mesh.getMeshBounds()), state.getModelMatrix());
+    }
+
+    /**
+     * Adds a draw item with the specified sort attributes.
+     */
+    void addItem(Mesh mesh, Shader shader, int shaderId, int texHandle, int layer,
+                 boolean transparent, long depth, float[] modelMatrix) {
+        if (mCount == mKeys.length) {
+            grow();
+        }
+
+        int idx = mCount++;
+        mMeshes[idx] = mesh;
+        mShaders[idx] = shader;
+        mShaderIds[idx] = shaderId;
+        mTextures[idx] = texHandle;
+        System.arraycopy(modelMatrix, 0, mMatrices, idx * 16, 16);
+        mKeys[idx] = computeKey(layer, transparent, shaderId, texHandle, depth, idx);
+
+        // count state changes, which would occur in traversal order
+        if (shaderId != mLastShaderId) {
+            mUnsortedShaderChanges++;
+            mLastShaderId = shaderId;
+        }
+        if (texHandle != mLastTexture) {
+            mUnsortedTextureChanges++;
+            mLastTexture = texHandle;
+        }
+    }
+
+    /**
+     * Computes the sort key of a draw item. Opaque items are sorted by layer, shader, texture and
+     * depth (front to back), transparent items are drawn after the opaque items of their layer
+     * and sorted by depth (back to front), shader and texture.
+     */
+    static long computeKey(int layer, boolean transparent, int shaderId, int texHandle,
+                           long depth, int idx) {
+        long shaderBits = shaderId & SORT_ID_MASK;
+        long texBits = texHandle & SORT_ID_MASK;
+        if (transparent) {
+            return ((long) layer << LAYER_SHIFT) | TRANSPARENT_BIT | ((DEPTH_MASK - depth) << 36) |
+                    (shaderBits << 26) | (texBits << 16) | idx;
+        } else {
+            return ((long) layer << LAYER_SHIFT) | (shaderBits << 50) | (texBits << 40) |
+                    (depth << 16) | idx;
+        }
+    }
+
+    /**
+     * Sorts and draws all collected items and clears the queue.
+     *
+     * @param context    graphics engine context
+     */
+    public void flush(LightGlContext context) {
+        if (mCount == 0) {
+            return;
+        }
+
+        GfxState state = context.getState();
+        ShaderManager shaderMgr = context.getShaderManager();
+        System.arraycopy(state.getModelMatrix(), 0, mSavedModelMatrix, 0, 16);
+
+        sort();
+        for (int i = 0; i < mCount; i++) {
+            int idx = getSortedItem(i);
+            // bind shader before the matrix is set, so that the matrix uniforms are only updated
+            // once if the shader does not change
+            shaderMgr.bindShader(context, mShaders[idx]);
+            state.setModelMatrix(mMatrices, idx * 16);
+            mMeshes[idx].draw(context);
+        }
+        clear();
+
+        state.setModelMatrix(mSavedModelMatrix, 0);
+    }
+
+    /**
+     * Sorts the collected items and counts the state changes in sorted order.
+     */
+    void sort() {
+        Arrays.sort(mKeys, 0, mCount);
+        int lastShaderId = 0;
+        int lastTexture = 0;
+        for (int i = 0; i < mCount; i++) {
+            int idx = getSortedItem(i);
+            if (mShaderIds[idx] != lastShaderId) {
+                mShaderChanges++;
+                lastShaderId = mShaderIds[idx];
+            }
+            if (mTextures[idx] != lastTexture) {
+                mTextureChanges++;
+                lastTexture = mTextures[idx];
+            }
+        }
+        mItemCount += mCount;
+    }
+
+    /**
+     * Returns the index of the i-th item in sorted order. Only valid after {@link #sort()}.
+     */
+    int getSortedItem(int i) {
+        return (int) (mKeys[i] & 0xffff);
+    }
+
+    /**
+     * Removes all items from the queue.
+     */
+    void clear() {
+        // don't keep references to meshes and shaders
+        Arrays.fill(mMeshes, 0, mCount, null);
+        Arrays.fill(mShaders, 0, mCount, null);
+        mCount = 0;
+        mLastShaderId = 0;
+        mLastTexture = 0;
+    }
+
+    /**
+     * Resets the per frame statistics. Is called by {@link GfxState#reset(LightGlContext)}.
+     */
+    public void resetStatistics() {
+        mItemCount = 0;
+        mShaderChanges = 0;
+        mTextureChanges = 0;
+        mUnsortedShaderChanges = 0;
+        mUnsortedTextureChanges = 0;
+    }
+
+    /**
+     * Returns the number of items drawn by this queue in the current frame.
+     *
+     * @return the number of drawn items
+     */
+    public int getItemCount() {
+        return mItemCount;
+    }
+
+    /**
+     * Returns the number of shader changes in the current frame.
+     *
+     * @return the number of shader changes
+     */
+    public int getShaderChanges() {
+        return mShaderChanges;
+    }
+
+    /**
+     * Returns the number of texture changes in the current frame.
+     *
+     * @return the number of texture changes
+     */
+    public int getTextureChanges() {
+        return mTextureChanges;
+    }
+
+    /**
+     * Returns the number of shader changes saved by sorting in the current frame, i.e. the
+     * difference between the number of changes in scene traversal order and in sorted order.
+     *
+     * @return the number of saved shader changes
+     */
+    public int getSavedShaderChanges() {
+        return mUnsortedShaderChanges - mShaderChanges;
+    }
+
+    /**
+     * Returns the number of texture changes saved by sorting in the current frame, i.e. the
+     * difference between the number of changes in scene traversal order and in sorted order.
+     *
+     * @return the number of saved texture changes
+     */
+    public int getSavedTextureChanges() {
+        return mUnsortedTextureChanges - mTextureChanges;
+    }
+
+    /**
+     * Converts the specified view space depth to a 24-bit sort key. The bits of a positive float
+     * are monotonic, hence the upper 24 bits of the float representation keep the depth order.
+     * Depths behind the camera map to 0.
+     */
+    static long depthKey(float depth) {
+        if (!(depth > 0)) {
+            // behind the camera or NaN
+            return 0;
+        }
+        return (Float.floatToIntBits(depth) >>> 7) & DEPTH_MASK;
+    }
+
+    /**
+     * Computes the view space depth of the center of the specified bounds and converts it to a
+     * 24-bit sort key.
+     */
+    private static long computeDepth(GfxState state, BoundingBox bounds) {
+        float cx = 0, cy = 0, cz = 0;
+        if (bounds != null) {
+            cx = (bounds.minX + bounds.maxX) * 0.5f;
+            cy = (bounds.minY + bounds.maxY) * 0.5f;
+            cz = (bounds.minZ + bounds.maxZ) * 0.5f;
+        }
+        float[] m = state.getModelMatrix();
+        float[] v = state.getViewMatrix();
+        float wx = m[0] * cx + m[4] * cy + m[8] * cz + m[12];
+        float wy = m[1] * cx + m[5] * cy + m[9] * cz + m[13];
+        float wz = m[2] * cx + m[6] * cy + m[10] * cz + m[14];
+        return depthKey(-(v[2] * wx + v[6] * wy + v[10] * wz + v[14]));
+    }
+
+    private void grow() {
+        int cap = Math.min(mKeys.length * 2, MAX_ITEMS);
+        mKeys = Arrays.copyOf(mKeys, cap);
+        mMeshes = Arrays.copyOf(mMeshes, cap);
+        mShaders = Arrays.copyOf(mShaders, cap);
+        mShaderIds = Arrays.copyOf(mShaderIds, cap);
+        mTextures = Arrays.copyOf(mTextures, cap);
+        mMatrices = Arrays.copyOf(mMatrices, cap * 16);
+    }
+}
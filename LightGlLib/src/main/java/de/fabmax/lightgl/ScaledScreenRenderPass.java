@@ -13,7 +13,6 @@ import static android.opengl.GLES20.glClear;
 import static android.opengl.GLES20.glDisable;
 import static android.opengl.GLES20.glEnable;
 import static android.opengl.GLES20.glGetUniformLocation;
-import static android.opengl.GLES20.glUniform1i;
 
 public class ScaledScreenRenderPass implements RenderPass {
     
@@ -74,7 +73,7 @@ public class ScaledScreenRenderPass implements RenderPass {
             glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
             Node scene = glContext.getEngine().getScene();
             if(scene != null) {
-                scene.render(glContext);
+                glContext.getState().renderNode(glContext, scene);
             }
         }
     }
@@ -154,7 +153,7 @@ public class ScaledScreenRenderPass implements RenderPass {
         @Override
         public void onBind(LightGlContext glContext) {
             // set used texture sampler
-            glUniform1i(muTextureSampler, 0);
+            setUniform1i(muTextureSampler, 0);
         }
 
         /**
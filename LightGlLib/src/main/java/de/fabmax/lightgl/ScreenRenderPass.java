@@ -18,7 +18,7 @@ public class ScreenRenderPass implements RenderPass {
         // render scene
         Node scene = glContext.getEngine().getScene();
         if(scene != null) {
-            scene.render(glContext);
+            glContext.getState().renderNode(glContext, scene);
         }
     }
 
@@ -1,10 +1,13 @@
 package de.fabmax.lightgl;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import de.fabmax.lightgl.scene.Mesh;
 
 import static android.opengl.GLES20.glDisableVertexAttribArray;
 import static android.opengl.GLES20.glEnableVertexAttribArray;
 import static android.opengl.GLES20.glGetAttribLocation;
+import static android.opengl.GLES20.glGetUniformLocation;
 
 /**
  * Base class for custom shader implementations.
@@ -19,7 +22,17 @@ public abstract class Shader extends GlObject {
     public static final int ATTRIBUTE_TEXTURE_COORDS = 2;
     public static final int ATTRIBUTE_COLORS = 3;
 
+    // largest sort ID, sort IDs must fit into the shader field of the render queue sort key
+    static final int MAX_SORT_ID = RenderQueue.SORT_ID_MASK;
+    // counter for shader sort IDs, shaders can be created on any thread
+    private static final AtomicInteger sSortIdCounter = new AtomicInteger();
+
     private final ShaderManager mShaderMgr;
+    private final int mSortId;
+    // uploaded uniform values of the current program
+    private UniformCache mUniformCache;
+    // location of the optional texture coordinate transform uniform
+    private int muTexCoordTransformHandle = -1;
     
     /** Shader attribute pointers */
     protected final int[] mVertexAttributes;
@@ -30,6 +43,7 @@ public abstract class Shader extends GlObject {
     public Shader(ShaderManager shaderMgr) {
         mShaderMgr = shaderMgr;
         mShaderMgr.registerShader(this);
+        mSortId = toSortId(sSortIdCounter.getAndIncrement());
         
         mVertexAttributes = new int[4];
         for (int i = 0; i < mVertexAttributes.length; i++) {
@@ -37,6 +51,148 @@ public abstract class Shader extends GlObject {
         }
     }
 
+    /**
+     * Returns the sort ID of this shader. The ID is used by the {@link RenderQueue} to group
+     * meshes by their shader. IDs are assigned in creation order and range from 1 to
+     * {@link #MAX_SORT_ID}, 0 is used for meshes without a shader. After {@link #MAX_SORT_ID}
+     * shaders were created, IDs wrap around and are reused. Shaders with equal IDs are still
+     * drawn correctly, the render queue only can't group their meshes as well.
+     *
+     * @return the sort ID of this shader
+     */
+    public int getSortId() {
+        return mSortId;
+    }
+
+    /**
+     * Maps the value of the sort ID counter to a sort ID between 1 and {@link #MAX_SORT_ID}. Also
+     * works after the counter itself overflowed.
+     */
+    static int toSortId(int counter) {
+        return (counter & Integer.MAX_VALUE) % MAX_SORT_ID + 1;
+    }
+
+    /**
+     * Returns the texture used by this shader or null if the shader doesn't use a texture. The
+     * texture is used by the {@link RenderQueue} to group meshes by their texture. The default
+     * implementation returns null.
+     *
+     * @return the texture used by this shader
+     */
+    public Texture getTexture() {
+        return null;
+    }
+
+    /**
+     * Sets the GL program handle and selects the matching uniform cache. If the program has a
+     * vec4 uniform named uTexCoordTransform, it is set to the texture coordinate transform of
+     * every mesh bound to this shader, see {@link Mesh#setTexCoordTransform(float, float, float,
+     * float)}.
+     *
+     * @see GlObject#setGlHandle(int)
+     */
+    @Override
+    protected void setGlHandle(int handle) {
+        super.setGlHandle(handle);
+        mUniformCache = handle != 0 ? mShaderMgr.getUniformCache(handle) : null;
+        muTexCoordTransformHandle = handle != 0 ?
+                glGetUniformLocation(handle, "uTexCoordTransform") : -1;
+    }
+
+    /**
+     * Uploads the specified int uniform value, if it differs from the value uploaded before.
+     *
+     * @param location    uniform location
+     * @param value       uniform value
+     */
+    protected void setUniform1i(int location, int value) {
+        mUniformCache.setUniform1i(location, value);
+    }
+
+    /**
+     * Uploads the specified float uniform value, if it differs from the value uploaded before.
+     *
+     * @param location    uniform location
+     * @param x           uniform value
+     */
+    protected void setUniform1f(int location, float x) {
+        mUniformCache.setUniform1f(location, x);
+    }
+
+    /**
+     * Uploads the specified vec3 uniform value, if it differs from the value uploaded before.
+     *
+     * @param location    uniform location
+     * @param x           uniform x value
+     * @param y           uniform y value
+     * @param z           uniform z value
+     */
+    protected void setUniform3f(int location, float x, float y, float z) {
+        mUniformCache.setUniform3f(location, x, y, z);
+    }
+
+    /**
+     * Uploads the specified vec4 uniform value, if it differs from the value uploaded before.
+     *
+     * @param location    uniform location
+     * @param x           uniform x value
+     * @param y           uniform y value
+     * @param z           uniform z value
+     * @param w           uniform w value
+     */
+    protected void setUniform4f(int location, float x, float y, float z, float w) {
+        mUniformCache.setUniform4f(location, x, y, z, w);
+    }
+
+    /**
+     * Uploads the specified matrix uniform, if it differs from the matrix uploaded before.
+     *
+     * @param location    uniform location
+     * @param matrix      matrix array
+     * @param offset      matrix array offset
+     */
+    protected void setUniformMatrix4fv(int location, float[] matrix, int offset) {
+        mUniformCache.setUniformMatrix4fv(location, matrix, offset);
+    }
+
+    /**
+     * Uploads the specified matrix uniform, if the version differs from the version uploaded
+     * before. Versions are obtained from {@link GfxState}, e.g.
+     * {@link GfxState#getMvpMatrixVersion()}. This is cheaper than comparing the matrix values.
+     *
+     * @param location    uniform location
+     * @param matrix      matrix array
+     * @param offset      matrix array offset
+     * @param version     version of the matrix
+     */
+    protected void setUniformMatrix4fv(int location, float[] matrix, int offset, long version) {
+        mUniformCache.setUniformMatrix4fv(location, matrix, offset, version);
+    }
+
+    /**
+     * Uploads the specified matrix array uniform. Arrays are not cached.
+     *
+     * @param location    uniform location
+     * @param count       number of matrices
+     * @param matrices    matrix array
+     * @param offset      matrix array offset
+     */
+    protected void setUniformMatrix4fv(int location, int count, float[] matrices, int offset) {
+        mUniformCache.setUniformMatrix4fv(location, count, matrices, offset);
+    }
+
+    /**
+     * Uploads the specified vec4 array uniform. Arrays are not cached.
+     *
+     * @param location    uniform location
+     * @param count       number of vectors
+     * @param values      vector array
+     * @param offset      vector array offset
+     */
+    protected void setUniform4fv(int location, int count, float[] values, int offset) {
+        mUniformCache.setUniform4fv(location, count, values, offset);
+    }
+
     /**
      * Call this to load the shader program. Is called automatically when the shader is bound for
      * the first time and it is not already loaded.
@@ -127,6 +283,10 @@ public abstract class Shader extends GlObject {
                 glEnableVertexAttribArray(ptr);
             }
         }
+        if (muTexCoordTransformHandle != -1) {
+            float[] t = mesh.getTexCoordTransform();
+            setUniform4f(muTexCoordTransformHandle, t[0], t[1], t[2], t[3]);
+        }
         ptr = mVertexAttributes[ATTRIBUTE_COLORS];
         if (ptr != -1) {
             ShaderAttributeBinder binder = mesh.getVertexColorBinder();
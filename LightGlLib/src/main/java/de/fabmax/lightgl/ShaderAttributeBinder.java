@@ -52,7 +52,28 @@ public abstract class ShaderAttributeBinder {
      * @return ShaderAttributeBinder for use with a {@link de.fabmax.lightgl.scene.Mesh}
      */
     public static ShaderAttributeBinder createVboBufferBinder(int ptr, int size, int stride) {
-        ShaderAttributeBinder binder = new VboBufferAttributeBinder(ptr);
+        return createVboBufferBinder(ptr, size, stride, true);
+    }
+
+    /**
+     * Creates a ShaderAttributeBinder for a GL Vertex buffer object, see
+     * {@link #createVboBufferBinder(int, int, int)}. If multiple binders share the same
+     * (interleaved) buffer, only one of them should own it, otherwise the buffer is deleted
+     * multiple times.
+     *
+     * @param ptr
+     *            GL buffer pointer
+     * @param size
+     *            number of primitives for this attribute
+     * @param stride
+     *            buffer stride as number of bytes
+     * @param ownsBuffer
+     *            true if {@link #delete()} deletes the buffer, false if it is deleted elsewhere
+     * @return ShaderAttributeBinder for use with a {@link de.fabmax.lightgl.scene.Mesh}
+     */
+    public static ShaderAttributeBinder createVboBufferBinder(int ptr, int size, int stride,
+                                                              boolean ownsBuffer) {
+        ShaderAttributeBinder binder = new VboBufferAttributeBinder(ptr, ownsBuffer);
         binder.setStride(stride);
         binder.setSize(size);
         return binder;
@@ -66,6 +87,8 @@ public abstract class ShaderAttributeBinder {
     protected int mSize;
     /** Buffer offset in bytes. */
     protected int mOffset = 0;
+    /** Whether integer data is normalized to [0, 1] or [-1, 1]. */
+    protected boolean mNormalized = false;
 
     /**
      * Returns the data type of the buffer.
@@ -86,6 +109,27 @@ public abstract class ShaderAttributeBinder {
         this.mType = type;
     }
 
+    /**
+     * Returns true if integer data is normalized when it is converted to floating point.
+     * 
+     * @return true if integer data is normalized
+     */
+    public boolean isNormalized() {
+        return mNormalized;
+    }
+
+    /**
+     * Sets whether integer data is normalized when it is converted to floating point. Normalized
+     * unsigned values are mapped to [0, 1], signed values to [-1, 1]. Has no effect for GL_FLOAT
+     * data. By default data is not normalized.
+     * 
+     * @param normalized
+     *            true to normalize integer data
+     */
+    public void setNormalized(boolean normalized) {
+        this.mNormalized = normalized;
+    }
+
     /**
      * Returns the buffer stride in bytes.
      * 
@@ -182,7 +226,7 @@ public abstract class ShaderAttributeBinder {
         @Override
         public void bindAttribute(int target) {
             mBuffer.position(mOffset);
-            glVertexAttribPointer(target, mSize, mType, false, mStride, mBuffer);
+            glVertexAttribPointer(target, mSize, mType, mNormalized, mStride, mBuffer);
             mBuffer.position(0);
         }
 
@@ -204,15 +248,19 @@ public abstract class ShaderAttributeBinder {
     private static class VboBufferAttributeBinder extends ShaderAttributeBinder {
 
         private int mBuffer;
+        private final boolean mOwnsBuffer;
 
         /**
          * Creates a ShaderAttributeBinder for a GL VBO.
          * 
          * @param buffer
          *            the buffer to use
+         * @param ownsBuffer
+         *            true if the buffer is deleted by this binder
          */
-        private VboBufferAttributeBinder(int buffer) {
+        private VboBufferAttributeBinder(int buffer, boolean ownsBuffer) {
             mBuffer = buffer;
+            mOwnsBuffer = ownsBuffer;
         }
 
         /**
@@ -221,20 +269,21 @@ public abstract class ShaderAttributeBinder {
         @Override
         public void bindAttribute(int target) {
             glBindBuffer(GL_ARRAY_BUFFER, mBuffer);
-            glVertexAttribPointer(target, mSize, mType, false, mStride, mOffset * 4);
+            glVertexAttribPointer(target, mSize, mType, mNormalized, mStride, mOffset * 4);
             glBindBuffer(GL_ARRAY_BUFFER, 0);
         }
         
         /**
-         * Deletes the underlying data buffer of this ShaderAttributeBinder.
+         * Deletes the underlying data buffer of this ShaderAttributeBinder, if it is owned by this
+         * binder.
          */
         @Override
         public void delete() {
-            if (mBuffer != 0) {
+            if (mBuffer != 0 && mOwnsBuffer) {
                 int[] buf = new int[] { mBuffer };
                 glDeleteBuffers(1, buf, 0);
-                mBuffer = 0;
             }
+            mBuffer = 0;
         }
 
     }
@@ -2,6 +2,7 @@ package de.fabmax.lightgl;
 
 import android.content.Context;
 import android.util.Log;
+import android.util.SparseArray;
 import android.util.SparseIntArray;
 
 import java.io.BufferedReader;
@@ -40,11 +41,15 @@ public class ShaderManager {
 
     // context is needed to load assets
     private final Context mContext;
+    // profiler counting shader binds
+    private final FrameProfiler mProfiler;
 
     // list of loaded shaders
     private final ArrayList<Shader> mLoadedShaders = new ArrayList<>();
     // map with hashes of loaded shaders and the corresponding GL handles
     private final SparseIntArray mShaderHandles = new SparseIntArray();
+    // uploaded uniform values of all loaded programs, mapped by program handle
+    private final SparseArray<UniformCache> mUniformCaches = new SparseArray<>();
     // currently bound shader
     private Shader mBoundShader;
 
@@ -55,9 +60,12 @@ public class ShaderManager {
      * 
      * @param context
      *            Application context, is needed to load files from assets directory
+     * @param profiler
+     *            Profiler used to count shader binds
      */
-    protected ShaderManager(Context context) {
+    protected ShaderManager(Context context, FrameProfiler profiler) {
         mContext = context;
+        mProfiler = profiler;
     }
 
     /**
@@ -68,6 +76,7 @@ public class ShaderManager {
             s.setGlHandle(0);
         }
         mShaderHandles.clear();
+        mUniformCaches.clear();
         mBoundShader = null;
     }
 
@@ -121,6 +130,7 @@ public class ShaderManager {
         if (!inUse) {
             // shader is not in use anymore - delete it
             glDeleteShader(deleteHandle);
+            mUniformCaches.remove(deleteHandle);
             int index = mShaderHandles.indexOfValue(deleteHandle);
             if (index >= 0) {
                 mShaderHandles.removeAt(index);
@@ -130,6 +140,7 @@ public class ShaderManager {
 
     /**
      * Binds the specified shader. If the shader is not already bound its onBind() method is called.
+     * If the shader can't be loaded, no shader is bound.
      * 
      * @param glContext
      *            graphics engine context
@@ -145,11 +156,18 @@ public class ShaderManager {
         if (shader != null) {
             if (!shader.isValid()) {
                 shader.loadShader(this);
+                if (!shader.isValid()) {
+                    // loading failed, shader can't be used
+                    glUseProgram(0);
+                    mBoundShader = null;
+                    return;
+                }
             }
             if (shader != mBoundShader) {
                 // bind shader program
                 glUseProgram(shader.getGlHandle());
                 mBoundShader = shader;
+                mProfiler.count(FrameProfiler.COUNTER_SHADER_BINDS, 1);
                 // notify shader that it was bound
                 shader.onBind(glContext);
             }
@@ -160,6 +178,22 @@ public class ShaderManager {
         }
     }
 
+    /**
+     * Returns the uniform cache of the specified program. Shaders with equal source code share
+     * the same program and hence the same cache.
+     *
+     * @param programHandle    GL program handle
+     * @return the uniform cache of the specified program
+     */
+    UniformCache getUniformCache(int programHandle) {
+        UniformCache cache = mUniformCaches.get(programHandle);
+        if (cache == null) {
+            cache = new UniformCache(mProfiler);
+            mUniformCaches.put(programHandle, cache);
+        }
+        return cache;
+    }
+
     /**
      * Returns the currently bound shader.
      * 
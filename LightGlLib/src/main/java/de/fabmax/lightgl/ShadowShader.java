@@ -3,9 +3,6 @@ package de.fabmax.lightgl;
 import android.opengl.Matrix;
 
 import static android.opengl.GLES20.glGetUniformLocation;
-import static android.opengl.GLES20.glUniform1f;
-import static android.opengl.GLES20.glUniform1i;
-import static android.opengl.GLES20.glUniformMatrix4fv;
 
 /**
  * ShadowShader is a SimpleShader that supports dynamic shadows. To compute the necessary
@@ -19,9 +16,9 @@ public class ShadowShader extends SimpleShader {
 
     private final ShadowRenderPass mShadowPass;
 
-    private int muShadowSamplerHandle;
-    private int muShadowMvpMatrixHandle;
-    private int muMapScaleHandle;
+    private int muShadowSamplerHandle = -1;
+    private int muShadowMvpMatrixHandle = -1;
+    private int muMapScaleHandle = -1;
     
     private final float[] mTempMatrix = new float[16];
     private final float[] mShadowMvpMatrix = new float[16];
@@ -128,7 +125,7 @@ public class ShadowShader extends SimpleShader {
         Matrix.multiplyMM(mShadowMvpMatrix, 0, shadowProj, 0, mTempMatrix, 0);
         Matrix.multiplyMM(mTempMatrix, 0, mShadowBiasMatrix, 0, mShadowMvpMatrix, 0);
 
-        glUniformMatrix4fv(muShadowMvpMatrixHandle, 1, false, mTempMatrix, 0);
+        setUniformMatrix4fv(muShadowMvpMatrixHandle, mTempMatrix, 0);
     }
 
     /**
@@ -140,8 +137,8 @@ public class ShadowShader extends SimpleShader {
     public void onBind(LightGlContext glContext) {
         super.onBind(glContext);
 
-        glUniform1i(muShadowSamplerHandle, mShadowPass.getTextureUnit());
+        setUniform1i(muShadowSamplerHandle, mShadowPass.getTextureUnit());
         //glUniform1f(muMapScaleHandle, 1.4142f / mShadowPass.getShadowMapSize());
-        glUniform1f(muMapScaleHandle, 3f / mShadowPass.getShadowMapSize());
+        setUniform1f(muMapScaleHandle, 3f / mShadowPass.getShadowMapSize());
     }
 }
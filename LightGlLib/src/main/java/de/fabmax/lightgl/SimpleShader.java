@@ -5,10 +5,6 @@ import android.util.Log;
 import java.util.ArrayList;
 
 import static android.opengl.GLES20.glGetUniformLocation;
-import static android.opengl.GLES20.glUniform1f;
-import static android.opengl.GLES20.glUniform1i;
-import static android.opengl.GLES20.glUniform3f;
-import static android.opengl.GLES20.glUniformMatrix4fv;
 
 /**
  * A standard shader for a single directional light source. If the list returned by
@@ -27,14 +23,14 @@ public class SimpleShader extends Shader {
     private final boolean mUseTexture;
     private final boolean mUseLighting;
     
-    // uniform handles
-    private int muMvpMatrixHandle = 0;
-    private int muModelMatrixHandle = 0;
-    private int muViewMatrixHandle = 0;
-    private int muLightDirectionHandle = 0;
-    private int muShininessHandle = 0;
-    private int muLightColorHandle = 0;
-    private int muTextureSamplerHandle = 0;
+    // uniform handles, -1 for uniforms not used by the shader
+    private int muMvpMatrixHandle = -1;
+    private int muModelMatrixHandle = -1;
+    private int muViewMatrixHandle = -1;
+    private int muLightDirectionHandle = -1;
+    private int muShininessHandle = -1;
+    private int muLightColorHandle = -1;
+    private int muTextureSamplerHandle = -1;
 
     // shininess coefficient for phong lighting model
     private float mShininess = 20.0f;
@@ -196,25 +192,25 @@ public class SimpleShader extends Shader {
 
         if (mUseLighting) {
             // set shininess
-            glUniform1f(muShininessHandle, mShininess);
+            setUniform1f(muShininessHandle, mShininess);
 
             // take first light and interpret it as directional light
             ArrayList<Light> lights = glContext.getEngine().getLights();
             if (lights.size() > 0) {
                 Light l = lights.get(0);
-                glUniform3f(muLightDirectionHandle, l.position[0], l.position[1], l.position[2]);
-                glUniform3f(muLightColorHandle, l.color[0], l.color[1], l.color[2]);
+                setUniform3f(muLightDirectionHandle, l.position[0], l.position[1], l.position[2]);
+                setUniform3f(muLightColorHandle, l.color[0], l.color[1], l.color[2]);
             } else {
                 // set some default light properties if no light is defines
-                glUniform3f(muLightDirectionHandle, 1, 1, 1);
-                glUniform3f(muLightColorHandle, 1, 1, 1);
+                setUniform3f(muLightDirectionHandle, 1, 1, 1);
+                setUniform3f(muLightColorHandle, 1, 1, 1);
             }
         }
         
         // bind texture if enabled
         if(mTexture != null) {
             glContext.getTextureManager().bindTexture(mTexture);
-            glUniform1i(muTextureSamplerHandle, 0);
+            setUniform1i(muTextureSamplerHandle, 0);
         }
     }
 
@@ -226,9 +222,12 @@ public class SimpleShader extends Shader {
     @Override
     public void onMatrixUpdate(GfxState state) {
         // pass current transformation matrices to shader
-        glUniformMatrix4fv(muModelMatrixHandle, 1, false, state.getModelMatrix(), 0);
-        glUniformMatrix4fv(muViewMatrixHandle, 1, false, state.getViewMatrix(), 0);
-        glUniformMatrix4fv(muMvpMatrixHandle, 1, false, state.getMvpMatrix(), 0);
+        setUniformMatrix4fv(muModelMatrixHandle, state.getModelMatrix(), 0,
+                state.getModelMatrixVersion());
+        setUniformMatrix4fv(muViewMatrixHandle, state.getViewMatrix(), 0,
+                state.getViewMatrixVersion());
+        setUniformMatrix4fv(muMvpMatrixHandle, state.getMvpMatrix(), 0,
+                state.getMvpMatrixVersion());
     }
 
 }
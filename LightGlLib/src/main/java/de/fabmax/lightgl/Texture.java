@@ -2,7 +2,6 @@ package de.fabmax.lightgl;
 
 import de.fabmax.lightgl.TextureProperties.MinFilterMethod;
 
-import static android.opengl.GLES20.GL_TEXTURE0;
 import static android.opengl.GLES20.GL_TEXTURE_2D;
 import static android.opengl.GLES20.GL_TEXTURE_MAG_FILTER;
 import static android.opengl.GLES20.GL_TEXTURE_MIN_FILTER;
@@ -26,6 +25,17 @@ public class Texture extends GlObject {
 
     private int mWidthPixels;
     private int mHeightPixels;
+
+    // true while the texture data is loaded asynchronously
+    private volatile boolean mLoading = false;
+
+    // residency state, managed by the TextureManager
+    private int mSizeBytes = 0;
+    private long mLastUsedFrame = 0;
+    private boolean mEvicted = false;
+    // asset the texture was loaded from, null if it can't be reloaded
+    private String mAssetPath = null;
+    private TextureProperties mProperties = null;
     
     /**
      * Creates a Texture with a newly generated OpenGL texture object associated to it.
@@ -71,6 +81,113 @@ public class Texture extends GlObject {
         return mHeightPixels;
     }
     
+    /**
+     * Sets whether the texture data is currently loaded asynchronously.
+     *
+     * @param loading    true if the texture data is not yet loaded
+     */
+    protected void setLoading(boolean loading) {
+        mLoading = loading;
+    }
+
+    /**
+     * Returns true if the texture data is currently loaded asynchronously, see
+     * {@link TextureManager#createTextureFromAssetAsync(String, TextureProperties)}. While the
+     * texture is loading it contains a placeholder.
+     *
+     * @return true if the texture data is not yet loaded
+     */
+    public boolean isLoading() {
+        return mLoading;
+    }
+
+    /**
+     * Returns the estimated GPU memory used by this texture in bytes, including mip levels.
+     *
+     * @return the estimated texture size in bytes
+     */
+    public int getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    /**
+     * Sets the estimated GPU memory used by this texture. Is called by the {@link TextureManager},
+     * which sums up the sizes of all resident textures.
+     *
+     * @param bytes    the estimated texture size in bytes
+     */
+    protected void setSizeBytes(int bytes) {
+        mSizeBytes = bytes;
+    }
+
+    /**
+     * Returns the number of the frame this texture was bound the last time.
+     *
+     * @return the frame this texture was used last
+     */
+    public long getLastUsedFrame() {
+        return mLastUsedFrame;
+    }
+
+    /**
+     * Sets the number of the frame this texture was bound the last time.
+     *
+     * @param frame    the frame this texture was used last
+     */
+    protected void setLastUsedFrame(long frame) {
+        mLastUsedFrame = frame;
+    }
+
+    /**
+     * Returns true if the texture data was evicted to stay within the texture memory budget, see
+     * {@link TextureManager#setMemoryBudget(long)}. Evicted textures contain a placeholder and are
+     * reloaded when they are bound the next time.
+     *
+     * @return true if the texture data was evicted
+     */
+    public boolean isEvicted() {
+        return mEvicted;
+    }
+
+    /**
+     * Sets whether the texture data was evicted.
+     *
+     * @param evicted    true if the texture data was evicted
+     */
+    protected void setEvicted(boolean evicted) {
+        mEvicted = evicted;
+    }
+
+    /**
+     * Sets the asset this texture was loaded from. Textures with an asset path can be evicted and
+     * reloaded by the {@link TextureManager}.
+     *
+     * @param assetPath    path in the assets directory, null if the texture can't be reloaded
+     * @param props        texture properties to use on reload
+     */
+    protected void setSource(String assetPath, TextureProperties props) {
+        mAssetPath = assetPath;
+        mProperties = props;
+    }
+
+    /**
+     * Returns the asset this texture was loaded from, null if it can't be reloaded.
+     *
+     * @return the asset path of this texture
+     */
+    protected String getAssetPath() {
+        return mAssetPath;
+    }
+
+    /**
+     * Returns the texture properties used to reload this texture.
+     *
+     * @return the texture properties to use on reload
+     */
+    protected TextureProperties getProperties() {
+        return mProperties;
+    }
+
     /**
      * Sets the specified texture properties for this texture. This texture must be bound before
      * calling this method. ATTENTION: calling this method for an empty texture with
@@ -80,7 +197,21 @@ public class Texture extends GlObject {
      *            texture properties to set
      */
     public void setTextureProperties(TextureProperties props) {
-        mTexManager.bindTexture(this, GL_TEXTURE0);
+        setTextureProperties(props, true);
+    }
+
+    /**
+     * Sets the specified texture properties for this texture. If generateMipmaps is false,
+     * mipmaps are not built for MinFilterMethod.TRILINEAR, e.g. because all mip levels were
+     * uploaded or because the texture data is compressed.
+     *
+     * @param props
+     *            texture properties to set
+     * @param generateMipmaps
+     *            true to build mipmaps if trilinear filtering is selected
+     */
+    protected void setTextureProperties(TextureProperties props, boolean generateMipmaps) {
+        mTexManager.bindTextureForUpload(this);
         
         // set texture properties
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, props.minFilter.getGlMethod());
@@ -88,7 +219,7 @@ public class Texture extends GlObject {
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, props.xWrapping.getGlMethod());
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, props.yWrapping.getGlMethod());
 
-        if (props.minFilter == MinFilterMethod.TRILINEAR) {
+        if (generateMipmaps && props.minFilter == MinFilterMethod.TRILINEAR) {
             // build mipmaps if trilinear filtering is selected
             glGenerateMipmap(GL_TEXTURE_2D);
         }
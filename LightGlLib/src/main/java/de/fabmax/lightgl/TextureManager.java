@@ -4,18 +4,24 @@ import android.content.Context;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.opengl.ETC1;
 import android.opengl.GLES20;
-import android.opengl.GLUtils;
 import android.util.Log;
 import android.util.SparseArray;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import de.fabmax.lightgl.util.BufferHelper;
+import de.fabmax.lightgl.util.CompressedTextureFile;
 
 import static android.opengl.GLES20.GL_TEXTURE0;
 import static android.opengl.GLES20.GL_TEXTURE_2D;
@@ -32,9 +38,17 @@ public class TextureManager {
     private static final String TAG = "TextureManager";
     // Default texture properties
     private static final TextureProperties DEFAULT_PROPERTIES = new TextureProperties();
+    // Default time budget for asynchronous texture uploads per frame in nanoseconds
+    private static final long DEFAULT_UPLOAD_BUDGET = 2000000L;
+    // Pixel data of placeholder textures, opaque mid gray
+    private static final byte[] PLACEHOLDER_PIXEL = { (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0xff };
 
     // Context is needed to load de.fabmax.lightgl.demo.textures from resources
     private final Context mContext;
+    // Profiler counting texture binds and uploads
+    private final FrameProfiler mProfiler;
+    // Converts bitmaps into pixel buffers, pixel buffers are reused
+    private final ImageConverter mImageConverter = new ImageConverter();
 
     // List of all loaded de.fabmax.lightgl.demo.textures
     private final ArrayList<Texture> mLoadedTextures = new ArrayList<>();
@@ -45,6 +59,42 @@ public class TextureManager {
     // Active texture unit
     private int mActiveTextureUnit;
 
+    // Executor used to decode textures loaded asynchronously, created on first use if not set
+    private ExecutorService mLoaderExecutor;
+    // Decoded textures waiting for upload on the GL thread
+    private final ConcurrentLinkedQueue<AsyncTextureLoad> mPendingUploads = new ConcurrentLinkedQueue<>();
+    // Number of textures which are loaded asynchronously, only accessed by the GL thread
+    private int mLoadingCount = 0;
+    // Time budget for texture uploads per frame in nanoseconds
+    private long mUploadBudget = DEFAULT_UPLOAD_BUDGET;
+    // Is called from the loader threads if a decoded texture is ready for upload
+    private Runnable mUploadReadyCallback;
+    // Compressed texture formats supported by the GL context, queried on first use
+    private int[] mCompressedFormats;
+
+    // Texture memory budget in bytes, 0 if unlimited
+    private long mMemoryBudget = 0;
+    // Estimated size of all loaded textures in bytes
+    private long mResidentBytes = 0;
+    // Number of the current frame, used to track texture usage
+    private long mFrame = 0;
+    // Whether evicted textures are reloaded asynchronously
+    private boolean mAsyncReload = true;
+    // Residency statistics
+    private long mCacheHits = 0;
+    private long mCacheMisses = 0;
+    private long mEvictionCount = 0;
+    // Scratch list for eviction, sorted by last use
+    private final ArrayList<Texture> mEvictionCandidates = new ArrayList<>();
+    private final Comparator<Texture> mLruOrder = new Comparator<Texture>() {
+        @Override
+        public int compare(Texture lhs, Texture rhs) {
+            long l = lhs.getLastUsedFrame();
+            long r = rhs.getLastUsedFrame();
+            return l < r ? -1 : (l > r ? 1 : 0);
+        }
+    };
+
 //    public ArrayList<Texture> getLoadedTextures() {
 //        return mLoadedTextures;
 //    }
@@ -54,9 +104,12 @@ public class TextureManager {
      * 
      * @param context
      *            Application context, is needed to load files from assets directory
+     * @param profiler
+     *            Profiler used to count texture binds and uploads
      */
-    protected TextureManager(Context context) {
+    protected TextureManager(Context context, FrameProfiler profiler) {
         mContext = context;
+        mProfiler = profiler;
     }
 
     /**
@@ -72,6 +125,8 @@ public class TextureManager {
         mResourceMap.clear();
         mBoundTextureHandle = 0;
         mActiveTextureUnit = 0;
+        mCompressedFormats = null;
+        mResidentBytes = 0;
     }
     
     public boolean isBound(Texture tex) {
@@ -92,7 +147,9 @@ public class TextureManager {
             Log.w(TAG, "removeTexture called with undeleted Texture");
             tex.delete();
         }
-        mLoadedTextures.remove(tex);
+        if (mLoadedTextures.remove(tex)) {
+            setTextureSize(tex, 0);
+        }
     }
 
     /**
@@ -114,6 +171,24 @@ public class TextureManager {
      *            texture unit to be used.
      */
     public void bindTexture(Texture texture, int texUnit) {
+        if (texture != null) {
+            touchTexture(texture);
+        }
+        bindTextureHandle(texture, texUnit);
+    }
+
+    /**
+     * Binds the given texture to texture unit 0 in order to modify it. Unlike
+     * {@link #bindTexture(Texture)}, this doesn't count as texture use and doesn't trigger a
+     * reload of evicted textures.
+     *
+     * @param texture    texture to be bound
+     */
+    protected void bindTextureForUpload(Texture texture) {
+        bindTextureHandle(texture, GL_TEXTURE0);
+    }
+
+    private void bindTextureHandle(Texture texture, int texUnit) {
         // check used texture unit
         if (mActiveTextureUnit != texUnit) {
             glActiveTexture(texUnit);
@@ -126,6 +201,7 @@ public class TextureManager {
             // bind texture
             glBindTexture(GL_TEXTURE_2D, handle);
             mBoundTextureHandle = handle;
+            mProfiler.count(FrameProfiler.COUNTER_TEXTURE_BINDS, 1);
         }
     }
 
@@ -165,18 +241,8 @@ public class TextureManager {
         try {
             // create texture from bitmap
             tex = createEmptyTexture();
-            
-            // load bitmap from resources
-            InputStream in = mContext.getAssets().open(assetPath);
-            Bitmap bitmap = BitmapFactory.decodeStream(in);
-            in.close();
-            
-            // load texture data
-            bindTexture(tex, GL_TEXTURE0);
-            GLUtils.texImage2D(GL_TEXTURE_2D, 0, bitmap, 0);
-            bitmap.recycle();
-            
-            tex.setTextureProperties(props);
+            loadAsset(tex, assetPath, props);
+            tex.setSource(assetPath, props);
             Log.i(TAG, "Successfully loaded texture: \"" + assetPath + "\"");
             
             // put Texture to resource map
@@ -187,6 +253,536 @@ public class TextureManager {
         return tex;
     }
 
+    /**
+     * Loads the specified asset into the given texture on the GL thread. The bitmap is converted
+     * the same way as by the asynchronous loader, see {@link ImageConverter}.
+     */
+    private void loadAsset(Texture tex, String assetPath, TextureProperties props) throws IOException {
+        // load bitmap from resources
+        InputStream in = mContext.getAssets().open(assetPath);
+        Bitmap bitmap = BitmapFactory.decodeStream(in);
+        in.close();
+        if (bitmap == null) {
+            throw new IOException("unsupported format");
+        }
+
+        boolean alpha = bitmap.hasAlpha();
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        ByteBuffer data = mImageConverter.convert(bitmap, alpha);
+        bitmap.recycle();
+        uploadPixels(tex, data, width, height, alpha, props);
+        mImageConverter.release(data);
+    }
+
+    /**
+     * Uploads the given RGBA or RGB pixel data into the given texture and sets the texture
+     * properties. Mipmaps are built if trilinear filtering is selected.
+     */
+    private void uploadPixels(Texture tex, ByteBuffer data, int width, int height, boolean hasAlpha,
+                              TextureProperties props) {
+        int format = hasAlpha ? GLES20.GL_RGBA : GLES20.GL_RGB;
+        bindTextureForUpload(tex);
+        if (!hasAlpha) {
+            // RGB rows are tightly packed and therefore not 4-byte aligned
+            setUnpackAlignment(1);
+        }
+        GLES20.glTexImage2D(GL_TEXTURE_2D, 0, format, width, height, 0, format,
+                GLES20.GL_UNSIGNED_BYTE, data);
+        if (!hasAlpha) {
+            setUnpackAlignment(4);
+        }
+        mProfiler.count(FrameProfiler.COUNTER_BUFFER_UPLOADS, 1);
+        tex.setTextureProperties(props);
+        tex.setWidth(width);
+        tex.setHeight(height);
+        setTextureSize(tex, estimateSize(width, height, hasAlpha ? 4 : 3, props));
+    }
+
+    /**
+     * Sets the row alignment of uploaded pixel data. Can be overridden by tests.
+     */
+    void setUnpackAlignment(int alignment) {
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, alignment);
+    }
+
+    /**
+     * Loads the specified file as a texture in the background. See
+     * {@link #createTextureFromAssetAsync(String, TextureProperties)}.
+     *
+     * @param assetPath
+     *            path in the assets directory
+     * @return the texture, which is a placeholder until the file is loaded
+     */
+    public Texture createTextureFromAssetAsync(String assetPath) {
+        return createTextureFromAssetAsync(assetPath, DEFAULT_PROPERTIES);
+    }
+
+    /**
+     * Loads the specified file as a texture in the background. The returned texture can be used
+     * immediately, it contains a single gray pixel until the file is loaded. The file is decoded
+     * and converted by the loader executor (see {@link #setLoaderExecutor(ExecutorService)}), the
+     * texture data is uploaded on the GL thread at the beginning of a following frame. Uploads are
+     * limited by a per-frame time budget (see {@link #setUploadBudget(float)}), so that loading
+     * many textures does not stall single frames. {@link Texture#isLoading()} returns false as soon
+     * as the texture is loaded.
+     *
+     * If the specified file was loaded before, the corresponding Texture is returned instead of a
+     * new one. Notice that in this case the specified {@link TextureProperties} are ignored.
+     *
+     * @param assetPath
+     *            path in the assets directory
+     * @param props
+     *            {@link TextureProperties} to set
+     * @return the texture, which is a placeholder until the file is loaded
+     */
+    public Texture createTextureFromAssetAsync(String assetPath, TextureProperties props) {
+        int key = assetPath.hashCode();
+        Texture tex = mResourceMap.get(key);
+        if (tex != null) {
+            // this resource was already loaded or is being loaded, return the corresponding Texture
+            return tex;
+        }
+
+        tex = createEmptyTexture();
+        uploadPlaceholder(tex, props);
+        tex.setSource(assetPath, props);
+        mResourceMap.put(key, tex);
+        loadAssetAsync(tex, assetPath, props);
+        return tex;
+    }
+
+    /**
+     * Starts loading the specified asset into the given texture in the background.
+     */
+    private void loadAssetAsync(Texture tex, String assetPath, TextureProperties props) {
+        tex.setLoading(true);
+        mLoadingCount++;
+        getLoaderExecutor().execute(new AsyncTextureLoad(tex, assetPath.hashCode(), assetPath, props));
+    }
+
+    /**
+     * Replaces the texture data by a single gray pixel.
+     */
+    private void uploadPlaceholder(Texture tex, TextureProperties props) {
+        bindTextureForUpload(tex);
+        GLES20.glTexImage2D(GL_TEXTURE_2D, 0, GLES20.GL_RGBA, 1, 1, 0, GLES20.GL_RGBA,
+                GLES20.GL_UNSIGNED_BYTE, BufferHelper.createByteBuffer(PLACEHOLDER_PIXEL));
+        tex.setTextureProperties(props);
+        tex.setWidth(1);
+        tex.setHeight(1);
+        setTextureSize(tex, PLACEHOLDER_PIXEL.length);
+    }
+
+    /**
+     * Returns the number of textures which are currently loaded asynchronously.
+     *
+     * @return the number of textures which are not yet loaded
+     */
+    public int getLoadingTextureCount() {
+        return mLoadingCount;
+    }
+
+    /**
+     * Returns true if decoded textures are waiting for their upload.
+     *
+     * @return true if texture uploads are pending
+     */
+    public boolean hasPendingUploads() {
+        return !mPendingUploads.isEmpty();
+    }
+
+    /**
+     * Returns the time budget for asynchronous texture uploads per frame in milliseconds.
+     *
+     * @return the texture upload budget in milliseconds
+     */
+    public float getUploadBudget() {
+        return mUploadBudget / 1e6f;
+    }
+
+    /**
+     * Sets the time budget for asynchronous texture uploads per frame in milliseconds. At least
+     * one pending texture is uploaded per frame, further textures are uploaded until the budget is
+     * used up. The default budget is 2 ms.
+     *
+     * @param millis    the texture upload budget in milliseconds
+     */
+    public void setUploadBudget(float millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Upload budget must not be negative");
+        }
+        mUploadBudget = (long) (millis * 1e6f);
+    }
+
+    /**
+     * Sets the executor used to decode textures loaded asynchronously. If no executor is set, a
+     * pool of low priority daemon threads is created on first use.
+     *
+     * @param executor    the executor used to decode textures
+     */
+    public void setLoaderExecutor(ExecutorService executor) {
+        mLoaderExecutor = executor;
+    }
+
+    /**
+     * Returns the texture memory budget in bytes, 0 if unlimited.
+     *
+     * @return the texture memory budget in bytes
+     */
+    public long getMemoryBudget() {
+        return mMemoryBudget;
+    }
+
+    /**
+     * Sets the texture memory budget in bytes. If the estimated size of all loaded textures
+     * exceeds the budget, the least recently used textures, which were loaded from an asset, are
+     * evicted at the beginning of the next frame until the budget is met. Textures used in the
+     * current or the last frame are never evicted. An evicted texture keeps its GL handle but
+     * contains a placeholder, it is reloaded as soon as it is bound with
+     * {@link #bindTexture(Texture, int)}. The budget is a soft limit, textures which were not
+     * loaded from an asset can exceed it. 0 disables eviction, which is the default.
+     *
+     * @param bytes    the texture memory budget in bytes, 0 for unlimited
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Memory budget must not be negative");
+        }
+        mMemoryBudget = bytes;
+    }
+
+    /**
+     * Returns true if evicted textures are reloaded asynchronously.
+     *
+     * @return true if evicted textures are reloaded asynchronously
+     */
+    public boolean isAsyncReload() {
+        return mAsyncReload;
+    }
+
+    /**
+     * Sets whether evicted textures are reloaded asynchronously. If enabled, which is the default,
+     * an evicted texture shows its placeholder until it is reloaded in the background (see
+     * {@link #createTextureFromAssetAsync(String, TextureProperties)}), otherwise it is reloaded
+     * immediately when it is bound.
+     *
+     * @param enabled    true to reload evicted textures asynchronously
+     */
+    public void setAsyncReload(boolean enabled) {
+        mAsyncReload = enabled;
+    }
+
+    /**
+     * Returns the estimated GPU memory used by all loaded textures in bytes.
+     *
+     * @return the estimated size of all resident textures in bytes
+     */
+    public long getResidentBytes() {
+        return mResidentBytes;
+    }
+
+    /**
+     * Returns the number of texture binds of resident textures since the last call of
+     * {@link #resetStatistics()}.
+     *
+     * @return the number of texture cache hits
+     */
+    public long getCacheHits() {
+        return mCacheHits;
+    }
+
+    /**
+     * Returns the number of texture binds, which triggered a reload of an evicted texture, since
+     * the last call of {@link #resetStatistics()}.
+     *
+     * @return the number of texture cache misses
+     */
+    public long getCacheMisses() {
+        return mCacheMisses;
+    }
+
+    /**
+     * Returns the number of evicted textures since the last call of {@link #resetStatistics()}.
+     *
+     * @return the number of evicted textures
+     */
+    public long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * Resets the cache hit, miss and eviction counters.
+     */
+    public void resetStatistics() {
+        mCacheHits = 0;
+        mCacheMisses = 0;
+        mEvictionCount = 0;
+    }
+
+    /**
+     * Sets the callback, which is invoked from the loader threads if a decoded texture is ready
+     * for upload. Is used by {@link GfxEngine} to render a frame if render on demand is enabled.
+     *
+     * @param callback    the callback to invoke, can be null
+     */
+    void setUploadReadyCallback(Runnable callback) {
+        mUploadReadyCallback = callback;
+    }
+
+    /**
+     * Evicts textures if the memory budget is exceeded, uploads decoded textures and frees the
+     * conversion buffers once all loads are finished. Is called by {@link GfxEngine} at the
+     * beginning of every frame.
+     */
+    protected void beginFrame() {
+        mFrame++;
+        if (mMemoryBudget > 0 && mResidentBytes > mMemoryBudget) {
+            evictTextures();
+        }
+        processPendingUploads();
+        if (mLoadingCount == 0) {
+            // all loads are finished, don't keep the conversion buffers
+            mImageConverter.trim();
+        }
+    }
+
+    /**
+     * Evicts least recently used textures until the memory budget is met.
+     */
+    private void evictTextures() {
+        for (int i = 0; i < mLoadedTextures.size(); i++) {
+            Texture tex = mLoadedTextures.get(i);
+            // textures used in the current or last frame would be reloaded right away
+            if (tex.getAssetPath() != null && !tex.isEvicted() && !tex.isLoading() &&
+                    tex.getLastUsedFrame() < mFrame - 1) {
+                mEvictionCandidates.add(tex);
+            }
+        }
+        Collections.sort(mEvictionCandidates, mLruOrder);
+        for (int i = 0; i < mEvictionCandidates.size() && mResidentBytes > mMemoryBudget; i++) {
+            Texture tex = mEvictionCandidates.get(i);
+            uploadPlaceholder(tex, tex.getProperties());
+            tex.setEvicted(true);
+            mEvictionCount++;
+        }
+        mEvictionCandidates.clear();
+    }
+
+    /**
+     * Records the use of a texture and reloads it if it was evicted.
+     */
+    private void touchTexture(Texture tex) {
+        tex.setLastUsedFrame(mFrame);
+        if (!tex.isEvicted()) {
+            mCacheHits++;
+            return;
+        }
+
+        mCacheMisses++;
+        tex.setEvicted(false);
+        String assetPath = tex.getAssetPath();
+        if (mAsyncReload) {
+            loadAssetAsync(tex, assetPath, tex.getProperties());
+        } else {
+            try {
+                loadAsset(tex, assetPath, tex.getProperties());
+            } catch (IOException e) {
+                Log.e(TAG, "Failed reloading texture: " + assetPath + " (" + e.getMessage() + ")");
+                tex.setSource(null, null);
+            }
+            // the upload bound the texture to unit 0, the texture bound to the unit requested
+            // by the caller is unknown now
+            mBoundTextureHandle = -1;
+        }
+    }
+
+    /**
+     * Sets the estimated size of the given texture and updates the resident size.
+     */
+    private void setTextureSize(Texture tex, int bytes) {
+        mResidentBytes += bytes - tex.getSizeBytes();
+        tex.setSizeBytes(bytes);
+    }
+
+    /**
+     * Estimates the GPU memory of a texture, mipmaps add a third of the base level size.
+     */
+    private static int estimateSize(int width, int height, int bytesPerPixel, TextureProperties props) {
+        int size = width * height * bytesPerPixel;
+        if (props.minFilter == TextureProperties.MinFilterMethod.TRILINEAR) {
+            size += size / 3;
+        }
+        return size;
+    }
+
+    /**
+     * Uploads decoded textures until the per-frame upload budget is used up.
+     */
+    private void processPendingUploads() {
+        long start = System.nanoTime();
+        AsyncTextureLoad load;
+        while ((load = mPendingUploads.poll()) != null) {
+            mLoadingCount--;
+            load.upload();
+            if (System.nanoTime() - start >= mUploadBudget) {
+                break;
+            }
+        }
+    }
+
+    private ExecutorService getLoaderExecutor() {
+        if (mLoaderExecutor == null) {
+            int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            mLoaderExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "TextureLoader");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+        }
+        return mLoaderExecutor;
+    }
+
+    /**
+     * Loads the specified KTX or PKM file as a compressed texture. If the specified file was
+     * loaded before the corresponding Texture is returned instead of a new one. Notice that in
+     * this case the specified {@link TextureProperties} are ignored. See
+     * {@link #createTextureFromCompressedFile(CompressedTextureFile, TextureProperties)}.
+     *
+     * @param assetPath
+     *            path in the assets directory
+     * @param props
+     *            {@link TextureProperties} to set
+     * @return the loaded texture or null if loading failed
+     */
+    public Texture createTextureFromCompressedAsset(String assetPath, TextureProperties props) {
+        int key = assetPath.hashCode();
+        Texture tex = mResourceMap.get(key);
+        if (tex != null) {
+            // this resource was already loaded, return the corresponding Texture
+            return tex;
+        }
+
+        try {
+            CompressedTextureFile file = CompressedTextureFile.loadAsset(mContext.getAssets(), assetPath);
+            tex = createTextureFromCompressedFile(file, props);
+            Log.i(TAG, "Successfully loaded texture: \"" + assetPath + "\"");
+
+            // put Texture to resource map
+            mResourceMap.put(key, tex);
+        } catch (IOException | LightGlException e) {
+            Log.e(TAG, "Failed loading texture: " + assetPath + " (" + e.getMessage() + ")");
+        }
+        return tex;
+    }
+
+    /**
+     * Creates a texture from the given compressed texture data. All mip levels contained in the
+     * file are uploaded with glCompressedTexImage2D. If the texture format is not supported by
+     * the GL context but is ETC1, the texture is decoded by the CPU and uploaded as RGB texture.
+     * Compressed textures with a single mip level can't be used with trilinear filtering, linear
+     * filtering is used instead. TextureProperties can be null, in that case default properties
+     * are used.
+     *
+     * @param file     compressed texture data
+     * @param props    {@link TextureProperties} to set, can be null
+     * @return the loaded texture
+     * @throws LightGlException if the texture format is not supported
+     */
+    public Texture createTextureFromCompressedFile(CompressedTextureFile file, TextureProperties props)
+            throws LightGlException {
+        if (props == null) {
+            props = DEFAULT_PROPERTIES;
+        }
+
+        boolean compressed = isCompressedFormatSupported(file.getFormat());
+        if (!compressed && !file.isEtc1()) {
+            throw new LightGlException("Unsupported compressed texture format: 0x" +
+                    Integer.toHexString(file.getFormat()));
+        }
+
+        Texture tex = createEmptyTexture();
+        bindTextureForUpload(tex);
+        int levels = file.getLevelCount();
+        int size = 0;
+        if (compressed) {
+            for (int i = 0; i < levels; i++) {
+                ByteBuffer data = file.getLevelData(i);
+                GLES20.glCompressedTexImage2D(GL_TEXTURE_2D, i, file.getFormat(),
+                        file.getLevelWidth(i), file.getLevelHeight(i), 0, data.remaining(), data);
+                size += data.remaining();
+            }
+        } else {
+            // decode ETC1 to RGB, rows are tightly packed and therefore not 4-byte aligned
+            ByteBuffer rgb = BufferHelper.createByteBuffer(file.getWidth() * file.getHeight() * 3);
+            setUnpackAlignment(1);
+            for (int i = 0; i < levels; i++) {
+                int w = file.getLevelWidth(i);
+                int h = file.getLevelHeight(i);
+                rgb.clear();
+                ETC1.decodeImage(file.getLevelData(i), rgb, w, h, 3, w * 3);
+                GLES20.glTexImage2D(GL_TEXTURE_2D, i, GLES20.GL_RGB, w, h, 0, GLES20.GL_RGB,
+                        GLES20.GL_UNSIGNED_BYTE, rgb);
+                size += w * h * 3;
+            }
+            setUnpackAlignment(4);
+            Log.w(TAG, "ETC1 is not supported, texture was decoded (" + file.getWidth() + "x" +
+                    file.getHeight() + ")");
+        }
+        mProfiler.count(FrameProfiler.COUNTER_BUFFER_UPLOADS, levels);
+        if (levels == 1 && !compressed) {
+            size = estimateSize(file.getWidth(), file.getHeight(), 3, props);
+        }
+        setTextureSize(tex, size);
+
+        if (levels > 1) {
+            // complete mip chain was uploaded
+            tex.setTextureProperties(props, false);
+        } else if (compressed && props.minFilter == TextureProperties.MinFilterMethod.TRILINEAR) {
+            // mipmaps can't be generated for compressed textures
+            TextureProperties linear = new TextureProperties();
+            linear.minFilter = TextureProperties.MinFilterMethod.LINEAR;
+            linear.magFilter = props.magFilter;
+            linear.xWrapping = props.xWrapping;
+            linear.yWrapping = props.yWrapping;
+            tex.setTextureProperties(linear, false);
+        } else {
+            tex.setTextureProperties(props);
+        }
+        tex.setWidth(file.getWidth());
+        tex.setHeight(file.getHeight());
+        return tex;
+    }
+
+    /**
+     * Returns true if the specified compressed texture format is supported by the GL context.
+     * Must be called from the GL thread.
+     *
+     * @param format    GL format of the compressed texture, e.g.
+     *                  {@link CompressedTextureFile#GL_ETC1_RGB8}
+     * @return true if the format is supported
+     */
+    public boolean isCompressedFormatSupported(int format) {
+        if (mCompressedFormats == null) {
+            int[] count = new int[1];
+            GLES20.glGetIntegerv(GLES20.GL_NUM_COMPRESSED_TEXTURE_FORMATS, count, 0);
+            mCompressedFormats = new int[count[0]];
+            if (count[0] > 0) {
+                GLES20.glGetIntegerv(GLES20.GL_COMPRESSED_TEXTURE_FORMATS, mCompressedFormats, 0);
+            }
+        }
+        for (int f : mCompressedFormats) {
+            if (f == format) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Creates a texture from the given Bitmap with the specified properties,
      *
@@ -198,8 +794,45 @@ public class TextureManager {
         boolean alpha = bitmap.hasAlpha();
         int width = bitmap.getWidth();
         int height = bitmap.getHeight();
-        ByteBuffer data = convertImage(bitmap, alpha);
-        return createTextureFromBuffer(data, width, height, alpha, props);
+        ByteBuffer data = mImageConverter.convert(bitmap, alpha);
+        Texture tex = createTextureFromBuffer(data, width, height, alpha, props);
+        mImageConverter.release(data);
+        return tex;
+    }
+
+    /**
+     * Replaces a part of the given texture by the content of the given bitmap. The bitmap is
+     * converted the same way as by {@link #createTextureFromBitmap(Bitmap, TextureProperties)}.
+     * The texture must have RGBA format.
+     *
+     * @param texture    texture to update
+     * @param x          x offset of the updated part in pixels
+     * @param y          y offset of the updated part in pixels
+     * @param bitmap     Bitmap with the new texture content
+     */
+    public void updateTextureFromBitmap(Texture texture, int x, int y, Bitmap bitmap) {
+        ByteBuffer data = mImageConverter.convert(bitmap, true);
+        updateTextureFromBuffer(texture, x, y, bitmap.getWidth(), bitmap.getHeight(), data);
+        mImageConverter.release(data);
+    }
+
+    /**
+     * Replaces a part of the given texture by the given 32-bit RGBA data. The texture must have
+     * RGBA format.
+     *
+     * @param texture    texture to update
+     * @param x          x offset of the updated part in pixels
+     * @param y          y offset of the updated part in pixels
+     * @param width      width of the updated part in pixels
+     * @param height     height of the updated part in pixels
+     * @param data       Buffer with per-pixel texture data
+     */
+    public void updateTextureFromBuffer(Texture texture, int x, int y, int width, int height,
+                                        ByteBuffer data) {
+        bindTextureForUpload(texture);
+        GLES20.glTexSubImage2D(GL_TEXTURE_2D, 0, x, y, width, height, GLES20.GL_RGBA,
+                GLES20.GL_UNSIGNED_BYTE, data);
+        mProfiler.count(FrameProfiler.COUNTER_BUFFER_UPLOADS, 1);
     }
 
     /**
@@ -227,24 +860,9 @@ public class TextureManager {
                     "platforms... (size is " + width + "x" + height + ")");
         }
 
-        int target = GL_TEXTURE_2D;
-        int format = hasAlpha ? GLES20.GL_RGBA : GLES20.GL_RGB;
-        //int components = hasAlpha ? 4 : 3;
-
-        // create texture handle
+        // create texture handle and load texture data
         Texture tex = createEmptyTexture();
-
-        // load texture data
-        bindTexture(tex, GL_TEXTURE0);
-        GLES20.glTexImage2D(target, 0, format, width, height, 0, format, GLES20.GL_UNSIGNED_BYTE, data);
-        if (props.minFilter == TextureProperties.MinFilterMethod.TRILINEAR) {
-            GLES20.glGenerateMipmap(GL_TEXTURE_2D);
-        }
-
-        tex.setTextureProperties(props);
-        tex.setWidth(width);
-        tex.setHeight(height);
-
+        uploadPixels(tex, data, width, height, hasAlpha, props);
         return tex;
     }
 
@@ -259,58 +877,95 @@ public class TextureManager {
         return tex;
     }
 
+    private boolean isPow2(int sz) {
+        while ((sz & 1) == 0) {
+            sz >>= 1;
+        }
+        return sz == 1;
+    }
+
     /**
-     * Helper method that converts an BufferedImage to a ByteBuffer.
-     *
-     * @param image
-     *            BufferedImage to convert
-     * @param alpha
-     *            set to true if the specified image has an alpha channel
-     * @return a ByteBuffer containing the image data
-     */
-    private ByteBuffer convertImage(Bitmap image, boolean alpha) {
-        int w = image.getWidth();
-        int h = image.getHeight();
-        int stride = alpha ? 4 : 3;
-        byte[] buf = new byte[w * h * stride];
-
-        if (image.getConfig() == Bitmap.Config.ARGB_8888) {
-            // this take even more memory but is significantly faster
-            buf = new byte[w * h * 4];
-            IntBuffer out = IntBuffer.allocate(w*h);
-            image.copyPixelsToBuffer(out);
-            for (int i = 0, j = 0; i < w * h; i++, j += stride) {
-                int px = out.get(i);
-                int pa = ((px >> 24) & 0xff);
-                if (pa > 0) {
-                    float fa = 255.0f / pa;
-                    buf[j]     = (byte) (( px        & 0xff) * fa);
-                    buf[j + 1] = (byte) (((px >> 8)  & 0xff) * fa);
-                    buf[j + 2] = (byte) (((px >> 16) & 0xff) * fa);
+     * A texture, which is decoded by the loader executor and uploaded by the GL thread.
+     */
+    private class AsyncTextureLoad implements Runnable {
+        private final Texture mTexture;
+        private final int mKey;
+        private final String mAssetPath;
+        private final TextureProperties mProps;
+
+        // decoded texture data, null if decoding failed
+        private ByteBuffer mData;
+        private int mWidth;
+        private int mHeight;
+        private boolean mAlpha;
+
+        AsyncTextureLoad(Texture texture, int key, String assetPath, TextureProperties props) {
+            mTexture = texture;
+            mKey = key;
+            mAssetPath = assetPath;
+            mProps = props;
+        }
+
+        /**
+         * Decodes and converts the texture file, is called by the loader executor.
+         */
+        @Override
+        public void run() {
+            try {
+                InputStream in = mContext.getAssets().open(mAssetPath);
+                Bitmap bitmap = BitmapFactory.decodeStream(in);
+                in.close();
+
+                if (bitmap != null) {
+                    mAlpha = bitmap.hasAlpha();
+                    mWidth = bitmap.getWidth();
+                    mHeight = bitmap.getHeight();
+                    mData = mImageConverter.convert(bitmap, mAlpha);
+                    bitmap.recycle();
+                } else {
+                    Log.e(TAG, "Failed loading texture: " + mAssetPath + " (unsupported format)");
                 }
-                if (alpha) {
-                    buf[j + 3] = (byte) pa;
+            } catch (IOException e) {
+                Log.e(TAG, "Failed loading texture: " + mAssetPath + " (" + e.getMessage() + ")");
+            }
+
+            // the queue publishes the decoded data to the GL thread
+            mPendingUploads.add(this);
+            Runnable callback = mUploadReadyCallback;
+            if (callback != null) {
+                callback.run();
+            }
+        }
+
+        /**
+         * Uploads the decoded texture data, is called by the GL thread.
+         */
+        void upload() {
+            mTexture.setLoading(false);
+            if (!mTexture.isValid()) {
+                // texture was deleted or GL context was lost while loading
+                if (mData != null) {
+                    mImageConverter.release(mData);
+                    mData = null;
                 }
+                return;
             }
-        } else {
-            for (int i = 0; i < w * h; i++) {
-                int px = image.getPixel(i % w, i / w);
-                buf[i * stride]     = (byte) ((px >> 16) & 0xff);
-                buf[i * stride + 1] = (byte) ((px >>  8) & 0xff);
-                buf[i * stride + 2] = (byte) (px & 0xff);
-                if (alpha) {
-                    buf[i * stride + 3] = (byte) ((px >> 24) & 0xff);
+            if (mData == null) {
+                // keep the placeholder but allow another attempt, the texture itself can't be
+                // evicted and reloaded anymore
+                mTexture.setSource(null, null);
+                if (mResourceMap.get(mKey) == mTexture) {
+                    mResourceMap.remove(mKey);
                 }
+                return;
             }
-        }
 
-        return BufferHelper.createByteBuffer(buf);
-    }
+            uploadPixels(mTexture, mData, mWidth, mHeight, mAlpha, mProps);
+            mImageConverter.release(mData);
+            mData = null;
 
-    private boolean isPow2(int sz) {
-        while ((sz & 1) == 0) {
-            sz >>= 1;
+            RedrawTracker.notifyChanged();
+            Log.i(TAG, "Successfully loaded texture: \"" + mAssetPath + "\"");
         }
-        return sz == 1;
     }
 }
@@ -140,7 +140,7 @@ public class TextureRenderer {
 
         // draw scene
         if (nodeToRender != null) {
-            nodeToRender.render(glContext);
+            glContext.getState().renderNode(glContext, nodeToRender);
         }
 
         // restore normal state
@@ -3,9 +3,6 @@ package de.fabmax.lightgl;
 import android.util.Log;
 
 import static android.opengl.GLES20.glGetUniformLocation;
-import static android.opengl.GLES20.glUniform1f;
-import static android.opengl.GLES20.glUniform1i;
-import static android.opengl.GLES20.glUniformMatrix4fv;
 
 /**
  * A basic texture shader without any lighting
@@ -17,9 +14,9 @@ public class TextureShader extends Shader {
 
     private static final String TAG = "TextureShader";
 
-    private int muMvpMatrixHandle = 0;
-    private int muTextureSamplerHandle = 0;
-    private int muAlphaHandle = 0;
+    private int muMvpMatrixHandle = -1;
+    private int muTextureSamplerHandle = -1;
+    private int muAlphaHandle = -1;
 
     private Texture mTexture;
     private float mAlpha = 1;
@@ -66,7 +63,7 @@ public class TextureShader extends Shader {
     public void setAlpha(LightGlContext glContext, float alpha) {
         mAlpha = alpha;
         if (glContext.getShaderManager().getBoundShader() == this) {
-            glUniform1f(muAlphaHandle, mAlpha);
+            setUniform1f(muAlphaHandle, mAlpha);
         }
     }
 
@@ -109,10 +106,10 @@ public class TextureShader extends Shader {
         // pass current MVP matrix to shader
         onMatrixUpdate(glContext.getState());
 
-        glUniform1f(muAlphaHandle, mAlpha);
+        setUniform1f(muAlphaHandle, mAlpha);
         if(mTexture != null) {
             glContext.getTextureManager().bindTexture(mTexture);
-            glUniform1i(muTextureSamplerHandle, 0);
+            setUniform1i(muTextureSamplerHandle, 0);
         }
     }
 
@@ -124,7 +121,8 @@ public class TextureShader extends Shader {
     @Override
     public void onMatrixUpdate(GfxState state) {
         // pass current MVP matrix to shader
-        glUniformMatrix4fv(muMvpMatrixHandle, 1, false, state.getMvpMatrix(), 0);
+        setUniformMatrix4fv(muMvpMatrixHandle, state.getMvpMatrix(), 0,
+                state.getMvpMatrixVersion());
     }
 
 }
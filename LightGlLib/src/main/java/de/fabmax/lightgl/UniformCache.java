@@ -0,0 +1,155 @@
+package de.fabmax.lightgl;
+
+import java.util.Arrays;
+
+import static android.opengl.GLES20.glUniform1f;
+import static android.opengl.GLES20.glUniform1i;
+import static android.opengl.GLES20.glUniform3f;
+import static android.opengl.GLES20.glUniform4f;
+import static android.opengl.GLES20.glUniform4fv;
+import static android.opengl.GLES20.glUniformMatrix4fv;
+
+/**
+ * UniformCache keeps a shadow copy of the uniform values uploaded to a shader program. Uniform
+ * values are part of the program state, so uploads of unchanged values can be skipped. Matrix
+ * uniforms can be tracked by the version numbers of the {@link GfxState} matrices instead of by
+ * value. Caches are managed by the {@link ShaderManager}, one per GL program, because shaders
+ * with equal source code share the same program.
+ *
+ * Every issued upload is counted as {@link FrameProfiler#COUNTER_UNIFORM_UPLOADS}.
+ *
+ * @author fabmax
+ */
+class UniformCache {
+
+    // uniforms with larger locations are not cached
+    private static final int MAX_CACHED_LOCATION = 255;
+
+    // cache states: not cached, value cached, everything greater is a matrix version
+    private static final long NOT_CACHED = 0;
+    private static final long VALUE_CACHED = -1;
+
+    private final FrameProfiler mProfiler;
+
+    // 16 values per uniform location
+    private float[] mValues = new float[0];
+    private long[] mStates = new long[0];
+
+    UniformCache(FrameProfiler profiler) {
+        mProfiler = profiler;
+    }
+
+    void setUniform1i(int location, int value) {
+        if (needsUpload(location, value, 0, 0, 0)) {
+            glUniform1i(location, value);
+            mProfiler.count(FrameProfiler.COUNTER_UNIFORM_UPLOADS, 1);
+        }
+    }
+
+    void setUniform1f(int location, float x) {
+        if (needsUpload(location, x, 0, 0, 0)) {
+            glUniform1f(location, x);
+            mProfiler.count(FrameProfiler.COUNTER_UNIFORM_UPLOADS, 1);
+        }
+    }
+
+    void setUniform3f(int location, float x, float y, float z) {
+        if (needsUpload(location, x, y, z, 0)) {
+            glUniform3f(location, x, y, z);
+            mProfiler.count(FrameProfiler.COUNTER_UNIFORM_UPLOADS, 1);
+        }
+    }
+
+    void setUniform4f(int location, float x, float y, float z, float w) {
+        if (needsUpload(location, x, y, z, w)) {
+            glUniform4f(location, x, y, z, w);
+            mProfiler.count(FrameProfiler.COUNTER_UNIFORM_UPLOADS, 1);
+        }
+    }
+
+    void setUniformMatrix4fv(int location, float[] matrix, int offset) {
+        if (location < 0) {
+            return;
+        }
+        if (ensureCapacity(location)) {
+            int i = location * 16;
+            if (mStates[location] == VALUE_CACHED && equals(matrix, offset, i)) {
+                return;
+            }
+            System.arraycopy(matrix, offset, mValues, i, 16);
+            mStates[location] = VALUE_CACHED;
+        }
+        glUniformMatrix4fv(location, 1, false, matrix, offset);
+        mProfiler.count(FrameProfiler.COUNTER_UNIFORM_UPLOADS, 1);
+    }
+
+    void setUniformMatrix4fv(int location, float[] matrix, int offset, long version) {
+        if (location < 0) {
+            return;
+        }
+        if (ensureCapacity(location)) {
+            if (mStates[location] == version) {
+                return;
+            }
+            mStates[location] = version;
+        }
+        glUniformMatrix4fv(location, 1, false, matrix, offset);
+        mProfiler.count(FrameProfiler.COUNTER_UNIFORM_UPLOADS, 1);
+    }
+
+    void setUniformMatrix4fv(int location, int count, float[] matrices, int offset) {
+        if (location >= 0) {
+            glUniformMatrix4fv(location, count, false, matrices, offset);
+            mProfiler.count(FrameProfiler.COUNTER_UNIFORM_UPLOADS, 1);
+        }
+    }
+
+    void setUniform4fv(int location, int count, float[] values, int offset) {
+        if (location >= 0) {
+            glUniform4fv(location, count, values, offset);
+            mProfiler.count(FrameProfiler.COUNTER_UNIFORM_UPLOADS, 1);
+        }
+    }
+
+    private boolean needsUpload(int location, float x, float y, float z, float w) {
+        if (location < 0) {
+            // uniform is not used by the program, GL would ignore the upload anyway
+            return false;
+        }
+        if (!ensureCapacity(location)) {
+            return true;
+        }
+        int i = location * 16;
+        if (mStates[location] == VALUE_CACHED && mValues[i] == x && mValues[i + 1] == y &&
+                mValues[i + 2] == z && mValues[i + 3] == w) {
+            return false;
+        }
+        mValues[i] = x;
+        mValues[i + 1] = y;
+        mValues[i + 2] = z;
+        mValues[i + 3] = w;
+        mStates[location] = VALUE_CACHED;
+        return true;
+    }
+
+    private boolean equals(float[] matrix, int offset, int cacheOffset) {
+        for (int i = 0; i < 16; i++) {
+            if (matrix[offset + i] != mValues[cacheOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean ensureCapacity(int location) {
+        if (location > MAX_CACHED_LOCATION) {
+            return false;
+        }
+        if (location >= mStates.length) {
+            int n = Math.min(Math.max(location + 1, mStates.length * 2), MAX_CACHED_LOCATION + 1);
+            mStates = Arrays.copyOf(mStates, n);
+            mValues = Arrays.copyOf(mValues, n * 16);
+        }
+        return true;
+    }
+}
@@ -115,6 +115,17 @@ public class PhysicsBody extends TransformGroup {
         }
     }
 
+    /**
+     * Returns true if this body is simulated and awake, i.e. it is not static and was not
+     * deactivated by the physics engine after it came to rest.
+     *
+     * @return true if this body is awake
+     */
+    public boolean isActive() {
+        RigidBody body = mPhysicsBody;
+        return body != null && !body.isStaticObject() && body.isActive();
+    }
+
     /**
      * Returns the mesh, which is rendered for this physics body.
      *
@@ -125,14 +136,18 @@ public class PhysicsBody extends TransformGroup {
     }
 
     /**
-     * Replaces the mesh, which is used to rendered this body.
+     * Replaces the mesh, which is used to rendered this body. The mesh can be null, e.g. if the
+     * body is rendered as an instance of an {@link de.fabmax.lightgl.scene.InstancedMesh} using
+     * {@link #getTransformation()} as instance transform.
      *
-     * @param mesh    New mesh to set
+     * @param mesh    New mesh to set, can be null
      */
     public void setMesh(Mesh mesh) {
         mGfxMesh = mesh;
         removeAllChildren();
-        addChild(mGfxMesh);
+        if (mGfxMesh != null) {
+            addChild(mGfxMesh);
+        }
     }
 
     /**
@@ -200,19 +215,10 @@ public class PhysicsBody extends TransformGroup {
         synchronized (mPhysicsTransform) {
             mBufferedTransform.set(mPhysicsTransform);
         }
-    }
-
-    /**
-     * Applies the transformation computed by the physics simulation and renders this physics
-     * object.
-     */
-    @Override
-    public void render(LightGlContext glContext) {
-        // apply current transformation from physics to parent transform group
+        // apply current transformation, so that bounds are up to date when the frame is rendered
         mBufferedTransform.getOpenGLMatrix(mTransformationM);
-
-        // render body
-        super.render(glContext);
+        mTransformDirty = true;
+        invalidateBounds();
     }
 
     /**
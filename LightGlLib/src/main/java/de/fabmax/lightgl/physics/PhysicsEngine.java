@@ -201,6 +201,29 @@ public class PhysicsEngine {
         }
     }
 
+    /**
+     * Returns true if the simulation is running and at least one body is awake or waits to be
+     * added to the simulation.
+     *
+     * @return true if the simulation moves any bodies
+     */
+    public boolean hasActiveBodies() {
+        if (!mActive) {
+            return false;
+        }
+        synchronized (mWorld) {
+            if (!mAddObjects.isEmpty()) {
+                return true;
+            }
+            for (int i = 0; i < mObjects.size(); i++) {
+                if (mObjects.get(i).isActive()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Starts / resumes physics simulation.
      */
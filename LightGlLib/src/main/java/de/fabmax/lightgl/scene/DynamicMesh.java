@@ -3,22 +3,45 @@ package de.fabmax.lightgl.scene;
 
 import android.util.Log;
 
+import java.nio.Buffer;
 import java.nio.ShortBuffer;
+import java.util.Arrays;
 
+import de.fabmax.lightgl.FrameProfiler;
 import de.fabmax.lightgl.LightGlContext;
+import de.fabmax.lightgl.RedrawTracker;
 import de.fabmax.lightgl.ShaderAttributeBinder;
 import de.fabmax.lightgl.util.BufferHelper;
 import de.fabmax.lightgl.util.IntList;
 import de.fabmax.lightgl.util.MeshBuilder;
 import de.fabmax.lightgl.util.MeshData;
+import de.fabmax.lightgl.util.MeshFactory;
 import de.fabmax.lightgl.util.PackedVertexBuffer;
 
+import static android.opengl.GLES20.GL_ARRAY_BUFFER;
+import static android.opengl.GLES20.GL_ELEMENT_ARRAY_BUFFER;
+import static android.opengl.GLES20.GL_STREAM_DRAW;
 import static android.opengl.GLES20.GL_TRIANGLES;
 import static android.opengl.GLES20.GL_UNSIGNED_SHORT;
+import static android.opengl.GLES20.glBindBuffer;
+import static android.opengl.GLES20.glBufferData;
+import static android.opengl.GLES20.glBufferSubData;
+import static android.opengl.GLES20.glDeleteBuffers;
 import static android.opengl.GLES20.glDrawElements;
+import static android.opengl.GLES20.glGenBuffers;
+import static android.opengl.GLES20.glVertexAttribPointer;
 
 /**
- * A dynamic (modifiable) mesh.
+ * A dynamic (modifiable) mesh. DynamicMesh uses 16-bit indices, hence it can hold at most
+ * {@link MeshFactory#MAX_SHORT_INDEX_VERTICES} vertices. Larger meshes can be split with
+ * {@link MeshFactory#splitMeshData(MeshData, int)}.
+ *
+ * By default the mesh data is kept in client side arrays, which are copied by GL on every draw
+ * call. For geometry that changes frequently but is drawn more than once or changes only partially,
+ * the data can be streamed into a ring of GL buffer objects instead, see
+ * {@link #setBufferRingSize(int)}. In that case only modified vertex and index ranges are uploaded
+ * with glBufferSubData. If most of the data changed, the buffer storage is orphaned and re-uploaded
+ * as a whole, so that the driver does not have to wait for pending draw calls using the old data.
  *
  * @author fth
  */
@@ -26,6 +49,10 @@ public class DynamicMesh extends Mesh {
 
     private static final String TAG = "DynamicMesh";
 
+    /** Buffer ring size used by {@link de.fabmax.lightgl.util.Painter}, the ring advances once
+     *  per frame, so this is one buffer for every frame that can be in flight */
+    public static final int DEFAULT_BUFFER_RING_SIZE = 3;
+
     protected final int mGlPrimitiveType;
 
     protected final ShortBuffer mIndexBuffer;
@@ -34,38 +61,59 @@ public class DynamicMesh extends Mesh {
     protected int mVertIndex = 0;
     protected int mElementIdxIndex = 0;
 
+    // GL buffer ring, empty if client side arrays are used
+    private int[] mVertexBufferHandles = new int[0];
+    private int[] mIndexBufferHandles = new int[0];
+    private int mRingIndex = 0;
+    // frame in which the current ring buffer was selected
+    private long mRingFrame = -1;
+    // modified vertex and index ranges [min, max) for every ring buffer, modifications are
+    // accumulated until the buffer is used again
+    private int[] mDirtyVertMin = new int[0];
+    private int[] mDirtyVertMax = new int[0];
+    private int[] mDirtyIdxMin = new int[0];
+    private int[] mDirtyIdxMax = new int[0];
+    // true if the mesh was modified since the current ring buffer was updated
+    private boolean mModified = false;
+    // true if the current modification was already reported to the RedrawTracker, a mesh filled
+    // index by index reports a change only once until it is drawn again
+    private boolean mChangeNotified = false;
+
     public DynamicMesh(int maxVertices, int maxIndices, boolean hasNormals, boolean hasTexCoords, boolean hasColors) {
     	this(maxVertices, maxIndices, hasNormals, hasTexCoords, hasColors, GL_TRIANGLES);
     }
 
     public DynamicMesh(int maxVertices, int maxIndices, boolean hasNormals, boolean hasTexCoords, boolean hasColors,
                        int primitiveType) {
+        if (maxVertices > MeshFactory.MAX_SHORT_INDEX_VERTICES) {
+            throw new IllegalArgumentException("DynamicMesh supports at most " +
+                    MeshFactory.MAX_SHORT_INDEX_VERTICES + " vertices, requested: " + maxVertices);
+        }
         mGlPrimitiveType = primitiveType;
-        
-        // determine index buffer type based on mesh size
+
+        // 16-bit indices are sufficient for the supported mesh size
         mIndexBuffer = BufferHelper.createShortBuffer(maxIndices);
         mVertexBuffer = new PackedVertexBuffer(maxVertices, hasNormals, hasTexCoords, hasColors);
 
         // create shader attribute binders
-        ShaderAttributeBinder binder = ShaderAttributeBinder
-                .createFloatBufferBinder(mVertexBuffer.data, 3, mVertexBuffer.strideBytes);
+        ShaderAttributeBinder binder = new DynamicAttributeBinder(3);
         binder.setOffset(mVertexBuffer.offsetPositions);
         setVertexPositionBinder(binder);
 
         if (hasNormals) {
-            binder = ShaderAttributeBinder.createFloatBufferBinder(mVertexBuffer.data, 3, mVertexBuffer.strideBytes);
+            binder = new DynamicAttributeBinder(3);
             binder.setOffset(mVertexBuffer.offsetNormals);
             setVertexNormalBinder(binder);
         }
 
         if (hasTexCoords) {
-            binder = ShaderAttributeBinder.createFloatBufferBinder(mVertexBuffer.data, 2, mVertexBuffer.strideBytes);
+            binder = new DynamicAttributeBinder(2);
             binder.setOffset(mVertexBuffer.offsetTexCoords);
             setVertexTexCoordBinder(binder);
         }
 
         if (hasColors) {
-            binder = ShaderAttributeBinder.createFloatBufferBinder(mVertexBuffer.data, 4, mVertexBuffer.strideBytes);
+            binder = new DynamicAttributeBinder(4);
             binder.setOffset(mVertexBuffer.offsetColors);
             setVertexColorBinder(binder);
         }
@@ -88,30 +136,113 @@ public class DynamicMesh extends Mesh {
         updateMeshData(meshData);
     }
 
+    /**
+     * Returns the vertex buffer of this mesh. If the buffer content is modified directly,
+     * {@link #invalidate()} must be called afterwards.
+     *
+     * @return the vertex buffer of this mesh
+     */
     public PackedVertexBuffer getBuffer() {
         return mVertexBuffer;
     }
 
+    /**
+     * Returns the number of GL buffers used to stream the mesh data, 0 if client side arrays are
+     * used.
+     *
+     * @return the buffer ring size
+     */
+    public int getBufferRingSize() {
+        return mVertexBufferHandles.length;
+    }
+
+    /**
+     * Sets the number of GL buffer objects the mesh data is streamed into. The first time the mesh
+     * is drawn after it was modified in a frame, the next buffer of the ring is updated, so that
+     * buffers which are still used by previous frames are not touched. If the mesh is modified
+     * and drawn again within the same frame, the storage of the current buffer is orphaned and
+     * re-uploaded. Use 2 or 3 for meshes that are modified every frame, 1 for meshes that are
+     * rarely modified. 0 switches back to client side arrays, which is the default. Must be
+     * called from the GL thread.
+     *
+     * @param ringSize    number of GL buffers, 0 to use client side arrays
+     */
+    public void setBufferRingSize(int ringSize) {
+        if (ringSize < 0) {
+            throw new IllegalArgumentException("Buffer ring size must not be negative");
+        }
+        if (ringSize == mVertexBufferHandles.length) {
+            return;
+        }
+        deleteBufferRing();
+
+        mVertexBufferHandles = new int[ringSize];
+        mIndexBufferHandles = new int[ringSize];
+        mDirtyVertMin = new int[ringSize];
+        mDirtyVertMax = new int[ringSize];
+        mDirtyIdxMin = new int[ringSize];
+        mDirtyIdxMax = new int[ringSize];
+        Arrays.fill(mDirtyVertMin, Integer.MAX_VALUE);
+        Arrays.fill(mDirtyIdxMin, Integer.MAX_VALUE);
+        mRingIndex = 0;
+        mRingFrame = -1;
+        if (ringSize > 0) {
+            int vertBytes = mVertexBuffer.capacity() * mVertexBuffer.strideBytes;
+            int idxBytes = mIndexBuffer.capacity() * 2;
+            glGenBuffers(ringSize, mVertexBufferHandles, 0);
+            glGenBuffers(ringSize, mIndexBufferHandles, 0);
+            for (int i = 0; i < ringSize; i++) {
+                glBindBuffer(GL_ARRAY_BUFFER, mVertexBufferHandles[i]);
+                glBufferData(GL_ARRAY_BUFFER, vertBytes, null, GL_STREAM_DRAW);
+                glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, mIndexBufferHandles[i]);
+                glBufferData(GL_ELEMENT_ARRAY_BUFFER, idxBytes, null, GL_STREAM_DRAW);
+            }
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+        }
+        invalidate();
+    }
+
+    /**
+     * Marks the complete mesh data as modified. Must be called if the vertex buffer was modified
+     * directly. Modifications made by the methods of this class are tracked automatically.
+     */
+    public void invalidate() {
+        markVerticesDirty(0, mVertIndex);
+        markIndicesDirty(0, mElementIdxIndex);
+        notifyChanged();
+    }
+
     public int addVertex(float[] position, int posOff, float[] color, int colOff) {
         mVertexBuffer.setVertexAt(mVertIndex, position, posOff, null, 0, null, 0, color, colOff);
+        markVerticesDirty(mVertIndex, mVertIndex + 1);
+        notifyChanged();
         return mVertIndex++;
     }
 
     public int addVertex(float[] position, int posOff, float[] normal, int normalOff, float[] texCoord, int texOff) {
         mVertexBuffer.setVertexAt(mVertIndex, position, posOff, normal, normalOff, texCoord, texOff, null, 0);
+        markVerticesDirty(mVertIndex, mVertIndex + 1);
+        notifyChanged();
         return mVertIndex++;
     }
 
     public void addElementIndex(int elementIndex) {
+        if (elementIndex < 0 || elementIndex >= MeshFactory.MAX_SHORT_INDEX_VERTICES) {
+            throw new IllegalArgumentException("Element index out of 16-bit range: " + elementIndex);
+        }
         mIndexBuffer.limit(mElementIdxIndex + 1);
         mIndexBuffer.put(mElementIdxIndex, (short) elementIndex);
+        markIndicesDirty(mElementIdxIndex, mElementIdxIndex + 1);
         mElementIdxIndex++;
+        notifyChanged();
     }
 
     public void clear() {
         mIndexBuffer.limit(0);
         mVertIndex = 0;
         mElementIdxIndex = 0;
+        notifyChanged();
     }
 
     public int size() {
@@ -131,7 +262,8 @@ public class DynamicMesh extends Mesh {
         mElementIdxIndex = len;
 
         mVertexBuffer.pack(builder);
-        mVertIndex = builder.getVertexCount();
+        mVertIndex = mVertexBuffer.size();
+        invalidate();
     }
 
     public void updateMeshData(MeshData data) {
@@ -141,19 +273,186 @@ public class DynamicMesh extends Mesh {
             Log.w(TAG, "Supplied mesh data does not fit in this DynamicMesh, truncating...");
         }
         mIndexBuffer.limit(len);
-        //mIndexBuffer.put(data.indices, 0, len);
-        for (int i = 0; i < data.indices.length; i++) {
+        for (int i = 0; i < len; i++) {
             mIndexBuffer.put((short) data.indices[i]);
         }
         mIndexBuffer.rewind();
         mElementIdxIndex = len;
 
         mVertexBuffer.pack(data);
-        mVertIndex = data.getVertexCount();
+        mVertIndex = mVertexBuffer.size();
+        invalidate();
+    }
+
+    /**
+     * DynamicMeshes are usually modified and drawn multiple times per frame (e.g. by
+     * {@link de.fabmax.lightgl.util.Painter}), hence they are never queued.
+     *
+     * @return always false
+     */
+    @Override
+    public boolean isQueueable() {
+        return false;
+    }
+
+    /**
+     * Uploads pending modifications to the buffer ring before the mesh is drawn.
+     *
+     * @see Mesh#draw(LightGlContext)
+     */
+    @Override
+    public void draw(LightGlContext context) {
+        if (mVertexBufferHandles.length > 0 && mModified) {
+            long frame = context.getState().getFrameNumber();
+            boolean orphan = frame == mRingFrame;
+            if (!orphan) {
+                // first modification in this frame, continue with the buffer least recently used
+                mRingIndex = (mRingIndex + 1) % mVertexBufferHandles.length;
+                mRingFrame = frame;
+            }
+            // the current buffer was already drawn in this frame if the ring didn't advance,
+            // don't wait for that draw call but request new storage
+            uploadDirtyRanges(orphan, context.getEngine().getProfiler());
+        }
+        // further modifications are changes to the drawn state and have to be reported again
+        mChangeNotified = false;
+        super.draw(context);
     }
 
     @Override
     protected void drawElements(LightGlContext context) {
-        glDrawElements(mGlPrimitiveType, mIndexBuffer.remaining(), GL_UNSIGNED_SHORT, mIndexBuffer);
+        int count = mIndexBuffer.remaining();
+        FrameProfiler profiler = context.getEngine().getProfiler();
+        if (mVertexBufferHandles.length > 0) {
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, mIndexBufferHandles[mRingIndex]);
+            glDrawElements(mGlPrimitiveType, count, GL_UNSIGNED_SHORT, 0);
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+        } else {
+            glDrawElements(mGlPrimitiveType, count, GL_UNSIGNED_SHORT, mIndexBuffer);
+            // client side vertex arrays are uploaded with every draw call
+            profiler.count(FrameProfiler.COUNTER_BUFFER_UPLOADS, 1);
+        }
+        profiler.countDrawCall(mGlPrimitiveType == GL_TRIANGLES ? count / 3 : 0);
+    }
+
+    /**
+     * Deletes the buffer ring of this mesh.
+     */
+    @Override
+    public void delete(LightGlContext context) {
+        super.delete(context);
+        deleteBufferRing();
+        mVertexBufferHandles = new int[0];
+        mIndexBufferHandles = new int[0];
+    }
+
+    private void deleteBufferRing() {
+        if (mVertexBufferHandles.length > 0) {
+            glDeleteBuffers(mVertexBufferHandles.length, mVertexBufferHandles, 0);
+            glDeleteBuffers(mIndexBufferHandles.length, mIndexBufferHandles, 0);
+        }
+    }
+
+    /**
+     * Uploads the modified vertex and index ranges of the current ring buffer. If orphan is true,
+     * modified buffers are re-uploaded into new storage.
+     */
+    private void uploadDirtyRanges(boolean orphan, FrameProfiler profiler) {
+        int i = mRingIndex;
+        glBindBuffer(GL_ARRAY_BUFFER, mVertexBufferHandles[i]);
+        uploadRange(GL_ARRAY_BUFFER, mVertexBuffer.data, mVertexBuffer.capacity(), mVertIndex,
+                mDirtyVertMin[i], mDirtyVertMax[i], mVertexBuffer.strideBytes, orphan, profiler);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, mIndexBufferHandles[i]);
+        uploadRange(GL_ELEMENT_ARRAY_BUFFER, mIndexBuffer, mIndexBuffer.capacity(), mElementIdxIndex,
+                mDirtyIdxMin[i], mDirtyIdxMax[i], 2, orphan, profiler);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+
+        mDirtyVertMin[i] = mDirtyIdxMin[i] = Integer.MAX_VALUE;
+        mDirtyVertMax[i] = mDirtyIdxMax[i] = 0;
+        mModified = false;
+    }
+
+    /**
+     * Uploads the element range [min, max) of data to the bound buffer. If the range covers most
+     * of the used elements or orphan is true, the buffer storage is orphaned and all used elements
+     * are uploaded.
+     */
+    private static void uploadRange(int target, Buffer data, int capacity, int used, int min,
+                                    int max, int elemBytes, boolean orphan, FrameProfiler profiler) {
+        max = Math.min(max, used);
+        if (min >= max) {
+            return;
+        }
+        if (orphan || (max - min) * 2 > used) {
+            // most of the data changed, request new storage instead of waiting for the old one
+            glBufferData(target, capacity * elemBytes, null, GL_STREAM_DRAW);
+            min = 0;
+            max = used;
+        }
+        int elemSize = elemBytes / (data instanceof ShortBuffer ? 2 : 4);
+        data.position(min * elemSize);
+        glBufferSubData(target, min * elemBytes, (max - min) * elemBytes, data);
+        data.position(0);
+        profiler.count(FrameProfiler.COUNTER_BUFFER_UPLOADS, 1);
+    }
+
+    /**
+     * Reports a modification of this mesh to the {@link RedrawTracker}. Only the first
+     * modification after the mesh was drawn is reported, the tracker only needs to know that
+     * something changed.
+     */
+    private void notifyChanged() {
+        if (!mChangeNotified) {
+            mChangeNotified = true;
+            RedrawTracker.notifyChanged();
+        }
+    }
+
+    private void markVerticesDirty(int min, int max) {
+        for (int i = 0; i < mDirtyVertMin.length; i++) {
+            mDirtyVertMin[i] = Math.min(mDirtyVertMin[i], min);
+            mDirtyVertMax[i] = Math.max(mDirtyVertMax[i], max);
+            mModified = true;
+        }
+    }
+
+    private void markIndicesDirty(int min, int max) {
+        for (int i = 0; i < mDirtyIdxMin.length; i++) {
+            mDirtyIdxMin[i] = Math.min(mDirtyIdxMin[i], min);
+            mDirtyIdxMax[i] = Math.max(mDirtyIdxMax[i], max);
+            mModified = true;
+        }
+    }
+
+    /**
+     * ShaderAttributeBinder for the interleaved vertex data of a DynamicMesh. Binds the current
+     * ring buffer if buffer objects are used, the client side vertex buffer otherwise.
+     */
+    private class DynamicAttributeBinder extends ShaderAttributeBinder {
+
+        private DynamicAttributeBinder(int size) {
+            setSize(size);
+            setStride(mVertexBuffer.strideBytes);
+        }
+
+        @Override
+        public void bindAttribute(int target) {
+            if (mVertexBufferHandles.length > 0) {
+                glBindBuffer(GL_ARRAY_BUFFER, mVertexBufferHandles[mRingIndex]);
+                glVertexAttribPointer(target, mSize, mType, mNormalized, mStride, mOffset * 4);
+                glBindBuffer(GL_ARRAY_BUFFER, 0);
+            } else {
+                mVertexBuffer.data.position(mOffset);
+                glVertexAttribPointer(target, mSize, mType, mNormalized, mStride, mVertexBuffer.data);
+                mVertexBuffer.data.position(0);
+            }
+        }
+
+        @Override
+        public void delete() {
+            // buffers are owned by the mesh
+        }
     }
 }
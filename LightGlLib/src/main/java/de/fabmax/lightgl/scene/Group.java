@@ -2,10 +2,14 @@ package de.fabmax.lightgl.scene;
 
 import java.util.ArrayList;
 
+import de.fabmax.lightgl.BoundingBox;
+import de.fabmax.lightgl.GfxState;
 import de.fabmax.lightgl.LightGlContext;
+import de.fabmax.lightgl.RedrawTracker;
 
 /**
- * A scene element that groups multiple child nodes.
+ * A scene element that groups multiple child nodes. Children, whose bounds are outside of the
+ * current view frustum, are not rendered.
  * 
  * @author fabmax
  *
@@ -22,6 +26,9 @@ public class Group extends Node {
      */
     public void addChild(Node child) {
         mChildren.add(child);
+        child.setParent(this);
+        invalidateBounds();
+        RedrawTracker.notifyChanged();
     }
 
     /**
@@ -31,14 +38,25 @@ public class Group extends Node {
      *            the child to remove from this group
      */
     public void removeChild(Node child) {
-        mChildren.remove(child);
+        if (mChildren.remove(child) && child.getParent() == this) {
+            child.setParent(null);
+        }
+        invalidateBounds();
+        RedrawTracker.notifyChanged();
     }
 
     /**
      * Removes all children from this group.
      */
     public void removeAllChildren() {
+        for (int i=0; i < mChildren.size(); i++) {
+            if (mChildren.get(i).getParent() == this) {
+                mChildren.get(i).setParent(null);
+            }
+        }
         mChildren.clear();
+        invalidateBounds();
+        RedrawTracker.notifyChanged();
     }
 
     /**
@@ -51,15 +69,43 @@ public class Group extends Node {
     }
 
     /**
-     * Renders this group by calling the render methods of all children.
+     * Computes the bounds of this group as union of the bounds of all children. If any child has
+     * no bounds, the group has no bounds either.
+     *
+     * @see Node#computeBounds(BoundingBox)
+     */
+    @Override
+    protected boolean computeBounds(BoundingBox result) {
+        if (mChildren.isEmpty()) {
+            return false;
+        }
+        for (int i=0; i < mChildren.size(); i++) {
+            BoundingBox childBounds = mChildren.get(i).getBounds();
+            if (childBounds == null) {
+                return false;
+            } else if (i == 0) {
+                result.set(childBounds);
+            } else {
+                result.addBox(childBounds);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Renders this group by calling the render methods of all visible children.
      * 
      * @see Node#render(LightGlContext)
      */
     @Override
     public void render(LightGlContext glContext) {
+        GfxState state = glContext.getState();
         // we save an object allocation by using a classic for-loop instead of foreach
         for (int i=0; i < mChildren.size(); i++) {
-            mChildren.get(i).render(glContext);
+            Node child = mChildren.get(i);
+            if (!state.cull(child.getBounds())) {
+                child.render(glContext);
+            }
         }
     }
 
@@ -0,0 +1,382 @@
+package de.fabmax.lightgl.scene;
+
+import android.opengl.Matrix;
+import android.util.Log;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import de.fabmax.lightgl.BoundingBox;
+import de.fabmax.lightgl.FrameProfiler;
+import de.fabmax.lightgl.GfxState;
+import de.fabmax.lightgl.InstancedShader;
+import de.fabmax.lightgl.LightGlContext;
+import de.fabmax.lightgl.RedrawTracker;
+import de.fabmax.lightgl.Shader;
+import de.fabmax.lightgl.ShaderAttributeBinder;
+import de.fabmax.lightgl.util.BufferHelper;
+import de.fabmax.lightgl.util.MeshData;
+import de.fabmax.lightgl.util.MeshFactory;
+
+import static android.opengl.GLES20.GL_ARRAY_BUFFER;
+import static android.opengl.GLES20.GL_STATIC_DRAW;
+import static android.opengl.GLES20.GL_TRIANGLES;
+import static android.opengl.GLES20.GL_UNSIGNED_INT;
+import static android.opengl.GLES20.GL_UNSIGNED_SHORT;
+import static android.opengl.GLES20.glBindBuffer;
+import static android.opengl.GLES20.glBufferData;
+import static android.opengl.GLES20.glDrawElements;
+import static android.opengl.GLES20.glGenBuffers;
+
+/**
+ * An InstancedMesh draws many instances of the same geometry with few draw calls. Every instance
+ * has its own transform and color. GLES 2.0 has no hardware instancing, hence pseudo instancing
+ * is used: The geometry is replicated into a single vertex buffer for a batch of instances, each
+ * copy is tagged with its index in the batch. An {@link InstancedShader} takes the instance
+ * transforms and colors from uniform arrays, so a whole batch of up to
+ * {@link InstancedShader#MAX_INSTANCES} instances is drawn with a single draw call.
+ *
+ * Instance transforms are applied on top of the current model matrix. InstancedMeshes should be
+ * rendered with an {@link InstancedShader}. If another shader is bound (e.g. the locked depth
+ * shader of the shadow pass), the instances are drawn one by one with their transform applied to
+ * the model matrix. Instance colors are ignored in that case.
+ *
+ * @author fabmax
+ */
+public class InstancedMesh extends Mesh {
+
+    private static final String TAG = "InstancedMesh";
+
+    // number of instances drawn per draw call and number of indices per instance
+    private final int mBatchSize;
+    private final int mIndicesPerInstance;
+    private final int mIndexType;
+
+    private final ShaderAttributeBinder mInstanceIndexBinder;
+
+    // instance transforms (16 elements per instance) and colors (4 elements per instance)
+    private float[] mTransforms;
+    private float[] mColors;
+    private int mInstanceCount = 0;
+
+    private final BoundingBox mTempBounds = new BoundingBox(0, 0, 0);
+    private boolean mFallbackLogged = false;
+
+    /**
+     * Creates an InstancedMesh for the specified geometry. Must be called with a valid GL
+     * context. The geometry is replicated for a batch of instances, so the mesh data should be
+     * small. If the mesh data has no vertex colors, white is used.
+     *
+     * @param meshData    geometry of a single instance
+     * @param shader      shader used to render the instances
+     */
+    public InstancedMesh(MeshData meshData, InstancedShader shader) {
+        this(new Geometry(meshData));
+        setShader(shader);
+    }
+
+    private InstancedMesh(Geometry geometry) {
+        super(geometry.indices, geometry.positions, geometry.normals, geometry.texCoords,
+                geometry.colors);
+        mBatchSize = geometry.batchSize;
+        mIndicesPerInstance = geometry.indicesPerInstance;
+        mIndexType = geometry.indices instanceof ShortBuffer ? GL_UNSIGNED_SHORT : GL_UNSIGNED_INT;
+        mInstanceIndexBinder = geometry.instanceIndices;
+        setMeshBounds(geometry.bounds);
+
+        mTransforms = new float[mBatchSize * 16];
+        mColors = new float[mBatchSize * 4];
+    }
+
+    /**
+     * Returns the binder for the instance index attribute.
+     *
+     * @return the binder for the instance index attribute
+     */
+    public ShaderAttributeBinder getInstanceIndexBinder() {
+        return mInstanceIndexBinder;
+    }
+
+    /**
+     * Returns the number of instances drawn with a single draw call.
+     *
+     * @return the number of instances per batch
+     */
+    public int getBatchSize() {
+        return mBatchSize;
+    }
+
+    /**
+     * Returns the number of instances.
+     *
+     * @return the number of instances
+     */
+    public int getInstanceCount() {
+        return mInstanceCount;
+    }
+
+    /**
+     * Sets the number of instances. Added instances have an identity transform and white color.
+     *
+     * @param count    number of instances
+     */
+    public void setInstanceCount(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Instance count must not be negative");
+        }
+        if (count * 16 > mTransforms.length) {
+            int cap = Math.max(count, mTransforms.length / 8);
+            mTransforms = Arrays.copyOf(mTransforms, cap * 16);
+            mColors = Arrays.copyOf(mColors, cap * 4);
+        }
+        for (int i = mInstanceCount; i < count; i++) {
+            Matrix.setIdentityM(mTransforms, i * 16);
+            Arrays.fill(mColors, i * 4, i * 4 + 4, 1.0f);
+        }
+        mInstanceCount = count;
+        invalidateBounds();
+        RedrawTracker.notifyChanged();
+    }
+
+    /**
+     * Adds an instance with identity transform and white color.
+     *
+     * @return the index of the added instance
+     */
+    public int addInstance() {
+        setInstanceCount(mInstanceCount + 1);
+        return mInstanceCount - 1;
+    }
+
+    /**
+     * Removes the specified instance. The last instance is moved to the index of the removed
+     * instance.
+     *
+     * @param index    index of the instance to remove
+     */
+    public void removeInstance(int index) {
+        checkIndex(index);
+        int last = mInstanceCount - 1;
+        if (index != last) {
+            System.arraycopy(mTransforms, last * 16, mTransforms, index * 16, 16);
+            System.arraycopy(mColors, last * 4, mColors, index * 4, 4);
+        }
+        mInstanceCount = last;
+        invalidateBounds();
+        RedrawTracker.notifyChanged();
+    }
+
+    /**
+     * Sets the transform of the specified instance.
+     *
+     * @param index        index of the instance
+     * @param transform    4x4 transform matrix
+     * @param offset       matrix array offset
+     */
+    public void setInstanceTransform(int index, float[] transform, int offset) {
+        checkIndex(index);
+        System.arraycopy(transform, offset, mTransforms, index * 16, 16);
+        invalidateBounds();
+        RedrawTracker.notifyChanged();
+    }
+
+    /**
+     * Sets the color of the specified instance. The color is multiplied with the vertex colors.
+     *
+     * @param index    index of the instance
+     * @param r        red color component
+     * @param g        green color component
+     * @param b        blue color component
+     * @param a        alpha color component
+     */
+    public void setInstanceColor(int index, float r, float g, float b, float a) {
+        checkIndex(index);
+        int i = index * 4;
+        mColors[i] = r;
+        mColors[i + 1] = g;
+        mColors[i + 2] = b;
+        mColors[i + 3] = a;
+        RedrawTracker.notifyChanged();
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mInstanceCount) {
+            throw new IndexOutOfBoundsException("Instance index " + index + " out of bounds: " +
+                    mInstanceCount);
+        }
+    }
+
+    /**
+     * Computes the union of the bounds of all instances.
+     *
+     * @see Node#computeBounds(BoundingBox)
+     */
+    @Override
+    protected boolean computeBounds(BoundingBox result) {
+        BoundingBox meshBounds = getMeshBounds();
+        if (meshBounds == null || mInstanceCount == 0) {
+            return false;
+        }
+        for (int i = 0; i < mInstanceCount; i++) {
+            mTempBounds.set(meshBounds);
+            mTempBounds.transform(mTransforms, i * 16);
+            if (i == 0) {
+                result.set(mTempBounds);
+            } else {
+                result.addBox(mTempBounds);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Draws all instances in batches of {@link #getBatchSize()} instances. If the bound shader
+     * is not an {@link InstancedShader}, every instance is drawn with a separate draw call.
+     */
+    @Override
+    protected void drawElements(LightGlContext context) {
+        Shader shader = context.getShaderManager().getBoundShader();
+        FrameProfiler profiler = context.getEngine().getProfiler();
+        if (!(shader instanceof InstancedShader)) {
+            if (!mFallbackLogged) {
+                Log.w(TAG, "Bound shader is no InstancedShader, instances are drawn one by one");
+                mFallbackLogged = true;
+            }
+            drawSingleInstances(context, profiler);
+            return;
+        }
+        InstancedShader instShader = (InstancedShader) shader;
+        for (int i = 0; i < mInstanceCount; i += mBatchSize) {
+            int n = Math.min(mBatchSize, mInstanceCount - i);
+            instShader.setInstanceData(mTransforms, mColors, i, n);
+            glDrawElements(GL_TRIANGLES, n * mIndicesPerInstance, mIndexType, 0);
+            profiler.countDrawCall(n * mIndicesPerInstance / 3);
+        }
+    }
+
+    /**
+     * Draws every instance separately with the bound shader. The geometry of the first instance
+     * of a batch is used, the instance transform is applied to the model matrix.
+     */
+    private void drawSingleInstances(LightGlContext context, FrameProfiler profiler) {
+        GfxState state = context.getState();
+        for (int i = 0; i < mInstanceCount; i++) {
+            state.pushModelMatrix(mTransforms, i * 16);
+            state.flushMatrixUpdate();
+            glDrawElements(GL_TRIANGLES, mIndicesPerInstance, mIndexType, 0);
+            profiler.countDrawCall(mIndicesPerInstance / 3);
+            state.popModelMatrix();
+        }
+    }
+
+    /**
+     * Deletes all buffers associated with this mesh. All vertex attributes share a single
+     * buffer, which is owned by the position binder and deleted only once.
+     */
+    @Override
+    public void delete(LightGlContext context) {
+        super.delete(context);
+        mInstanceIndexBinder.delete();
+    }
+
+    /**
+     * Replicated geometry for a batch of instances, is needed to call the Mesh constructor.
+     */
+    private static class Geometry {
+        final int batchSize;
+        final int indicesPerInstance;
+        final Buffer indices;
+        final ShaderAttributeBinder positions;
+        final ShaderAttributeBinder normals;
+        final ShaderAttributeBinder texCoords;
+        final ShaderAttributeBinder colors;
+        final ShaderAttributeBinder instanceIndices;
+        final BoundingBox bounds;
+
+        Geometry(MeshData meshData) {
+            if (meshData.isEmpty()) {
+                throw new IllegalArgumentException("Mesh data contains no triangles");
+            }
+            int vertCnt = meshData.getVertexCount();
+            batchSize = Math.max(1, Math.min(InstancedShader.MAX_INSTANCES,
+                    MeshFactory.MAX_SHORT_INDEX_VERTICES / vertCnt));
+            indicesPerInstance = meshData.indices.length;
+
+            // vertex layout: position, normal (optional), tex coord (optional), color, instance index
+            int elems = 3;
+            int normOffset = -1;
+            int uvOffset = -1;
+            if (meshData.hasNormals()) {
+                normOffset = elems;
+                elems += 3;
+            }
+            if (meshData.hasTextureCoordinates()) {
+                uvOffset = elems;
+                elems += 2;
+            }
+            int colorOffset = elems;
+            elems += 4;
+            int instanceOffset = elems;
+            elems += 1;
+
+            FloatBuffer vertData = BufferHelper.createFloatBuffer(vertCnt * elems * batchSize);
+            int[] batchIndices = new int[indicesPerInstance * batchSize];
+            for (int inst = 0; inst < batchSize; inst++) {
+                for (int i = 0; i < vertCnt; i++) {
+                    vertData.put(meshData.positions, i * 3, 3);
+                    if (normOffset >= 0) {
+                        vertData.put(meshData.normals, i * 3, 3);
+                    }
+                    if (uvOffset >= 0) {
+                        vertData.put(meshData.texCoords, i * 2, 2);
+                    }
+                    if (meshData.hasColors()) {
+                        vertData.put(meshData.colors, i * 4, 4);
+                    } else {
+                        vertData.put(1).put(1).put(1).put(1);
+                    }
+                    vertData.put(inst);
+                }
+                for (int i = 0; i < indicesPerInstance; i++) {
+                    batchIndices[inst * indicesPerInstance + i] = meshData.indices[i] + inst * vertCnt;
+                }
+            }
+            vertData.rewind();
+            indices = MeshFactory.createIndexBuffer(batchIndices, vertCnt * batchSize);
+
+            // put vertex data in a VBO
+            int[] buf = new int[1];
+            glGenBuffers(1, buf, 0);
+            glBindBuffer(GL_ARRAY_BUFFER, buf[0]);
+            glBufferData(GL_ARRAY_BUFFER, vertData.capacity() * 4, vertData, GL_STATIC_DRAW);
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+            // all attributes share one buffer, only the position binder deletes it
+            int stride = elems * 4;
+            positions = ShaderAttributeBinder.createVboBufferBinder(buf[0], 3, stride, true);
+            if (normOffset >= 0) {
+                normals = ShaderAttributeBinder.createVboBufferBinder(buf[0], 3, stride, false);
+                normals.setOffset(normOffset);
+            } else {
+                normals = null;
+            }
+            if (uvOffset >= 0) {
+                texCoords = ShaderAttributeBinder.createVboBufferBinder(buf[0], 2, stride, false);
+                texCoords.setOffset(uvOffset);
+            } else {
+                texCoords = null;
+            }
+            colors = ShaderAttributeBinder.createVboBufferBinder(buf[0], 4, stride, false);
+            colors.setOffset(colorOffset);
+            instanceIndices = ShaderAttributeBinder.createVboBufferBinder(buf[0], 1, stride, false);
+            instanceIndices.setOffset(instanceOffset);
+
+            bounds = new BoundingBox(meshData.positions, 0);
+            for (int i = 1; i < vertCnt; i++) {
+                bounds.addPoint(meshData.positions, i * 3);
+            }
+        }
+    }
+}
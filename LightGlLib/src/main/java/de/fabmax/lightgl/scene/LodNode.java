@@ -0,0 +1,198 @@
+package de.fabmax.lightgl.scene;
+
+import android.opengl.Matrix;
+
+import java.util.ArrayList;
+
+import de.fabmax.lightgl.BoundingBox;
+import de.fabmax.lightgl.GfxState;
+import de.fabmax.lightgl.LightGlContext;
+
+/**
+ * A LodNode renders one of multiple levels of detail, depending on the projected screen size of
+ * its bounding sphere. The screen size is computed from the current model, view and projection
+ * matrices, i.e. from the {@link de.fabmax.lightgl.Camera} used to render the scene. It is
+ * measured as fraction of the viewport height, so 1 means the bounding sphere's diameter spans
+ * the full viewport height.
+ *
+ * Levels are added in order of decreasing detail. Each level has a minimum screen size, the first
+ * level, whose minimum screen size is exceeded, is rendered. If the node is smaller than the
+ * minimum screen size of all levels, nothing is rendered.
+ *
+ * @see de.fabmax.lightgl.util.MeshSimplifier
+ * @author fabmax
+ */
+public class LodNode extends Node {
+
+    private final ArrayList<Node> mLevels = new ArrayList<>();
+    private float[] mMinScreenSizes = new float[4];
+
+    // bounding sphere in model coordinates
+    private final float[] mCenter = new float[] { 0, 0, 0, 1 };
+    private float mRadius = 1;
+
+    private int mCurrentLevel = -1;
+
+    // temp vectors needed for screen size computation
+    private final float[] mTempVec1 = new float[4];
+    private final float[] mTempVec2 = new float[4];
+
+    /**
+     * Creates an empty LodNode with the specified bounding sphere.
+     *
+     * @param centerX   X coordinate of bounding sphere center
+     * @param centerY   Y coordinate of bounding sphere center
+     * @param centerZ   Z coordinate of bounding sphere center
+     * @param radius    bounding sphere radius
+     */
+    public LodNode(float centerX, float centerY, float centerZ, float radius) {
+        setBoundingSphere(centerX, centerY, centerZ, radius);
+    }
+
+    /**
+     * Sets the bounding sphere of this node in model coordinates.
+     *
+     * @param centerX   X coordinate of bounding sphere center
+     * @param centerY   Y coordinate of bounding sphere center
+     * @param centerZ   Z coordinate of bounding sphere center
+     * @param radius    bounding sphere radius
+     */
+    public void setBoundingSphere(float centerX, float centerY, float centerZ, float radius) {
+        mCenter[0] = centerX;
+        mCenter[1] = centerY;
+        mCenter[2] = centerZ;
+        mRadius = radius;
+    }
+
+    /**
+     * Adds a level of detail. Levels must be added in order of decreasing detail and decreasing
+     * minimum screen size.
+     *
+     * @param level           node to render for this level of detail
+     * @param minScreenSize   minimum screen size, as fraction of the viewport height, for this
+     *                        level to be rendered
+     */
+    public void addLevel(Node level, float minScreenSize) {
+        int n = mLevels.size();
+        if (n > 0 && minScreenSize > mMinScreenSizes[n - 1]) {
+            throw new IllegalArgumentException("Levels must be added with decreasing screen size");
+        }
+        if (n == mMinScreenSizes.length) {
+            float[] sizes = new float[n * 2];
+            System.arraycopy(mMinScreenSizes, 0, sizes, 0, n);
+            mMinScreenSizes = sizes;
+        }
+        mMinScreenSizes[n] = minScreenSize;
+        mLevels.add(level);
+        level.setParent(this);
+        invalidateBounds();
+    }
+
+    /**
+     * Returns the number of levels of detail.
+     *
+     * @return the number of levels of detail
+     */
+    public int getLevelCount() {
+        return mLevels.size();
+    }
+
+    /**
+     * Returns the specified level of detail.
+     *
+     * @param level   index of the level, 0 is the most detailed level
+     * @return the node of the specified level
+     */
+    public Node getLevel(int level) {
+        return mLevels.get(level);
+    }
+
+    /**
+     * Returns the index of the level, which was rendered last, or -1 if no level was rendered.
+     *
+     * @return the index of the level, which was rendered last
+     */
+    public int getCurrentLevel() {
+        return mCurrentLevel;
+    }
+
+    /**
+     * Computes the projected screen size of this node's bounding sphere for the current
+     * matrices of the specified state.
+     *
+     * @param state   current graphics engine state
+     * @return the screen size as fraction of the viewport height
+     */
+    public float computeScreenSize(GfxState state) {
+        float[] model = state.getModelMatrix();
+        Matrix.multiplyMV(mTempVec1, 0, model, 0, mCenter, 0);
+        Matrix.multiplyMV(mTempVec2, 0, state.getViewMatrix(), 0, mTempVec1, 0);
+
+        // scale radius by the largest scale factor of the model matrix
+        float sx = model[0] * model[0] + model[1] * model[1] + model[2] * model[2];
+        float sy = model[4] * model[4] + model[5] * model[5] + model[6] * model[6];
+        float sz = model[8] * model[8] + model[9] * model[9] + model[10] * model[10];
+        float radius = mRadius * (float) Math.sqrt(Math.max(sx, Math.max(sy, sz)));
+
+        // proj[5] is the vertical scale, proj[11] is -1 for perspective and 0 for orthographic
+        // projections
+        float[] proj = state.getProjectionMatrix();
+        float w = proj[11] * mTempVec2[2] + proj[15];
+        if (w <= radius * -proj[11]) {
+            // camera is inside the bounding sphere
+            return Float.MAX_VALUE;
+        }
+        return radius * proj[5] / w;
+    }
+
+    /**
+     * Returns the bounds of the most detailed level.
+     *
+     * @see Node#computeBounds(BoundingBox)
+     */
+    @Override
+    protected boolean computeBounds(BoundingBox result) {
+        BoundingBox bounds = mLevels.isEmpty() ? null : mLevels.get(0).getBounds();
+        if (bounds != null) {
+            result.set(bounds);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Renders the level of detail matching the current screen size of this node.
+     *
+     * @see Node#render(LightGlContext)
+     */
+    @Override
+    public void render(LightGlContext context) {
+        mCurrentLevel = -1;
+        if (mLevels.isEmpty()) {
+            return;
+        }
+
+        float screenSize = computeScreenSize(context.getState());
+        for (int i = 0; i < mLevels.size(); i++) {
+            if (screenSize >= mMinScreenSizes[i]) {
+                mCurrentLevel = i;
+                mLevels.get(i).render(context);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Deletes all levels of detail.
+     *
+     * @param context    graphics engine context
+     */
+    @Override
+    public void delete(LightGlContext context) {
+        for (int i = 0; i < mLevels.size(); i++) {
+            mLevels.get(i).delete(context);
+        }
+        mLevels.clear();
+        invalidateBounds();
+    }
+}
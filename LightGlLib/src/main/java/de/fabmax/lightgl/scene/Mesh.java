@@ -6,9 +6,12 @@ import java.nio.Buffer;
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
 
+import de.fabmax.lightgl.BoundingBox;
 import de.fabmax.lightgl.LightGlContext;
+import de.fabmax.lightgl.RenderQueue;
 import de.fabmax.lightgl.Shader;
 import de.fabmax.lightgl.ShaderAttributeBinder;
+import de.fabmax.lightgl.util.MeshData;
 import de.fabmax.lightgl.util.MeshFactory;
 
 import static android.opengl.GLES20.GL_ELEMENT_ARRAY_BUFFER;
@@ -47,6 +50,19 @@ public class Mesh extends Node {
     // mesh material
     private Shader mMeshShader;
 
+    // bounds of the vertex positions, null if unknown
+    private BoundingBox mMeshBounds;
+
+    // optional CPU side copy of the vertex data
+    private MeshData mMeshData;
+
+    // render queue sort properties
+    private boolean mTransparent = false;
+    private int mRenderLayer = 0;
+
+    // texture coordinate scale (u, v) and offset (u, v)
+    private final float[] mTexCoordTransform = { 1, 1, 0, 0 };
+
     /**
      * Default constructor used by sub-classes
      */
@@ -167,6 +183,141 @@ public class Mesh extends Node {
         this.mMeshShader = shader;
     }
 
+    /**
+     * Returns the CPU side vertex data of this mesh or null if it was not set.
+     *
+     * @return the vertex data of this mesh
+     */
+    public MeshData getMeshData() {
+        return mMeshData;
+    }
+
+    /**
+     * Sets the CPU side vertex data of this mesh. The mesh data is not needed for rendering and
+     * is not set by default, but it is needed to merge meshes with
+     * {@link de.fabmax.lightgl.util.StaticBatcher}. The data must match the data the mesh was
+     * created from. Static meshes created by {@link MeshFactory} set it automatically if
+     * {@link MeshFactory#setKeepMeshData(boolean)} is enabled.
+     *
+     * @param meshData    the vertex data of this mesh, can be null
+     */
+    public void setMeshData(MeshData meshData) {
+        mMeshData = meshData;
+    }
+
+    /**
+     * Returns true if this mesh is transparent.
+     *
+     * @return true if this mesh is transparent
+     */
+    public boolean isTransparent() {
+        return mTransparent;
+    }
+
+    /**
+     * Marks this mesh as transparent. If the {@link RenderQueue} is enabled, transparent meshes
+     * are drawn after all opaque meshes of the same render layer, sorted from back to front.
+     *
+     * @param transparent    true if this mesh is transparent
+     */
+    public void setTransparent(boolean transparent) {
+        mTransparent = transparent;
+    }
+
+    /**
+     * Returns the render layer of this mesh.
+     *
+     * @return the render layer of this mesh
+     */
+    public int getRenderLayer() {
+        return mRenderLayer;
+    }
+
+    /**
+     * Sets the render layer of this mesh. If the {@link RenderQueue} is enabled, meshes are drawn
+     * in order of ascending render layers, e.g. a sky box could use layer 0 and the scene layer 1.
+     * The default layer is 0.
+     *
+     * @param layer    render layer, must be in the range [0, {@link RenderQueue#MAX_LAYERS})
+     */
+    public void setRenderLayer(int layer) {
+        if (layer < 0 || layer >= RenderQueue.MAX_LAYERS) {
+            throw new IllegalArgumentException("Render layer must be in [0, " +
+                    RenderQueue.MAX_LAYERS + ")");
+        }
+        mRenderLayer = layer;
+    }
+
+    /**
+     * Returns the texture coordinate transform of this mesh: scale u, scale v, offset u and
+     * offset v. The returned array must not be modified.
+     *
+     * @return the texture coordinate transform of this mesh
+     */
+    public float[] getTexCoordTransform() {
+        return mTexCoordTransform;
+    }
+
+    /**
+     * Sets the transform applied to the texture coordinates of this mesh by the vertex shader:
+     * uv' = uv * scale + offset. The transform is used by meshes with quantized texture
+     * coordinates, see {@link de.fabmax.lightgl.util.QuantizedVertexBuffer}. It is applied by
+     * shaders with a uTexCoordTransform uniform, which includes all built-in texture shaders.
+     * The default is scale 1 and offset 0.
+     *
+     * @param scaleU     texture coordinate u scale
+     * @param scaleV     texture coordinate v scale
+     * @param offsetU    texture coordinate u offset
+     * @param offsetV    texture coordinate v offset
+     */
+    public void setTexCoordTransform(float scaleU, float scaleV, float offsetU, float offsetV) {
+        mTexCoordTransform[0] = scaleU;
+        mTexCoordTransform[1] = scaleV;
+        mTexCoordTransform[2] = offsetU;
+        mTexCoordTransform[3] = offsetV;
+    }
+
+    /**
+     * Returns the bounds of this mesh's vertex positions or null if they are unknown.
+     *
+     * @return the bounds of this mesh's vertex positions
+     */
+    public BoundingBox getMeshBounds() {
+        return mMeshBounds;
+    }
+
+    /**
+     * Sets the bounds of this mesh's vertex positions. Meshes without bounds are never culled.
+     * Meshes created by {@link MeshFactory} have their bounds set.
+     *
+     * @param bounds    the bounds of the vertex positions, can be null
+     */
+    public void setMeshBounds(BoundingBox bounds) {
+        if (bounds == null) {
+            mMeshBounds = null;
+        } else {
+            if (mMeshBounds == null) {
+                mMeshBounds = new BoundingBox(0, 0, 0);
+            }
+            mMeshBounds.set(bounds);
+        }
+        invalidateBounds();
+    }
+
+    /**
+     * Returns the mesh bounds, if they are set.
+     *
+     * @see Node#computeBounds(BoundingBox)
+     */
+    @Override
+    protected boolean computeBounds(BoundingBox result) {
+        if (mMeshBounds != null) {
+            result.set(mMeshBounds);
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Sets the binder for vertex positions. The vertex position binder must not be null in order for this mesh to be
      * drawn.
@@ -241,14 +392,47 @@ public class Mesh extends Node {
     }
 
     /**
-     * Draws this mesh.
+     * Draws this mesh. If the {@link RenderQueue} is collecting, the mesh is added to the queue
+     * and drawn when the queue is flushed. Meshes, which are not queueable, flush the queue and
+     * are drawn immediately, see {@link #isQueueable()}.
      *
      * @see Node#render(LightGlContext)
      */
     @Override
     public void render(LightGlContext context) {
+        RenderQueue queue = context.getState().getRenderQueue();
+        if (queue.isCollecting()) {
+            if (isQueueable()) {
+                queue.add(context, this);
+                return;
+            }
+            // keep the draw order, everything collected so far is drawn first
+            queue.flush(context);
+        }
+        draw(context);
+    }
+
+    /**
+     * Returns true if this mesh can be drawn by the {@link RenderQueue}. Queued meshes are drawn
+     * after scene traversal with the vertex data they have at that time, hence meshes, whose data
+     * changes during a frame, must not be queued. The default implementation returns true.
+     *
+     * @return true if this mesh can be drawn by the render queue
+     */
+    public boolean isQueueable() {
+        return true;
+    }
+
+    /**
+     * Draws this mesh immediately with the current model matrix.
+     *
+     * @param context    graphics engine context
+     */
+    public void draw(LightGlContext context) {
         // bind shader for this mesh
         context.getShaderManager().bindShader(context, mMeshShader);
+        // pass pending matrix updates to the shader
+        context.getState().flushMatrixUpdate();
 
         // setup shader for mesh rendering, the active shader is not necessarily mMeshShader
         Shader shader = context.getShaderManager().getBoundShader();
@@ -267,5 +451,6 @@ public class Mesh extends Node {
     protected void drawElements(LightGlContext context) {
         // draw triangles
         glDrawElements(GL_TRIANGLES, mIndexBufferSize, mIndexBufferType, 0);
+        context.getEngine().getProfiler().countDrawCall(mIndexBufferSize / 3);
     }
 }
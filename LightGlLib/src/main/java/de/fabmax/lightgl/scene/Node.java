@@ -1,15 +1,29 @@
 package de.fabmax.lightgl.scene;
 
+import de.fabmax.lightgl.BoundingBox;
 import de.fabmax.lightgl.LightGlContext;
 
 /**
  * A scene node. This is the base class for all scene objects.
+ *
+ * Nodes can have bounds, which are used for view frustum culling. Bounds are given in the
+ * coordinate system of the node's parent, i.e. they include the node's own transformation.
+ * They are cached until {@link #invalidateBounds()} is called, which also invalidates the
+ * bounds of all parents.
  * 
  * @author fabmax
  * 
  */
 public abstract class Node {
 
+    // parent node, notified when bounds change
+    private Node mParent;
+
+    // cached bounds in parent coordinates
+    private final BoundingBox mBounds = new BoundingBox(0, 0, 0);
+    private boolean mHasBounds = false;
+    private boolean mBoundsDirty = true;
+
     /**
      * Renders this node using the specified graphics engine state.
      * 
@@ -24,4 +38,62 @@ public abstract class Node {
      */
     public abstract void delete(LightGlContext context);
 
+    /**
+     * Returns the parent of this node or null if this node has no parent. If the node was added
+     * to multiple groups, the last one is returned.
+     *
+     * @return the parent of this node
+     */
+    public Node getParent() {
+        return mParent;
+    }
+
+    /**
+     * Sets the parent of this node. Called by nodes, which add this node as a child.
+     *
+     * @param parent    the parent node
+     */
+    void setParent(Node parent) {
+        mParent = parent;
+    }
+
+    /**
+     * Returns the bounds of this node in the coordinate system of its parent. If this node has no
+     * bounds, null is returned and the node is never culled. The returned box must not be
+     * modified.
+     *
+     * @return the bounds of this node or null if the node has no bounds
+     */
+    public BoundingBox getBounds() {
+        if (mBoundsDirty) {
+            mHasBounds = computeBounds(mBounds);
+            mBoundsDirty = false;
+        }
+        return mHasBounds ? mBounds : null;
+    }
+
+    /**
+     * Marks the bounds of this node and all its parents as outdated. Must be called whenever the
+     * geometry or transformation of a node changes.
+     */
+    public void invalidateBounds() {
+        Node node = this;
+        // parents of a dirty node are dirty as well, so we can stop at the first dirty node
+        while (node != null && !node.mBoundsDirty) {
+            node.mBoundsDirty = true;
+            node = node.mParent;
+        }
+    }
+
+    /**
+     * Computes the bounds of this node in the coordinate system of its parent. The default
+     * implementation returns false, i.e. the node has no bounds.
+     *
+     * @param result    BoundingBox to store the bounds in
+     * @return true if this node has bounds, false otherwise
+     */
+    protected boolean computeBounds(BoundingBox result) {
+        return false;
+    }
+
 }
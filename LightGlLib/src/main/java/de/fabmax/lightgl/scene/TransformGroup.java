@@ -2,8 +2,10 @@ package de.fabmax.lightgl.scene;
 
 import android.opengl.Matrix;
 
+import de.fabmax.lightgl.BoundingBox;
 import de.fabmax.lightgl.GfxState;
 import de.fabmax.lightgl.LightGlContext;
+import de.fabmax.lightgl.RedrawTracker;
 
 /**
  * A TransformGroup is a {@link Group} that applies a transformation to its children.
@@ -31,7 +33,8 @@ public class TransformGroup extends Group {
     }
 
     /**
-     * Returns the transformation matrix of this group.
+     * Returns the transformation matrix of this group. If the returned matrix is modified,
+     * {@link #invalidateBounds()} must be called.
      *
      * @return the transformation matrix of this group
      */
@@ -61,6 +64,8 @@ public class TransformGroup extends Group {
     public void setTransformation(float[] transformation) {
         System.arraycopy(transformation, 0, mTransformationM, 0, 16);
         mTransformDirty = true;
+        invalidateBounds();
+        RedrawTracker.notifyChanged();
     }
 
     /**
@@ -73,6 +78,8 @@ public class TransformGroup extends Group {
         System.arraycopy(mTransformationM, 0, mTemp1, 0, 16);
         Matrix.multiplyMM(mTransformationM, 0, mTemp1, 0, transformation, 0);
         mTransformDirty = true;
+        invalidateBounds();
+        RedrawTracker.notifyChanged();
     }
 
     /**
@@ -82,6 +89,8 @@ public class TransformGroup extends Group {
         Matrix.setIdentityM(mTransformationM, 0);
         Matrix.setIdentityM(mInverseTransformationM, 0);
         mTransformDirty = false;
+        invalidateBounds();
+        RedrawTracker.notifyChanged();
     }
 
     /**
@@ -100,6 +109,8 @@ public class TransformGroup extends Group {
         System.arraycopy(mTransformationM, 0, mTemp1, 0, 16);
         Matrix.rotateM(mTransformationM, 0, mTemp1, 0, angle, x, y, z);
         mTransformDirty = true;
+        invalidateBounds();
+        RedrawTracker.notifyChanged();
     }
 
     /**
@@ -116,6 +127,8 @@ public class TransformGroup extends Group {
         System.arraycopy(mTransformationM, 0, mTemp1, 0, 16);
         Matrix.translateM(mTransformationM, 0, mTemp1, 0, x, y, z);
         mTransformDirty = true;
+        invalidateBounds();
+        RedrawTracker.notifyChanged();
     }
 
     /**
@@ -132,6 +145,23 @@ public class TransformGroup extends Group {
         System.arraycopy(mTransformationM, 0, mTemp1, 0, 16);
         Matrix.scaleM(mTransformationM, 0, mTemp1, 0, sX, sY, sZ);
         mTransformDirty = true;
+        invalidateBounds();
+        RedrawTracker.notifyChanged();
+    }
+
+    /**
+     * Computes the bounds of this group's children and transforms them with this group's
+     * transformation matrix.
+     *
+     * @see Node#computeBounds(BoundingBox)
+     */
+    @Override
+    protected boolean computeBounds(BoundingBox result) {
+        if (super.computeBounds(result)) {
+            result.transform(mTransformationM, 0);
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -151,10 +181,8 @@ public class TransformGroup extends Group {
      */
     @Override
     public void render(LightGlContext context) {
-        // push current model matrix
-        context.getState().pushModelMatrix();
-
-        applyTransform(context.getState());
+        // push current model matrix and apply transformation
+        context.getState().pushModelMatrix(mTransformationM, 0);
 
         // render children
         super.render(context);
@@ -0,0 +1,192 @@
+package de.fabmax.lightgl.util;
+
+import java.util.Arrays;
+
+/**
+ * Rectangle packer for texture atlases. AtlasPacker uses the skyline bottom-left heuristic: The
+ * upper contour of the packed rectangles is kept as a list of horizontal segments and every new
+ * rectangle is placed where its top edge ends up lowest. Packing is pure Java and does not touch
+ * any GL state.
+ *
+ * @see TextureAtlas
+ * @author fabmax
+ */
+public class AtlasPacker {
+
+    private final int mWidth;
+    private final int mHeight;
+
+    // skyline segments: x position, height and width
+    private int[] mSegX = new int[16];
+    private int[] mSegY = new int[16];
+    private int[] mSegW = new int[16];
+    private int mSegCount;
+
+    private long mUsedArea;
+
+    /**
+     * Creates an empty AtlasPacker with the specified size.
+     *
+     * @param width     width of the packing area
+     * @param height    height of the packing area
+     */
+    public AtlasPacker(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid atlas size: " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        clear();
+    }
+
+    /**
+     * Removes all packed rectangles.
+     */
+    public void clear() {
+        mSegX[0] = 0;
+        mSegY[0] = 0;
+        mSegW[0] = mWidth;
+        mSegCount = 1;
+        mUsedArea = 0;
+    }
+
+    /**
+     * Returns the width of the packing area.
+     *
+     * @return the width of the packing area
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * Returns the height of the packing area.
+     *
+     * @return the height of the packing area
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the fraction of the packing area covered by packed rectangles.
+     *
+     * @return the packing density in the range [0, 1]
+     */
+    public float getOccupancy() {
+        return (float) mUsedArea / ((long) mWidth * mHeight);
+    }
+
+    /**
+     * Packs a rectangle with the specified size. If the rectangle fits, its position is stored in
+     * result[off] (x) and result[off + 1] (y). Packed rectangles never overlap.
+     *
+     * @param width     width of the rectangle
+     * @param height    height of the rectangle
+     * @param result    array the position of the rectangle is stored in
+     * @param off       offset in result
+     * @return true if the rectangle was packed, false if it does not fit
+     */
+    public boolean insert(int width, int height, int[] result, int off) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid rectangle size: " + width + "x" + height);
+        }
+
+        int bestIdx = -1;
+        int bestTop = Integer.MAX_VALUE;
+        int bestSegW = Integer.MAX_VALUE;
+        int bestY = 0;
+        for (int i = 0; i < mSegCount; i++) {
+            int y = fit(i, width, height);
+            if (y >= 0 && (y + height < bestTop || (y + height == bestTop && mSegW[i] < bestSegW))) {
+                bestIdx = i;
+                bestTop = y + height;
+                bestSegW = mSegW[i];
+                bestY = y;
+            }
+        }
+        if (bestIdx < 0) {
+            return false;
+        }
+
+        int x = mSegX[bestIdx];
+        addSegment(bestIdx, x, bestY + height, width);
+        mUsedArea += (long) width * height;
+        result[off] = x;
+        result[off + 1] = bestY;
+        return true;
+    }
+
+    /**
+     * Returns the y position a rectangle placed at the left edge of the specified segment would
+     * have, -1 if it does not fit.
+     */
+    private int fit(int segIdx, int width, int height) {
+        int x = mSegX[segIdx];
+        if (x + width > mWidth) {
+            return -1;
+        }
+        int y = 0;
+        int remaining = width;
+        for (int i = segIdx; remaining > 0; i++) {
+            // segments span the whole width, hence i never runs out of range
+            y = Math.max(y, mSegY[i]);
+            if (y + height > mHeight) {
+                return -1;
+            }
+            remaining -= mSegW[i];
+        }
+        return y;
+    }
+
+    /**
+     * Inserts a new skyline segment at the specified index and trims the segments it covers.
+     */
+    private void addSegment(int idx, int x, int y, int w) {
+        if (mSegCount == mSegX.length) {
+            int n = mSegCount * 2;
+            mSegX = Arrays.copyOf(mSegX, n);
+            mSegY = Arrays.copyOf(mSegY, n);
+            mSegW = Arrays.copyOf(mSegW, n);
+        }
+        System.arraycopy(mSegX, idx, mSegX, idx + 1, mSegCount - idx);
+        System.arraycopy(mSegY, idx, mSegY, idx + 1, mSegCount - idx);
+        System.arraycopy(mSegW, idx, mSegW, idx + 1, mSegCount - idx);
+        mSegX[idx] = x;
+        mSegY[idx] = y;
+        mSegW[idx] = w;
+        mSegCount++;
+
+        // trim or remove segments below the new one
+        int right = x + w;
+        int i = idx + 1;
+        while (i < mSegCount && mSegX[i] < right) {
+            int shrink = right - mSegX[i];
+            if (shrink >= mSegW[i]) {
+                removeSegment(i);
+            } else {
+                mSegX[i] += shrink;
+                mSegW[i] -= shrink;
+                break;
+            }
+        }
+
+        // merge neighboring segments of equal height
+        for (i = 0; i < mSegCount - 1; ) {
+            if (mSegY[i] == mSegY[i + 1]) {
+                mSegW[i] += mSegW[i + 1];
+                removeSegment(i + 1);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private void removeSegment(int idx) {
+        int n = mSegCount - idx - 1;
+        System.arraycopy(mSegX, idx + 1, mSegX, idx, n);
+        System.arraycopy(mSegY, idx + 1, mSegY, idx, n);
+        System.arraycopy(mSegW, idx + 1, mSegW, idx, n);
+        mSegCount--;
+    }
+}
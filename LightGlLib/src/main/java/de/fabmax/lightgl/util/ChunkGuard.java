@@ -0,0 +1,60 @@
+package de.fabmax.lightgl.util;
+
+/**
+ * ChunkGuard keeps track of the chunks of a concurrent batch operation, which are currently
+ * running on an executor. Cancelling a future doesn't stop a chunk that is already running, so if
+ * the batch fails, the calling thread uses {@link #abort()} to skip all chunks that have not
+ * started yet and to wait for the running ones. Afterwards no chunk touches the caller's arrays
+ * anymore.
+ *
+ * @author fabmax
+ */
+class ChunkGuard {
+
+    private boolean mAborted = false;
+    private int mRunning = 0;
+
+    /**
+     * Must be called by a chunk before it starts working. If this returns false the batch was
+     * aborted and the chunk must return immediately without touching any shared data.
+     *
+     * @return true if the chunk can run, false if the batch was aborted
+     */
+    synchronized boolean enter() {
+        if (mAborted) {
+            return false;
+        }
+        mRunning++;
+        return true;
+    }
+
+    /**
+     * Must be called by a chunk after it finished, if {@link #enter()} returned true.
+     */
+    synchronized void exit() {
+        mRunning--;
+        if (mRunning == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Aborts the batch: Chunks which have not yet started are skipped and this method blocks until
+     * all running chunks are finished. Waiting is not interruptible, an interrupt received while
+     * waiting is restored before this method returns.
+     */
+    synchronized void abort() {
+        mAborted = true;
+        boolean interrupted = false;
+        while (mRunning > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package de.fabmax.lightgl.util;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Container for compressed texture data. Supported container formats are KTX (version 1) and
+ * PKM. KTX files can hold any compressed GL format (e.g. ETC1, ETC2 or ASTC) and a complete mip
+ * chain, PKM files hold a single ETC1 or ETC2 image. Only 2D textures are supported, array
+ * textures and cube maps are rejected.
+ *
+ * The container is parsed in place: Mip levels are slices of the file buffer, which is usually
+ * mapped with {@link FileChannel#map(FileChannel.MapMode, long, long)}, so the texture data is
+ * never copied into Java arrays. Compressed textures are created with
+ * {@link de.fabmax.lightgl.TextureManager#createTextureFromCompressedFile(CompressedTextureFile,
+ * de.fabmax.lightgl.TextureProperties)}.
+ *
+ * @author fabmax
+ */
+public class CompressedTextureFile {
+
+    /** ETC1 RGB format, supported by virtually all GLES 2.0 devices */
+    public static final int GL_ETC1_RGB8 = 0x8D64;
+    /** ETC2 RGB format, mandatory in GLES 3.0 */
+    public static final int GL_COMPRESSED_RGB8_ETC2 = 0x9274;
+    /** ETC2 RGB format with 1-bit alpha, mandatory in GLES 3.0 */
+    public static final int GL_COMPRESSED_RGB8_PUNCHTHROUGH_ALPHA1_ETC2 = 0x9276;
+    /** ETC2 RGBA format, mandatory in GLES 3.0 */
+    public static final int GL_COMPRESSED_RGBA8_ETC2_EAC = 0x9278;
+    /** First ASTC format (4x4 blocks), see KHR_texture_compression_astc_ldr */
+    public static final int GL_COMPRESSED_RGBA_ASTC_4x4 = 0x93B0;
+    /** Last ASTC format (12x12 blocks), see KHR_texture_compression_astc_ldr */
+    public static final int GL_COMPRESSED_RGBA_ASTC_12x12 = 0x93BD;
+
+    private static final byte[] KTX_IDENTIFIER = {
+            (byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'
+    };
+    private static final int KTX_ENDIANNESS = 0x04030201;
+    private static final int KTX_HEADER_SIZE = 64;
+
+    private static final int PKM_HEADER_SIZE = 16;
+    // PKM format codes
+    private static final int PKM_ETC1_RGB = 0;
+    private static final int PKM_ETC2_RGB = 1;
+    private static final int PKM_ETC2_RGBA = 3;
+    private static final int PKM_ETC2_RGBA1 = 4;
+
+    private final int mFormat;
+    private final int mWidth;
+    private final int mHeight;
+    private final ByteBuffer[] mLevels;
+
+    /**
+     * Creates a CompressedTextureFile from the given raw data. Throws an IllegalArgumentException
+     * if data does not contain a supported texture.
+     */
+    private CompressedTextureFile(ByteBuffer data) {
+        if (isKtx(data)) {
+            if (data.capacity() < KTX_HEADER_SIZE) {
+                throw new IllegalArgumentException("Truncated KTX header");
+            }
+            // KTX header fields are written in the byte order of the writing machine
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            if (data.getInt(12) != KTX_ENDIANNESS) {
+                data.order(ByteOrder.BIG_ENDIAN);
+                if (data.getInt(12) != KTX_ENDIANNESS) {
+                    throw new IllegalArgumentException("Corrupt KTX header");
+                }
+            }
+            int glType = data.getInt(16);
+            mFormat = data.getInt(28);
+            mWidth = data.getInt(36);
+            mHeight = data.getInt(40);
+            int depth = data.getInt(44);
+            int arrayElements = data.getInt(48);
+            int faces = data.getInt(52);
+            int levels = Math.max(1, data.getInt(56));
+            int keyValueBytes = data.getInt(60);
+            if (glType != 0) {
+                throw new IllegalArgumentException("KTX file is not compressed");
+            }
+            if (depth > 1 || arrayElements > 0 || faces != 1 || mWidth <= 0 || mHeight <= 0) {
+                throw new IllegalArgumentException("Only 2D textures are supported");
+            }
+
+            mLevels = new ByteBuffer[levels];
+            long offset = KTX_HEADER_SIZE + (long) keyValueBytes;
+            for (int i = 0; i < levels; i++) {
+                if (offset + 4 > data.capacity()) {
+                    throw new IllegalArgumentException("Truncated KTX file");
+                }
+                int imageSize = data.getInt((int) offset);
+                offset += 4;
+                if (imageSize < 0 || offset + imageSize > data.capacity()) {
+                    throw new IllegalArgumentException("Truncated KTX file");
+                }
+                mLevels[i] = slice(data, (int) offset, imageSize);
+                offset = align4(offset + imageSize);
+            }
+
+        } else if (isPkm(data)) {
+            data.order(ByteOrder.BIG_ENDIAN);
+            int pkmFormat = data.getShort(6) & 0xffff;
+            int extWidth = data.getShort(8) & 0xffff;
+            int extHeight = data.getShort(10) & 0xffff;
+            mWidth = data.getShort(12) & 0xffff;
+            mHeight = data.getShort(14) & 0xffff;
+
+            int blockBytes = 8;
+            if (pkmFormat == PKM_ETC1_RGB) {
+                mFormat = GL_ETC1_RGB8;
+            } else if (pkmFormat == PKM_ETC2_RGB) {
+                mFormat = GL_COMPRESSED_RGB8_ETC2;
+            } else if (pkmFormat == PKM_ETC2_RGBA) {
+                mFormat = GL_COMPRESSED_RGBA8_ETC2_EAC;
+                blockBytes = 16;
+            } else if (pkmFormat == PKM_ETC2_RGBA1) {
+                mFormat = GL_COMPRESSED_RGB8_PUNCHTHROUGH_ALPHA1_ETC2;
+            } else {
+                throw new IllegalArgumentException("Unsupported PKM format: " + pkmFormat);
+            }
+
+            int imageSize = ((extWidth + 3) / 4) * ((extHeight + 3) / 4) * blockBytes;
+            if (mWidth <= 0 || mHeight <= 0 || PKM_HEADER_SIZE + imageSize > data.capacity()) {
+                throw new IllegalArgumentException("Truncated PKM file");
+            }
+            mLevels = new ByteBuffer[] { slice(data, PKM_HEADER_SIZE, imageSize) };
+
+        } else {
+            throw new IllegalArgumentException("Neither a KTX nor a PKM file");
+        }
+    }
+
+    /**
+     * Parses the given buffer, which must contain a complete KTX or PKM file. The returned
+     * CompressedTextureFile references the buffer, texture data is not copied.
+     *
+     * @param data    buffer with the file content
+     * @return the parsed CompressedTextureFile
+     * @throws IOException if the buffer does not contain a supported texture
+     */
+    public static CompressedTextureFile fromBuffer(ByteBuffer data) throws IOException {
+        try {
+            return new CompressedTextureFile(data.slice());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid compressed texture: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Maps the specified texture file into memory.
+     *
+     * @param file    the texture file to load
+     * @return the loaded CompressedTextureFile
+     * @throws IOException if the file could not be read or is not a supported texture
+     */
+    public static CompressedTextureFile map(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            // the mapping stays valid after the channel is closed
+            return fromBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Loads the specified texture from the app assets. Uncompressed assets are mapped into
+     * memory, assets that are compressed in the APK are read into a direct buffer. Add the file
+     * extensions to aaptOptions.noCompress to enable mapping.
+     *
+     * @param assets       the app's AssetManager
+     * @param assetPath    path in the assets directory
+     * @return the loaded CompressedTextureFile
+     * @throws IOException if the asset could not be read or is not a supported texture
+     */
+    public static CompressedTextureFile loadAsset(AssetManager assets, String assetPath)
+            throws IOException {
+        AssetFileDescriptor fd = null;
+        try {
+            fd = assets.openFd(assetPath);
+        } catch (FileNotFoundException e) {
+            // asset is compressed and can't be mapped
+        }
+
+        if (fd != null) {
+            FileInputStream in = fd.createInputStream();
+            try {
+                FileChannel channel = in.getChannel();
+                return fromBuffer(channel.map(FileChannel.MapMode.READ_ONLY,
+                        fd.getStartOffset(), fd.getLength()));
+            } finally {
+                in.close();
+                fd.close();
+            }
+        } else {
+            InputStream in = assets.open(assetPath);
+            try {
+                byte[] buf = new byte[16384];
+                ByteBuffer data = BufferHelper.createByteBuffer(Math.max(in.available(), buf.length));
+                int len;
+                while ((len = in.read(buf)) > 0) {
+                    if (data.remaining() < len) {
+                        ByteBuffer grown = BufferHelper.createByteBuffer(data.capacity() * 2 + len);
+                        data.flip();
+                        grown.put(data);
+                        data = grown;
+                    }
+                    data.put(buf, 0, len);
+                }
+                data.flip();
+                return fromBuffer(data);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the GL format of the compressed texture data, e.g. {@link #GL_ETC1_RGB8}.
+     *
+     * @return the GL format of the texture data
+     */
+    public int getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * Returns true if the texture format is ETC1, which can be decoded by the CPU if it isn't
+     * supported by the GPU.
+     *
+     * @return true if the texture format is ETC1
+     */
+    public boolean isEtc1() {
+        return mFormat == GL_ETC1_RGB8;
+    }
+
+    /**
+     * Returns the width of the texture in pixels.
+     *
+     * @return the width of the texture in pixels
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * Returns the height of the texture in pixels.
+     *
+     * @return the height of the texture in pixels
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the number of mip levels stored in the file.
+     *
+     * @return the number of mip levels
+     */
+    public int getLevelCount() {
+        return mLevels.length;
+    }
+
+    /**
+     * Returns the width of the specified mip level in pixels.
+     *
+     * @param level    the mip level
+     * @return the width of the mip level in pixels
+     */
+    public int getLevelWidth(int level) {
+        return Math.max(1, mWidth >> level);
+    }
+
+    /**
+     * Returns the height of the specified mip level in pixels.
+     *
+     * @param level    the mip level
+     * @return the height of the mip level in pixels
+     */
+    public int getLevelHeight(int level) {
+        return Math.max(1, mHeight >> level);
+    }
+
+    /**
+     * Returns the compressed data of the specified mip level. The returned buffer is a slice of
+     * the file buffer, its position is 0 and its limit is the size of the level data.
+     *
+     * @param level    the mip level
+     * @return the compressed data of the mip level
+     */
+    public ByteBuffer getLevelData(int level) {
+        ByteBuffer data = mLevels[level].duplicate();
+        data.rewind();
+        return data;
+    }
+
+    private static boolean isKtx(ByteBuffer data) {
+        if (data.capacity() < KTX_IDENTIFIER.length) {
+            return false;
+        }
+        for (int i = 0; i < KTX_IDENTIFIER.length; i++) {
+            if (data.get(i) != KTX_IDENTIFIER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isPkm(ByteBuffer data) {
+        return data.capacity() >= PKM_HEADER_SIZE && data.get(0) == 'P' && data.get(1) == 'K' &&
+                data.get(2) == 'M' && data.get(3) == ' ' &&
+                (data.get(4) == '1' || data.get(4) == '2') && data.get(5) == '0';
+    }
+
+    /**
+     * Returns a slice of the specified buffer region.
+     */
+    private static ByteBuffer slice(ByteBuffer buf, int offset, int length) {
+        ByteBuffer dup = buf.duplicate();
+        dup.position(offset);
+        dup.limit(offset + length);
+        return dup.slice();
+    }
+
+    private static long align4(long value) {
+        return (value + 3) & ~3L;
+    }
+}
@@ -52,7 +52,7 @@ public class FloatList implements Iterable<Float> {
     /**
      * Sets the list value at the specified index to the given value.
      *
-     * @param index    index of the value to return
+     * @param index    index of the value to set
      * @param value    value to set
      */
     public void set(int index, float value) {
@@ -131,6 +131,20 @@ public class FloatList implements Iterable<Float> {
         }
     }
 
+    /**
+     * Adds all values of the specified list to the end of this list.
+     *
+     * @param list
+     *            the list to add
+     */
+    public void add(FloatList list) {
+        while (mSize + list.mSize > mBuffer.length) {
+            increaseSize();
+        }
+        System.arraycopy(list.mBuffer, 0, mBuffer, mSize, list.mSize);
+        mSize += list.mSize;
+    }
+
     /**
      * Removes the element at the specified position.
      * 
@@ -48,6 +48,93 @@ public class GlMath {
         vec3[vOff + 2] = z;
     }
 
+    /**
+     * Sets the specified 4x4 matrix to identity. Same as {@link Matrix#setIdentityM(float[], int)}
+     * but usable without the Android runtime, e.g. in unit tests.
+     *
+     * @param m44     Matrix to set
+     * @param mOff    Matrix array offset
+     */
+    public static void setIdentityM(float[] m44, int mOff) {
+        for (int i = 0; i < 16; i++) {
+            m44[mOff + i] = i % 5 == 0 ? 1 : 0;
+        }
+    }
+
+    /**
+     * Multiplies two 4x4 matrices: result = lhs * rhs. Same as
+     * {@link Matrix#multiplyMM(float[], int, float[], int, float[], int)} but usable without the
+     * Android runtime. The result must not overlap with lhs or rhs.
+     *
+     * @param result       Result matrix
+     * @param resultOff    Result matrix array offset
+     * @param lhs          Left-hand side matrix
+     * @param lhsOff       Left-hand side matrix array offset
+     * @param rhs          Right-hand side matrix
+     * @param rhsOff       Right-hand side matrix array offset
+     */
+    public static void multiplyMM(float[] result, int resultOff, float[] lhs, int lhsOff,
+                                  float[] rhs, int rhsOff) {
+        for (int col = 0; col < 4; col++) {
+            float r0 = rhs[rhsOff + col * 4];
+            float r1 = rhs[rhsOff + col * 4 + 1];
+            float r2 = rhs[rhsOff + col * 4 + 2];
+            float r3 = rhs[rhsOff + col * 4 + 3];
+            for (int row = 0; row < 4; row++) {
+                result[resultOff + col * 4 + row] = lhs[lhsOff + row] * r0 +
+                        lhs[lhsOff + 4 + row] * r1 + lhs[lhsOff + 8 + row] * r2 +
+                        lhs[lhsOff + 12 + row] * r3;
+            }
+        }
+    }
+
+    /**
+     * Computes the determinant of the upper-left 3x3 part of the specified 4x4 matrix. A negative
+     * determinant means that the matrix mirrors geometry.
+     *
+     * @param m44     4x4 matrix
+     * @param mOff    Matrix array offset
+     * @return the determinant of the upper-left 3x3 matrix
+     */
+    public static float determinant3(float[] m44, int mOff) {
+        return m44[mOff] * (m44[mOff + 5] * m44[mOff + 10] - m44[mOff + 6] * m44[mOff + 9]) -
+                m44[mOff + 4] * (m44[mOff + 1] * m44[mOff + 10] - m44[mOff + 2] * m44[mOff + 9]) +
+                m44[mOff + 8] * (m44[mOff + 1] * m44[mOff + 6] - m44[mOff + 2] * m44[mOff + 5]);
+    }
+
+    /**
+     * Computes the normal matrix of the specified 4x4 transform matrix, i.e. the inverse
+     * transpose of its upper-left 3x3 part. The result is a column-major 3x3 matrix. If the
+     * transform is singular, its upper-left 3x3 part is returned instead.
+     *
+     * @param result    3x3 result matrix
+     * @param m44       4x4 transform matrix
+     * @param mOff      Matrix array offset
+     */
+    public static void normalMatrix(float[] result, float[] m44, int mOff) {
+        // the columns of the cofactor matrix are the cross products of the transform columns
+        float ax = m44[mOff], ay = m44[mOff + 1], az = m44[mOff + 2];
+        float bx = m44[mOff + 4], by = m44[mOff + 5], bz = m44[mOff + 6];
+        float cx = m44[mOff + 8], cy = m44[mOff + 9], cz = m44[mOff + 10];
+        float det = determinant3(m44, mOff);
+        if (det == 0) {
+            for (int i = 0; i < 3; i++) {
+                System.arraycopy(m44, mOff + i * 4, result, i * 3, 3);
+            }
+            return;
+        }
+        float s = 1 / det;
+        result[0] = (by * cz - bz * cy) * s;
+        result[1] = (bz * cx - bx * cz) * s;
+        result[2] = (bx * cy - by * cx) * s;
+        result[3] = (cy * az - cz * ay) * s;
+        result[4] = (cz * ax - cx * az) * s;
+        result[5] = (cx * ay - cy * ax) * s;
+        result[6] = (ay * bz - az * by) * s;
+        result[7] = (az * bx - ax * bz) * s;
+        result[8] = (ax * by - ay * bx) * s;
+    }
+
     /**
      * Subtracts two vectors and stores the result as a third vector: result = lhs - rhs. All
      * vectors can bestored in the same array with different offsets.
@@ -215,9 +302,9 @@ public class GlMath {
      * @return maximum value of a, b and c
      */
     public static float max3(float a, float b, float c) {
-        if (a > b && a > c) {
+        if (a >= b && a >= c) {
             return a;
-        } else if (b > a && b > c) {
+        } else if (b >= c) {
             return b;
         } else {
             return c;
@@ -230,9 +317,9 @@ public class GlMath {
      * @return maximum value of a, b and c
      */
     public static int max3(int a, int b, int c) {
-        if (a > b && a > c) {
+        if (a >= b && a >= c) {
             return a;
-        } else if (b > a && b > c) {
+        } else if (b >= c) {
             return b;
         } else {
             return c;
@@ -245,9 +332,9 @@ public class GlMath {
      * @return minimum value of a, b and c
      */
     public static float min3(float a, float b, float c) {
-        if (a < b && a < c) {
+        if (a <= b && a <= c) {
             return a;
-        } else if (b < a && b < c) {
+        } else if (b <= c) {
             return b;
         } else {
             return c;
@@ -260,9 +347,9 @@ public class GlMath {
      * @return minimum value of a, b and c
      */
     public static int min3(int a, int b, int c) {
-        if (a < b && a < c) {
+        if (a <= b && a <= c) {
             return a;
-        } else if (b < a && b < c) {
+        } else if (b <= c) {
             return b;
         } else {
             return c;
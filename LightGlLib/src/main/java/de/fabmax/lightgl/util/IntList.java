@@ -50,6 +50,19 @@ public class IntList implements Iterable<Integer> {
         return mBuffer[index];
     }
 
+    /**
+     * Sets the list value at the specified index to the given value.
+     *
+     * @param index    index of the value to set
+     * @param value    value to set
+     */
+    public void set(int index, int value) {
+        if (index < 0 || index >= mSize) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        mBuffer[index] = value;
+    }
+
     /**
      * Creates a new int array and copies the content of this list to it.
      *
@@ -120,6 +133,20 @@ public class IntList implements Iterable<Integer> {
         mBuffer[mSize++] = i;
     }
 
+    /**
+     * Adds all values of the specified list to the end of this list.
+     * 
+     * @param list
+     *            the list to add
+     */
+    public void add(IntList list) {
+        while (mSize + list.mSize > mBuffer.length) {
+            increaseSize();
+        }
+        System.arraycopy(list.mBuffer, 0, mBuffer, mSize, list.mSize);
+        mSize += list.mSize;
+    }
+
     /**
      * Removes the element at the specified position.
      * 
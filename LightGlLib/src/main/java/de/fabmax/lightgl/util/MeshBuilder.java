@@ -1,8 +1,5 @@
 package de.fabmax.lightgl.util;
 
-
-import android.opengl.Matrix;
-
 /**
  * MeshBuilder can be used to iteratively build a mesh.
  * 
@@ -21,6 +18,9 @@ public class MeshBuilder {
     private boolean mHasColors;
     
     private final float[] mTransform = new float[16];
+    // inverse transpose of the transform, used to transform normals
+    private final float[] mNormalTransform = new float[9];
+    private boolean mIdentityTransform = true;
 
     /**
      * Creates a new MeshBuilder instance. The mesh to be build can optionally have normals,
@@ -51,7 +51,7 @@ public class MeshBuilder {
             mColors = null;
         }
         
-        Matrix.setIdentityM(mTransform, 0);
+        GlMath.setIdentityM(mTransform, 0);
     }
     
     /**
@@ -69,7 +69,8 @@ public class MeshBuilder {
         if (mColors != null) {
             mColors.clear();
         }
-        Matrix.setIdentityM(mTransform, 0);
+        GlMath.setIdentityM(mTransform, 0);
+        mIdentityTransform = true;
     }
     
     /**
@@ -92,12 +93,19 @@ public class MeshBuilder {
     
     /**
      * Sets a transform matrix, which is used to transform positions of vertices added with
-     * {@link #addVertex(float[], int, float[], int, float[], int, float[], int)}.
+     * {@link #addVertex(float[], int, float[], int, float[], int, float[], int)}. Normals are
+     * transformed with the inverse transpose of the transform and normalized, so that they stay
+     * perpendicular to the surface if the transform contains a non-uniform scale.
      * 
      * @param transform 4x4 transform matrix
      */
     public void setTransform(float[] transform) {
         System.arraycopy(transform, 0, mTransform, 0, 16);
+        mIdentityTransform = true;
+        for (int i = 0; i < 16 && mIdentityTransform; i++) {
+            mIdentityTransform = transform[i] == (i % 5 == 0 ? 1 : 0);
+        }
+        GlMath.normalMatrix(mNormalTransform, transform, 0);
     }
     
     /**
@@ -132,12 +140,21 @@ public class MeshBuilder {
         
         // add optional vertex attributes
         if (mHasNormals) {
-            float nx = mTransform[0]  * normal[normOff]     + mTransform[4] * normal[normOff + 1] +
-                    mTransform[8]  * normal[normOff + 2];
-            float ny = mTransform[1]  * normal[normOff]     + mTransform[5] * normal[normOff + 1] +
-                    mTransform[9]  * normal[normOff + 2];
-            float nz = mTransform[2]  * normal[normOff]     + mTransform[6] * normal[normOff + 1] +
-                    mTransform[10] * normal[normOff + 2];
+            float nx = normal[normOff];
+            float ny = normal[normOff + 1];
+            float nz = normal[normOff + 2];
+            if (!mIdentityTransform) {
+                float[] m = mNormalTransform;
+                float tx = m[0] * nx + m[3] * ny + m[6] * nz;
+                float ty = m[1] * nx + m[4] * ny + m[7] * nz;
+                float tz = m[2] * nx + m[5] * ny + m[8] * nz;
+                float len = (float) Math.sqrt(tx * tx + ty * ty + tz * tz);
+                if (len > 0) {
+                    nx = tx / len;
+                    ny = ty / len;
+                    nz = tz / len;
+                }
+            }
 
             mNormals.add(nx);
             mNormals.add(ny);
@@ -0,0 +1,233 @@
+package de.fabmax.lightgl.util;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+import de.fabmax.lightgl.LightGlException;
+import de.fabmax.lightgl.scene.Mesh;
+
+/**
+ * MeshCache stores parsed OBJ models as {@link MeshFile}s in a cache directory. Cache entries are
+ * keyed by the path of the source model and its modification stamp, so a model is only parsed
+ * once per version. Subsequent loads map the cached mesh file into memory and upload it without
+ * any parsing. Models are optimized with {@link MeshOptimizer} before they are stored.
+ *
+ * Cache files are named by the SHA-1 digest of the key and the stamp. Moreover the full key and
+ * stamp are stored in the file header and verified when a cached file is loaded.
+ *
+ * The modification stamp of asset files is the modification time of the application package,
+ * hence all cached assets are rebuilt after an app update.
+ *
+ * @author fabmax
+ */
+public class MeshCache {
+
+    private static final String TAG = "MeshCache";
+
+    private static final String FILE_SUFFIX = ".mesh";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File mCacheDir;
+
+    /**
+     * Creates a MeshCache, which stores its files in a subdirectory of the application's cache
+     * directory.
+     *
+     * @param context    application context
+     */
+    public MeshCache(Context context) {
+        this(new File(context.getCacheDir(), "meshes"));
+    }
+
+    /**
+     * Creates a MeshCache, which stores its files in the specified directory.
+     *
+     * @param cacheDir    directory for cached mesh files
+     */
+    public MeshCache(File cacheDir) {
+        mCacheDir = cacheDir;
+    }
+
+    /**
+     * Loads the specified OBJ model from the assets directory. Must be called with a valid GL
+     * context.
+     *
+     * @see #prepareObj(Context, String)
+     *
+     * @param context     application context, needed to access the assets directory
+     * @param assetPath   file name of model file
+     * @return the loaded {@link Mesh}
+     * @throws LightGlException if an error occurred during model loading
+     */
+    public Mesh loadObj(Context context, String assetPath) throws LightGlException {
+        return prepareObj(context, assetPath).createMesh();
+    }
+
+    /**
+     * Loads the specified OBJ model file. Must be called with a valid GL context.
+     *
+     * @see #prepareObj(File)
+     *
+     * @param objFile     model file
+     * @return the loaded {@link Mesh}
+     * @throws LightGlException if an error occurred during model loading
+     */
+    public Mesh loadObj(File objFile) throws LightGlException {
+        return prepareObj(objFile).createMesh();
+    }
+
+    /**
+     * Returns the {@link MeshFile} for the specified OBJ model from the assets directory. If the
+     * model is not cached or the cached version is outdated, the model is parsed and added to the
+     * cache. Does not need a GL context.
+     *
+     * @param context     application context, needed to access the assets directory
+     * @param assetPath   file name of model file
+     * @return the mesh file with the model's data
+     * @throws LightGlException if an error occurred during model loading
+     */
+    public MeshFile prepareObj(Context context, String assetPath) throws LightGlException {
+        String key = "asset:" + assetPath;
+        long stamp = new File(context.getPackageCodePath()).lastModified();
+        MeshFile meshFile = getCached(key, stamp);
+        if (meshFile == null) {
+            meshFile = store(key, stamp, ObjLoader.loadObjData(context, assetPath));
+        }
+        return meshFile;
+    }
+
+    /**
+     * Returns the {@link MeshFile} for the specified OBJ model file. If the model is not cached or
+     * the cached version is outdated, the model is parsed and added to the cache. Does not need a
+     * GL context.
+     *
+     * @param objFile     model file
+     * @return the mesh file with the model's data
+     * @throws LightGlException if an error occurred during model loading
+     */
+    public MeshFile prepareObj(File objFile) throws LightGlException {
+        String key = "file:" + objFile.getAbsolutePath();
+        long stamp = objFile.lastModified();
+        MeshFile meshFile = getCached(key, stamp);
+        if (meshFile == null) {
+            try {
+                InputStream in = new FileInputStream(objFile);
+                try {
+                    meshFile = store(key, stamp, ObjLoader.loadObjData(in));
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new LightGlException("Failed reading OBJ file: " + e.getMessage(), e);
+            }
+        }
+        return meshFile;
+    }
+
+    /**
+     * Deletes all cached mesh files.
+     */
+    public void clear() {
+        File[] files = mCacheDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().endsWith(FILE_SUFFIX) && !f.delete()) {
+                    Log.w(TAG, "Failed deleting cached mesh " + f);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the cached mesh file for the specified key and stamp or null if there is no valid
+     * cache entry.
+     */
+    private MeshFile getCached(String key, long stamp) {
+        File file = getCacheFile(key, stamp);
+        if (file.exists()) {
+            try {
+                MeshFile meshFile = MeshFile.map(file);
+                if (key.equals(meshFile.getSourceKey()) && meshFile.getSourceStamp() == stamp) {
+                    return meshFile;
+                }
+                Log.w(TAG, "Cached mesh " + file + " does not match " + key);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed loading cached mesh " + file + ": " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores the specified mesh data in the cache and returns it as mesh file. Outdated cache
+     * entries of the same key are removed. If the cache can't be written, the mesh file is kept
+     * in memory only.
+     */
+    private MeshFile store(String key, long stamp, MeshData meshData) throws LightGlException {
+        if (meshData.isEmpty()) {
+            throw new LightGlException("Model " + key + " contains no triangles");
+        }
+        MeshOptimizer.optimize(meshData);
+        MeshFile meshFile = MeshFile.create(meshData, key, stamp);
+
+        // remove outdated versions
+        String prefix = getKeyPrefix(key);
+        File[] files = mCacheDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().startsWith(prefix) && !f.delete()) {
+                    Log.w(TAG, "Failed deleting outdated cached mesh " + f);
+                }
+            }
+        }
+
+        // write new version, use a temporary file so that no one sees a partially written file
+        File file = getCacheFile(key, stamp);
+        File tmpFile = new File(mCacheDir, file.getName() + ".tmp");
+        try {
+            if (!mCacheDir.isDirectory() && !mCacheDir.mkdirs()) {
+                throw new IOException("Failed creating cache directory " + mCacheDir);
+            }
+            meshFile.write(tmpFile);
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Failed renaming " + tmpFile + " to " + file);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed caching mesh " + key + ": " + e.getMessage());
+            if (tmpFile.exists() && !tmpFile.delete()) {
+                Log.w(TAG, "Failed deleting temporary file " + tmpFile);
+            }
+        }
+        return meshFile;
+    }
+
+    private File getCacheFile(String key, long stamp) {
+        return new File(mCacheDir, getKeyPrefix(key) + Long.toHexString(stamp) + FILE_SUFFIX);
+    }
+
+    private static String getKeyPrefix(String key) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform must support SHA-1
+            throw new IllegalStateException(e);
+        }
+        byte[] hash = digest.digest(key.getBytes(UTF8));
+        StringBuilder prefix = new StringBuilder(hash.length * 2 + 1);
+        for (byte b : hash) {
+            prefix.append(String.format(Locale.ENGLISH, "%02x", b & 0xff));
+        }
+        return prefix.append('-').toString();
+    }
+}
@@ -4,8 +4,18 @@ import java.nio.Buffer;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.fabmax.lightgl.BoundingBox;
+import de.fabmax.lightgl.Shader;
 import de.fabmax.lightgl.ShaderAttributeBinder;
+import de.fabmax.lightgl.scene.Group;
+import de.fabmax.lightgl.scene.LodNode;
 import de.fabmax.lightgl.scene.Mesh;
+import de.fabmax.lightgl.scene.Node;
+import de.fabmax.lightgl.scene.TransformGroup;
 
 import static android.opengl.GLES20.GL_ARRAY_BUFFER;
 import static android.opengl.GLES20.GL_STATIC_DRAW;
@@ -22,6 +32,34 @@ import static android.opengl.GLES20.glGenBuffers;
  */
 public class MeshFactory {
 
+    /** Maximum number of vertices, which can be addressed with 16-bit indices. */
+    public static final int MAX_SHORT_INDEX_VERTICES = 65536;
+
+    // if set, created static meshes keep their MeshData
+    private static volatile boolean sKeepMeshData = false;
+
+    /**
+     * Returns true if static meshes keep their CPU side vertex data, see
+     * {@link #setKeepMeshData(boolean)}.
+     *
+     * @return true if static meshes keep their vertex data
+     */
+    public static boolean isKeepMeshData() {
+        return sKeepMeshData;
+    }
+
+    /**
+     * Sets whether static meshes created by this factory (and by {@link ObjLoader}) keep their
+     * CPU side vertex data, see {@link Mesh#setMeshData(MeshData)}. The vertex data is needed to
+     * merge meshes with {@link StaticBatcher} but costs additional memory, hence it is disabled by
+     * default. Only affects meshes created after the call.
+     *
+     * @param keepMeshData    true to keep the vertex data of created meshes
+     */
+    public static void setKeepMeshData(boolean keepMeshData) {
+        sKeepMeshData = keepMeshData;
+    }
+
     /**
      * Creates a static mesh with the specified attributes. A static mesh uses a GL Vertex Buffer Object
      * to store the vertex data.
@@ -81,17 +119,8 @@ public class MeshFactory {
         glBindBuffer(GL_ARRAY_BUFFER, 0);
         
         // create and fill index buffer
-        Buffer indexBuffer;
-        if(info.positions.length / 3 < 65536) {
-            indexBuffer = BufferHelper.createShortBuffer(info.indices.length);
-            for (int i = 0; i < info.indices.length; i++) {
-                ((ShortBuffer) indexBuffer).put((short) info.indices[i]);
-            }
-            indexBuffer.rewind();
-        } else {
-            indexBuffer = BufferHelper.createIntBuffer(info.indices);
-        }
-        
+        Buffer indexBuffer = createIndexBuffer(info.indices, vertCnt);
+
         // create mesh
         ShaderAttributeBinder posBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 3, elems * 4);
         ShaderAttributeBinder normalBinder = null;
@@ -112,7 +141,373 @@ public class MeshFactory {
             colorBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 3, elems * 4);
             colorBinder.setOffset(colorOffset);
         }
-        return new Mesh(indexBuffer, posBinder, normalBinder, uvBinder, colorBinder);
+        Mesh mesh = new Mesh(indexBuffer, posBinder, normalBinder, uvBinder, colorBinder);
+        mesh.setMeshBounds(computeBounds(info.positions, 0, 3, vertCnt));
+        if (sKeepMeshData) {
+            mesh.setMeshData(toMeshData(info));
+        }
+        return mesh;
+    }
+
+    /**
+     * Creates a static mesh from the specified {@link MeshData}. A static mesh uses a GL Vertex
+     * Buffer Object to store the vertex data.
+     *
+     * @param meshData  Data used to construct the mesh
+     * @return the created mesh
+     */
+    public static Mesh createStaticMesh(MeshData meshData) {
+        PackedVertexBuffer vertices = new PackedVertexBuffer(meshData);
+        Mesh mesh = createStaticMesh(vertices, createIndexBuffer(meshData.indices, vertices.vertexCount));
+        if (sKeepMeshData) {
+            mesh.setMeshData(meshData);
+        }
+        return mesh;
+    }
+
+    /**
+     * Creates static meshes from the specified {@link MeshData}, which always use 16-bit indices.
+     * If the mesh data has more vertices than can be addressed with 16-bit indices, it is split
+     * into multiple meshes, which are returned in a {@link Group}. Otherwise a single {@link Mesh}
+     * is returned. All created meshes use the given shader.
+     *
+     * @param meshData  Data used to construct the mesh
+     * @param shader    Shader used to render the meshes
+     * @return the created mesh or a group with the created meshes
+     */
+    public static Node createStaticMeshNode(MeshData meshData, Shader shader) {
+        if (meshData.getVertexCount() <= MAX_SHORT_INDEX_VERTICES) {
+            Mesh mesh = createStaticMesh(meshData);
+            mesh.setShader(shader);
+            return mesh;
+        }
+
+        Group group = new Group();
+        for (MeshData part : splitMeshData(meshData, MAX_SHORT_INDEX_VERTICES)) {
+            Mesh mesh = createStaticMesh(part);
+            mesh.setShader(shader);
+            group.addChild(mesh);
+        }
+        return group;
+    }
+
+    /**
+     * Creates a {@link LodNode} with static meshes for the specified levels of detail, e.g.
+     * created by {@link MeshSimplifier#createLods(MeshData, float[])}. The bounding sphere of
+     * the node is computed from the first level.
+     *
+     * @param levels            mesh data of the levels, in order of decreasing detail
+     * @param minScreenSizes    minimum screen size of each level, see
+     *                          {@link LodNode#addLevel(Node, float)}
+     * @param shader            Shader used to render the meshes
+     * @return the created LodNode
+     */
+    public static LodNode createLodNode(MeshData[] levels, float[] minScreenSizes, Shader shader) {
+        if (levels.length == 0 || levels.length != minScreenSizes.length) {
+            throw new IllegalArgumentException("Number of levels and screen sizes must match");
+        }
+
+        // bounding sphere around the bounding box center of the most detailed level
+        float[] pos = levels[0].positions;
+        BoundingBox bounds = new BoundingBox(pos, 0);
+        for (int i = 3; i < pos.length; i += 3) {
+            bounds.addPoint(pos, i);
+        }
+        float sx = bounds.getSizeX(), sy = bounds.getSizeY(), sz = bounds.getSizeZ();
+        float radius = (float) Math.sqrt(sx * sx + sy * sy + sz * sz) * 0.5f;
+        LodNode lodNode = new LodNode(bounds.getCenterX(), bounds.getCenterY(),
+                bounds.getCenterZ(), radius);
+
+        for (int i = 0; i < levels.length; i++) {
+            lodNode.addLevel(createStaticMeshNode(levels[i], shader), minScreenSizes[i]);
+        }
+        return lodNode;
+    }
+
+    /**
+     * Splits the specified {@link MeshData} into parts with at most maxVertices vertices each.
+     * Triangles are assigned to parts in their original order, hence meshes, which were optimized
+     * with {@link MeshOptimizer}, are split into spatially coherent parts. Vertices shared by
+     * triangles of different parts are duplicated.
+     *
+     * @param meshData      the mesh data to split
+     * @param maxVertices   maximum number of vertices per part, must be at least 3
+     * @return the split mesh data, a single element array if no split is needed
+     */
+    public static MeshData[] splitMeshData(MeshData meshData, int maxVertices) {
+        if (maxVertices < 3) {
+            throw new IllegalArgumentException("maxVertices must be >= 3");
+        }
+        int vertexCount = meshData.getVertexCount();
+        if (vertexCount <= maxVertices) {
+            return new MeshData[] { meshData };
+        }
+
+        int[] indices = meshData.indices;
+        // per vertex: index of the last part the vertex was added to and its index in that part
+        int[] vertPart = new int[vertexCount];
+        int[] vertLocal = new int[vertexCount];
+        Arrays.fill(vertPart, -1);
+
+        List<MeshData> parts = new ArrayList<>();
+        IntList partVerts = new IntList();
+        IntList partIndices = new IntList();
+        int part = 0;
+        for (int i = 0; i + 2 < indices.length; i += 3) {
+            // count vertices, which are not yet in the current part
+            int newVerts = 0;
+            for (int j = i; j < i + 3; j++) {
+                int v = indices[j];
+                if (vertPart[v] != part && (j == i || v != indices[i]) && (j < i + 2 || v != indices[i + 1])) {
+                    newVerts++;
+                }
+            }
+            if (partVerts.size() + newVerts > maxVertices) {
+                // current part is full, start a new one
+                parts.add(createMeshDataPart(meshData, partVerts, partIndices));
+                partVerts.clear();
+                partIndices.clear();
+                part++;
+            }
+
+            for (int j = i; j < i + 3; j++) {
+                int v = indices[j];
+                if (vertPart[v] != part) {
+                    vertPart[v] = part;
+                    vertLocal[v] = partVerts.size();
+                    partVerts.add(v);
+                }
+                partIndices.add(vertLocal[v]);
+            }
+        }
+        if (partIndices.size() > 0) {
+            parts.add(createMeshDataPart(meshData, partVerts, partIndices));
+        }
+        return parts.toArray(new MeshData[parts.size()]);
+    }
+
+    /**
+     * Creates a MeshData part containing the specified source vertices.
+     */
+    private static MeshData createMeshDataPart(MeshData src, IntList srcVerts, IntList indices) {
+        int srcCount = src.getVertexCount();
+        MeshData part = new MeshData();
+        part.indices = indices.asArray();
+        part.positions = copyVertexAttribute(src.positions, srcCount, srcVerts);
+        part.normals = copyVertexAttribute(src.normals, srcCount, srcVerts);
+        part.texCoords = copyVertexAttribute(src.texCoords, srcCount, srcVerts);
+        part.colors = copyVertexAttribute(src.colors, srcCount, srcVerts);
+        return part;
+    }
+
+    /**
+     * Copies the attribute values of the specified vertices into a new array. The number of
+     * elements per vertex is determined by the array size.
+     */
+    private static float[] copyVertexAttribute(float[] attrib, int vertexCount, IntList verts) {
+        if (attrib == null) {
+            return null;
+        }
+        int elems = attrib.length / vertexCount;
+        float[] dst = new float[verts.size() * elems];
+        for (int i = 0; i < verts.size(); i++) {
+            System.arraycopy(attrib, verts.get(i) * elems, dst, i * elems, elems);
+        }
+        return dst;
+    }
+
+    /**
+     * Creates a static mesh from the specified vertex and index buffers. The vertex data is
+     * uploaded into a GL Vertex Buffer Object as it is, hence the buffer can also be a view on a
+     * memory mapped file.
+     *
+     * @param vertices  Vertex data
+     * @param indices   Triangle vertex indices, must either be a ShortBuffer or an IntBuffer
+     * @return the created mesh
+     */
+    public static Mesh createStaticMesh(PackedVertexBuffer vertices, Buffer indices) {
+        // put vertex data in a VBO
+        int[] buf = new int[1];
+        glGenBuffers(1, buf, 0);
+        glBindBuffer(GL_ARRAY_BUFFER, buf[0]);
+        glBufferData(GL_ARRAY_BUFFER, vertices.vertexCount * vertices.strideBytes, vertices.data,
+                GL_STATIC_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+        // create attribute binders
+        int stride = vertices.strideBytes;
+        ShaderAttributeBinder posBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 3, stride);
+        ShaderAttributeBinder normalBinder = null;
+        ShaderAttributeBinder uvBinder = null;
+        ShaderAttributeBinder colorBinder = null;
+        if (vertices.hasNormals()) {
+            normalBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 3, stride);
+            normalBinder.setOffset(vertices.offsetNormals);
+        }
+        if (vertices.hasTextureCoordinates()) {
+            uvBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 2, stride);
+            uvBinder.setOffset(vertices.offsetTexCoords);
+        }
+        if (vertices.hasColors()) {
+            colorBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 4, stride);
+            colorBinder.setOffset(vertices.offsetColors);
+        }
+        Mesh mesh = new Mesh(indices, posBinder, normalBinder, uvBinder, colorBinder);
+        mesh.setMeshBounds(computeBounds(vertices.data, vertices.offsetPositions,
+                vertices.strideBytes / 4, vertices.vertexCount));
+        return mesh;
+    }
+
+    /**
+     * Creates a static mesh with compact vertex attribute types from the specified
+     * {@link MeshData}, see {@link QuantizedVertexBuffer}.
+     *
+     * @param meshData          Data used to construct the mesh
+     * @param positionFormat    Storage format of vertex positions
+     * @param shader            Shader used to render the mesh
+     * @return the created mesh, see {@link #createQuantizedMesh(QuantizedVertexBuffer, Buffer, Shader)}
+     */
+    public static Node createQuantizedMesh(MeshData meshData,
+                                           QuantizedVertexBuffer.PositionFormat positionFormat,
+                                           Shader shader) {
+        QuantizedVertexBuffer vertices = new QuantizedVertexBuffer(meshData, positionFormat);
+        return createQuantizedMesh(vertices,
+                createIndexBuffer(meshData.indices, vertices.vertexCount), shader);
+    }
+
+    /**
+     * Creates a static mesh from the specified quantized vertex and index buffers. For
+     * {@link QuantizedVertexBuffer.PositionFormat#SHORT} positions, the mesh is returned inside a
+     * {@link TransformGroup}, which restores the original vertex positions. Otherwise the
+     * {@link Mesh} is returned directly.
+     *
+     * @param vertices  Quantized vertex data
+     * @param indices   Triangle vertex indices, must either be a ShortBuffer or an IntBuffer
+     * @param shader    Shader used to render the mesh
+     * @return the created mesh or a TransformGroup containing it
+     */
+    public static Node createQuantizedMesh(QuantizedVertexBuffer vertices, Buffer indices,
+                                           Shader shader) {
+        // put vertex data in a VBO
+        int[] buf = new int[1];
+        glGenBuffers(1, buf, 0);
+        glBindBuffer(GL_ARRAY_BUFFER, buf[0]);
+        glBufferData(GL_ARRAY_BUFFER, vertices.size() * vertices.strideBytes, vertices.data,
+                GL_STATIC_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+        // create attribute binders, size and type are set by the vertex buffer
+        int stride = vertices.strideBytes;
+        ShaderAttributeBinder posBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 3, stride);
+        ShaderAttributeBinder normalBinder = null;
+        ShaderAttributeBinder uvBinder = null;
+        ShaderAttributeBinder colorBinder = null;
+        if (vertices.hasNormals()) {
+            normalBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 3, stride);
+        }
+        if (vertices.hasTextureCoordinates()) {
+            uvBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 2, stride);
+        }
+        if (vertices.hasColors()) {
+            colorBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 4, stride);
+        }
+        vertices.setupBinders(posBinder, normalBinder, uvBinder, colorBinder);
+
+        Mesh mesh = new Mesh(indices, posBinder, normalBinder, uvBinder, colorBinder);
+        mesh.setShader(shader);
+        mesh.setMeshBounds(vertices.getPositionBounds());
+        mesh.setTexCoordTransform(vertices.texCoordScale[0], vertices.texCoordScale[1],
+                vertices.texCoordOffset[0], vertices.texCoordOffset[1]);
+        if (vertices.positionFormat != QuantizedVertexBuffer.PositionFormat.SHORT) {
+            return mesh;
+        }
+
+        // normalized positions are restored by p = n * scale + offset
+        TransformGroup transform = new TransformGroup();
+        float[] offset = vertices.positionOffset;
+        float scale = vertices.positionScale;
+        transform.translate(offset[0], offset[1], offset[2]);
+        transform.scale(scale, scale, scale);
+        transform.addChild(mesh);
+        return transform;
+    }
+
+    /**
+     * Computes the bounds of the vertex positions in the specified array. Returns null if there
+     * are no vertices.
+     */
+    private static BoundingBox computeBounds(float[] data, int offset, int stride, int vertexCount) {
+        if (vertexCount == 0) {
+            return null;
+        }
+        BoundingBox bounds = new BoundingBox(data, offset);
+        for (int i = 1, j = offset + stride; i < vertexCount; i++, j += stride) {
+            bounds.addPoint(data, j);
+        }
+        return bounds;
+    }
+
+    /**
+     * Computes the bounds of the vertex positions in the specified buffer. Returns null if there
+     * are no vertices.
+     */
+    private static BoundingBox computeBounds(FloatBuffer data, int offset, int stride, int vertexCount) {
+        if (vertexCount == 0) {
+            return null;
+        }
+        BoundingBox bounds = new BoundingBox(data.get(offset), data.get(offset + 1), data.get(offset + 2));
+        for (int i = 1, j = offset + stride; i < vertexCount; i++, j += stride) {
+            bounds.addPoint(data.get(j), data.get(j + 1), data.get(j + 2));
+        }
+        return bounds;
+    }
+
+    /**
+     * Creates an index buffer for the specified indices. A ShortBuffer is used if all indices fit
+     * in 16 bits, otherwise an IntBuffer. Notice that 32-bit indices are only supported by devices
+     * with the OES_element_index_uint extension, use
+     * {@link #createStaticMeshNode(MeshData, Shader)} to stay within 16-bit indices.
+     *
+     * @param indices       Vertex indices
+     * @param vertexCount   Number of vertices referenced by the indices
+     * @return the created index buffer
+     */
+    public static Buffer createIndexBuffer(int[] indices, int vertexCount) {
+        if (vertexCount <= MAX_SHORT_INDEX_VERTICES) {
+            ShortBuffer indexBuffer = BufferHelper.createShortBuffer(indices.length);
+            for (int i = 0; i < indices.length; i++) {
+                indexBuffer.put((short) indices[i]);
+            }
+            indexBuffer.rewind();
+            return indexBuffer;
+        } else {
+            return BufferHelper.createIntBuffer(indices);
+        }
+    }
+
+    /**
+     * Converts the specified {@link de.fabmax.lightgl.util.MeshFactory.MeshConstructionInfo} to
+     * {@link MeshData}. Vertex colors are extended by an alpha value of 1. The attribute arrays
+     * are shared if possible.
+     *
+     * @param info    construction info to convert
+     * @return the mesh data
+     */
+    public static MeshData toMeshData(MeshConstructionInfo info) {
+        MeshData data = new MeshData();
+        data.indices = info.indices;
+        data.positions = info.positions;
+        data.normals = info.normals;
+        data.texCoords = info.texCoords;
+        if (info.colors != null) {
+            int n = info.colors.length / 3;
+            data.colors = new float[n * 4];
+            for (int i = 0; i < n; i++) {
+                System.arraycopy(info.colors, i * 3, data.colors, i * 4, 3);
+                data.colors[i * 4 + 3] = 1.0f;
+            }
+        }
+        return data;
     }
 
     /**
@@ -0,0 +1,282 @@
+package de.fabmax.lightgl.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import de.fabmax.lightgl.scene.Mesh;
+
+/**
+ * Compact binary mesh format. A MeshFile holds the vertex data in the interleaved layout of
+ * {@link PackedVertexBuffer} followed by an index block, so that it can be uploaded into GL
+ * buffers without any further conversion. MeshFiles are loaded with
+ * {@link FileChannel#map(FileChannel.MapMode, long, long)}, vertex and index data are never copied
+ * into Java arrays.
+ *
+ * Moreover a MeshFile stores a source key and stamp, which identify the data the mesh was built
+ * from (e.g. asset path and modification time). See {@link MeshCache}.
+ *
+ * File layout (all values in native byte order):
+ * <pre>
+ *  int     magic
+ *  int     version
+ *  int     flags (normals, texture coordinates, colors, 32-bit indices)
+ *  int     vertex count
+ *  int     index count
+ *  long    source stamp
+ *  int     source key length, followed by UTF-8 source key, padded to 4 bytes
+ *  vertex data, vertex count * stride bytes
+ *  index data, index count * 2 or 4 bytes
+ * </pre>
+ *
+ * @author fabmax
+ */
+public class MeshFile {
+
+    private static final int MAGIC = 0x4C474D46;
+    private static final int VERSION = 1;
+
+    private static final int FLAG_NORMALS = 1;
+    private static final int FLAG_TEX_COORDS = 2;
+    private static final int FLAG_COLORS = 4;
+    private static final int FLAG_INT_INDICES = 8;
+
+    // fixed header size: magic, version, flags, vertex count, index count, stamp, key length
+    private static final int HEADER_SIZE = 32;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mData;
+    private final String mSourceKey;
+    private final long mSourceStamp;
+    private final PackedVertexBuffer mVertices;
+    private final Buffer mIndices;
+    private final int mIndexCount;
+
+    /**
+     * Creates a MeshFile from the given raw data. Throws an IllegalArgumentException if data does
+     * not contain a valid mesh.
+     */
+    private MeshFile(ByteBuffer data) {
+        data.order(ByteOrder.nativeOrder());
+        if (data.capacity() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a mesh file");
+        }
+        if (data.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Unsupported mesh file version: " + data.getInt(4));
+        }
+        int flags = data.getInt(8);
+        int vertexCount = data.getInt(12);
+        mIndexCount = data.getInt(16);
+        mSourceStamp = data.getLong(20);
+        int keyLen = data.getInt(28);
+        if (vertexCount < 0 || mIndexCount < 0 || keyLen < 0 || keyLen > data.capacity() - HEADER_SIZE) {
+            throw new IllegalArgumentException("Corrupt mesh file header");
+        }
+
+        byte[] key = new byte[keyLen];
+        data.position(HEADER_SIZE);
+        data.get(key);
+        mSourceKey = new String(key, UTF8);
+
+        // slice vertex data
+        int vertexOffset = align4(HEADER_SIZE + keyLen);
+        PackedVertexBuffer layout = new PackedVertexBuffer(0, (flags & FLAG_NORMALS) != 0,
+                (flags & FLAG_TEX_COORDS) != 0, (flags & FLAG_COLORS) != 0);
+        boolean intIndices = (flags & FLAG_INT_INDICES) != 0;
+        // sizes are computed in long, corrupt counts must not wrap around
+        long vertexSize = (long) vertexCount * layout.strideBytes;
+        long indexSize = (long) mIndexCount * (intIndices ? 4 : 2);
+        if (vertexOffset + vertexSize + indexSize > data.capacity()) {
+            throw new IllegalArgumentException("Truncated mesh file");
+        }
+        int vertexBytes = (int) vertexSize;
+        int indexBytes = (int) indexSize;
+
+        FloatBuffer vertexData = slice(data, vertexOffset, vertexBytes).asFloatBuffer();
+        mVertices = new PackedVertexBuffer(vertexData, vertexCount, layout.hasNormals(),
+                layout.hasTextureCoordinates(), layout.hasColors());
+
+        // slice index data
+        ByteBuffer indexData = slice(data, vertexOffset + vertexBytes, indexBytes);
+        if (intIndices) {
+            mIndices = indexData.asIntBuffer();
+        } else {
+            mIndices = indexData.asShortBuffer();
+        }
+        data.position(0);
+        mData = data;
+    }
+
+    /**
+     * Creates an in-memory MeshFile from the specified mesh data.
+     *
+     * @param meshData      mesh data to store, must not be empty
+     * @param sourceKey     key of the source the mesh was built from
+     * @param sourceStamp   modification stamp of the source the mesh was built from
+     * @return the created MeshFile
+     */
+    public static MeshFile create(MeshData meshData, String sourceKey, long sourceStamp) {
+        if (meshData.isEmpty()) {
+            throw new IllegalArgumentException("meshData is empty");
+        }
+
+        int vertexCount = meshData.getVertexCount();
+        int indexCount = meshData.indices.length;
+        boolean intIndices = vertexCount > MeshFactory.MAX_SHORT_INDEX_VERTICES;
+        byte[] key = sourceKey.getBytes(UTF8);
+
+        PackedVertexBuffer layout = new PackedVertexBuffer(0, meshData.hasNormals(),
+                meshData.hasTextureCoordinates(), meshData.hasColors());
+        int vertexOffset = align4(HEADER_SIZE + key.length);
+        long vertexSize = (long) vertexCount * layout.strideBytes;
+        long indexSize = (long) indexCount * (intIndices ? 4 : 2);
+        if (vertexOffset + vertexSize + indexSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Mesh is too large for a mesh file");
+        }
+        int vertexBytes = (int) vertexSize;
+        int indexBytes = (int) indexSize;
+
+        ByteBuffer data = BufferHelper.createByteBuffer(vertexOffset + vertexBytes + indexBytes);
+        int flags = (meshData.hasNormals() ? FLAG_NORMALS : 0) |
+                (meshData.hasTextureCoordinates() ? FLAG_TEX_COORDS : 0) |
+                (meshData.hasColors() ? FLAG_COLORS : 0) |
+                (intIndices ? FLAG_INT_INDICES : 0);
+        data.putInt(MAGIC).putInt(VERSION).putInt(flags).putInt(vertexCount).putInt(indexCount);
+        data.putLong(sourceStamp).putInt(key.length).put(key);
+
+        // pack vertex data directly into the file buffer
+        FloatBuffer vertexData = slice(data, vertexOffset, vertexBytes).asFloatBuffer();
+        PackedVertexBuffer vertices = new PackedVertexBuffer(vertexData, vertexCount,
+                meshData.hasNormals(), meshData.hasTextureCoordinates(), meshData.hasColors());
+        vertices.pack(meshData);
+
+        ByteBuffer indexData = slice(data, vertexOffset + vertexBytes, indexBytes);
+        if (intIndices) {
+            indexData.asIntBuffer().put(meshData.indices);
+        } else {
+            for (int i = 0; i < indexCount; i++) {
+                indexData.putShort((short) meshData.indices[i]);
+            }
+        }
+
+        data.position(0);
+        return new MeshFile(data);
+    }
+
+    /**
+     * Maps the specified mesh file into memory.
+     *
+     * @param file      the mesh file to load
+     * @return the loaded MeshFile
+     * @throws IOException if the file could not be read or is not a valid mesh file
+     */
+    public static MeshFile map(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            // the mapping stays valid after the channel is closed
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MeshFile(data);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid mesh file " + file + ": " + e.getMessage());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes this MeshFile to the specified file.
+     *
+     * @param file      the file to write
+     * @throws IOException if writing the file failed
+     */
+    public void write(File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            FileChannel channel = out.getChannel();
+            ByteBuffer data = mData.duplicate();
+            data.position(0);
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Creates a static {@link Mesh} from this MeshFile. Must be called with a valid GL context.
+     *
+     * @return the created Mesh
+     */
+    public Mesh createMesh() {
+        return MeshFactory.createStaticMesh(mVertices, mIndices);
+    }
+
+    /**
+     * Returns the interleaved vertex data.
+     *
+     * @return the interleaved vertex data
+     */
+    public PackedVertexBuffer getVertices() {
+        return mVertices;
+    }
+
+    /**
+     * Returns the vertex indices. The returned buffer is either a ShortBuffer or an IntBuffer.
+     *
+     * @return the vertex indices
+     */
+    public Buffer getIndices() {
+        return mIndices;
+    }
+
+    /**
+     * Returns the number of vertex indices.
+     *
+     * @return the number of vertex indices
+     */
+    public int getIndexCount() {
+        return mIndexCount;
+    }
+
+    /**
+     * Returns the key of the source this mesh was built from.
+     *
+     * @return the key of the source this mesh was built from
+     */
+    public String getSourceKey() {
+        return mSourceKey;
+    }
+
+    /**
+     * Returns the modification stamp of the source this mesh was built from.
+     *
+     * @return the modification stamp of the source this mesh was built from
+     */
+    public long getSourceStamp() {
+        return mSourceStamp;
+    }
+
+    /**
+     * Returns a native ordered slice of the specified buffer region.
+     */
+    private static ByteBuffer slice(ByteBuffer buf, int offset, int length) {
+        ByteBuffer dup = buf.duplicate();
+        dup.position(offset);
+        dup.limit(offset + length);
+        return dup.slice().order(ByteOrder.nativeOrder());
+    }
+
+    private static int align4(int value) {
+        return (value + 3) & ~3;
+    }
+}
@@ -0,0 +1,248 @@
+package de.fabmax.lightgl.util;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * MeshOptimizer reorders {@link MeshData} for efficient rendering. Triangles are reordered to make
+ * good use of the GPU's post-transform vertex cache and vertices are reordered afterwards to match
+ * the new triangle order, which improves vertex fetch locality. The rendered geometry is not
+ * changed.
+ *
+ * Triangle reordering uses the Tipsify algorithm, which runs in linear time and doesn't depend on
+ * the exact cache size and replacement policy of the GPU.
+ *
+ * @see "Sander, Nehab, Barczak: Fast Triangle Reordering for Vertex Locality and Reduced
+ *      Overdraw, SIGGRAPH 2007"
+ * @author fabmax
+ */
+public class MeshOptimizer {
+
+    private static final String TAG = "MeshOptimizer";
+
+    /** Default vertex cache size, a conservative value for mobile GPUs. */
+    public static final int DEFAULT_CACHE_SIZE = 16;
+
+    /**
+     * Optimizes the specified mesh data for the default vertex cache size. See
+     * {@link #optimize(MeshData, int)}.
+     *
+     * @param meshData     the mesh data to optimize
+     */
+    public static void optimize(MeshData meshData) {
+        optimize(meshData, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Optimizes the specified mesh data in place: Triangles are reordered for the given vertex
+     * cache size, afterwards vertices are reordered by their first use. The average cache miss
+     * ratio before and after the optimization is logged.
+     *
+     * @param meshData     the mesh data to optimize
+     * @param cacheSize    vertex cache size to optimize for
+     */
+    public static void optimize(MeshData meshData, int cacheSize) {
+        if (meshData.isEmpty()) {
+            return;
+        }
+        int vertexCount = meshData.getVertexCount();
+        float acmrBefore = computeAcmr(meshData.indices, vertexCount, cacheSize);
+
+        optimizeVertexCache(meshData.indices, vertexCount, cacheSize);
+        optimizeVertexFetch(meshData);
+
+        float acmrAfter = computeAcmr(meshData.indices, vertexCount, cacheSize);
+        Log.d(TAG, String.format(Locale.ENGLISH, "Optimized mesh: %d vertices, %d faces, " +
+                "ACMR: %.3f -> %.3f", vertexCount, meshData.indices.length / 3, acmrBefore, acmrAfter));
+    }
+
+    /**
+     * Computes the average cache miss ratio (ACMR) of the specified triangle indices, i.e. the
+     * average number of vertex transformations per triangle for a FIFO vertex cache with the given
+     * size. The ACMR ranges from 3 (worst) to about 0.5 (best possible for regular meshes).
+     *
+     * @param indices        triangle vertex indices
+     * @param vertexCount    number of vertices referenced by indices
+     * @param cacheSize      simulated vertex cache size
+     * @return the average cache miss ratio
+     */
+    public static float computeAcmr(int[] indices, int vertexCount, int cacheSize) {
+        if (indices.length < 3) {
+            return 0;
+        }
+
+        // cache insertion time of each vertex, measured in cache misses
+        int[] insertTime = new int[vertexCount];
+        Arrays.fill(insertTime, -cacheSize - 1);
+        int misses = 0;
+        for (int idx : indices) {
+            if (misses - insertTime[idx] > cacheSize) {
+                // vertex not in cache, FIFO cache evicts oldest vertex
+                insertTime[idx] = misses++;
+            }
+        }
+        return (float) misses / (indices.length / 3);
+    }
+
+    /**
+     * Reorders the specified triangle indices in place for better vertex cache utilization using
+     * the Tipsify algorithm.
+     *
+     * @param indices        triangle vertex indices
+     * @param vertexCount    number of vertices referenced by indices
+     * @param cacheSize      vertex cache size to optimize for
+     */
+    public static void optimizeVertexCache(int[] indices, int vertexCount, int cacheSize) {
+        int triCount = indices.length / 3;
+        if (triCount < 2) {
+            return;
+        }
+
+        // build vertex-triangle adjacency
+        int[] live = new int[vertexCount];
+        for (int i = 0; i < triCount * 3; i++) {
+            live[indices[i]]++;
+        }
+        int[] adjOffsets = new int[vertexCount + 1];
+        for (int v = 0; v < vertexCount; v++) {
+            adjOffsets[v + 1] = adjOffsets[v] + live[v];
+        }
+        int[] adjTris = new int[triCount * 3];
+        int[] adjFill = Arrays.copyOf(adjOffsets, vertexCount);
+        for (int i = 0; i < triCount * 3; i++) {
+            adjTris[adjFill[indices[i]]++] = i / 3;
+        }
+
+        int[] cacheTime = new int[vertexCount];
+        boolean[] emitted = new boolean[triCount];
+        int[] deadEnd = new int[triCount * 3];
+        int deadEndSize = 0;
+        int[] candidates = new int[triCount * 3];
+        int[] output = new int[triCount * 3];
+        int outPos = 0;
+
+        int timeStamp = cacheSize + 1;
+        int cursor = 0;
+        int fanning = 0;
+        while (fanning >= 0) {
+            int candidateCount = 0;
+
+            // emit all remaining triangles of the fanning vertex
+            for (int a = adjOffsets[fanning]; a < adjOffsets[fanning + 1]; a++) {
+                int tri = adjTris[a];
+                if (emitted[tri]) {
+                    continue;
+                }
+                for (int j = tri * 3; j < tri * 3 + 3; j++) {
+                    int v = indices[j];
+                    output[outPos++] = v;
+                    deadEnd[deadEndSize++] = v;
+                    candidates[candidateCount++] = v;
+                    live[v]--;
+                    if (timeStamp - cacheTime[v] > cacheSize) {
+                        // vertex is not in cache, it is added
+                        cacheTime[v] = timeStamp++;
+                    }
+                }
+                emitted[tri] = true;
+            }
+
+            // select next fanning vertex: prefer vertices, which are still in cache after
+            // emitting all their remaining triangles, the oldest of them is best
+            int best = -1;
+            int bestPriority = -1;
+            for (int i = 0; i < candidateCount; i++) {
+                int v = candidates[i];
+                if (live[v] > 0) {
+                    int priority = 0;
+                    if (timeStamp - cacheTime[v] + 2 * live[v] <= cacheSize) {
+                        priority = timeStamp - cacheTime[v];
+                    }
+                    if (priority > bestPriority) {
+                        best = v;
+                        bestPriority = priority;
+                    }
+                }
+            }
+
+            if (best < 0) {
+                // dead end, use most recently referenced vertex with remaining triangles
+                while (deadEndSize > 0) {
+                    int v = deadEnd[--deadEndSize];
+                    if (live[v] > 0) {
+                        best = v;
+                        break;
+                    }
+                }
+            }
+            if (best < 0) {
+                // dead end stack is empty, continue with next vertex in input order
+                while (cursor < vertexCount && live[cursor] == 0) {
+                    cursor++;
+                }
+                if (cursor < vertexCount) {
+                    best = cursor;
+                }
+            }
+            fanning = best;
+        }
+
+        System.arraycopy(output, 0, indices, 0, triCount * 3);
+    }
+
+    /**
+     * Reorders the vertices of the specified mesh data by their first use in the index list and
+     * updates the indices accordingly. Vertices, which are not referenced by any triangle, are
+     * moved to the end.
+     *
+     * @param meshData     the mesh data to reorder
+     */
+    public static void optimizeVertexFetch(MeshData meshData) {
+        if (meshData.isEmpty()) {
+            return;
+        }
+        int vertexCount = meshData.getVertexCount();
+        int[] indices = meshData.indices;
+
+        // compute new vertex order
+        int[] remap = new int[vertexCount];
+        Arrays.fill(remap, -1);
+        int next = 0;
+        for (int i = 0; i < indices.length; i++) {
+            int v = indices[i];
+            if (remap[v] < 0) {
+                remap[v] = next++;
+            }
+            indices[i] = remap[v];
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            if (remap[v] < 0) {
+                remap[v] = next++;
+            }
+        }
+
+        // reorder vertex attributes
+        meshData.positions = remapAttribute(meshData.positions, vertexCount, remap);
+        meshData.normals = remapAttribute(meshData.normals, vertexCount, remap);
+        meshData.texCoords = remapAttribute(meshData.texCoords, vertexCount, remap);
+        meshData.colors = remapAttribute(meshData.colors, vertexCount, remap);
+    }
+
+    /**
+     * Reorders the elements of a vertex attribute array. The number of elements per vertex is
+     * determined by the array size.
+     */
+    private static float[] remapAttribute(float[] attrib, int vertexCount, int[] remap) {
+        if (attrib == null) {
+            return null;
+        }
+        int elems = attrib.length / vertexCount;
+        float[] remapped = new float[attrib.length];
+        for (int v = 0; v < vertexCount; v++) {
+            System.arraycopy(attrib, v * elems, remapped, remap[v] * elems, elems);
+        }
+        return remapped;
+    }
+}
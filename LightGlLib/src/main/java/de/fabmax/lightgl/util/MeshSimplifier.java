@@ -0,0 +1,768 @@
+package de.fabmax.lightgl.util;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import de.fabmax.lightgl.BoundingBox;
+
+/**
+ * MeshSimplifier reduces the triangle count of {@link MeshData} by quadric error edge collapses,
+ * e.g. to generate levels of detail for a {@link de.fabmax.lightgl.scene.LodNode}.
+ *
+ * Vertices are welded by position, hence vertices, which only differ in their attributes (e.g. the
+ * split normals of flat shaded or hard edged meshes) are collapsed together. Edges are always
+ * collapsed onto one of their end points and vertex attributes are never interpolated: Every
+ * vertex of the removed position is replaced by the vertex of the remaining position it shares a
+ * triangle with. If there is no such vertex, a vertex with the texture coordinates and colors of
+ * the remaining position and the normal of the removed vertex is used. Collapses which would move
+ * texture coordinates or colors across a seam are not allowed.
+ *
+ * Seams (edges with different texture coordinates or colors on both sides) and open mesh borders
+ * are additionally constrained by boundary quadrics: planes through the edge, perpendicular to
+ * the adjacent triangle. Vertices on seams and borders can therefore only slide along them.
+ *
+ * The simplification error is measured as area weighted RMS distance of a vertex to the planes
+ * of the original triangles it replaced, relative to the diagonal of the mesh bounding box. For
+ * vertices on seams and borders the error includes the distance to the boundary planes.
+ *
+ * @see "Garland, Heckbert: Surface Simplification Using Quadric Error Metrics, SIGGRAPH 1997"
+ * @author fabmax
+ */
+public class MeshSimplifier {
+
+    private static final String TAG = "MeshSimplifier";
+
+    // squared cosine of the maximum triangle normal rotation allowed for a collapse
+    private static final double MIN_NORMAL_COS_SQR = 0.25 * 0.25;
+    // weight of the seam and border quadrics, relative to the squared edge length
+    private static final double BOUNDARY_WEIGHT = 2.0;
+
+    private final MeshData mSrc;
+    private final int[] mIndices;
+    private int mTriCount;
+
+    // number of vertices, vertices appended by collapses are composed of the attributes of
+    // existing vertices
+    private int mVertexCount;
+    // position id of every vertex, all vertices with equal positions share a position id
+    private int[] mWeld;
+    // source vertices of the texture coordinates / colors and of the normal of every vertex
+    private int[] mAttrSrc;
+    private int[] mNormalSrc;
+
+    // coordinates of every position
+    private final double[] mPosCoords;
+    private final int[] mPosVertex;
+    private final int mPosCount;
+    // positions on open mesh borders, which can only move along border edges
+    private final boolean[] mBorder;
+    // positions on non-manifold edges, which are never removed
+    private final boolean[] mLocked;
+    // area weighted plane quadrics and their weights per position
+    private final double[] mQuadrics;
+    private final double[] mWeights;
+    private final float mDiagonal;
+    private double mMaxCost = 0;
+
+    // position to triangle adjacency, rebuilt every pass
+    private final int[] mAdjOffsets;
+    private final int[] mAdjTris;
+    // unique edges of the current pass
+    private final VertexIndexMap mEdgeSet;
+
+    // per vertex collapse target, the vertex replacing it in the current pass
+    private int[] mRemap;
+    private int[] mTarget;
+    private int[] mTargetStamp;
+    // per position modification / neighbor stamps
+    private final int[] mTouched;
+    private final int[] mNeighborStamp;
+    private int mStamp = 0;
+    private int mPass = 0;
+
+    // vertex pairs of the triangles shared by the edge of the currently checked collapse
+    private final IntList mPairFrom = new IntList();
+    private final IntList mPairTo = new IntList();
+    // scratch buffer for triangle normals
+    private final double[] mNormals = new double[6];
+
+    /**
+     * Creates a MeshSimplifier for the specified mesh data and computes the vertex quadrics.
+     */
+    private MeshSimplifier(MeshData meshData) {
+        mSrc = meshData;
+        mVertexCount = meshData.getVertexCount();
+        mWeld = new int[mVertexCount];
+        mAttrSrc = new int[mVertexCount];
+        mNormalSrc = new int[mVertexCount];
+        mRemap = new int[mVertexCount];
+        mTarget = new int[mVertexCount];
+        mTargetStamp = new int[mVertexCount];
+        for (int i = 0; i < mVertexCount; i++) {
+            mAttrSrc[i] = i;
+            mNormalSrc[i] = i;
+            mRemap[i] = i;
+        }
+        mPosVertex = new int[mVertexCount];
+        mPosCount = weldPositions();
+        mPosCoords = new double[mPosCount * 3];
+        for (int p = 0; p < mPosCount; p++) {
+            for (int j = 0; j < 3; j++) {
+                mPosCoords[p * 3 + j] = meshData.positions[mPosVertex[p] * 3 + j];
+            }
+        }
+
+        // triangles with coinciding positions are invisible, they are dropped right away
+        int[] indices = meshData.indices;
+        mIndices = new int[indices.length / 3 * 3];
+        for (int i = 0; i + 2 < indices.length; i += 3) {
+            int p0 = mWeld[indices[i]], p1 = mWeld[indices[i + 1]], p2 = mWeld[indices[i + 2]];
+            if (p0 != p1 && p1 != p2 && p2 != p0) {
+                System.arraycopy(indices, i, mIndices, mTriCount * 3, 3);
+                mTriCount++;
+            }
+        }
+
+        mQuadrics = new double[mPosCount * 10];
+        mWeights = new double[mPosCount];
+        for (int t = 0; t < mTriCount; t++) {
+            addTriangleQuadric(t);
+        }
+        mBorder = new boolean[mPosCount];
+        mLocked = new boolean[mPosCount];
+        addBoundaryQuadrics();
+        mDiagonal = computeDiagonal(meshData.positions, mVertexCount);
+
+        mAdjOffsets = new int[mPosCount + 1];
+        mAdjTris = new int[mTriCount * 3];
+        mEdgeSet = new VertexIndexMap(Math.max(mTriCount * 3 / 2, 1));
+        mTouched = new int[mPosCount];
+        mNeighborStamp = new int[mPosCount];
+    }
+
+    /**
+     * Creates a chain of simplified levels of detail. The returned array contains the original
+     * mesh data as first element, followed by one level for each of the specified triangle
+     * ratios. Each level is simplified from the previous one, ratios are relative to the triangle
+     * count of the original mesh.
+     *
+     * @param meshData          the full resolution mesh data
+     * @param triangleRatios    target triangle ratios, e.g. { 0.5f, 0.25f, 0.1f }
+     * @return the levels of detail, starting with the original mesh data
+     */
+    public static MeshData[] createLods(MeshData meshData, float[] triangleRatios) {
+        MeshData[] lods = new MeshData[triangleRatios.length + 1];
+        lods[0] = meshData;
+        int triCount = meshData.isEmpty() ? 0 : meshData.indices.length / 3;
+        for (int i = 0; i < triangleRatios.length; i++) {
+            lods[i + 1] = simplify(lods[i], (int) (triCount * triangleRatios[i]));
+        }
+        return lods;
+    }
+
+    /**
+     * Simplifies the specified mesh data to the given target triangle count. See
+     * {@link #simplify(MeshData, int, float)}.
+     *
+     * @param meshData          the mesh data to simplify
+     * @param targetTriangles   target triangle count
+     * @return the simplified mesh data
+     */
+    public static MeshData simplify(MeshData meshData, int targetTriangles) {
+        return simplify(meshData, targetTriangles, Float.MAX_VALUE);
+    }
+
+    /**
+     * Simplifies the specified mesh data until the target triangle count is reached or no more
+     * edges can be collapsed without exceeding maxError. The result may have more triangles than
+     * requested if there are not enough collapsible edges. The input mesh data is not modified.
+     *
+     * @param meshData          the mesh data to simplify
+     * @param targetTriangles   target triangle count
+     * @param maxError          maximum simplification error, relative to the mesh size
+     * @return the simplified mesh data, unreferenced vertices are removed
+     */
+    public static MeshData simplify(MeshData meshData, int targetTriangles, float maxError) {
+        if (meshData.isEmpty()) {
+            return compact(meshData, new int[0], 0, null, null, null);
+        }
+        int triCount = meshData.indices.length / 3;
+        if (triCount <= targetTriangles) {
+            return compact(meshData, meshData.indices, triCount, null, null, null);
+        }
+
+        MeshSimplifier simplifier = new MeshSimplifier(meshData);
+        simplifier.run(targetTriangles, maxError);
+        MeshData result = simplifier.getResult();
+        Log.d(TAG, String.format(Locale.ENGLISH, "Simplified mesh: %d -> %d faces, %d passes, " +
+                "error: %.5f", triCount, simplifier.mTriCount, simplifier.mPass,
+                simplifier.getRelativeError()));
+        return result;
+    }
+
+    private float getRelativeError() {
+        return mDiagonal > 0 ? (float) (Math.sqrt(mMaxCost) / mDiagonal) : 0;
+    }
+
+    private MeshData getResult() {
+        int[] posSrc = new int[mVertexCount];
+        for (int v = 0; v < mVertexCount; v++) {
+            posSrc[v] = mPosVertex[mWeld[v]];
+        }
+        return compact(mSrc, mIndices, mTriCount, posSrc, mAttrSrc, mNormalSrc);
+    }
+
+    /**
+     * Collapses edges in multiple passes until the target triangle count is reached.
+     */
+    private void run(int targetTriangles, float maxError) {
+        double maxCost = (double) maxError * mDiagonal * maxError * mDiagonal;
+        int[] candFrom = new int[mTriCount * 3];
+        int[] candTo = new int[mTriCount * 3];
+        double[] candCost = new double[mTriCount * 3];
+        long[] candOrder = new long[mTriCount * 3];
+
+        while (mTriCount > targetTriangles) {
+            mPass++;
+            buildAdjacency();
+
+            // collect cheapest collapse direction of every edge, edges are identified by their
+            // positions, so that every edge is considered exactly once regardless of winding
+            mEdgeSet.clear();
+            int candCount = 0;
+            for (int i = 0; i < mTriCount * 3; i++) {
+                int a = mWeld[mIndices[i]];
+                int b = mWeld[mIndices[i % 3 == 2 ? i - 2 : i + 1]];
+                if (mEdgeSet.putIfAbsent(Math.min(a, b), Math.max(a, b), 0, 0) >= 0) {
+                    continue;
+                }
+                double costAB = mLocked[a] ? Double.MAX_VALUE : collapseCost(a, b);
+                double costBA = mLocked[b] ? Double.MAX_VALUE : collapseCost(b, a);
+                if (costAB == Double.MAX_VALUE && costBA == Double.MAX_VALUE) {
+                    continue;
+                }
+                candFrom[candCount] = costAB <= costBA ? a : b;
+                candTo[candCount] = costAB <= costBA ? b : a;
+                candCost[candCount] = Math.min(costAB, costBA);
+                // costs are >= 0, hence their float bits sort in the same order
+                float sortCost = (float) Math.min(candCost[candCount], Float.MAX_VALUE);
+                candOrder[candCount] = ((long) Float.floatToIntBits(sortCost) << 32) | candCount;
+                candCount++;
+            }
+            Arrays.sort(candOrder, 0, candCount);
+
+            // collapse cheapest edges, each position neighborhood is modified at most once per pass
+            int removeCount = mTriCount - targetTriangles;
+            int removed = 0;
+            int collapses = 0;
+            for (int i = 0; i < candCount && removed < removeCount; i++) {
+                int c = (int) candOrder[i];
+                int u = candFrom[c];
+                int v = candTo[c];
+                if (candCost[c] > maxCost) {
+                    break;
+                }
+                if (mTouched[u] == mPass || mTouched[v] == mPass) {
+                    continue;
+                }
+                int shared = checkCollapse(u, v);
+                if (shared <= 0) {
+                    continue;
+                }
+
+                applyCollapse(u);
+                removed += shared;
+                collapses++;
+                mMaxCost = Math.max(mMaxCost, candCost[c]);
+                mergeQuadrics(u, v);
+                touchNeighborhood(u);
+                touchNeighborhood(v);
+            }
+            if (collapses == 0) {
+                break;
+            }
+
+            // apply collapses and remove degenerate triangles
+            int newCount = 0;
+            for (int t = 0; t < mTriCount; t++) {
+                int a = mRemap[mIndices[t * 3]];
+                int b = mRemap[mIndices[t * 3 + 1]];
+                int c = mRemap[mIndices[t * 3 + 2]];
+                int pa = mWeld[a], pb = mWeld[b], pc = mWeld[c];
+                if (pa != pb && pb != pc && pc != pa) {
+                    mIndices[newCount * 3] = a;
+                    mIndices[newCount * 3 + 1] = b;
+                    mIndices[newCount * 3 + 2] = c;
+                    newCount++;
+                }
+            }
+            mTriCount = newCount;
+        }
+    }
+
+    /**
+     * Assigns a position id to every vertex, vertices with equal positions get the same id.
+     * Returns the number of distinct positions.
+     */
+    private int weldPositions() {
+        float[] positions = mSrc.positions;
+        VertexIndexMap posMap = new VertexIndexMap(Math.max(mVertexCount, 1));
+        int posCount = 0;
+        for (int v = 0; v < mVertexCount; v++) {
+            int id = posMap.putIfAbsent(floatKey(positions[v * 3]),
+                    floatKey(positions[v * 3 + 1]), floatKey(positions[v * 3 + 2]), posCount);
+            if (id < 0) {
+                id = posCount++;
+                mPosVertex[id] = v;
+            }
+            mWeld[v] = id;
+        }
+        return posCount;
+    }
+
+    private static int floatKey(float f) {
+        // +0 and -0 are the same position
+        return f == 0 ? 0 : Float.floatToIntBits(f);
+    }
+
+    /**
+     * Finds border, seam and non-manifold edges. Positions on non-manifold edges are locked,
+     * border and seam edges add boundary quadrics to their end points.
+     */
+    private void addBoundaryQuadrics() {
+        VertexIndexMap edgeMap = new VertexIndexMap(Math.max(mTriCount * 3 / 2, 1));
+        int[] edgeUse = new int[mTriCount * 3];
+        int[] edgeIds = new int[mTriCount * 3];
+        // vertices at the lower and higher position of the first triangle using an edge
+        int[] edgeLo = new int[mTriCount * 3];
+        int[] edgeHi = new int[mTriCount * 3];
+        boolean[] edgeSeam = new boolean[mTriCount * 3];
+        int edgeCount = 0;
+        for (int i = 0; i < mTriCount * 3; i++) {
+            int va = mIndices[i];
+            int vb = mIndices[i % 3 == 2 ? i - 2 : i + 1];
+            if (mWeld[va] > mWeld[vb]) {
+                int tmp = va;
+                va = vb;
+                vb = tmp;
+            }
+            int e = edgeMap.putIfAbsent(mWeld[va], mWeld[vb], 0, edgeCount);
+            if (e < 0) {
+                e = edgeCount++;
+                edgeLo[e] = va;
+                edgeHi[e] = vb;
+            } else if (!attributesMatch(edgeLo[e], va) || !attributesMatch(edgeHi[e], vb)) {
+                edgeSeam[e] = true;
+            }
+            edgeIds[i] = e;
+            edgeUse[e]++;
+        }
+
+        for (int i = 0; i < mTriCount * 3; i++) {
+            int e = edgeIds[i];
+            int p0 = mWeld[mIndices[i]];
+            int p1 = mWeld[mIndices[i % 3 == 2 ? i - 2 : i + 1]];
+            if (edgeUse[e] > 2) {
+                mLocked[p0] = true;
+                mLocked[p1] = true;
+            } else if (edgeUse[e] == 1 || edgeSeam[e]) {
+                if (edgeUse[e] == 1) {
+                    mBorder[p0] = true;
+                    mBorder[p1] = true;
+                }
+                addEdgeQuadric(i / 3, p0, p1);
+            }
+        }
+    }
+
+    /**
+     * Adds the plane quadric of the specified triangle to the quadrics of its positions.
+     */
+    private void addTriangleQuadric(int tri) {
+        int p0 = mWeld[mIndices[tri * 3]];
+        int p1 = mWeld[mIndices[tri * 3 + 1]];
+        int p2 = mWeld[mIndices[tri * 3 + 2]];
+        if (!computeNormal(p0, p1, p2, 0)) {
+            return;
+        }
+        double nx = mNormals[0], ny = mNormals[1], nz = mNormals[2];
+        double len = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        nx /= len;
+        ny /= len;
+        nz /= len;
+        double[] c = mPosCoords;
+        double d = -(nx * c[p0 * 3] + ny * c[p0 * 3 + 1] + nz * c[p0 * 3 + 2]);
+        double w = len * 0.5;
+
+        addPlaneQuadric(p0, nx, ny, nz, d, w);
+        addPlaneQuadric(p1, nx, ny, nz, d, w);
+        addPlaneQuadric(p2, nx, ny, nz, d, w);
+        mWeights[p0] += w;
+        mWeights[p1] += w;
+        mWeights[p2] += w;
+    }
+
+    /**
+     * Adds the quadric of the plane through the edge p0 - p1, which is perpendicular to the
+     * specified triangle, to the quadrics of both edge positions.
+     */
+    private void addEdgeQuadric(int tri, int p0, int p1) {
+        if (!computeNormal(mWeld[mIndices[tri * 3]], mWeld[mIndices[tri * 3 + 1]],
+                mWeld[mIndices[tri * 3 + 2]], 0)) {
+            return;
+        }
+        double[] c = mPosCoords;
+        double ex = c[p1 * 3] - c[p0 * 3], ey = c[p1 * 3 + 1] - c[p0 * 3 + 1], ez = c[p1 * 3 + 2] - c[p0 * 3 + 2];
+        double nx = ey * mNormals[2] - ez * mNormals[1];
+        double ny = ez * mNormals[0] - ex * mNormals[2];
+        double nz = ex * mNormals[1] - ey * mNormals[0];
+        double len = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        nx /= len;
+        ny /= len;
+        nz /= len;
+        double d = -(nx * c[p0 * 3] + ny * c[p0 * 3 + 1] + nz * c[p0 * 3 + 2]);
+        double w = (ex * ex + ey * ey + ez * ez) * BOUNDARY_WEIGHT;
+
+        addPlaneQuadric(p0, nx, ny, nz, d, w);
+        addPlaneQuadric(p1, nx, ny, nz, d, w);
+    }
+
+    /**
+     * Adds a weighted plane quadric to the quadric of the specified position.
+     * Quadric layout: a^2, ab, ac, ad, b^2, bc, bd, c^2, cd, d^2 for plane ax + by + cz + d = 0.
+     */
+    private void addPlaneQuadric(int p, double nx, double ny, double nz, double d, double w) {
+        int q = p * 10;
+        mQuadrics[q] += w * nx * nx;
+        mQuadrics[q + 1] += w * nx * ny;
+        mQuadrics[q + 2] += w * nx * nz;
+        mQuadrics[q + 3] += w * nx * d;
+        mQuadrics[q + 4] += w * ny * ny;
+        mQuadrics[q + 5] += w * ny * nz;
+        mQuadrics[q + 6] += w * ny * d;
+        mQuadrics[q + 7] += w * nz * nz;
+        mQuadrics[q + 8] += w * nz * d;
+        mQuadrics[q + 9] += w * d * d;
+    }
+
+    /**
+     * Returns the weighted mean squared plane distance after collapsing position u onto
+     * position v.
+     */
+    private double collapseCost(int u, int v) {
+        double x = mPosCoords[v * 3], y = mPosCoords[v * 3 + 1], z = mPosCoords[v * 3 + 2];
+        double w = mWeights[u] + mWeights[v];
+        if (w == 0) {
+            return 0;
+        }
+        double err = evalQuadric(u * 10, x, y, z) + evalQuadric(v * 10, x, y, z);
+        return Math.max(err, 0) / w;
+    }
+
+    private double evalQuadric(int o, double x, double y, double z) {
+        double[] q = mQuadrics;
+        return q[o] * x * x + 2 * q[o + 1] * x * y + 2 * q[o + 2] * x * z + 2 * q[o + 3] * x +
+                q[o + 4] * y * y + 2 * q[o + 5] * y * z + 2 * q[o + 6] * y +
+                q[o + 7] * z * z + 2 * q[o + 8] * z + q[o + 9];
+    }
+
+    private void mergeQuadrics(int from, int to) {
+        for (int i = 0; i < 10; i++) {
+            mQuadrics[to * 10 + i] += mQuadrics[from * 10 + i];
+        }
+        mWeights[to] += mWeights[from];
+    }
+
+    /**
+     * Checks whether position u can be collapsed onto position v without flipping any triangle,
+     * creating non-manifold geometry or moving attributes across a seam. On success, the target
+     * vertex of every vertex at u is stored in mTarget and the number of triangles removed by the
+     * collapse is returned. Returns 0 if the collapse is not allowed.
+     */
+    private int checkCollapse(int u, int v) {
+        int shared = 0;
+        mPairFrom.clear();
+        mPairTo.clear();
+        for (int a = mAdjOffsets[u]; a < mAdjOffsets[u + 1]; a++) {
+            int t = mAdjTris[a] * 3;
+            int p0 = mWeld[mIndices[t]], p1 = mWeld[mIndices[t + 1]], p2 = mWeld[mIndices[t + 2]];
+            if (p0 == v || p1 == v || p2 == v) {
+                shared++;
+                mPairFrom.add(vertexAt(t, u));
+                mPairTo.add(vertexAt(t, v));
+                continue;
+            }
+
+            // triangle must not flip or degenerate when u is moved to v, normals are not allowed
+            // to rotate by more than ~75 degrees
+            computeNormal(p0, p1, p2, 0);
+            computeNormal(p0 == u ? v : p0, p1 == u ? v : p1, p2 == u ? v : p2, 3);
+            double[] n = mNormals;
+            double dot = n[0] * n[3] + n[1] * n[4] + n[2] * n[5];
+            double lenSqr0 = n[0] * n[0] + n[1] * n[1] + n[2] * n[2];
+            double lenSqr1 = n[3] * n[3] + n[4] * n[4] + n[5] * n[5];
+            if (dot <= 0 || dot * dot < MIN_NORMAL_COS_SQR * lenSqr0 * lenSqr1) {
+                return 0;
+            }
+        }
+        if (shared == 0 || (mBorder[u] && shared != 1)) {
+            // border positions can only be moved along border edges
+            return 0;
+        }
+
+        // link condition: u and v must not have more common neighbors than shared triangles
+        int mark = ++mStamp;
+        for (int a = mAdjOffsets[u]; a < mAdjOffsets[u + 1]; a++) {
+            int t = mAdjTris[a] * 3;
+            for (int j = t; j < t + 3; j++) {
+                mNeighborStamp[mWeld[mIndices[j]]] = mark;
+            }
+        }
+        int counted = ++mStamp;
+        int common = 0;
+        for (int a = mAdjOffsets[v]; a < mAdjOffsets[v + 1]; a++) {
+            int t = mAdjTris[a] * 3;
+            for (int j = t; j < t + 3; j++) {
+                int w = mWeld[mIndices[j]];
+                if (w != u && w != v && mNeighborStamp[w] == mark) {
+                    mNeighborStamp[w] = counted;
+                    common++;
+                }
+            }
+        }
+        if (common > shared) {
+            return 0;
+        }
+
+        // find the target vertex of every vertex at u: the vertex at v it shares a triangle with
+        // or, if there is none, a vertex at v with matching texture coordinates and colors, which
+        // is combined with the normal of the vertex at u
+        int targetMark = ++mStamp;
+        for (int a = mAdjOffsets[u]; a < mAdjOffsets[u + 1]; a++) {
+            int vu = vertexAt(mAdjTris[a] * 3, u);
+            if (mTargetStamp[vu] == targetMark) {
+                continue;
+            }
+            int target = -1;
+            for (int k = 0; k < mPairFrom.size() && target < 0; k++) {
+                if (mPairFrom.get(k) == vu) {
+                    target = mPairTo.get(k);
+                }
+            }
+            for (int k = 0; k < mPairFrom.size() && target < 0; k++) {
+                if (attributesMatch(mPairFrom.get(k), vu)) {
+                    int vv = mPairTo.get(k);
+                    // targets with a different normal are stored as -(vertex + 1)
+                    target = normalsMatch(vv, vu) ? vv : -(vv + 1);
+                    break;
+                }
+            }
+            if (target == -1) {
+                // attributes would be moved across a seam
+                return 0;
+            }
+            mTarget[vu] = target;
+            mTargetStamp[vu] = targetMark;
+        }
+        return shared;
+    }
+
+    /**
+     * Replaces all vertices at position u by their targets found by the preceding
+     * {@link #checkCollapse(int, int)}.
+     */
+    private void applyCollapse(int u) {
+        for (int a = mAdjOffsets[u]; a < mAdjOffsets[u + 1]; a++) {
+            int vu = vertexAt(mAdjTris[a] * 3, u);
+            if (mRemap[vu] != vu) {
+                continue;
+            }
+            int target = mTarget[vu];
+            if (target < 0) {
+                int vv = -(target + 1);
+                target = addVertex(mWeld[vv], mAttrSrc[vv], mNormalSrc[vu]);
+            }
+            mRemap[vu] = target;
+        }
+    }
+
+    /**
+     * Appends a vertex with the specified position id and attribute sources.
+     */
+    private int addVertex(int pos, int attrSrc, int normalSrc) {
+        if (mVertexCount == mWeld.length) {
+            int capacity = mVertexCount + mVertexCount / 2 + 16;
+            mWeld = Arrays.copyOf(mWeld, capacity);
+            mAttrSrc = Arrays.copyOf(mAttrSrc, capacity);
+            mNormalSrc = Arrays.copyOf(mNormalSrc, capacity);
+            mRemap = Arrays.copyOf(mRemap, capacity);
+            mTarget = Arrays.copyOf(mTarget, capacity);
+            mTargetStamp = Arrays.copyOf(mTargetStamp, capacity);
+        }
+        int v = mVertexCount++;
+        mWeld[v] = pos;
+        mAttrSrc[v] = attrSrc;
+        mNormalSrc[v] = normalSrc;
+        mRemap[v] = v;
+        mTargetStamp[v] = 0;
+        return v;
+    }
+
+    /**
+     * Returns the vertex of the triangle starting at index t, which has position p.
+     */
+    private int vertexAt(int t, int p) {
+        if (mWeld[mIndices[t]] == p) {
+            return mIndices[t];
+        } else if (mWeld[mIndices[t + 1]] == p) {
+            return mIndices[t + 1];
+        } else {
+            return mIndices[t + 2];
+        }
+    }
+
+    /**
+     * Returns true if the specified vertices have equal texture coordinates and colors.
+     */
+    private boolean attributesMatch(int a, int b) {
+        int sa = mAttrSrc[a];
+        int sb = mAttrSrc[b];
+        return sa == sb || (rangeEquals(mSrc.texCoords, sa * 2, sb * 2, 2) &&
+                rangeEquals(mSrc.colors, sa * 4, sb * 4, 4));
+    }
+
+    /**
+     * Returns true if the specified vertices have equal normals.
+     */
+    private boolean normalsMatch(int a, int b) {
+        int sa = mNormalSrc[a];
+        int sb = mNormalSrc[b];
+        return sa == sb || rangeEquals(mSrc.normals, sa * 3, sb * 3, 3);
+    }
+
+    private static boolean rangeEquals(float[] attrib, int offA, int offB, int len) {
+        if (attrib == null) {
+            return true;
+        }
+        for (int i = 0; i < len; i++) {
+            if (attrib[offA + i] != attrib[offB + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the (not normalized) normal of the triangle with the specified positions and
+     * stores it in mNormals at the given offset. Returns false if the triangle is degenerate.
+     */
+    private boolean computeNormal(int p0, int p1, int p2, int off) {
+        double[] c = mPosCoords;
+        double e1x = c[p1 * 3] - c[p0 * 3], e1y = c[p1 * 3 + 1] - c[p0 * 3 + 1], e1z = c[p1 * 3 + 2] - c[p0 * 3 + 2];
+        double e2x = c[p2 * 3] - c[p0 * 3], e2y = c[p2 * 3 + 1] - c[p0 * 3 + 1], e2z = c[p2 * 3 + 2] - c[p0 * 3 + 2];
+        mNormals[off] = e1y * e2z - e1z * e2y;
+        mNormals[off + 1] = e1z * e2x - e1x * e2z;
+        mNormals[off + 2] = e1x * e2y - e1y * e2x;
+        return mNormals[off] != 0 || mNormals[off + 1] != 0 || mNormals[off + 2] != 0;
+    }
+
+    /**
+     * Builds the position to triangle adjacency of the current triangles.
+     */
+    private void buildAdjacency() {
+        Arrays.fill(mAdjOffsets, 0);
+        for (int i = 0; i < mTriCount * 3; i++) {
+            mAdjOffsets[mWeld[mIndices[i]] + 1]++;
+        }
+        for (int p = 0; p < mPosCount; p++) {
+            mAdjOffsets[p + 1] += mAdjOffsets[p];
+        }
+        for (int i = 0; i < mTriCount * 3; i++) {
+            mAdjTris[mAdjOffsets[mWeld[mIndices[i]]]++] = i / 3;
+        }
+        // filling shifted the offsets by one position, shift them back
+        for (int p = mPosCount; p > 0; p--) {
+            mAdjOffsets[p] = mAdjOffsets[p - 1];
+        }
+        mAdjOffsets[0] = 0;
+    }
+
+    /**
+     * Marks all positions of the triangles around position p as modified in the current pass.
+     */
+    private void touchNeighborhood(int p) {
+        for (int a = mAdjOffsets[p]; a < mAdjOffsets[p + 1]; a++) {
+            int t = mAdjTris[a] * 3;
+            mTouched[mWeld[mIndices[t]]] = mPass;
+            mTouched[mWeld[mIndices[t + 1]]] = mPass;
+            mTouched[mWeld[mIndices[t + 2]]] = mPass;
+        }
+    }
+
+    private static float computeDiagonal(float[] pos, int vertexCount) {
+        if (vertexCount == 0) {
+            return 0;
+        }
+        BoundingBox bounds = new BoundingBox(pos, 0);
+        for (int v = 1; v < vertexCount; v++) {
+            bounds.addPoint(pos, v * 3);
+        }
+        float sx = bounds.getSizeX(), sy = bounds.getSizeY(), sz = bounds.getSizeZ();
+        return (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+    }
+
+    /**
+     * Creates new MeshData with the specified triangles. Unreferenced vertices are removed,
+     * remaining vertices are ordered by first use. The attributes of a vertex are copied from the
+     * source vertices given by posSrc, attrSrc (texture coordinates and colors) and normalSrc,
+     * null source arrays mean that vertex indices refer to the vertices of src directly.
+     */
+    private static MeshData compact(MeshData src, int[] indices, int triCount, int[] posSrc,
+                                    int[] attrSrc, int[] normalSrc) {
+        int vertexCount = 0;
+        for (int i = 0; i < triCount * 3; i++) {
+            vertexCount = Math.max(vertexCount, indices[i] + 1);
+        }
+        int[] newIndex = new int[vertexCount];
+        Arrays.fill(newIndex, -1);
+        int[] verts = new int[vertexCount];
+        int count = 0;
+
+        MeshData result = new MeshData();
+        result.indices = new int[triCount * 3];
+        for (int i = 0; i < triCount * 3; i++) {
+            int v = indices[i];
+            if (newIndex[v] < 0) {
+                verts[count] = v;
+                newIndex[v] = count++;
+            }
+            result.indices[i] = newIndex[v];
+        }
+        int srcCount = src.getVertexCount();
+        result.positions = copyVertices(src.positions, srcCount, verts, posSrc, count);
+        result.normals = copyVertices(src.normals, srcCount, verts, normalSrc, count);
+        result.texCoords = copyVertices(src.texCoords, srcCount, verts, attrSrc, count);
+        result.colors = copyVertices(src.colors, srcCount, verts, attrSrc, count);
+        return result;
+    }
+
+    /**
+     * Copies the attribute values of the specified vertices into a new array. The number of
+     * elements per vertex is determined by the array size.
+     */
+    private static float[] copyVertices(float[] attrib, int vertexCount, int[] verts,
+                                        int[] sources, int count) {
+        if (attrib == null) {
+            return null;
+        }
+        int elems = vertexCount > 0 ? attrib.length / vertexCount : 0;
+        float[] dst = new float[count * elems];
+        for (int i = 0; i < count; i++) {
+            int v = sources != null ? sources[verts[i]] : verts[i];
+            System.arraycopy(attrib, v * elems, dst, i * elems, elems);
+        }
+        return dst;
+    }
+}
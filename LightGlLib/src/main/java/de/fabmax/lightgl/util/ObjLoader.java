@@ -2,253 +2,254 @@ package de.fabmax.lightgl.util;
 
 import android.content.Context;
 import android.util.Log;
-import android.util.SparseIntArray;
 
-import java.io.BufferedReader;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 import java.util.Locale;
-import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
 
 import de.fabmax.lightgl.LightGlException;
-import de.fabmax.lightgl.ShaderAttributeBinder;
+import de.fabmax.lightgl.Shader;
 import de.fabmax.lightgl.scene.Mesh;
-
-import static android.opengl.GLES20.GL_ARRAY_BUFFER;
-import static android.opengl.GLES20.GL_STATIC_DRAW;
-import static android.opengl.GLES20.glBindBuffer;
-import static android.opengl.GLES20.glBufferData;
-import static android.opengl.GLES20.glGenBuffers;
+import de.fabmax.lightgl.scene.Node;
 
 /**
  * Basic model loader for .obj files. Supports vertex positions, normals and texture coordinates in
  * arbitrary combinations, but only triangle meshes and no material definitions.
- * 
+ *
  * @see <a href="http://en.wikipedia.org/wiki/Wavefront_.obj_file">http://en.wikipedia.org/wiki/Wavefront_.obj_file</a>
  * @author fabmax
- * 
+ *
  */
 public class ObjLoader {
 
     private static final String TAG = "ObjLoader";
 
     /**
-     * Loads the specified file from the assets directory.
-     * 
+     * Loads the specified file from the assets directory. The loaded mesh is optimized with
+     * {@link MeshOptimizer} before it is uploaded. The mesh uses 16-bit indices, hence models with
+     * more than {@link MeshFactory#MAX_SHORT_INDEX_VERTICES} vertices are rejected. Use
+     * {@link #loadObjNode(Context, String, Shader)} to load such models.
+     *
      * @param context
      *            application context, needed to access the assets directory
      * @param file
      *            file name of model file
      * @return the loaded {@link Mesh}
      * @throws de.fabmax.lightgl.LightGlException
-     *             if an error occurred during model loading
+     *             if an error occurred during model loading or the model has too many vertices
      */
     public static Mesh loadObj(Context context, String file) throws LightGlException {
-        try {
-            // open specified OBJ file
-            InputStream in = context.getAssets().open(file);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(in));
-
-            FloatList verts = new FloatList();
-            FloatList texCoords = new FloatList();
-            FloatList normals = new FloatList();
-            IntList indices = new IntList();
-
-            // parse elements from OBJ file
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.startsWith("v ")) {
-                    // parse vertex position
-                    parseFloats(line, 3, verts);
-
-                } else if (line.startsWith("vt ")) {
-                    // parse texture coordinate
-                    parseFloats(line, 2, texCoords);
-
-                } else if (line.startsWith("vn ")) {
-                    // parse vertex normal
-                    parseFloats(line, 3, normals);
-
-                } else if (line.startsWith("f ")) {
-                    // parse face vertex indices
-                    parseFaceIndices(line, indices);
-
-                }
-                // all other lines are ignored
-            }
-
-            Log.d(TAG, String.format(Locale.ENGLISH, "Parsed OBJ file: vp:%d, vt:%d, vn:%d, f:%d",
-                    verts.size() / 3, texCoords.size() / 2, normals.size() / 3, indices.size() / 3));
-
-            // determine number of indices per face vertex
-            int idxPerVertex = 1;
-            int vertElements = 3;
-            int normalOffset = 0;
-            int texCoordOffset = 0;
-            if (!texCoords.isEmpty()) {
-                idxPerVertex++;
-                texCoordOffset = vertElements;
-                vertElements += 2;
-            }
-            if (!normals.isEmpty()) {
-                idxPerVertex++;
-                normalOffset = vertElements;
-                vertElements += 3;
-            }
-
-            // OBJ supports different indices for attributes per vertex, OpenGL not - we need to
-            // rebuild the vertex list
-            int capa = GlMath.max3(verts.size(), normals.size(), texCoords.size()) * vertElements;
-            FloatList vertexData = new FloatList(capa);
-            IntList glIndices = new IntList();
-            SparseIntArray glIndexMap = new SparseIntArray();
-            float[] vertex = new float[vertElements];
-            for (int i = 0; i < indices.size(); i += idxPerVertex) {
-                int ii = i;
-                int vi = 0;
-                int vtIdx = 0;
-                int vnIdx = 0;
-
-                // get vertex position
-                int idx = indices.get(ii++) * 3;
-                vertex[vi++] = verts.get(idx);
-                vertex[vi++] = verts.get(idx + 1);
-                vertex[vi++] = verts.get(idx + 2);
-
-                // get vertex texture coordinate (if present)
-                if (!texCoords.isEmpty()) {
-                    vtIdx = indices.get(ii++) * 2;
-                    vertex[vi++] = texCoords.get(vtIdx);
-                    vertex[vi++] = texCoords.get(vtIdx + 1);
-                }
+        MeshData meshData = loadObjData(context, file);
+        if (meshData.getVertexCount() > MeshFactory.MAX_SHORT_INDEX_VERTICES) {
+            throw new LightGlException("Model " + file + " has too many vertices for a single mesh (" +
+                    meshData.getVertexCount() + "), use loadObjNode() instead");
+        }
+        MeshOptimizer.optimize(meshData);
+        return MeshFactory.createStaticMesh(meshData);
+    }
 
-                // get vertex normal (if present)
-                if (!normals.isEmpty()) {
-                    vnIdx = indices.get(ii) * 3;
-                    vertex[vi++] = normals.get(vnIdx);
-                    vertex[vi++] = normals.get(vnIdx + 1);
-                    vertex[vi] = normals.get(vnIdx + 2);
-                }
+    /**
+     * Loads the specified file from the assets directory. The loaded mesh is optimized with
+     * {@link MeshOptimizer} and uploaded with 16-bit indices. Models with more than
+     * {@link MeshFactory#MAX_SHORT_INDEX_VERTICES} vertices are split into multiple meshes, see
+     * {@link MeshFactory#createStaticMeshNode(MeshData, Shader)}.
+     *
+     * @param context
+     *            application context, needed to access the assets directory
+     * @param file
+     *            file name of model file
+     * @param shader
+     *            shader used to render the loaded model
+     * @return the loaded model, either a {@link Mesh} or a {@link de.fabmax.lightgl.scene.Group}
+     *         of meshes
+     * @throws de.fabmax.lightgl.LightGlException
+     *             if an error occurred during model loading
+     */
+    public static Node loadObjNode(Context context, String file, Shader shader)
+            throws LightGlException {
+        MeshData meshData = loadObjData(context, file);
+        MeshOptimizer.optimize(meshData);
+        return MeshFactory.createStaticMeshNode(meshData, shader);
+    }
 
-                int hash = getIndexHash(idx, vtIdx, vnIdx);
-                int glIdx = glIndexMap.get(hash);
-                if (glIdx != 0) {
-                    // this vertex is already in vertex data list, add its index
-                    glIndices.add(glIdx - 1);
-                } else {
-                    // this vertex is not yet in vertex data list, add it
-                    vertexData.add(vertex);
-                    // add new index
-                    glIdx = vertexData.size() / vertElements;
-                    glIndices.add(glIdx - 1);
-                    glIndexMap.put(hash, glIdx);
-                }
-            }
+    /**
+     * Loads the specified file from the assets directory and returns the parsed {@link MeshData}.
+     * Unlike {@link #loadObj(Context, String)} this method doesn't need a GL context.
+     *
+     * @param context
+     *            application context, needed to access the assets directory
+     * @param file
+     *            file name of model file
+     * @return the loaded {@link MeshData}
+     * @throws de.fabmax.lightgl.LightGlException
+     *             if an error occurred during model loading
+     */
+    public static MeshData loadObjData(Context context, String file) throws LightGlException {
+        return loadObjData(context, file, null);
+    }
 
-            // create Mesh
-            IntBuffer meshIndices = glIndices.asBuffer();
-
-            // put vertex data in a VBO
-            int[] buf = new int[1];
-            FloatBuffer meshData = vertexData.asBuffer();
-            glGenBuffers(1, buf, 0);
-            glBindBuffer(GL_ARRAY_BUFFER, buf[0]);
-            glBufferData(GL_ARRAY_BUFFER, meshData.capacity() * 4, meshData, GL_STATIC_DRAW);
-            glBindBuffer(GL_ARRAY_BUFFER, 0);
-            
-            // create attribute binders
-            ShaderAttributeBinder posBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 3, vertElements * 4);
-            ShaderAttributeBinder normalBinder = null;
-            ShaderAttributeBinder uvBinder = null;
-            if (!normals.isEmpty()) {
-                normalBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 3, vertElements * 4);
-                normalBinder.setOffset(normalOffset);
-            }
-            if (!texCoords.isEmpty()) {
-                uvBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 2, vertElements * 4);
-                uvBinder.setOffset(texCoordOffset);
+    /**
+     * Loads the specified file from the assets directory and returns the parsed {@link MeshData}.
+     * If an executor is given, the file is parsed in parallel, see
+     * {@link ObjParser#parseParallel(InputStream, ExecutorService)}.
+     *
+     * @param context
+     *            application context, needed to access the assets directory
+     * @param file
+     *            file name of model file
+     * @param executor
+     *            executor used for parallel parsing, can be null
+     * @return the loaded {@link MeshData}
+     * @throws de.fabmax.lightgl.LightGlException
+     *             if an error occurred during model loading
+     */
+    public static MeshData loadObjData(Context context, String file, ExecutorService executor)
+            throws LightGlException {
+        try {
+            InputStream in = context.getAssets().open(file);
+            try {
+                return loadObjData(in, executor);
+            } finally {
+                in.close();
             }
-
-            Log.d(TAG, String.format(Locale.ENGLISH, "Created Mesh: %d vertices, %d faces",
-                            vertexData.size() / vertElements, glIndices.size() / 3));
-
-            return new Mesh(meshIndices, posBinder, normalBinder, uvBinder, null);
-
+        } catch (LightGlException e) {
+            throw e;
         } catch (Exception e) {
             throw new LightGlException("Failed parsing OBJ file: " + e.getMessage(), e);
         }
     }
 
     /**
-     * Computes a hash from the specified position, normal and texture coordinate indices.
-     * 
-     * @param ip
-     *            vertex position index
+     * Parses OBJ data from the specified stream and returns the parsed {@link MeshData}. The
+     * stream is not closed.
+     *
      * @param in
-     *            vertex normal index
-     * @param it
-     *            vertex texture coordinate index
-     * @return computed hash value
+     *            stream to read the OBJ data from
+     * @return the loaded {@link MeshData}
+     * @throws de.fabmax.lightgl.LightGlException
+     *             if an error occurred during model loading
      */
-    private static int getIndexHash(int ip, int it, int in) {
-        return ip ^ (in << 16) ^ (it << 8);
+    public static MeshData loadObjData(InputStream in) throws LightGlException {
+        return loadObjData(in, null);
     }
 
     /**
-     * Parses the specified number of floats from line. line is a line read from the obj file and
-     * contains an type prefix which is ignored. The parsed float values are stored in the
-     * destination buffer.
-     * 
-     * @param line
-     *            line to parse the values from
-     * @param parseCnt
-     *            number of values to parse
-     * @param dstBuf
-     *            destination buffer
+     * Parses OBJ data from the specified stream and returns the parsed {@link MeshData}. If an
+     * executor is given, the data is parsed in parallel, see
+     * {@link ObjParser#parseParallel(InputStream, ExecutorService)}. The stream is not closed.
+     *
+     * @param in
+     *            stream to read the OBJ data from
+     * @param executor
+     *            executor used for parallel parsing, can be null
+     * @return the loaded {@link MeshData}
+     * @throws de.fabmax.lightgl.LightGlException
+     *             if an error occurred during model loading
      */
-    private static void parseFloats(String line, int parseCnt, FloatList dstBuf) {
-        StringTokenizer tok = new StringTokenizer(line, " ");
-        // skip first token (line prefix)
-        tok.nextToken();
-        // parse specified number of floats
-        for (int i = 0; i < parseCnt; i++) {
-            String s = tok.nextToken();
-            dstBuf.add(Float.parseFloat(s));
+    public static MeshData loadObjData(InputStream in, ExecutorService executor)
+            throws LightGlException {
+        try {
+            // parse OBJ data
+            ObjParser parser;
+            if (executor != null) {
+                parser = ObjParser.parseParallel(in, executor);
+            } else {
+                parser = new ObjParser();
+                parser.parse(in);
+            }
+            return buildMeshData(parser);
+
+        } catch (LightGlException e) {
+            // parser errors are descriptive already
+            throw e;
+        } catch (Exception e) {
+            throw new LightGlException("Failed parsing OBJ file: " + e.getMessage(), e);
         }
     }
 
     /**
-     * Parses position, normal and texture coordinate indices from the given face index line. Only
-     * triangle faces are supported.
-     * 
-     * @param line
-     *            line to parse indices from
-     * @param dstBuf
-     *            destination buffer
-     * @throws de.fabmax.lightgl.LightGlException
-     *             if the face has more than 3 vertices
+     * Builds {@link MeshData} from the elements parsed by the specified {@link ObjParser}.
      */
-    private static void parseFaceIndices(String line, IntList dstBuf) throws LightGlException {
-        StringTokenizer tok = new StringTokenizer(line, " ");
-        // skip first token (line prefix)
-        tok.nextToken();
-        // parse face indices
-        for (int i = 0; i < 3; i++) {
-            // retrieve vertex index string can have following formats:
-            // [v], [v]/[vt], [v]/[vt]/[vn] or [v]//[vn]
-            String vi = tok.nextToken();
-            // parse element indices
-            StringTokenizer tok2 = new StringTokenizer(vi, "/");
-            while (tok2.hasMoreTokens()) {
-                // add element index, OBJ element indices count from 1
-                dstBuf.add(Integer.parseInt(tok2.nextToken()) - 1);
+    private static MeshData buildMeshData(ObjParser parser) {
+        FloatList verts = parser.getPositions();
+        FloatList texCoords = parser.getTexCoords();
+        FloatList normals = parser.getNormals();
+        IntList indices = parser.getFaceIndices();
+
+        Log.d(TAG, String.format(Locale.ENGLISH, "Parsed OBJ file: vp:%d, vt:%d, vn:%d, f:%d",
+                verts.size() / 3, texCoords.size() / 2, normals.size() / 3,
+                parser.getFaceCount()));
+
+        boolean hasTexCoords = !texCoords.isEmpty();
+        boolean hasNormals = !normals.isEmpty();
+
+        // OBJ supports different indices for attributes per vertex, OpenGL not - we need to
+        // rebuild the vertex list
+        int capa = GlMath.max3(verts.size() / 3, normals.size() / 3, texCoords.size() / 2);
+        FloatList meshPositions = new FloatList(Math.max(capa * 3, 1));
+        FloatList meshTexCoords = hasTexCoords ? new FloatList(Math.max(capa * 2, 1)) : null;
+        FloatList meshNormals = hasNormals ? new FloatList(Math.max(capa * 3, 1)) : null;
+        IntList glIndices = new IntList(Math.max(indices.size() / 3, 1));
+        VertexIndexMap glIndexMap = new VertexIndexMap(Math.max(verts.size() / 3, 1));
+
+        for (int i = 0; i < indices.size(); i += 3) {
+            // vertices are identified by their full attribute index triple
+            int glIdx = meshPositions.size() / 3;
+            int existingIdx = glIndexMap.putIfAbsent(indices.get(i), indices.get(i + 1),
+                    indices.get(i + 2), glIdx);
+            if (existingIdx >= 0) {
+                // this vertex is already in vertex data list, add its index
+                glIndices.add(existingIdx);
+                continue;
             }
+
+            // this vertex is not yet in vertex data list, add it
+            int idx = indices.get(i) * 3;
+            meshPositions.add(verts.get(idx));
+            meshPositions.add(verts.get(idx + 1));
+            meshPositions.add(verts.get(idx + 2));
+
+            // get vertex texture coordinate (if present)
+            if (hasTexCoords) {
+                if (indices.get(i + 1) >= 0) {
+                    int vtIdx = indices.get(i + 1) * 2;
+                    meshTexCoords.add(texCoords.get(vtIdx));
+                    meshTexCoords.add(texCoords.get(vtIdx + 1));
+                } else {
+                    meshTexCoords.add(0);
+                    meshTexCoords.add(0);
+                }
+            }
+
+            // get vertex normal (if present)
+            if (hasNormals) {
+                if (indices.get(i + 2) >= 0) {
+                    int vnIdx = indices.get(i + 2) * 3;
+                    meshNormals.add(normals.get(vnIdx));
+                    meshNormals.add(normals.get(vnIdx + 1));
+                    meshNormals.add(normals.get(vnIdx + 2));
+                } else {
+                    meshNormals.add(0);
+                    meshNormals.add(0);
+                    meshNormals.add(0);
+                }
+            }
+            glIndices.add(glIdx);
+        }
+
+        MeshData meshData = new MeshData();
+        meshData.indices = glIndices.asArray();
+        meshData.positions = meshPositions.asArray();
+        if (hasTexCoords) {
+            meshData.texCoords = meshTexCoords.asArray();
         }
-        if (tok.hasMoreTokens()) {
-            throw new LightGlException("No support for more than 3 vertex indices per face");
+        if (hasNormals) {
+            meshData.normals = meshNormals.asArray();
         }
+
+        Log.d(TAG, String.format(Locale.ENGLISH, "Created mesh data: %d vertices, %d faces",
+                meshData.getVertexCount(), meshData.indices.length / 3));
+        return meshData;
     }
 
 }
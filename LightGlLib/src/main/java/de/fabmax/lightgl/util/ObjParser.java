@@ -0,0 +1,599 @@
+package de.fabmax.lightgl.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import de.fabmax.lightgl.LightGlException;
+
+/**
+ * Streaming parser for .obj files. The parser works directly on the raw bytes of the file and
+ * writes vertex positions, texture coordinates, normals and face indices straight into
+ * {@link FloatList}s and an {@link IntList} without creating any intermediate String objects.
+ *
+ * Faces are stored with 3 indices per face vertex: position index, texture coordinate index and
+ * normal index. Indices are resolved to zero-based element indices (OBJ indices count from 1,
+ * negative indices are relative to the current end of the corresponding element list). Missing
+ * texture coordinate and normal indices are stored as -1. Only triangle faces are supported, all
+ * lines other than vertex attribute and face definitions are ignored.
+ *
+ * Large files can be parsed concurrently with {@link #parseParallel(byte[], int, int,
+ * ExecutorService)}.
+ *
+ * @author fabmax
+ */
+public class ObjParser {
+
+    // size of the read buffer used for parsing input streams
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // exactly representable powers of ten
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    // mantissa digits beyond this value don't affect float precision
+    private static final long MAX_MANTISSA = 100000000000000000L;
+    // exponents beyond this value over- or underflow anyway
+    private static final int MAX_EXPONENT = 1000;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    // minimum number of bytes per chunk in parallel parsing mode
+    private static final int MIN_CHUNK_SIZE = 1024 * 1024;
+    // number of chunks per CPU core the input is split into in parallel parsing mode
+    private static final int CHUNKS_PER_CPU = 2;
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+    private final FloatList mPositions = new FloatList();
+    private final FloatList mTexCoords = new FloatList();
+    private final FloatList mNormals = new FloatList();
+    private final IntList mFaceIndices = new IntList();
+
+    // positions of face indices which were resolved relative to the chunk start, only used for
+    // parsing chunks in parallel mode
+    private final IntList mRelativeIndices;
+
+    // current parse state
+    private byte[] mBuf;
+    private int mPos;
+    private int mEnd;
+    private int mLine = 0;
+
+    /**
+     * Creates a new ObjParser.
+     */
+    public ObjParser() {
+        this(false);
+    }
+
+    /**
+     * Creates a new ObjParser. If isChunk is true, the parser parses a chunk of a larger file and
+     * remembers relative face indices, so that they can be rebased when the chunk is merged.
+     */
+    private ObjParser(boolean isChunk) {
+        mRelativeIndices = isChunk ? new IntList() : null;
+    }
+
+    /**
+     * Parses the OBJ data read from the specified stream in parallel. The stream is read
+     * completely into memory, split at line boundaries into chunks, which are parsed concurrently
+     * by the given executor. The parsed chunks are merged in order, relative face indices are
+     * rebased accordingly. The result is identical to parsing the data with a single parser. The
+     * stream is read until its end but not closed.
+     *
+     * @param in          stream to read the OBJ data from
+     * @param executor    executor used to parse the chunks
+     * @return an ObjParser containing the parsed data
+     * @throws IOException if reading from the stream failed
+     * @throws LightGlException if the OBJ data is malformed or parsing was interrupted
+     */
+    public static ObjParser parseParallel(InputStream in, ExecutorService executor)
+            throws IOException, LightGlException {
+        byte[] buf = new byte[READ_BUFFER_SIZE];
+        int len = 0;
+        int n;
+        while ((n = in.read(buf, len, buf.length - len)) >= 0) {
+            len += n;
+            if (len == buf.length) {
+                byte[] newBuf = new byte[buf.length * 2];
+                System.arraycopy(buf, 0, newBuf, 0, len);
+                buf = newBuf;
+            }
+        }
+        return parseParallel(buf, 0, len, executor);
+    }
+
+    /**
+     * Parses the OBJ data contained in the specified byte range in parallel. The data is split at
+     * line boundaries into chunks, which are parsed concurrently by the given executor. The calling
+     * thread parses the first chunk itself. The parsed chunks are merged in order, relative face
+     * indices are rebased accordingly. The result is identical to parsing the data with a single
+     * parser.
+     *
+     * If parsing fails or the calling thread is interrupted, chunks which have not started yet are
+     * skipped and this method waits for the running chunks to finish before it throws, so the data
+     * array can be reused afterwards.
+     *
+     * @param data        array containing the OBJ data
+     * @param offset      start offset of the OBJ data
+     * @param length      number of bytes to parse
+     * @param executor    executor used to parse the chunks
+     * @return an ObjParser containing the parsed data
+     * @throws LightGlException if the OBJ data is malformed or parsing was interrupted
+     */
+    public static ObjParser parseParallel(final byte[] data, int offset, int length,
+                                          ExecutorService executor) throws LightGlException {
+        int end = offset + length;
+        int chunkCount = Math.min(Math.max(length / MIN_CHUNK_SIZE, 1), CHUNKS_PER_CPU * CPU_COUNT);
+        if (chunkCount == 1) {
+            // not worth splitting
+            ObjParser parser = new ObjParser();
+            parser.parse(data, offset, length);
+            return parser;
+        }
+
+        // split data into chunks, chunk boundaries are moved to the next line start
+        int[] bounds = new int[chunkCount + 1];
+        bounds[0] = offset;
+        for (int i = 1; i < chunkCount; i++) {
+            int pos = Math.max(offset + (int) ((long) length * i / chunkCount), bounds[i - 1]);
+            while (pos < end && data[pos++] != '\n') {
+                // find next line start
+            }
+            bounds[i] = pos;
+        }
+        bounds[chunkCount] = end;
+
+        final ChunkGuard guard = new ChunkGuard();
+        List<Future<ObjParser>> chunks = new ArrayList<>();
+        boolean success = false;
+        try {
+            for (int i = 1; i < chunkCount; i++) {
+                final int chunkStart = bounds[i];
+                final int chunkLength = bounds[i + 1] - bounds[i];
+                chunks.add(executor.submit(new Callable<ObjParser>() {
+                    @Override
+                    public ObjParser call() throws LightGlException {
+                        ObjParser chunk = new ObjParser(true);
+                        if (guard.enter()) {
+                            try {
+                                chunk.parse(data, chunkStart, chunkLength);
+                            } finally {
+                                guard.exit();
+                            }
+                        }
+                        return chunk;
+                    }
+                }));
+            }
+
+            // the first chunk has no preceding elements, hence it needs no rebasing
+            ObjParser parser = new ObjParser();
+            parser.parse(data, bounds[0], bounds[1] - bounds[0]);
+            for (Future<ObjParser> chunk : chunks) {
+                parser.append(chunk.get());
+            }
+            success = true;
+            return parser;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LightGlException("Interrupted while parsing OBJ data", e);
+
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof LightGlException) {
+                throw (LightGlException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (RuntimeException) cause;
+
+        } finally {
+            if (!success) {
+                // drop queued chunks and wait for running ones, they still read the data array
+                for (Future<ObjParser> chunk : chunks) {
+                    chunk.cancel(false);
+                }
+                guard.abort();
+            }
+        }
+    }
+
+    /**
+     * Appends the elements of a chunk parser to the elements of this parser. Face indices of the
+     * chunk, which were resolved relative to the chunk start, are rebased to the elements of this
+     * parser.
+     */
+    private void append(ObjParser chunk) {
+        int[] bases = { mPositions.size() / 3, mTexCoords.size() / 2, mNormals.size() / 3 };
+        int indexOffset = mFaceIndices.size();
+
+        mPositions.add(chunk.mPositions);
+        mTexCoords.add(chunk.mTexCoords);
+        mNormals.add(chunk.mNormals);
+        mFaceIndices.add(chunk.mFaceIndices);
+
+        IntList relIndices = chunk.mRelativeIndices;
+        for (int i = 0; i < relIndices.size(); i++) {
+            int pos = relIndices.get(i);
+            int idx = indexOffset + pos;
+            mFaceIndices.set(idx, mFaceIndices.get(idx) + bases[pos % 3]);
+        }
+    }
+
+    /**
+     * Parses the OBJ data read from the specified stream. The stream is read until its end but
+     * not closed.
+     *
+     * @param in    stream to read the OBJ data from
+     * @throws IOException if reading from the stream failed
+     * @throws LightGlException if the OBJ data is malformed
+     */
+    public void parse(InputStream in) throws IOException, LightGlException {
+        byte[] buf = new byte[READ_BUFFER_SIZE];
+        int len = 0;
+        int n;
+        while ((n = in.read(buf, len, buf.length - len)) >= 0) {
+            len += n;
+
+            // parse all complete lines in buffer
+            int lineEnd = len - 1;
+            while (lineEnd >= 0 && buf[lineEnd] != '\n') {
+                lineEnd--;
+            }
+            if (lineEnd >= 0) {
+                parse(buf, 0, lineEnd + 1);
+                // move incomplete last line to buffer start
+                len -= lineEnd + 1;
+                System.arraycopy(buf, lineEnd + 1, buf, 0, len);
+            } else if (len == buf.length) {
+                // line is longer than buffer, increase buffer size
+                byte[] newBuf = new byte[buf.length * 2];
+                System.arraycopy(buf, 0, newBuf, 0, len);
+                buf = newBuf;
+            }
+        }
+        if (len > 0) {
+            // parse last line without line break
+            parse(buf, 0, len);
+        }
+    }
+
+    /**
+     * Parses the OBJ data contained in the specified byte range. The range should end at a line
+     * boundary, otherwise the last line is parsed as if it was complete.
+     *
+     * @param data      array containing the OBJ data
+     * @param offset    start offset of the OBJ data
+     * @param length    number of bytes to parse
+     * @throws LightGlException if the OBJ data is malformed
+     */
+    public void parse(byte[] data, int offset, int length) throws LightGlException {
+        mBuf = data;
+        mPos = offset;
+        mEnd = offset + length;
+        try {
+            while (mPos < mEnd) {
+                mLine++;
+                parseLine();
+            }
+        } finally {
+            mBuf = null;
+        }
+    }
+
+    /**
+     * Returns the parsed vertex positions, 3 elements per position.
+     *
+     * @return the parsed vertex positions
+     */
+    public FloatList getPositions() {
+        return mPositions;
+    }
+
+    /**
+     * Returns the parsed texture coordinates, 2 elements per texture coordinate.
+     *
+     * @return the parsed texture coordinates
+     */
+    public FloatList getTexCoords() {
+        return mTexCoords;
+    }
+
+    /**
+     * Returns the parsed vertex normals, 3 elements per normal.
+     *
+     * @return the parsed vertex normals
+     */
+    public FloatList getNormals() {
+        return mNormals;
+    }
+
+    /**
+     * Returns the parsed face indices. Every face vertex has 3 indices: position index, texture
+     * coordinate index and normal index. Missing texture coordinate and normal indices are -1.
+     *
+     * @return the parsed face indices
+     */
+    public IntList getFaceIndices() {
+        return mFaceIndices;
+    }
+
+    /**
+     * Returns the number of parsed faces.
+     *
+     * @return the number of parsed faces
+     */
+    public int getFaceCount() {
+        return mFaceIndices.size() / 9;
+    }
+
+    /**
+     * Parses the line starting at the current position and moves the position to the start of
+     * the next line.
+     */
+    private void parseLine() throws LightGlException {
+        skipSpaces();
+        if (mPos < mEnd) {
+            byte c0 = mBuf[mPos];
+            byte c1 = mPos + 1 < mEnd ? mBuf[mPos + 1] : (byte) '\n';
+            byte c2 = mPos + 2 < mEnd ? mBuf[mPos + 2] : (byte) '\n';
+
+            if (c0 == 'v' && isSpace(c1)) {
+                // vertex position
+                mPos += 1;
+                parseFloats(3, mPositions);
+            } else if (c0 == 'v' && c1 == 't' && isSpace(c2)) {
+                // texture coordinate
+                mPos += 2;
+                parseFloats(2, mTexCoords);
+            } else if (c0 == 'v' && c1 == 'n' && isSpace(c2)) {
+                // vertex normal
+                mPos += 2;
+                parseFloats(3, mNormals);
+            } else if (c0 == 'f' && isSpace(c1)) {
+                // face vertex indices
+                mPos += 1;
+                parseFace();
+            }
+            // all other lines are ignored
+        }
+        skipLine();
+    }
+
+    /**
+     * Parses the specified number of floats from the current line. Further values (e.g. a
+     * texture coordinate w component) are ignored.
+     */
+    private void parseFloats(int count, FloatList dst) throws LightGlException {
+        for (int i = 0; i < count; i++) {
+            dst.add(parseFloat());
+        }
+    }
+
+    /**
+     * Parses the vertex indices of a triangle face. Vertex index formats can be: [v], [v]/[vt],
+     * [v]/[vt]/[vn] or [v]//[vn]
+     */
+    private void parseFace() throws LightGlException {
+        for (int i = 0; i < 3; i++) {
+            skipSpaces();
+            int v = parseInt();
+            if (v == 0) {
+                throw new LightGlException("Invalid index 0 in line " + mLine);
+            }
+            addFaceIndex(v, mPositions.size() / 3);
+            int vt = 0;
+            int vn = 0;
+            if (mPos < mEnd && mBuf[mPos] == '/') {
+                mPos++;
+                if (mPos < mEnd && mBuf[mPos] != '/') {
+                    vt = parseInt();
+                }
+                if (mPos < mEnd && mBuf[mPos] == '/') {
+                    mPos++;
+                    vn = parseInt();
+                }
+            }
+            addFaceIndex(vt, mTexCoords.size() / 2);
+            addFaceIndex(vn, mNormals.size() / 3);
+        }
+
+        skipSpaces();
+        if (mPos < mEnd && !isLineEnd(mBuf[mPos]) && mBuf[mPos] != '#') {
+            throw new LightGlException("No support for more than 3 vertex indices per face (line "
+                    + mLine + ")");
+        }
+    }
+
+    /**
+     * Converts a one-based or negative (relative) OBJ index into a zero-based index and adds it to
+     * the face indices. An OBJ index of 0 marks a missing attribute index and is stored as -1.
+     */
+    private void addFaceIndex(int objIdx, int elementCount) {
+        if (objIdx > 0) {
+            mFaceIndices.add(objIdx - 1);
+        } else if (objIdx < 0) {
+            if (mRelativeIndices != null) {
+                // relative index must be rebased when this chunk is merged
+                mRelativeIndices.add(mFaceIndices.size());
+            }
+            mFaceIndices.add(elementCount + objIdx);
+        } else {
+            mFaceIndices.add(-1);
+        }
+    }
+
+    /**
+     * Parses a decimal integer at the current position.
+     */
+    private int parseInt() throws LightGlException {
+        byte[] buf = mBuf;
+        boolean negative = false;
+        if (mPos < mEnd && (buf[mPos] == '-' || buf[mPos] == '+')) {
+            negative = buf[mPos++] == '-';
+        }
+        int start = mPos;
+        int value = 0;
+        while (mPos < mEnd) {
+            int d = buf[mPos] - '0';
+            if (d < 0 || d > 9) {
+                break;
+            }
+            value = value * 10 + d;
+            mPos++;
+        }
+        if (mPos == start) {
+            throw new LightGlException("Expected integer value in line " + mLine);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a decimal floating point number (with optional exponent) at the current position.
+     * Values the fast path can't handle (e.g. nan, inf or hexadecimal values) are parsed by
+     * {@link #parseFloatToken()}.
+     */
+    private float parseFloat() throws LightGlException {
+        skipSpaces();
+        int start = mPos;
+        byte[] buf = mBuf;
+        boolean negative = false;
+        if (mPos < mEnd && (buf[mPos] == '-' || buf[mPos] == '+')) {
+            negative = buf[mPos++] == '-';
+        }
+
+        long mantissa = 0;
+        int exp = 0;
+        boolean hasDigits = false;
+
+        // integer part
+        while (mPos < mEnd) {
+            int d = buf[mPos] - '0';
+            if (d < 0 || d > 9) {
+                break;
+            }
+            if (mantissa < MAX_MANTISSA) {
+                mantissa = mantissa * 10 + d;
+            } else {
+                exp++;
+            }
+            hasDigits = true;
+            mPos++;
+        }
+        // fraction part
+        if (mPos < mEnd && buf[mPos] == '.') {
+            mPos++;
+            while (mPos < mEnd) {
+                int d = buf[mPos] - '0';
+                if (d < 0 || d > 9) {
+                    break;
+                }
+                if (mantissa < MAX_MANTISSA) {
+                    mantissa = mantissa * 10 + d;
+                    exp--;
+                }
+                hasDigits = true;
+                mPos++;
+            }
+        }
+        // exponent
+        if (hasDigits && mPos < mEnd && (buf[mPos] == 'e' || buf[mPos] == 'E')) {
+            mPos++;
+            boolean expNegative = false;
+            if (mPos < mEnd && (buf[mPos] == '-' || buf[mPos] == '+')) {
+                expNegative = buf[mPos++] == '-';
+            }
+            int expValue = 0;
+            hasDigits = false;
+            while (mPos < mEnd) {
+                int d = buf[mPos] - '0';
+                if (d < 0 || d > 9) {
+                    break;
+                }
+                expValue = Math.min(expValue * 10 + d, MAX_EXPONENT);
+                hasDigits = true;
+                mPos++;
+            }
+            exp += expNegative ? -expValue : expValue;
+        }
+        if (!hasDigits || (mPos < mEnd && !isSpace(buf[mPos]) && !isLineEnd(buf[mPos]))) {
+            // not a plain decimal number
+            mPos = start;
+            return parseFloatToken();
+        }
+
+        double value = mantissa;
+        if (mantissa != 0 && exp != 0) {
+            if (exp > 0) {
+                value *= exp < POW10.length ? POW10[exp] : Math.pow(10, exp);
+            } else {
+                value /= -exp < POW10.length ? POW10[-exp] : Math.pow(10, -exp);
+            }
+        }
+        return (float) (negative ? -value : value);
+    }
+
+    /**
+     * Parses the whitespace delimited token at the current position with
+     * {@link Float#parseFloat(String)}. Additionally accepts the nan and inf notations written by
+     * C libraries.
+     */
+    private float parseFloatToken() throws LightGlException {
+        int start = mPos;
+        while (mPos < mEnd && !isSpace(mBuf[mPos]) && !isLineEnd(mBuf[mPos])) {
+            mPos++;
+        }
+        if (mPos == start) {
+            throw new LightGlException("Expected float value in line " + mLine);
+        }
+        String token = new String(mBuf, start, mPos - start, ASCII);
+        try {
+            return Float.parseFloat(token);
+        } catch (NumberFormatException e) {
+            String t = token.toLowerCase(Locale.ENGLISH);
+            boolean negative = t.startsWith("-");
+            if (negative || t.startsWith("+")) {
+                t = t.substring(1);
+            }
+            if (t.startsWith("nan") || t.contains("#ind") || t.contains("#qnan") ||
+                    t.contains("#snan")) {
+                // e.g. nan, nan(ind), -nan, 1.#QNAN, 1.#IND
+                return Float.NaN;
+            } else if (t.equals("inf") || t.equals("infinity") || t.contains("#inf")) {
+                // e.g. inf, -infinity, 1.#INF
+                return negative ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+            }
+            throw new LightGlException("Invalid float value \"" + token + "\" in line " + mLine);
+        }
+    }
+
+    private void skipSpaces() {
+        while (mPos < mEnd && (mBuf[mPos] == ' ' || mBuf[mPos] == '\t')) {
+            mPos++;
+        }
+    }
+
+    private void skipLine() {
+        while (mPos < mEnd && mBuf[mPos++] != '\n') {
+            // skip remaining characters of current line
+        }
+    }
+
+    private static boolean isSpace(byte c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private static boolean isLineEnd(byte c) {
+        return c == '\n' || c == '\r';
+    }
+}
@@ -27,6 +27,16 @@ public class PackedVertexBuffer {
     public int[] vertexIndices;
 
     public PackedVertexBuffer(int vertexCount, boolean hasNormals, boolean hasTexCoords, boolean hasColors) {
+        this(null, vertexCount, hasNormals, hasTexCoords, hasColors);
+    }
+
+    /**
+     * Creates a PackedVertexBuffer, which uses the given buffer as vertex data storage. The buffer
+     * must contain vertexCount vertices with the specified layout. If data is null a new buffer
+     * is allocated.
+     */
+    public PackedVertexBuffer(FloatBuffer data, int vertexCount, boolean hasNormals, boolean hasTexCoords,
+                              boolean hasColors) {
         int elems = 3;
         this.vertexCount = vertexCount;
         offsetPositions = 0;
@@ -57,7 +67,13 @@ public class PackedVertexBuffer {
 
         // strideBytes is in bytes -> float elements have 4 bytes
         strideBytes = elems * 4;
-        data = BufferHelper.createFloatBuffer(elems * vertexCount);
+        if (data == null) {
+            this.data = BufferHelper.createFloatBuffer(elems * vertexCount);
+        } else if (data.capacity() < elems * vertexCount) {
+            throw new IllegalArgumentException("Supplied buffer is too small for " + vertexCount + " vertices");
+        } else {
+            this.data = data;
+        }
     }
 
     public PackedVertexBuffer(MeshData meshData) {
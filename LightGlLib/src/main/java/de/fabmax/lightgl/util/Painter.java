@@ -4,6 +4,8 @@ package de.fabmax.lightgl.util;
 import android.graphics.Typeface;
 import android.opengl.Matrix;
 
+import java.util.Arrays;
+
 import de.fabmax.lightgl.ColorShader;
 import de.fabmax.lightgl.LightGlContext;
 import de.fabmax.lightgl.RenderPass;
@@ -28,11 +30,14 @@ public class Painter {
     private final DynamicMesh fontMesh;
     private final TextureShader fontShader;
     private final MeshBuilder fontBuilder;
+    // texture of the textured batch (text and sprites), set on fontShader
+    private Texture batchTexture;
 
     private final float[] pos = new float[8];
 	private final float[] color = new float[4];
 
-    private float[][] mSoftTranslation = new float[20][3];
+    // soft translation stack, 3 elements per level, grows on demand
+    private float[] mSoftTranslation = new float[20 * 3];
     private int mTranslationIdx = 0;
 
     public Painter(LightGlContext glContext) {
@@ -45,6 +50,7 @@ public class Painter {
 
         builder = new MeshBuilder(true, false, true);
         mesh = new DynamicMesh(10000, 10000, true, false, true);
+        mesh.setBufferRingSize(DynamicMesh.DEFAULT_BUFFER_RING_SIZE);
 
         pos[5] = 0;
         pos[6] = 0;
@@ -59,9 +65,10 @@ public class Painter {
         }
 
         fontShader = new TextureShader(glContext.getShaderManager());
-        fontShader.setTexture(glContext, font.getFontTexture());
+        setBatchTexture(font.getFontTexture());
         fontBuilder = new MeshBuilder(false, true, false);
         fontMesh = new DynamicMesh(10000, 10000, false, true, false);
+        fontMesh.setBufferRingSize(DynamicMesh.DEFAULT_BUFFER_RING_SIZE);
         fontMesh.setShader(fontShader);
 
         setColor(Color.BLACK);
@@ -76,13 +83,10 @@ public class Painter {
 
     public void setDefaultFont() {
         font = defaultFont;
-        fontShader.setTexture(glContext, font.getFontTexture());
     }
 
     public void setFont(GlFont font) {
-        commit();
         this.font = font;
-        fontShader.setTexture(glContext, this.font.getFontTexture());
     }
 
     public GlFont getFont() {
@@ -113,12 +117,23 @@ public class Painter {
         return glContext;
     }
 
+    /**
+     * Draws all pending geometry: First the colored geometry, then text and textures.
+     */
     public void commit() {
+        flushColorBatch();
+        flushTextureBatch();
+    }
+
+    private void flushColorBatch() {
         if (builder.getVertexCount() > 0) {
             mesh.updateMeshData(builder);
             mesh.render(glContext);
             builder.clear();
         }
+    }
+
+    private void flushTextureBatch() {
         if (fontBuilder.getVertexCount() > 0) {
             fontMesh.updateMeshData(fontBuilder);
             fontMesh.render(glContext);
@@ -131,19 +146,38 @@ public class Painter {
         setColor(Color.YELLOW);
     }
 
+    /**
+     * Draws the given texture. Textured quads are batched like text until {@link #commit()} is
+     * called or another texture is used. Pending colored geometry is drawn first, so that it
+     * stays below the texture. Colored geometry drawn after the texture ends up below it as well,
+     * unless {@link #commit()} is called in between.
+     */
     public void drawTexture(Texture texture, float x, float y, float width, float height) {
-        if (!fontBuilder.isEmpty()) {
-            fontMesh.updateMeshData(fontBuilder);
-            fontMesh.render(glContext);
-            fontBuilder.clear();
+        flushColorBatch();
+        setBatchTexture(texture);
+        addTexQuad(x, y, width, height, 0, 0, 1, 1);
+    }
+
+    /**
+     * Draws a region of a {@link TextureAtlas}. Consecutive regions of the same atlas page are
+     * drawn in a single batch, draw order is the same as for
+     * {@link #drawTexture(Texture, float, float, float, float)}.
+     */
+    public void drawTexture(TextureAtlas.Region region, float x, float y, float width, float height) {
+        flushColorBatch();
+        setBatchTexture(region.texture);
+        addTexQuad(x, y, width, height, region.u0, region.v0, region.u1, region.v1);
+    }
+
+    /**
+     * Flushes the textured batch if it uses another texture than the given one.
+     */
+    private void setBatchTexture(Texture texture) {
+        if (texture != batchTexture) {
+            flushTextureBatch();
+            fontShader.setTexture(glContext, texture);
+            batchTexture = texture;
         }
-
-        fontShader.setTexture(glContext, texture);
-        addTexQuad(x, y, width, height);
-        fontMesh.updateMeshData(fontBuilder);
-        fontMesh.render(glContext);
-        fontBuilder.clear();
-        fontShader.setTexture(glContext, font.getFontTexture());
     }
 
     public void pushTransform() {
@@ -175,12 +209,17 @@ public class Painter {
     }
 
     public void softTranslate(float tX, float tY, float tZ) {
-        mSoftTranslation[mTranslationIdx][0] += tX;
-        mSoftTranslation[mTranslationIdx][1] += tY;
-        mSoftTranslation[mTranslationIdx][2] += tZ;
+        mSoftTranslation[mTranslationIdx * 3] += tX;
+        mSoftTranslation[mTranslationIdx * 3 + 1] += tY;
+        mSoftTranslation[mTranslationIdx * 3 + 2] += tZ;
     }
 
     public void pushSoftTransform() {
+        int i = mTranslationIdx * 3;
+        if (i + 6 > mSoftTranslation.length) {
+            mSoftTranslation = Arrays.copyOf(mSoftTranslation, mSoftTranslation.length * 2);
+        }
+        System.arraycopy(mSoftTranslation, i, mSoftTranslation, i + 3, 3);
         mTranslationIdx++;
     }
 
@@ -294,8 +333,9 @@ public class Painter {
     }
 
     public float drawString(float x, float y, String str) {
-        x += mSoftTranslation[mTranslationIdx][0];
-        y += mSoftTranslation[mTranslationIdx][1];
+        setBatchTexture(font.getFontTexture());
+        x += mSoftTranslation[mTranslationIdx * 3];
+        y += mSoftTranslation[mTranslationIdx * 3 + 1];
         return font.drawString(str, x, y, 0, fontBuilder);
     }
 
@@ -361,12 +401,12 @@ public class Painter {
         float s = sweep / steps;
         float a = (float) Math.toRadians(start);
 
-        x += mSoftTranslation[mTranslationIdx][0];
-        y += mSoftTranslation[mTranslationIdx][1];
+        x += mSoftTranslation[mTranslationIdx * 3];
+        y += mSoftTranslation[mTranslationIdx * 3 + 1];
 
         pos[0] = x;
         pos[1] = y;
-        pos[2] = mSoftTranslation[mTranslationIdx][2];
+        pos[2] = mSoftTranslation[mTranslationIdx * 3 + 2];
         int idx0 = builder.addVertex(pos, 0, pos, 5, null, 0, color, 0);
         pos[0] = x + (float) Math.cos(a);
         pos[1] = y - (float) Math.sin(a);
@@ -397,9 +437,9 @@ public class Painter {
     }
 
     private void addQuad(float x0, float y0, float x1, float y1, float x2, float y2, float x3, float y3) {
-        float tx = mSoftTranslation[mTranslationIdx][0];
-        float ty = mSoftTranslation[mTranslationIdx][1];
-        float tz = mSoftTranslation[mTranslationIdx][2];
+        float tx = mSoftTranslation[mTranslationIdx * 3];
+        float ty = mSoftTranslation[mTranslationIdx * 3 + 1];
+        float tz = mSoftTranslation[mTranslationIdx * 3 + 2];
 
         pos[0] = x0 + tx;
         pos[1] = y0 + ty;
@@ -419,31 +459,31 @@ public class Painter {
         builder.addTriangle(idx0, idx2, idx3);
     }
 
-    private void addTexQuad(float x, float y, float width, float height) {
-        float tx = mSoftTranslation[mTranslationIdx][0];
-        float ty = mSoftTranslation[mTranslationIdx][1];
-        float tz = mSoftTranslation[mTranslationIdx][2];
+    private void addTexQuad(float x, float y, float width, float height, float u0, float v0, float u1, float v1) {
+        float tx = mSoftTranslation[mTranslationIdx * 3];
+        float ty = mSoftTranslation[mTranslationIdx * 3 + 1];
+        float tz = mSoftTranslation[mTranslationIdx * 3 + 2];
 
         pos[0] = x + tx;
         pos[1] = y + ty;
         pos[2] = tz;
-        pos[3] = 0;
-        pos[4] = 0;
+        pos[3] = u0;
+        pos[4] = v0;
         int idx0 = fontBuilder.addVertex(pos, 0, pos, 5, pos, 3, null, 0);
         pos[0] = x + tx;
         pos[1] = y + ty + height;
-        pos[3] = 0;
-        pos[4] = 1;
+        pos[3] = u0;
+        pos[4] = v1;
         int idx1 = fontBuilder.addVertex(pos, 0, pos, 5, pos, 3, null, 0);
         pos[0] = x + tx + width;
         pos[1] = y + ty + height;
-        pos[3] = 1;
-        pos[4] = 1;
+        pos[3] = u1;
+        pos[4] = v1;
         int idx2 = fontBuilder.addVertex(pos, 0, pos, 5, pos, 3, null, 0);
         pos[0] = x + tx + width;
         pos[1] = y + ty;
-        pos[3] = 1;
-        pos[4] = 0;
+        pos[3] = u1;
+        pos[4] = v0;
         int idx3 = fontBuilder.addVertex(pos, 0, pos, 5, pos, 3, null, 0);
 
         fontBuilder.addTriangle(idx0, idx1, idx2);
@@ -0,0 +1,485 @@
+package de.fabmax.lightgl.util;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+import de.fabmax.lightgl.BoundingBox;
+import de.fabmax.lightgl.ShaderAttributeBinder;
+
+import static android.opengl.GLES20.GL_FLOAT;
+import static android.opengl.GLES20.GL_BYTE;
+import static android.opengl.GLES20.GL_SHORT;
+import static android.opengl.GLES20.GL_UNSIGNED_BYTE;
+import static android.opengl.GLES20.GL_UNSIGNED_SHORT;
+
+/**
+ * A vertex buffer with compact attribute types. QuantizedVertexBuffer uses the same attribute
+ * order as {@link PackedVertexBuffer} but stores normals as normalized signed bytes, texture
+ * coordinates as normalized unsigned shorts and colors as RGBA8. Positions are stored as floats,
+ * half floats or normalized shorts, see {@link PositionFormat}. With all attributes enabled a
+ * vertex takes 20 to 24 bytes instead of 48.
+ *
+ * Every attribute starts at a 4 byte boundary, hence attribute offsets are given in 4 byte units
+ * just like the offsets of PackedVertexBuffer.
+ *
+ * Texture coordinates in the range [0, 1] are stored as they are. Texture coordinates outside of
+ * it (e.g. of tiled textures) are mapped into the common bounds of [0, 1] and the mesh's texture
+ * coordinates, use {@link #texCoordScale} and {@link #texCoordOffset} to restore them.
+ *
+ * @author fabmax
+ */
+public class QuantizedVertexBuffer {
+
+    private static final String TAG = "QuantizedVertexBuffer";
+
+    /** Vertex attribute type for half floats, requires the OES_vertex_half_float extension. */
+    public static final int GL_HALF_FLOAT_OES = 0x8D61;
+
+    /**
+     * Storage format of vertex positions.
+     */
+    public enum PositionFormat {
+        /** 32-bit floats, 12 bytes per position. */
+        FLOAT,
+        /** 16-bit half floats, 8 bytes per position, requires OES_vertex_half_float. */
+        HALF_FLOAT,
+        /**
+         * Normalized 16-bit shorts, 8 bytes per position. Positions are mapped into the mesh's
+         * bounding cube, use {@link #positionScale} and {@link #positionOffset} to restore them.
+         */
+        SHORT
+    }
+
+    public final int vertexCount;
+    public final PositionFormat positionFormat;
+    public final int offsetPositions;
+    public final int offsetNormals;
+    public final int offsetTexCoords;
+    public final int offsetColors;
+    public final int strideBytes;
+
+    /**
+     * Scale of quantized positions: A position p is restored from its normalized value n by
+     * p = n * positionScale + positionOffset. Only used with {@link PositionFormat#SHORT}.
+     */
+    public float positionScale = 1;
+    /** Offset of quantized positions, see {@link #positionScale}. */
+    public final float[] positionOffset = new float[3];
+
+    /**
+     * Scale of quantized texture coordinates (u, v): A texture coordinate t is restored from its
+     * normalized value n by t = n * texCoordScale + texCoordOffset. Scale is 1 and offset 0 if
+     * all texture coordinates are in the range [0, 1].
+     */
+    public final float[] texCoordScale = { 1, 1 };
+    /** Offset of quantized texture coordinates, see {@link #texCoordScale}. */
+    public final float[] texCoordOffset = new float[2];
+
+    public final ByteBuffer data;
+
+    /**
+     * Creates a QuantizedVertexBuffer with the specified attributes.
+     *
+     * @param vertexCount       number of vertices
+     * @param positionFormat    storage format of vertex positions
+     * @param hasNormals        true to include vertex normals
+     * @param hasTexCoords      true to include texture coordinates
+     * @param hasColors         true to include vertex colors
+     */
+    public QuantizedVertexBuffer(int vertexCount, PositionFormat positionFormat, boolean hasNormals,
+                                 boolean hasTexCoords, boolean hasColors) {
+        this.vertexCount = vertexCount;
+        this.positionFormat = positionFormat;
+        offsetPositions = 0;
+
+        // all offsets in 4 byte units, half float and short positions are padded to 8 bytes
+        int words = positionFormat == PositionFormat.FLOAT ? 3 : 2;
+        if (hasNormals) {
+            offsetNormals = words++;
+        } else {
+            offsetNormals = -1;
+        }
+        if (hasTexCoords) {
+            offsetTexCoords = words++;
+        } else {
+            offsetTexCoords = -1;
+        }
+        if (hasColors) {
+            offsetColors = words++;
+        } else {
+            offsetColors = -1;
+        }
+        strideBytes = words * 4;
+        data = BufferHelper.createByteBuffer(strideBytes * vertexCount);
+    }
+
+    /**
+     * Creates a QuantizedVertexBuffer for the specified {@link MeshData} and packs the mesh data
+     * into it.
+     *
+     * @param meshData          mesh data to pack
+     * @param positionFormat    storage format of vertex positions
+     */
+    public QuantizedVertexBuffer(MeshData meshData, PositionFormat positionFormat) {
+        this(meshData.getVertexCount(), positionFormat, meshData.hasNormals(),
+                meshData.hasTextureCoordinates(), meshData.hasColors());
+        pack(meshData);
+    }
+
+    /**
+     * Packs the specified mesh data into this buffer. The mesh data must have the same attributes
+     * as this buffer. For {@link PositionFormat#SHORT} positions, {@link #positionScale} and
+     * {@link #positionOffset} are updated to the bounds of the mesh data. {@link #texCoordScale}
+     * and {@link #texCoordOffset} are updated to the texture coordinate bounds.
+     *
+     * @param meshData      mesh data to pack
+     */
+    public void pack(MeshData meshData) {
+        if (hasTextureCoordinates() != meshData.hasTextureCoordinates() ||
+                hasNormals() != meshData.hasNormals() ||
+                hasColors() != meshData.hasColors()) {
+            throw new IllegalArgumentException("Mismatching mesh data vertex attributes");
+        }
+
+        int vertCnt = meshData.getVertexCount();
+        if (vertCnt > vertexCount) {
+            Log.w(TAG, "Supplied mesh data does not fit in this buffer, truncating...");
+            vertCnt = vertexCount;
+        }
+        if (positionFormat == PositionFormat.SHORT) {
+            computePositionBounds(meshData.positions, vertCnt);
+        }
+        if (hasTextureCoordinates()) {
+            computeTexCoordBounds(meshData.texCoords, vertCnt);
+        }
+
+        float posScale = 1 / positionScale;
+        float uScale = 1 / texCoordScale[0];
+        float vScale = 1 / texCoordScale[1];
+        data.clear();
+        for (int i = 0, j = 0, k = 0, l = 0; i < vertCnt; i++, j += 3, k += 2, l += 4) {
+            data.position(i * strideBytes);
+
+            // vertex position
+            float[] pos = meshData.positions;
+            if (positionFormat == PositionFormat.FLOAT) {
+                data.putFloat(pos[j]).putFloat(pos[j + 1]).putFloat(pos[j + 2]);
+            } else if (positionFormat == PositionFormat.HALF_FLOAT) {
+                data.putShort(floatToHalf(pos[j])).putShort(floatToHalf(pos[j + 1]))
+                        .putShort(floatToHalf(pos[j + 2]));
+            } else {
+                data.putShort(floatToSnorm16((pos[j] - positionOffset[0]) * posScale))
+                        .putShort(floatToSnorm16((pos[j + 1] - positionOffset[1]) * posScale))
+                        .putShort(floatToSnorm16((pos[j + 2] - positionOffset[2]) * posScale));
+            }
+
+            if (hasNormals()) {
+                // vertex normal
+                data.position(i * strideBytes + offsetNormals * 4);
+                data.put(floatToSnorm8(meshData.normals[j]))
+                        .put(floatToSnorm8(meshData.normals[j + 1]))
+                        .put(floatToSnorm8(meshData.normals[j + 2]));
+            }
+            if (hasTextureCoordinates()) {
+                // vertex texture coordinate
+                float u = (meshData.texCoords[k] - texCoordOffset[0]) * uScale;
+                float v = (meshData.texCoords[k + 1] - texCoordOffset[1]) * vScale;
+                data.position(i * strideBytes + offsetTexCoords * 4);
+                data.putShort(floatToUnorm16(u)).putShort(floatToUnorm16(v));
+            }
+            if (hasColors()) {
+                // vertex color
+                data.position(i * strideBytes + offsetColors * 4);
+                data.put(floatToUnorm8(meshData.colors[l]))
+                        .put(floatToUnorm8(meshData.colors[l + 1]))
+                        .put(floatToUnorm8(meshData.colors[l + 2]))
+                        .put(floatToUnorm8(meshData.colors[l + 3]));
+            }
+        }
+        data.limit(vertCnt * strideBytes);
+        data.rewind();
+    }
+
+    /**
+     * Unpacks the vertex attributes of this buffer into the specified {@link MeshData}. Only the
+     * attribute arrays are set, indices are not modified.
+     *
+     * @param meshData      mesh data to store the vertex attributes in
+     */
+    public void unpack(MeshData meshData) {
+        int vertCnt = size();
+        meshData.positions = new float[vertCnt * 3];
+        meshData.normals = hasNormals() ? new float[vertCnt * 3] : null;
+        meshData.texCoords = hasTextureCoordinates() ? new float[vertCnt * 2] : null;
+        meshData.colors = hasColors() ? new float[vertCnt * 4] : null;
+
+        for (int i = 0, j = 0, k = 0, l = 0; i < vertCnt; i++, j += 3, k += 2, l += 4) {
+            int base = i * strideBytes;
+            for (int c = 0; c < 3; c++) {
+                if (positionFormat == PositionFormat.FLOAT) {
+                    meshData.positions[j + c] = data.getFloat(base + c * 4);
+                } else if (positionFormat == PositionFormat.HALF_FLOAT) {
+                    meshData.positions[j + c] = halfToFloat(data.getShort(base + c * 2));
+                } else {
+                    meshData.positions[j + c] = snorm16ToFloat(data.getShort(base + c * 2)) *
+                            positionScale + positionOffset[c];
+                }
+                if (hasNormals()) {
+                    meshData.normals[j + c] = snorm8ToFloat(data.get(base + offsetNormals * 4 + c));
+                }
+            }
+            if (hasTextureCoordinates()) {
+                int off = base + offsetTexCoords * 4;
+                meshData.texCoords[k] = unorm16ToFloat(data.getShort(off)) * texCoordScale[0] +
+                        texCoordOffset[0];
+                meshData.texCoords[k + 1] = unorm16ToFloat(data.getShort(off + 2)) *
+                        texCoordScale[1] + texCoordOffset[1];
+            }
+            if (hasColors()) {
+                for (int c = 0; c < 4; c++) {
+                    meshData.colors[l + c] = unorm8ToFloat(data.get(base + offsetColors * 4 + c));
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets type, size and normalization of the specified attribute binders according to the
+     * layout of this buffer. Binders can be null for attributes, which are not used.
+     *
+     * @param positions     attribute binder for vertex positions
+     * @param normals       attribute binder for vertex normals
+     * @param texCoords     attribute binder for vertex texture coordinates
+     * @param colors        attribute binder for vertex colors
+     */
+    public void setupBinders(ShaderAttributeBinder positions, ShaderAttributeBinder normals,
+                             ShaderAttributeBinder texCoords, ShaderAttributeBinder colors) {
+        if (positions != null) {
+            positions.setSize(3);
+            positions.setOffset(offsetPositions);
+            if (positionFormat == PositionFormat.FLOAT) {
+                positions.setType(GL_FLOAT);
+            } else if (positionFormat == PositionFormat.HALF_FLOAT) {
+                positions.setType(GL_HALF_FLOAT_OES);
+            } else {
+                positions.setType(GL_SHORT);
+                positions.setNormalized(true);
+            }
+        }
+        setupBinder(normals, 3, GL_BYTE, offsetNormals);
+        setupBinder(texCoords, 2, GL_UNSIGNED_SHORT, offsetTexCoords);
+        setupBinder(colors, 4, GL_UNSIGNED_BYTE, offsetColors);
+    }
+
+    private static void setupBinder(ShaderAttributeBinder binder, int size, int type, int offset) {
+        if (binder != null) {
+            binder.setSize(size);
+            binder.setType(type);
+            binder.setNormalized(true);
+            binder.setOffset(offset);
+        }
+    }
+
+    /**
+     * Returns the bounds of the stored vertex positions. For {@link PositionFormat#SHORT}
+     * positions, the bounds are given in normalized coordinates. Returns null if the buffer is
+     * empty.
+     *
+     * @return the bounds of the stored vertex positions
+     */
+    public BoundingBox getPositionBounds() {
+        int vertCnt = size();
+        if (vertCnt == 0) {
+            return null;
+        }
+        BoundingBox bounds = null;
+        float[] p = new float[3];
+        for (int i = 0; i < vertCnt; i++) {
+            int base = i * strideBytes;
+            for (int c = 0; c < 3; c++) {
+                if (positionFormat == PositionFormat.FLOAT) {
+                    p[c] = data.getFloat(base + c * 4);
+                } else if (positionFormat == PositionFormat.HALF_FLOAT) {
+                    p[c] = halfToFloat(data.getShort(base + c * 2));
+                } else {
+                    p[c] = snorm16ToFloat(data.getShort(base + c * 2));
+                }
+            }
+            if (bounds == null) {
+                bounds = new BoundingBox(p, 0);
+            } else {
+                bounds.addPoint(p, 0);
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Sets {@link #positionOffset} to the center and {@link #positionScale} to half of the
+     * largest extent of the bounding box of the specified positions. A uniform scale is used, so
+     * that the restoring transform doesn't distort normals.
+     */
+    private void computePositionBounds(float[] positions, int vertCnt) {
+        float[] min = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+        float[] max = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+        for (int i = 0; i < vertCnt * 3; i++) {
+            min[i % 3] = Math.min(min[i % 3], positions[i]);
+            max[i % 3] = Math.max(max[i % 3], positions[i]);
+        }
+        float extent = 0;
+        for (int c = 0; c < 3; c++) {
+            positionOffset[c] = vertCnt > 0 ? (min[c] + max[c]) * 0.5f : 0;
+            extent = Math.max(extent, max[c] - min[c]);
+        }
+        positionScale = extent > 0 ? extent * 0.5f : 1;
+    }
+
+    /**
+     * Sets {@link #texCoordOffset} and {@link #texCoordScale} to the bounds of the specified
+     * texture coordinates. Texture coordinates within [0, 1] keep the identity transform.
+     */
+    private void computeTexCoordBounds(float[] texCoords, int vertCnt) {
+        float[] min = { 0, 0 };
+        float[] max = { 1, 1 };
+        for (int i = 0; i < vertCnt * 2; i++) {
+            min[i % 2] = Math.min(min[i % 2], texCoords[i]);
+            max[i % 2] = Math.max(max[i % 2], texCoords[i]);
+        }
+        for (int c = 0; c < 2; c++) {
+            texCoordOffset[c] = min[c];
+            texCoordScale[c] = max[c] - min[c];
+        }
+    }
+
+    public int capacity() {
+        return vertexCount;
+    }
+
+    public int size() {
+        return data.limit() / strideBytes;
+    }
+
+    public boolean hasNormals() {
+        return offsetNormals >= 0;
+    }
+
+    public boolean hasTextureCoordinates() {
+        return offsetTexCoords >= 0;
+    }
+
+    public boolean hasColors() {
+        return offsetColors >= 0;
+    }
+
+    /**
+     * Converts a float to a half float (IEEE 754 binary16), rounding to the nearest value.
+     * Values too large for a half float become infinite, too small values become zero.
+     *
+     * @param f     the float value to convert
+     * @return the half float bits
+     */
+    public static short floatToHalf(float f) {
+        int bits = Float.floatToRawIntBits(f);
+        int sign = (bits >>> 16) & 0x8000;
+        int exp = (bits >>> 23) & 0xff;
+        int mant = bits & 0x7fffff;
+
+        if (exp == 0xff) {
+            // infinity or NaN
+            return (short) (sign | 0x7c00 | (mant != 0 ? 0x200 : 0));
+        }
+        int halfExp = exp - 127 + 15;
+        if (halfExp >= 0x1f) {
+            // overflow
+            return (short) (sign | 0x7c00);
+        }
+        if (halfExp <= 0) {
+            if (halfExp < -10) {
+                // underflow
+                return (short) sign;
+            }
+            // subnormal half float, add implicit leading bit and shift into place
+            mant |= 0x800000;
+            int shift = 14 - halfExp;
+            int half = mant >> shift;
+            int rem = mant & ((1 << shift) - 1);
+            int halfway = 1 << (shift - 1);
+            if (rem > halfway || (rem == halfway && (half & 1) != 0)) {
+                half++;
+            }
+            return (short) (sign | half);
+        }
+        int half = (halfExp << 10) | (mant >> 13);
+        int rem = mant & 0x1fff;
+        if (rem > 0x1000 || (rem == 0x1000 && (half & 1) != 0)) {
+            // round to nearest even, a carry into the exponent is correct as well
+            half++;
+        }
+        return (short) (sign | half);
+    }
+
+    /**
+     * Converts a half float (IEEE 754 binary16) to a float.
+     *
+     * @param half  the half float bits
+     * @return the float value
+     */
+    public static float halfToFloat(short half) {
+        int sign = (half & 0x8000) << 16;
+        int exp = (half >>> 10) & 0x1f;
+        int mant = half & 0x3ff;
+
+        if (exp == 0x1f) {
+            // infinity or NaN
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mant << 13));
+        }
+        if (exp == 0) {
+            // zero or subnormal
+            float f = mant * (1f / (1 << 24));
+            return sign != 0 ? -f : f;
+        }
+        return Float.intBitsToFloat(sign | ((exp - 15 + 127) << 23) | (mant << 13));
+    }
+
+    /*
+     * Normalized integer conversions as specified by OpenGL ES 2.0: unsigned values c map to
+     * c / (2^b - 1), signed values to (2c + 1) / (2^b - 1).
+     */
+
+    private static byte floatToSnorm8(float f) {
+        return (byte) clamp(Math.round((f * 255 - 1) * 0.5f), -128, 127);
+    }
+
+    private static float snorm8ToFloat(byte c) {
+        return (2 * c + 1) / 255f;
+    }
+
+    private static short floatToSnorm16(float f) {
+        return (short) clamp(Math.round((f * 65535 - 1) * 0.5f), -32768, 32767);
+    }
+
+    private static float snorm16ToFloat(short c) {
+        return (2 * c + 1) / 65535f;
+    }
+
+    private static byte floatToUnorm8(float f) {
+        return (byte) clamp(Math.round(f * 255), 0, 255);
+    }
+
+    private static float unorm8ToFloat(byte c) {
+        return (c & 0xff) / 255f;
+    }
+
+    private static short floatToUnorm16(float f) {
+        return (short) clamp(Math.round(f * 65535), 0, 65535);
+    }
+
+    private static float unorm16ToFloat(short c) {
+        return (c & 0xffff) / 65535f;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+}
@@ -0,0 +1,257 @@
+package de.fabmax.lightgl.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.fabmax.lightgl.Shader;
+import de.fabmax.lightgl.scene.Group;
+import de.fabmax.lightgl.scene.Mesh;
+import de.fabmax.lightgl.scene.Node;
+import de.fabmax.lightgl.scene.TransformGroup;
+
+/**
+ * StaticBatcher merges static meshes, which share the same shader, into a single mesh. The
+ * batcher walks a subtree of {@link Group}s, {@link TransformGroup}s and {@link Mesh}es and bakes
+ * all transforms into the vertex positions. Meshes are merged if they have the same shader, the
+ * same vertex attributes, render layer and transparency. Hence a static level geometry is drawn
+ * with one draw call per material.
+ *
+ * Only meshes with CPU side vertex data, see {@link Mesh#setMeshData(MeshData)}, can be merged.
+ * Meshes created by {@link MeshFactory} and {@link ObjLoader} keep their vertex data if
+ * {@link MeshFactory#setKeepMeshData(boolean)} is enabled before they are created.
+ * Other nodes (e.g. meshes without data, {@link de.fabmax.lightgl.scene.DynamicMesh}es or
+ * {@link de.fabmax.lightgl.scene.LodNode}s) are kept as they are, under a TransformGroup with
+ * their accumulated transform, and are moved to the node returned by {@link #createNode()}. The
+ * original meshes are neither modified nor deleted, they should be deleted if they are not needed
+ * anymore.
+ *
+ * Normals are transformed with the inverse transpose of the accumulated transform. The triangle
+ * winding of meshes with a mirroring transform (negative determinant) is flipped, so that their
+ * front faces stay front faces. Texture coordinate transforms of the meshes (see
+ * {@link Mesh#setTexCoordTransform(float, float, float, float)}) are baked into the merged texture
+ * coordinates, hence meshes with different texture coordinate transforms can share a batch.
+ *
+ * @author fabmax
+ */
+public class StaticBatcher {
+
+    private final ArrayList<Batch> mBatches = new ArrayList<>();
+    private final ArrayList<Node> mUnbatchedNodes = new ArrayList<>();
+
+    // transform stack for scene traversal
+    private final ArrayList<float[]> mTransformStack = new ArrayList<>();
+    private int mStackIdx = 0;
+
+    // temp buffer for transformed texture coordinates
+    private final float[] mTexCoord = new float[2];
+
+    /**
+     * Merges the meshes of the specified subtree and returns a node, which can replace the
+     * subtree in the scene graph. Must be called with a valid GL context.
+     *
+     * @param root    root node of the subtree to merge
+     * @return the node with the merged meshes
+     */
+    public static Node batch(Node root) {
+        StaticBatcher batcher = new StaticBatcher();
+        batcher.add(root);
+        return batcher.createNode();
+    }
+
+    /**
+     * Creates an empty StaticBatcher.
+     */
+    public StaticBatcher() {
+        mTransformStack.add(new float[16]);
+        GlMath.setIdentityM(mTransformStack.get(0), 0);
+    }
+
+    /**
+     * Adds the specified subtree to this batcher. Does not need a GL context.
+     *
+     * @param root    root node of the subtree to add
+     */
+    public void add(Node root) {
+        mStackIdx = 0;
+        GlMath.setIdentityM(mTransformStack.get(0), 0);
+        addNode(root);
+    }
+
+    /**
+     * Returns the merged batches.
+     *
+     * @return the merged batches
+     */
+    public List<Batch> getBatches() {
+        return mBatches;
+    }
+
+    /**
+     * Returns the nodes, which could not be merged. Every node is wrapped in a TransformGroup
+     * with its accumulated transform, if the transform is not the identity.
+     *
+     * @return the nodes, which could not be merged
+     */
+    public List<Node> getUnbatchedNodes() {
+        return mUnbatchedNodes;
+    }
+
+    /**
+     * Creates a node containing meshes for all merged batches and all nodes, which could not be
+     * merged. Must be called with a valid GL context.
+     *
+     * @return the node with the merged meshes
+     */
+    public Node createNode() {
+        Group group = new Group();
+        for (Batch batch : mBatches) {
+            MeshData meshData = batch.builder.build();
+            Node node = MeshFactory.createStaticMeshNode(meshData, batch.shader);
+            setMeshProperties(node, batch);
+            group.addChild(node);
+        }
+        for (Node node : mUnbatchedNodes) {
+            group.addChild(node);
+        }
+        return group;
+    }
+
+    private void setMeshProperties(Node node, Batch batch) {
+        if (node instanceof Mesh) {
+            Mesh mesh = (Mesh) node;
+            mesh.setTransparent(batch.transparent);
+            mesh.setRenderLayer(batch.renderLayer);
+        } else if (node instanceof Group) {
+            for (Node child : ((Group) node).getChildren()) {
+                setMeshProperties(child, batch);
+            }
+        }
+    }
+
+    private void addNode(Node node) {
+        // only exact classes are merged, sub-classes might be animated or render differently
+        Class<?> cls = node.getClass();
+        if (cls == Mesh.class && ((Mesh) node).getMeshData() != null) {
+            addMesh((Mesh) node);
+
+        } else if (cls == Group.class || cls == TransformGroup.class) {
+            if (node instanceof TransformGroup) {
+                pushTransform(((TransformGroup) node).getTransformation());
+            }
+            for (Node child : ((Group) node).getChildren()) {
+                addNode(child);
+            }
+            if (node instanceof TransformGroup) {
+                mStackIdx--;
+            }
+
+        } else {
+            float[] transform = mTransformStack.get(mStackIdx);
+            if (isIdentity(transform)) {
+                mUnbatchedNodes.add(node);
+            } else {
+                TransformGroup tg = new TransformGroup();
+                tg.setTransformation(transform);
+                tg.addChild(node);
+                mUnbatchedNodes.add(tg);
+            }
+        }
+    }
+
+    private void addMesh(Mesh mesh) {
+        MeshData data = mesh.getMeshData();
+        if (data.isEmpty()) {
+            return;
+        }
+        Batch batch = getBatch(mesh.getShader(), data.hasNormals(), data.hasTextureCoordinates(),
+                data.hasColors(), mesh.isTransparent(), mesh.getRenderLayer());
+        MeshBuilder builder = batch.builder;
+        float[] transform = mTransformStack.get(mStackIdx);
+        builder.setTransform(transform);
+
+        int base = builder.getVertexCount();
+        int n = data.getVertexCount();
+        float[] t = mesh.getTexCoordTransform();
+        if (data.hasTextureCoordinates() && (t[0] != 1 || t[1] != 1 || t[2] != 0 || t[3] != 0)) {
+            // bake texture coordinate transform, the merged mesh uses the default transform
+            for (int i = 0; i < n; i++) {
+                mTexCoord[0] = data.texCoords[i * 2] * t[0] + t[2];
+                mTexCoord[1] = data.texCoords[i * 2 + 1] * t[1] + t[3];
+                builder.addVertex(data.positions, i * 3, data.normals, i * 3, mTexCoord, 0,
+                        data.colors, i * 4);
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                builder.addVertex(data.positions, i * 3, data.normals, i * 3, data.texCoords,
+                        i * 2, data.colors, i * 4);
+            }
+        }
+        if (GlMath.determinant3(transform, 0) < 0) {
+            // mirroring transform, flip triangle winding to keep the front faces
+            for (int i = 0; i + 2 < data.indices.length; i += 3) {
+                builder.addTriangle(base + data.indices[i], base + data.indices[i + 2],
+                        base + data.indices[i + 1]);
+            }
+        } else {
+            for (int i = 0; i < data.indices.length; i++) {
+                builder.addElementIndex(base + data.indices[i]);
+            }
+        }
+    }
+
+    private Batch getBatch(Shader shader, boolean normals, boolean texCoords, boolean colors,
+                           boolean transparent, int renderLayer) {
+        for (int i = 0; i < mBatches.size(); i++) {
+            Batch b = mBatches.get(i);
+            if (b.shader == shader && b.builder.hasNormals() == normals &&
+                    b.builder.hasTextureCoordinates() == texCoords &&
+                    b.builder.hasColors() == colors && b.transparent == transparent &&
+                    b.renderLayer == renderLayer) {
+                return b;
+            }
+        }
+        Batch b = new Batch(shader, new MeshBuilder(normals, texCoords, colors), transparent,
+                renderLayer);
+        mBatches.add(b);
+        return b;
+    }
+
+    private void pushTransform(float[] transform) {
+        mStackIdx++;
+        if (mStackIdx == mTransformStack.size()) {
+            mTransformStack.add(new float[16]);
+        }
+        GlMath.multiplyMM(mTransformStack.get(mStackIdx), 0, mTransformStack.get(mStackIdx - 1), 0,
+                transform, 0);
+    }
+
+    private static boolean isIdentity(float[] m) {
+        for (int i = 0; i < 16; i++) {
+            if (m[i] != (i % 5 == 0 ? 1 : 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A batch of merged meshes, which share the same shader and vertex attributes.
+     */
+    public static class Batch {
+        /** Shader of all meshes in this batch */
+        public final Shader shader;
+        /** Merged vertex data with baked transforms */
+        public final MeshBuilder builder;
+        /** Transparency flag of all meshes in this batch */
+        public final boolean transparent;
+        /** Render layer of all meshes in this batch */
+        public final int renderLayer;
+
+        private Batch(Shader shader, MeshBuilder builder, boolean transparent, int renderLayer) {
+            this.shader = shader;
+            this.builder = builder;
+            this.transparent = transparent;
+            this.renderLayer = renderLayer;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package de.fabmax.lightgl.util;
+
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import de.fabmax.lightgl.LightGlContext;
+import de.fabmax.lightgl.Texture;
+import de.fabmax.lightgl.TextureManager;
+import de.fabmax.lightgl.TextureProperties;
+
+/**
+ * A TextureAtlas combines many small bitmaps (icons, sprites, UI elements) into a few large
+ * textures, the atlas pages. Each added bitmap is described by a {@link Region}, which holds the
+ * page texture and the texture coordinates of the bitmap within the page. Meshes using regions of
+ * the same page can be drawn in a single batch, see
+ * {@link Painter#drawTexture(Region, float, float, float, float)}.
+ *
+ * Bitmaps are placed by an {@link AtlasPacker}. A new page is created if a bitmap doesn't fit into
+ * any existing page. Regions are separated by a transparent border to avoid bleeding of
+ * neighboring regions with linear filtering. Bitmaps are converted to non-premultiplied RGBA, the
+ * same way as by {@link TextureManager#createTextureFromBitmap(Bitmap, TextureProperties)}.
+ * Pages are not mipmapped. All methods must be called from the GL thread,
+ * pages are lost with the GL context.
+ *
+ * @author fabmax
+ */
+public class TextureAtlas {
+
+    /** Default size of atlas pages in pixels */
+    public static final int DEFAULT_PAGE_SIZE = 1024;
+    /** Default border between regions in pixels */
+    public static final int DEFAULT_PADDING = 1;
+
+    private final TextureManager mTexManager;
+    private final int mPageSize;
+    private final int mPadding;
+
+    private final ArrayList<Texture> mPageTextures = new ArrayList<>();
+    private final ArrayList<AtlasPacker> mPagePackers = new ArrayList<>();
+    private final int[] mTmpPos = new int[2];
+    // transparent pixels used to clear region borders of reused pages
+    private ByteBuffer mBorderPixels = null;
+    // true if pages were cleared and may contain old regions
+    private boolean mPagesReused = false;
+
+    /**
+     * Creates an empty TextureAtlas with default page size and padding.
+     *
+     * @param glContext    graphics engine context
+     */
+    public TextureAtlas(LightGlContext glContext) {
+        this(glContext, DEFAULT_PAGE_SIZE, DEFAULT_PADDING);
+    }
+
+    /**
+     * Creates an empty TextureAtlas.
+     *
+     * @param glContext    graphics engine context
+     * @param pageSize     width and height of the atlas pages in pixels
+     * @param padding      border between regions in pixels
+     */
+    public TextureAtlas(LightGlContext glContext, int pageSize, int padding) {
+        if (pageSize <= 0 || padding < 0) {
+            throw new IllegalArgumentException("Invalid page size or padding");
+        }
+        mTexManager = glContext.getTextureManager();
+        mPageSize = pageSize;
+        mPadding = padding;
+    }
+
+    /**
+     * Adds the given bitmap to the atlas. The bitmap is copied into an atlas page and can be
+     * recycled afterwards.
+     *
+     * @param bitmap    the bitmap to add
+     * @return the region of the atlas containing the bitmap
+     */
+    public Region add(Bitmap bitmap) {
+        int w = bitmap.getWidth();
+        int h = bitmap.getHeight();
+        int packW = w + mPadding * 2;
+        int packH = h + mPadding * 2;
+        if (packW > mPageSize || packH > mPageSize) {
+            throw new IllegalArgumentException("Bitmap is too large for atlas: " + w + "x" + h);
+        }
+
+        // first fit over all existing pages
+        int page = -1;
+        for (int i = 0; i < mPagePackers.size() && page < 0; i++) {
+            if (mPagePackers.get(i).insert(packW, packH, mTmpPos, 0)) {
+                page = i;
+            }
+        }
+        if (page < 0) {
+            page = createPage();
+            mPagePackers.get(page).insert(packW, packH, mTmpPos, 0);
+        }
+
+        int x = mTmpPos[0] + mPadding;
+        int y = mTmpPos[1] + mPadding;
+        Texture tex = mPageTextures.get(page);
+        if (mPagesReused && mPadding > 0) {
+            // the border might still contain parts of old regions
+            clearBorder(tex, mTmpPos[0], mTmpPos[1], packW, packH);
+        }
+        mTexManager.updateTextureFromBitmap(tex, x, y, bitmap);
+
+        float s = 1.0f / mPageSize;
+        return new Region(tex, x * s, y * s, (x + w) * s, (y + h) * s, w, h);
+    }
+
+    /**
+     * Returns the number of atlas pages.
+     *
+     * @return the number of atlas pages
+     */
+    public int getPageCount() {
+        return mPageTextures.size();
+    }
+
+    /**
+     * Returns the texture of the specified atlas page.
+     *
+     * @param page    the page index
+     * @return the texture of the page
+     */
+    public Texture getPageTexture(int page) {
+        return mPageTextures.get(page);
+    }
+
+    /**
+     * Returns the fraction of the specified page covered by regions, including their padding.
+     *
+     * @param page    the page index
+     * @return the page occupancy in the range [0, 1]
+     */
+    public float getPageOccupancy(int page) {
+        return mPagePackers.get(page).getOccupancy();
+    }
+
+    /**
+     * Removes all regions. The pages are kept and reused by following calls of
+     * {@link #add(Bitmap)}, previously returned regions must not be used anymore.
+     */
+    public void clear() {
+        for (AtlasPacker packer : mPagePackers) {
+            packer.clear();
+        }
+        mPagesReused = !mPagePackers.isEmpty();
+    }
+
+    /**
+     * Deletes all atlas pages.
+     */
+    public void delete() {
+        for (Texture tex : mPageTextures) {
+            tex.delete();
+        }
+        mPageTextures.clear();
+        mPagePackers.clear();
+        mPagesReused = false;
+    }
+
+    /**
+     * Clears the border of the specified padded region to transparent black.
+     */
+    private void clearBorder(Texture tex, int x, int y, int packW, int packH) {
+        int size = Math.max(packW, packH) * mPadding * 4;
+        if (mBorderPixels == null || mBorderPixels.capacity() < size) {
+            mBorderPixels = BufferHelper.createByteBuffer(size);
+        }
+        int h = packH - mPadding * 2;
+        mTexManager.updateTextureFromBuffer(tex, x, y, packW, mPadding, mBorderPixels);
+        mTexManager.updateTextureFromBuffer(tex, x, y + packH - mPadding, packW, mPadding, mBorderPixels);
+        mTexManager.updateTextureFromBuffer(tex, x, y + mPadding, mPadding, h, mBorderPixels);
+        mTexManager.updateTextureFromBuffer(tex, x + packW - mPadding, y + mPadding, mPadding, h, mBorderPixels);
+    }
+
+    private int createPage() {
+        TextureProperties props = new TextureProperties();
+        props.minFilter = TextureProperties.MinFilterMethod.LINEAR;
+        props.xWrapping = TextureProperties.WrappingMethod.CLAMP;
+        props.yWrapping = TextureProperties.WrappingMethod.CLAMP;
+
+        // initialize with transparent black, so that the padding is transparent
+        ByteBuffer empty = BufferHelper.createByteBuffer(mPageSize * mPageSize * 4);
+        mPageTextures.add(mTexManager.createTextureFromBuffer(empty, mPageSize, mPageSize, true, props));
+        mPagePackers.add(new AtlasPacker(mPageSize, mPageSize));
+        return mPageTextures.size() - 1;
+    }
+
+    /**
+     * A bitmap stored in a {@link TextureAtlas}.
+     */
+    public static class Region {
+        /** Texture of the atlas page containing this region */
+        public final Texture texture;
+        /** Texture coordinates of the region's top left corner */
+        public final float u0, v0;
+        /** Texture coordinates of the region's bottom right corner */
+        public final float u1, v1;
+        /** Size of the region in pixels */
+        public final int width, height;
+
+        Region(Texture texture, float u0, float v0, float u1, float v1, int width, int height) {
+            this.texture = texture;
+            this.u0 = u0;
+            this.v0 = v0;
+            this.u1 = u1;
+            this.v1 = v1;
+            this.width = width;
+            this.height = height;
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package de.fabmax.lightgl.util;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
-import de.fabmax.lightgl.BoundingBox;
 import de.fabmax.lightgl.Ray;
 
 /**
@@ -11,292 +15,847 @@ import de.fabmax.lightgl.Ray;
  * the distance between the test ray's origin and the hit point and the face normal at the hit
  * point.
  *
+ * The tree is stored in flat arrays: Every node has an axis aligned bounding box and either a
+ * range of triangles (leaf) or two child nodes. The left child of an inner node always directly
+ * follows its parent, only the index of the right child is stored. Hit tests traverse the tree
+ * iteratively and don't allocate any objects. The tree is immutable once it is built, all scratch
+ * state of a hit test is kept in per-query objects.
+ *
  * @author fabmax
  */
 public class TriangleKdTree {
     // maximum number of triangles in a tree leaf
     private static final int BUCKET_SIZE = 10;
 
-    // temp vector offsets
-    private static final int E1 = 0;
-    private static final int E2 = 3;
-    private static final int S = 6;
-    private static final int P = 9;
-    private static final int Q = 12;
-    private final float[] mTemp = new float[15];
+    // number of bins used to evaluate the surface area heuristic
+    private static final int SAH_BINS = 16;
+    // estimated cost of a node traversal step relative to a triangle intersection test
+    private static final float SAH_TRAVERSAL_COST = 1.0f;
+
+    // minimum number of rays per chunk in concurrent batch hit tests
+    private static final int BATCH_CHUNK_SIZE = 256;
+    // number of chunks per CPU core a large batch is split into
+    private static final int BATCH_CHUNKS_PER_CPU = 2;
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Strategies used to split tree nodes during tree construction.
+     */
+    public enum SplitMethod {
+        /**
+         * Nodes are split at the median triangle along the longest node axis. Fast to build,
+         * but yields slower hit tests for meshes with unevenly distributed triangles.
+         */
+        MEDIAN,
+
+        /**
+         * Nodes are split at the position with the lowest cost according to the surface area
+         * heuristic. Takes longer to build, but yields considerably faster hit tests for large
+         * meshes.
+         */
+        SURFACE_AREA
+    }
 
     // triangle vertex positions
     private final float[] mPoints;
 
-    private final KdNode mRoot;
-    private final Triangle[] mTriangles;
+    // node bounds, 6 floats per node: min x, y, z, max x, y, z
+    private final float[] mNodeBounds;
+    // node data, 2 ints per node: leaves store the start index of their triangles and the number
+    // of triangles, inner nodes store the index of their right child and 0
+    private final int[] mNodeData;
+    // triangle vertex offsets (vertex index * 3) in leaf order, 3 ints per triangle
+    private final int[] mTriangles;
+
+    // number of nodes on the longest path from the root to a leaf
+    private final int mDepth;
 
     /**
      * Creates a new TriangleKdTree, which contains the triangles defined by points and indices.
+     * The tree is built with {@link SplitMethod#MEDIAN}.
      *
      * @param points     Triangle vertex positions
      * @param indices    Triangle vertex indices.
      */
     public TriangleKdTree(float[] points, int[] indices) {
+        this(points, indices, SplitMethod.MEDIAN);
+    }
+
+    /**
+     * Creates a new TriangleKdTree, which contains the triangles defined by points and indices.
+     *
+     * @param points         Triangle vertex positions
+     * @param indices        Triangle vertex indices.
+     * @param splitMethod    Strategy used to split the tree nodes
+     */
+    public TriangleKdTree(float[] points, int[] indices, SplitMethod splitMethod) {
         mPoints = points;
-        mTriangles = new Triangle[indices.length / 3];
-        for (int i = 0; i < mTriangles.length; i++) {
-            mTriangles[i] = new Triangle(indices[i * 3], indices[i * 3 + 1], indices[i * 3 + 2]);
-        }
 
-        mRoot = new KdNode(0, mTriangles.length);
+        TreeBuilder builder = new TreeBuilder(points, indices, splitMethod);
+        mNodeBounds = builder.mNodeBounds;
+        mNodeData = builder.mNodeData;
+        mTriangles = builder.mSortedTriangles;
+        mDepth = builder.mMaxDepth;
+    }
+
+    /**
+     * Returns the number of nodes of this tree.
+     *
+     * @return the number of nodes of this tree
+     */
+    public int getNodeCount() {
+        return mNodeData.length / 2;
+    }
+
+    /**
+     * Returns the number of nodes on the longest path from the root node to a leaf.
+     *
+     * @return the number of nodes on the longest path from the root node to a leaf
+     */
+    public int getDepth() {
+        return mDepth;
     }
 
     /**
      * Tests the specified ray for intersection with this TriangleKdTree. The hit result is stored
-     * in the passed result object.
+     * in the passed result object. The result object also holds the scratch state needed for the
+     * tree traversal, hence the tree can be queried concurrently from multiple threads as long as
+     * each thread uses its own result object.
      *
      * @param ray       Ray used for hit testing
      * @param result    Hit test result object
      */
     public void hitTest(Ray ray, HitTestResult result) {
+        result.distance = Float.MAX_VALUE;
         result.distanceSqr = Float.MAX_VALUE;
-        mRoot.hitTest(ray, result);
+
+        final float ox = ray.origin[0];
+        final float oy = ray.origin[1];
+        final float oz = ray.origin[2];
+        final float dx = ray.direction[0];
+        final float dy = ray.direction[1];
+        final float dz = ray.direction[2];
+
+        int hitTriangle = traverse(ox, oy, oz, dx, dy, dz, result.mStack);
+        if (hitTriangle >= 0) {
+            // compute hit position and face normal
+            float t = intersectTriangle(hitTriangle, ox, oy, oz, dx, dy, dz, Float.MAX_VALUE);
+            result.distance = t;
+            result.distanceSqr = t * t;
+            result.point[0] = ox + dx * t;
+            result.point[1] = oy + dy * t;
+            result.point[2] = oz + dz * t;
+            computeFaceNormal(hitTriangle, result.normal, 0);
+        }
     }
 
     /**
-     * A TriangleKdTree node. Can be either an intermediate node with two sub nodes or a leaf with
-     * no sub nodes but up to BUCKET_SIZE triangles.
+     * Tests a batch of rays for intersection with this TriangleKdTree. Ray origins and directions
+     * are packed into float arrays with 3 elements (x, y, z) per ray. For every ray the hit
+     * distance (in units of the ray's direction vector length) is stored in distances. Rays, which
+     * don't hit the tree get a distance of Float.MAX_VALUE. Hit points and face normals are stored
+     * packed in the same way as the ray origins, if the corresponding arrays are not null. Missed
+     * rays leave their point and normal values unchanged.
+     *
+     * @param origins       Packed ray origins
+     * @param directions    Packed ray directions
+     * @param count         Number of rays to test
+     * @param distances     Array for the hit distances, one element per ray
+     * @param points        Array for the packed hit points, can be null
+     * @param normals       Array for the packed face normals, can be null
+     * @return the number of rays which hit the tree
      */
-    private class KdNode {
-        private BoundingBox mBounds;
-        private KdNode mLeft;
-        private KdNode mRight;
-        private final int mStart;
-        private final int mEnd;
+    public int hitTest(float[] origins, float[] directions, int count, float[] distances,
+                       float[] points, float[] normals) {
+        checkBatchArgs(origins, directions, count, distances, points, normals);
+        return hitTestRange(origins, directions, 0, count, distances, points, normals,
+                new TraversalStack());
+    }
 
-        /**
-         * Creates a new tree node containing the specified triangles. If the number of triangles is
-         * greater than BUCKET_SIZE, they are split in two sub nodes.
-         */
-        private KdNode(int start, int end) {
-            mStart = start;
-            mEnd = end;
+    /**
+     * Tests a batch of rays for intersection with this TriangleKdTree. Works exactly like
+     * {@link #hitTest(float[], float[], int, float[], float[], float[])} but splits large batches
+     * into chunks, which are processed concurrently by the given executor. The calling thread
+     * processes the first chunk itself and blocks until all chunks are done.
+     *
+     * If the calling thread is interrupted or a chunk fails, chunks which have not started yet are
+     * skipped and this method waits for the running chunks to finish before it throws. Hence no
+     * chunk writes into the result arrays after this method returned, but their content is
+     * undefined in this case.
+     *
+     * @param origins       Packed ray origins
+     * @param directions    Packed ray directions
+     * @param count         Number of rays to test
+     * @param distances     Array for the hit distances, one element per ray
+     * @param points        Array for the packed hit points, can be null
+     * @param normals       Array for the packed face normals, can be null
+     * @param executor      Executor used to process the chunks
+     * @return the number of rays which hit the tree
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the
+     *                              chunks to complete
+     */
+    public int hitTest(final float[] origins, final float[] directions, int count,
+                       final float[] distances, final float[] points, final float[] normals,
+                       ExecutorService executor) throws InterruptedException {
+        checkBatchArgs(origins, directions, count, distances, points, normals);
+
+        int chunkSize = Math.max(BATCH_CHUNK_SIZE,
+                (count + BATCH_CHUNKS_PER_CPU * CPU_COUNT - 1) / (BATCH_CHUNKS_PER_CPU * CPU_COUNT));
+        if (count <= chunkSize) {
+            // not worth splitting
+            return hitTestRange(origins, directions, 0, count, distances, points, normals,
+                    new TraversalStack());
+        }
 
-            // compute bounding box of this node
-            computeBounds(start, end);
+        final ChunkGuard guard = new ChunkGuard();
+        List<Future<Integer>> chunks = new ArrayList<>();
+        boolean success = false;
+        try {
+            for (int start = chunkSize; start < count; start += chunkSize) {
+                final int chunkStart = start;
+                final int chunkEnd = Math.min(start + chunkSize, count);
+                chunks.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        if (!guard.enter()) {
+                            // batch was aborted
+                            return 0;
+                        }
+                        try {
+                            return hitTestRange(origins, directions, chunkStart, chunkEnd,
+                                    distances, points, normals, new TraversalStack());
+                        } finally {
+                            guard.exit();
+                        }
+                    }
+                }));
+            }
+
+            int hits = hitTestRange(origins, directions, 0, chunkSize, distances, points, normals,
+                    new TraversalStack());
+            for (Future<Integer> chunk : chunks) {
+                hits += chunk.get();
+            }
+            success = true;
+            return hits;
+
+        } catch (ExecutionException e) {
+            // hit tests don't throw checked exceptions
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (RuntimeException) cause;
 
-            if (end - start > BUCKET_SIZE) {
-                // split triangles in sub nodes
-                split();
+        } finally {
+            if (!success) {
+                // drop queued chunks and wait for running ones, they write into the result arrays
+                for (Future<Integer> chunk : chunks) {
+                    chunk.cancel(false);
+                }
+                guard.abort();
             }
         }
+    }
 
-        /**
-         * Tests the specified ray for intersection with this node.
-         */
-        private void hitTest(Ray ray, HitTestResult result) {
-            float d = mBounds.computeHitDistanceSqr(ray);
-            if (d == Float.MAX_VALUE) {
-                // ray does not intersect this node
-                return;
+    /**
+     * Checks the array sizes of a batch hit test.
+     */
+    private static void checkBatchArgs(float[] origins, float[] directions, int count,
+                                       float[] distances, float[] points, float[] normals) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count must be >= 0");
+        }
+        if (origins.length < count * 3 || directions.length < count * 3) {
+            throw new IllegalArgumentException("origins and directions must have 3 elements per ray");
+        }
+        if (distances.length < count) {
+            throw new IllegalArgumentException("distances must have 1 element per ray");
+        }
+        if ((points != null && points.length < count * 3) ||
+                (normals != null && normals.length < count * 3)) {
+            throw new IllegalArgumentException("points and normals must have 3 elements per ray");
+        }
+    }
+
+    /**
+     * Tests the rays [start, end) of a batch for intersection with this tree.
+     */
+    private int hitTestRange(float[] origins, float[] directions, int start, int end,
+                             float[] distances, float[] points, float[] normals,
+                             TraversalStack stack) {
+        int hits = 0;
+        for (int i = start; i < end; i++) {
+            int off = i * 3;
+            float ox = origins[off];
+            float oy = origins[off + 1];
+            float oz = origins[off + 2];
+            float dx = directions[off];
+            float dy = directions[off + 1];
+            float dz = directions[off + 2];
+
+            int hitTriangle = traverse(ox, oy, oz, dx, dy, dz, stack);
+            if (hitTriangle >= 0) {
+                float t = intersectTriangle(hitTriangle, ox, oy, oz, dx, dy, dz, Float.MAX_VALUE);
+                distances[i] = t;
+                if (points != null) {
+                    points[off] = ox + dx * t;
+                    points[off + 1] = oy + dy * t;
+                    points[off + 2] = oz + dz * t;
+                }
+                if (normals != null) {
+                    computeFaceNormal(hitTriangle, normals, off);
+                }
+                hits++;
+            } else {
+                distances[i] = Float.MAX_VALUE;
             }
+        }
+        return hits;
+    }
 
-            if (!isLeaf()) {
-                // test sub nodes for hit
-                mLeft.hitTest(ray, result);
-                if (result.distanceSqr == Float.MAX_VALUE) {
-                    // left sub node is not hit by ray, return result for right sub node
-                    mRight.hitTest(ray, result);
+    /**
+     * Traverses the tree and returns the index of the closest triangle hit by the specified ray or
+     * -1 if no triangle is hit.
+     */
+    private int traverse(float ox, float oy, float oz, float dx, float dy, float dz,
+                         TraversalStack traversalStack) {
+        if (mNodeData.length == 0) {
+            // tree is empty
+            return -1;
+        }
 
-                } else {
-                    // left sub node is hit by ray, test if right sub node can return a closer hit
-                    d = mRight.mBounds.computeHitDistanceSqr(ray);
-                    if (d < result.distanceSqr) {
-                        // bounding box hit is closer, run full hit test
-                        mRight.hitTest(ray, result);
+        final float idx = 1.0f / dx;
+        final float idy = 1.0f / dy;
+        final float idz = 1.0f / dz;
+
+        final int[] nodeData = mNodeData;
+        traversalStack.ensureCapacity(mDepth);
+        final int[] stack = traversalStack.mNodes;
+        final float[] stackDist = traversalStack.mDistances;
+        int sp = 0;
+
+        float best = Float.MAX_VALUE;
+        int hitTriangle = -1;
+
+        int node = 0;
+        if (intersectNode(0, ox, oy, oz, idx, idy, idz, best) == Float.MAX_VALUE) {
+            // ray does not intersect the root node
+            return -1;
+        }
+
+        while (node >= 0) {
+            int count = nodeData[node * 2 + 1];
+            if (count == 0) {
+                // inner node, test both children and continue with the closer one
+                int left = node + 1;
+                int right = nodeData[node * 2];
+                float dLeft = intersectNode(left, ox, oy, oz, idx, idy, idz, best);
+                float dRight = intersectNode(right, ox, oy, oz, idx, idy, idz, best);
+
+                if (dLeft != Float.MAX_VALUE) {
+                    if (dRight != Float.MAX_VALUE) {
+                        // both children are hit, remember the farther one for later
+                        if (dRight < dLeft) {
+                            stack[sp] = left;
+                            stackDist[sp++] = dLeft;
+                            node = right;
+                        } else {
+                            stack[sp] = right;
+                            stackDist[sp++] = dRight;
+                            node = left;
+                        }
+                    } else {
+                        node = left;
                     }
+                    continue;
+                } else if (dRight != Float.MAX_VALUE) {
+                    node = right;
+                    continue;
                 }
+
             } else {
-                // this node is a leaf, test triangles for hit
-                for (int i = mStart; i < mEnd; i++) {
-                    mTriangles[i].hitTest(ray, result);
+                // leaf node, test triangles for hit
+                int start = nodeData[node * 2];
+                for (int i = start, end = start + count; i < end; i++) {
+                    float t = intersectTriangle(i, ox, oy, oz, dx, dy, dz, best);
+                    if (t < best) {
+                        best = t;
+                        hitTriangle = i;
+                    }
+                }
+            }
+
+            // continue with the closest remaining node which can still contain a closer hit
+            node = -1;
+            while (sp > 0) {
+                sp--;
+                if (stackDist[sp] < best) {
+                    node = stack[sp];
+                    break;
                 }
             }
         }
+        return hitTriangle;
+    }
 
-        /**
-         * Returns true if this node is a leaf.
-         */
-        private boolean isLeaf() {
-            return mLeft == null;
+    /**
+     * Computes the entry distance of a ray into the bounding box of the specified node. Returns
+     * Float.MAX_VALUE if the ray misses the node or enters it behind maxDist.
+     */
+    private float intersectNode(int node, float ox, float oy, float oz,
+                                float idx, float idy, float idz, float maxDist) {
+        final float[] b = mNodeBounds;
+        int off = node * 6;
+
+        float t0 = (b[off] - ox) * idx;
+        float t1 = (b[off + 3] - ox) * idx;
+        float tMin = Math.min(t0, t1);
+        float tMax = Math.max(t0, t1);
+
+        t0 = (b[off + 1] - oy) * idy;
+        t1 = (b[off + 4] - oy) * idy;
+        tMin = Math.max(tMin, Math.min(t0, t1));
+        tMax = Math.min(tMax, Math.max(t0, t1));
+
+        t0 = (b[off + 2] - oz) * idz;
+        t1 = (b[off + 5] - oz) * idz;
+        tMin = Math.max(tMin, Math.min(t0, t1));
+        tMax = Math.min(tMax, Math.max(t0, t1));
+
+        if (tMax < 0 || tMin > tMax || tMin >= maxDist) {
+            // no intersection
+            return Float.MAX_VALUE;
         }
+        // ray origin may be inside the node
+        return tMin > 0 ? tMin : 0;
+    }
 
-        /**
-         * Determines the longest axis of the bounding boy and splits this node by this axis.
-         */
-        private void split() {
-            float szX = mBounds.maxX - mBounds.minX;
-            float szY = mBounds.maxY - mBounds.minY;
-            float szZ = mBounds.maxZ - mBounds.minZ;
+    /**
+     * Tests the specified triangle for intersection with a ray. Returns the hit distance in ray
+     * direction units or Float.MAX_VALUE if the triangle isn't hit before maxDist.
+     */
+    private float intersectTriangle(int tri, float ox, float oy, float oz,
+                                    float dx, float dy, float dz, float maxDist) {
+        // Attention: Magic is about to happen...
+        final float[] pts = mPoints;
+        int off0 = mTriangles[tri * 3];
+        int off1 = mTriangles[tri * 3 + 1];
+        int off2 = mTriangles[tri * 3 + 2];
+
+        float p0x = pts[off0], p0y = pts[off0 + 1], p0z = pts[off0 + 2];
+        float e1x = pts[off1] - p0x, e1y = pts[off1 + 1] - p0y, e1z = pts[off1 + 2] - p0z;
+        float e2x = pts[off2] - p0x, e2y = pts[off2 + 1] - p0y, e2z = pts[off2 + 2] - p0z;
+
+        // p = direction x e2
+        float px = dy * e2z - dz * e2y;
+        float py = dz * e2x - dx * e2z;
+        float pz = dx * e2y - dy * e2x;
+
+        float det = px * e1x + py * e1y + pz * e1z;
+        if (det == 0) {
+            // ray is parallel to triangle
+            return Float.MAX_VALUE;
+        }
+        float f = 1.0f / det;
 
-            if (szX > szY && szX > szZ) {
-                // sort along x-axis
-                Arrays.sort(mTriangles, mStart, mEnd, X_COMPARATOR);
-            } else if (szY > szX && szY > szZ) {
-                // sort along by y-axis
-                Arrays.sort(mTriangles, mStart, mEnd, Y_COMPARATOR);
-            } else {
-                // sort along by z-axis
-                Arrays.sort(mTriangles, mStart, mEnd, Z_COMPARATOR);
-            }
+        float sx = ox - p0x, sy = oy - p0y, sz = oz - p0z;
+        float u = f * (px * sx + py * sy + pz * sz);
+        if (u < 0 || u > 1) {
+            return Float.MAX_VALUE;
+        }
+
+        // q = s x e1
+        float qx = sy * e1z - sz * e1y;
+        float qy = sz * e1x - sx * e1z;
+        float qz = sx * e1y - sy * e1x;
 
-            // create left and right sub nodes
-            int startLeft = mStart;
-            int endLeft = mStart + (mEnd - mStart) / 2;
-            int endRight = mEnd;
-            mLeft = new KdNode(startLeft, endLeft);
-            mRight = new KdNode(endLeft, endRight);
+        float v = f * (qx * dx + qy * dy + qz * dz);
+        if (v < 0 || u + v > 1) {
+            return Float.MAX_VALUE;
         }
 
-        /**
-         * Computes the node's bounding box from the specified triangles.
-         */
-        private void computeBounds(int start, int end) {
-            // put first triangle in bounding box
-            mBounds = new BoundingBox(mPoints, mTriangles[start].mOff0);
-            mBounds.addPoint(mPoints, mTriangles[start].mOff1);
-            mBounds.addPoint(mPoints, mTriangles[start].mOff2);
-
-            // put remaining triangles in bounding box
-            for (int i = start + 1; i < end; i++) {
-                mBounds.addPoint(mPoints, mTriangles[i].mOff0);
-                mBounds.addPoint(mPoints, mTriangles[i].mOff1);
-                mBounds.addPoint(mPoints, mTriangles[i].mOff2);
-            }
+        float t = f * (qx * e2x + qy * e2y + qz * e2z);
+        if (t >= 0 && t < maxDist) {
+            return t;
         }
+        return Float.MAX_VALUE;
     }
 
     /**
-     * A triangle inside a TriangleKdTree.
+     * Computes the normalized face normal of the specified triangle.
      */
-    private class Triangle {
-        private final int mOff0;
-        private final int mOff1;
-        private final int mOff2;
+    private void computeFaceNormal(int tri, float[] normal, int offset) {
+        final float[] pts = mPoints;
+        int off0 = mTriangles[tri * 3];
+        int off1 = mTriangles[tri * 3 + 1];
+        int off2 = mTriangles[tri * 3 + 2];
+
+        float e1x = pts[off1] - pts[off0];
+        float e1y = pts[off1 + 1] - pts[off0 + 1];
+        float e1z = pts[off1 + 2] - pts[off0 + 2];
+        float e2x = pts[off2] - pts[off0];
+        float e2y = pts[off2 + 1] - pts[off0 + 1];
+        float e2z = pts[off2 + 2] - pts[off0 + 2];
+
+        normal[offset] = e1y * e2z - e1z * e2y;
+        normal[offset + 1] = e1z * e2x - e1x * e2z;
+        normal[offset + 2] = e1x * e2y - e1y * e2x;
+        GlMath.normalize(normal, offset);
+    }
 
-        /**
-         * Creates a triangle with the specified vertex indices.
-         */
-        private Triangle(int idx0, int idx1, int idx2) {
-            mOff0 = idx0 * 3;
-            mOff1 = idx1 * 3;
-            mOff2 = idx2 * 3;
+    /**
+     * Builds the flat node arrays of a TriangleKdTree. Nodes are built depth first with an
+     * explicit task stack, so that the left child of a node is always stored directly after its
+     * parent.
+     */
+    private static class TreeBuilder {
+        private final float[] mPoints;
+        private final SplitMethod mSplitMethod;
+
+        // triangle ids, partitioned in place while building the tree
+        private final int[] mTriIds;
+        // triangle bounds, 6 floats per triangle: min x, y, z, max x, y, z
+        private final float[] mTriBounds;
+
+        // output
+        private float[] mNodeBounds;
+        private int[] mNodeData;
+        private int[] mSortedTriangles;
+        private int mNodeCount = 0;
+        private int mMaxDepth = 0;
+
+        // build task stack: start, end, parent (-1 for left children), depth
+        private int[] mTasks = new int[64];
+        private int mTaskCount = 0;
+
+        // SAH binning scratch arrays
+        private final float[] mBinBounds = new float[SAH_BINS * 6];
+        private final int[] mBinCounts = new int[SAH_BINS];
+        private final float[] mRightAreas = new float[SAH_BINS];
+        private final float[] mCentroidBounds = new float[6];
+        private final float[] mAccBounds = new float[6];
+
+        private TreeBuilder(float[] points, int[] indices, SplitMethod splitMethod) {
+            mPoints = points;
+            mSplitMethod = splitMethod;
+
+            int triCount = indices.length / 3;
+            mTriIds = new int[triCount];
+            mTriBounds = new float[triCount * 6];
+            for (int i = 0; i < triCount; i++) {
+                mTriIds[i] = i;
+                int off0 = indices[i * 3] * 3;
+                int off1 = indices[i * 3 + 1] * 3;
+                int off2 = indices[i * 3 + 2] * 3;
+                for (int j = 0; j < 3; j++) {
+                    mTriBounds[i * 6 + j] =
+                            GlMath.min3(points[off0 + j], points[off1 + j], points[off2 + j]);
+                    mTriBounds[i * 6 + 3 + j] =
+                            GlMath.max3(points[off0 + j], points[off1 + j], points[off2 + j]);
+                }
+            }
+
+            // a binary tree with at least one triangle per leaf has at most 2n - 1 nodes
+            int maxNodes = Math.max(triCount * 2 - 1, 0);
+            mNodeBounds = new float[maxNodes * 6];
+            mNodeData = new int[maxNodes * 2];
+            if (triCount > 0) {
+                build(triCount);
+            }
+            mNodeBounds = Arrays.copyOf(mNodeBounds, mNodeCount * 6);
+            mNodeData = Arrays.copyOf(mNodeData, mNodeCount * 2);
+
+            // store triangle vertex offsets in leaf order
+            mSortedTriangles = new int[triCount * 3];
+            for (int i = 0; i < triCount; i++) {
+                int tri = mTriIds[i];
+                mSortedTriangles[i * 3] = indices[tri * 3] * 3;
+                mSortedTriangles[i * 3 + 1] = indices[tri * 3 + 1] * 3;
+                mSortedTriangles[i * 3 + 2] = indices[tri * 3 + 2] * 3;
+            }
+        }
+
+        private void build(int triCount) {
+            pushTask(0, triCount, -1, 1);
+            while (mTaskCount > 0) {
+                mTaskCount--;
+                int start = mTasks[mTaskCount * 4];
+                int end = mTasks[mTaskCount * 4 + 1];
+                int parent = mTasks[mTaskCount * 4 + 2];
+                int depth = mTasks[mTaskCount * 4 + 3];
+
+                int node = mNodeCount++;
+                if (parent >= 0) {
+                    mNodeData[parent * 2] = node;
+                }
+                mMaxDepth = Math.max(mMaxDepth, depth);
+                computeBounds(start, end, mNodeBounds, node * 6);
+
+                int mid = -1;
+                if (end - start > 1) {
+                    if (mSplitMethod == SplitMethod.SURFACE_AREA) {
+                        mid = splitSah(start, end, node * 6);
+                    } else if (end - start > BUCKET_SIZE) {
+                        mid = splitMedian(start, end, node * 6);
+                    }
+                }
+
+                if (mid < 0) {
+                    // leaf node
+                    mNodeData[node * 2] = start;
+                    mNodeData[node * 2 + 1] = end - start;
+                } else {
+                    // inner node, push right child first so that left child is processed next
+                    mNodeData[node * 2 + 1] = 0;
+                    pushTask(mid, end, node, depth + 1);
+                    pushTask(start, mid, -1, depth + 1);
+                }
+            }
+        }
+
+        private void pushTask(int start, int end, int parent, int depth) {
+            if (mTaskCount * 4 + 4 > mTasks.length) {
+                mTasks = Arrays.copyOf(mTasks, mTasks.length * 2);
+            }
+            mTasks[mTaskCount * 4] = start;
+            mTasks[mTaskCount * 4 + 1] = end;
+            mTasks[mTaskCount * 4 + 2] = parent;
+            mTasks[mTaskCount * 4 + 3] = depth;
+            mTaskCount++;
         }
 
         /**
-         * Returns the minimum x-coordinate of this triangle. Is needed for sorting during tree
-         * construction.
+         * Computes the bounds of the specified triangle range.
          */
-        private float getMinX() {
-            return GlMath.min3(mPoints[mOff0], mPoints[mOff1], mPoints[mOff2]);
+        private void computeBounds(int start, int end, float[] bounds, int off) {
+            bounds[off] = bounds[off + 1] = bounds[off + 2] = Float.MAX_VALUE;
+            bounds[off + 3] = bounds[off + 4] = bounds[off + 5] = -Float.MAX_VALUE;
+            for (int i = start; i < end; i++) {
+                int triOff = mTriIds[i] * 6;
+                for (int j = 0; j < 3; j++) {
+                    bounds[off + j] = Math.min(bounds[off + j], mTriBounds[triOff + j]);
+                    bounds[off + 3 + j] = Math.max(bounds[off + 3 + j], mTriBounds[triOff + 3 + j]);
+                }
+            }
         }
 
         /**
-         * Returns the minimum y-coordinate of this triangle. Is needed for sorting during tree
-         * construction.
+         * Splits the specified triangle range at its median along the longest node axis. Returns
+         * the split index.
          */
-        private float getMinY() {
-            return GlMath.min3(mPoints[mOff0 + 1], mPoints[mOff1 + 1], mPoints[mOff2 + 1]);
+        private int splitMedian(int start, int end, int boundsOff) {
+            float szX = mNodeBounds[boundsOff + 3] - mNodeBounds[boundsOff];
+            float szY = mNodeBounds[boundsOff + 4] - mNodeBounds[boundsOff + 1];
+            float szZ = mNodeBounds[boundsOff + 5] - mNodeBounds[boundsOff + 2];
+
+            int axis;
+            if (szX > szY && szX > szZ) {
+                axis = 0;
+            } else if (szY > szX && szY > szZ) {
+                axis = 1;
+            } else {
+                axis = 2;
+            }
+
+            // partition triangles by their min coordinate, a full sort is not needed
+            int mid = start + (end - start) / 2;
+            select(start, end - 1, mid, axis);
+            return mid;
         }
 
         /**
-         * Returns the minimum z-coordinate of this triangle. Is needed for sorting during tree
-         * construction.
+         * Quick-select: reorders the triangle range [left, right] so that the triangle at index
+         * k is in its sorted position (by min coordinate along axis) with all smaller triangles
+         * before and all larger triangles after it.
          */
-        private float getMinZ() {
-            return GlMath.min3(mPoints[mOff0 + 2], mPoints[mOff1 + 2], mPoints[mOff2 + 2]);
+        private void select(int left, int right, int k, int axis) {
+            int[] ids = mTriIds;
+            while (right > left) {
+                float pivot = mTriBounds[ids[(left + right) >>> 1] * 6 + axis];
+                int i = left;
+                int j = right;
+                while (i <= j) {
+                    while (mTriBounds[ids[i] * 6 + axis] < pivot) {
+                        i++;
+                    }
+                    while (mTriBounds[ids[j] * 6 + axis] > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        int tmp = ids[i];
+                        ids[i++] = ids[j];
+                        ids[j--] = tmp;
+                    }
+                }
+                if (k <= j) {
+                    right = j;
+                } else if (k >= i) {
+                    left = i;
+                } else {
+                    return;
+                }
+            }
         }
 
         /**
-         * Tests whether this triangle intersects with the given ray.
+         * Splits the specified triangle range at the position with the lowest surface area
+         * heuristic cost. Returns the split index or -1 if the node should become a leaf.
          */
-        private void hitTest(Ray ray, HitTestResult result) {
-            // Attention: Magic is about to happen...
-            GlMath.subtractVector(mTemp, E1, mPoints, mOff1, mPoints, mOff0);
-            GlMath.subtractVector(mTemp, E2, mPoints, mOff2, mPoints, mOff0);
-            GlMath.subtractVector(mTemp, S, ray.origin, 0, mPoints, mOff0);
-            GlMath.crossVector(mTemp, P, ray.direction, 0, mTemp, E2);
-            GlMath.crossVector(mTemp, Q, mTemp, S, mTemp, E1);
-
-            float f = 1.0f / GlMath.dotVector(mTemp, P, mTemp, E1);
-            float t = f * GlMath.dotVector(mTemp, Q, mTemp, E2);
-            float u = f * GlMath.dotVector(mTemp, P, mTemp, S);
-            float v = f * GlMath.dotVector(mTemp, Q, ray.direction, 0);
-
-            if (u >= 0 && v >= 0 && u + v <= 1 && t >= 0 && t * t < result.distanceSqr) {
-                // Ray hits triangle, compute hit position and face normal
-                result.distance = t;
-                result.distanceSqr = t * t;
-                result.point[0] = ray.origin[0] + ray.direction[0] * t;
-                result.point[1] = ray.origin[1] + ray.direction[1] * t;
-                result.point[2] = ray.origin[2] + ray.direction[2] * t;
-                result.normal[0] = mTemp[E1 + 1] * mTemp[E2 + 2] - mTemp[E1 + 2] * mTemp[E2 + 1];
-                result.normal[1] = mTemp[E1 + 2] * mTemp[E2] - mTemp[E1] * mTemp[E2 + 2];
-                result.normal[2] = mTemp[E1] * mTemp[E2 + 1] - mTemp[E1 + 1] * mTemp[E2];
-                GlMath.normalize(result.normal, 0);
+        private int splitSah(int start, int end, int boundsOff) {
+            int count = end - start;
+            float nodeArea = halfArea(mNodeBounds, boundsOff);
+
+            // compute centroid bounds, bins are distributed along them
+            float[] cb = mCentroidBounds;
+            resetBounds(cb);
+            for (int i = start; i < end; i++) {
+                int triOff = mTriIds[i] * 6;
+                for (int j = 0; j < 3; j++) {
+                    float c = (mTriBounds[triOff + j] + mTriBounds[triOff + 3 + j]) * 0.5f;
+                    cb[j] = Math.min(cb[j], c);
+                    cb[j + 3] = Math.max(cb[j + 3], c);
+                }
             }
-        }
-    }
 
-    /*
-     * Comparator for sorting triangles along their x-axis.
-     */
-    private static final Comparator<Triangle> X_COMPARATOR = new Comparator<Triangle>() {
-        @Override
-        public int compare(Triangle lhs, Triangle rhs) {
-            float lmx = lhs.getMinX();
-            float rmx = rhs.getMinX();
-            if (lmx < rmx) {
+            float bestCost = Float.MAX_VALUE;
+            int bestAxis = -1;
+            int bestBin = 0;
+
+            for (int axis = 0; axis < 3; axis++) {
+                float cMin = cb[axis];
+                float extent = cb[axis + 3] - cMin;
+                if (extent <= 0) {
+                    // all centroids are in the same plane, no split possible along this axis
+                    continue;
+                }
+                float binScale = SAH_BINS / extent;
+
+                // sort triangles into bins
+                Arrays.fill(mBinCounts, 0);
+                for (int b = 0; b < SAH_BINS; b++) {
+                    int off = b * 6;
+                    mBinBounds[off] = mBinBounds[off + 1] = mBinBounds[off + 2] = Float.MAX_VALUE;
+                    mBinBounds[off + 3] = mBinBounds[off + 4] = mBinBounds[off + 5] = -Float.MAX_VALUE;
+                }
+                for (int i = start; i < end; i++) {
+                    int triOff = mTriIds[i] * 6;
+                    int b = binIndex(triOff, axis, cMin, binScale);
+                    mBinCounts[b]++;
+                    int off = b * 6;
+                    for (int j = 0; j < 3; j++) {
+                        mBinBounds[off + j] = Math.min(mBinBounds[off + j], mTriBounds[triOff + j]);
+                        mBinBounds[off + 3 + j] =
+                                Math.max(mBinBounds[off + 3 + j], mTriBounds[triOff + 3 + j]);
+                    }
+                }
+
+                // sweep from right to left to get the area of all bins right of each split plane
+                float[] acc = mAccBounds;
+                resetBounds(acc);
+                for (int b = SAH_BINS - 1; b > 0; b--) {
+                    if (mBinCounts[b] > 0) {
+                        addBounds(acc, mBinBounds, b * 6);
+                    }
+                    mRightAreas[b] = halfArea(acc, 0);
+                }
+
+                // sweep from left to right and evaluate the cost of each split plane
+                resetBounds(acc);
+                int leftCount = 0;
+                for (int b = 1; b < SAH_BINS; b++) {
+                    if (mBinCounts[b - 1] > 0) {
+                        addBounds(acc, mBinBounds, (b - 1) * 6);
+                    }
+                    leftCount += mBinCounts[b - 1];
+                    int rightCount = count - leftCount;
+                    if (leftCount == 0 || rightCount == 0) {
+                        continue;
+                    }
+                    float cost = halfArea(acc, 0) * leftCount + mRightAreas[b] * rightCount;
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestAxis = axis;
+                        bestBin = b;
+                    }
+                }
+            }
+
+            if (bestAxis < 0) {
+                // all centroids are identical, only a median split is possible
+                return count > BUCKET_SIZE ? splitMedian(start, end, boundsOff) : -1;
+            }
+
+            float splitCost = SAH_TRAVERSAL_COST * nodeArea + bestCost;
+            float leafCost = count * nodeArea;
+            if (splitCost >= leafCost && count <= BUCKET_SIZE) {
+                // splitting is not worth it
                 return -1;
-            } else if (lmx > rmx) {
-                return 1;
-            } else {
-                return 0;
             }
+
+            // partition triangles by the selected split plane
+            float cMin = cb[bestAxis];
+            float binScale = SAH_BINS / (cb[bestAxis + 3] - cMin);
+            int[] ids = mTriIds;
+            int i = start;
+            int j = end - 1;
+            while (i <= j) {
+                if (binIndex(ids[i] * 6, bestAxis, cMin, binScale) < bestBin) {
+                    i++;
+                } else {
+                    int tmp = ids[i];
+                    ids[i] = ids[j];
+                    ids[j--] = tmp;
+                }
+            }
+            return i;
         }
-    };
 
-    /*
-     * Comparator for sorting triangles along their y-axis.
-     */
-    private static final Comparator<Triangle> Y_COMPARATOR = new Comparator<Triangle>() {
-        @Override
-        public int compare(Triangle lhs, Triangle rhs) {
-            float lmy = lhs.getMinY();
-            float rmy = rhs.getMinY();
-            if (lmy < rmy) {
-                return -1;
-            } else if (lmy > rmy) {
-                return 1;
-            } else {
+        private int binIndex(int triOff, int axis, float cMin, float binScale) {
+            float c = (mTriBounds[triOff + axis] + mTriBounds[triOff + 3 + axis]) * 0.5f;
+            int b = (int) ((c - cMin) * binScale);
+            return Math.min(Math.max(b, 0), SAH_BINS - 1);
+        }
+
+        private static void resetBounds(float[] bounds) {
+            bounds[0] = bounds[1] = bounds[2] = Float.MAX_VALUE;
+            bounds[3] = bounds[4] = bounds[5] = -Float.MAX_VALUE;
+        }
+
+        private static void addBounds(float[] bounds, float[] src, int off) {
+            for (int j = 0; j < 3; j++) {
+                bounds[j] = Math.min(bounds[j], src[off + j]);
+                bounds[j + 3] = Math.max(bounds[j + 3], src[off + 3 + j]);
+            }
+        }
+
+        private static float halfArea(float[] bounds, int off) {
+            float x = bounds[off + 3] - bounds[off];
+            float y = bounds[off + 4] - bounds[off + 1];
+            float z = bounds[off + 5] - bounds[off + 2];
+            if (x < 0 || y < 0 || z < 0) {
+                // empty bounds
                 return 0;
             }
+            return x * y + y * z + z * x;
         }
-    };
+    }
 
-    /*
-     * Comparator for sorting triangles along their z-axis.
+    /**
+     * Scratch state of a single tree traversal. Grows to the depth of the largest tree it was
+     * used with.
      */
-    private static final Comparator<Triangle> Z_COMPARATOR = new Comparator<Triangle>() {
-        @Override
-        public int compare(Triangle lhs, Triangle rhs) {
-            float lmz = lhs.getMinZ();
-            float rmz = rhs.getMinZ();
-            if (lmz < rmz) {
-                return -1;
-            } else if (lmz > rmz) {
-                return 1;
-            } else {
-                return 0;
+    private static class TraversalStack {
+        private int[] mNodes = new int[0];
+        private float[] mDistances = new float[0];
+
+        private void ensureCapacity(int capacity) {
+            if (mNodes.length < capacity) {
+                mNodes = new int[capacity];
+                mDistances = new float[capacity];
             }
         }
-    };
+    }
 
     /**
      * Result object for ray hit tests against a kd tree.
@@ -311,6 +870,9 @@ public class TriangleKdTree {
         /** Hit point normal x component. */
         public final float[] normal = new float[3];
 
+        // traversal scratch state, kept here so that hit tests don't allocate
+        private final TraversalStack mStack = new TraversalStack();
+
         /**
          * Returns true if the hit test was positive, i.e. the ray hit a triangle.
          *
@@ -0,0 +1,170 @@
+package de.fabmax.lightgl.util;
+
+import java.util.Arrays;
+
+/**
+ * VertexIndexMap maps triples of attribute indices (e.g. position, texture coordinate and normal
+ * index of an OBJ face vertex) to vertex indices. Keys are compared by all three indices, hence
+ * different triples are never merged. The map uses open addressing with linear probing on
+ * primitive arrays and doesn't create any objects while inserting or looking up keys.
+ *
+ * Key components can be any int value, mapped vertex indices must be >= 0.
+ *
+ * @author fabmax
+ */
+public class VertexIndexMap {
+
+    // maximum ratio of used slots before the table grows
+    private static final float LOAD_FACTOR = 0.6f;
+
+    // 3 ints per slot
+    private int[] mKeys;
+    // mapped vertex index per slot, -1 for empty slots
+    private int[] mValues;
+    private int mMask;
+    private int mSize = 0;
+    private int mGrowThreshold;
+
+    /**
+     * Creates a VertexIndexMap with an initial capacity of 1000 elements.
+     */
+    public VertexIndexMap() {
+        this(1000);
+    }
+
+    /**
+     * Creates a VertexIndexMap, which can hold the specified number of elements without growing.
+     *
+     * @param expectedSize
+     *            number of elements the map can hold before its table is enlarged
+     */
+    public VertexIndexMap(int expectedSize) {
+        if (expectedSize < 1) {
+            throw new IllegalArgumentException("expectedSize must be >= 1");
+        }
+        int capacity = Integer.highestOneBit((int) (expectedSize / LOAD_FACTOR)) * 2;
+        allocate(Math.max(capacity, 16));
+    }
+
+    /**
+     * Returns the vertex index mapped to the specified key or -1 if the key is not in the map.
+     *
+     * @param a    first key component
+     * @param b    second key component
+     * @param c    third key component
+     * @return the mapped vertex index or -1 if the key is not in the map
+     */
+    public int get(int a, int b, int c) {
+        int slot = hash(a, b, c) & mMask;
+        while (mValues[slot] >= 0) {
+            int k = slot * 3;
+            if (mKeys[k] == a && mKeys[k + 1] == b && mKeys[k + 2] == c) {
+                return mValues[slot];
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return -1;
+    }
+
+    /**
+     * Maps the specified key to value, if the key is not yet in the map. If the key is already
+     * in the map, the existing mapping is kept and the mapped vertex index is returned.
+     *
+     * @param a        first key component
+     * @param b        second key component
+     * @param c        third key component
+     * @param value    vertex index to map the key to, must be >= 0
+     * @return the previously mapped vertex index or -1 if the key was inserted
+     */
+    public int putIfAbsent(int a, int b, int c, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value must be >= 0");
+        }
+
+        int slot = hash(a, b, c) & mMask;
+        while (mValues[slot] >= 0) {
+            int k = slot * 3;
+            if (mKeys[k] == a && mKeys[k + 1] == b && mKeys[k + 2] == c) {
+                return mValues[slot];
+            }
+            slot = (slot + 1) & mMask;
+        }
+
+        insert(slot, a, b, c, value);
+        if (++mSize > mGrowThreshold) {
+            rehash(mValues.length * 2);
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of elements in this map.
+     *
+     * @return the number of elements in this map
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Removes all elements from this map. The underlying table is not deleted.
+     */
+    public void clear() {
+        Arrays.fill(mValues, -1);
+        mSize = 0;
+    }
+
+    private void insert(int slot, int a, int b, int c, int value) {
+        int k = slot * 3;
+        mKeys[k] = a;
+        mKeys[k + 1] = b;
+        mKeys[k + 2] = c;
+        mValues[slot] = value;
+    }
+
+    /**
+     * Allocates a new empty table with the specified capacity, which must be a power of two.
+     */
+    private void allocate(int capacity) {
+        mKeys = new int[capacity * 3];
+        mValues = new int[capacity];
+        Arrays.fill(mValues, -1);
+        mMask = capacity - 1;
+        mGrowThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Moves all elements into a new table with the specified capacity.
+     */
+    private void rehash(int capacity) {
+        int[] oldKeys = mKeys;
+        int[] oldValues = mValues;
+        allocate(capacity);
+
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] >= 0) {
+                int k = i * 3;
+                int slot = hash(oldKeys[k], oldKeys[k + 1], oldKeys[k + 2]) & mMask;
+                while (mValues[slot] >= 0) {
+                    slot = (slot + 1) & mMask;
+                }
+                insert(slot, oldKeys[k], oldKeys[k + 1], oldKeys[k + 2], oldValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Computes a well distributed hash from the three key components. The components are
+     * combined with large odd multipliers and the result is mixed with the MurmurHash3 finalizer
+     * so that the low bits used for slot selection depend on all input bits.
+     */
+    private static int hash(int a, int b, int c) {
+        int h = a * 0x9E3779B1 + b * 0x85EBCA77 + c * 0xC2B2AE3D;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
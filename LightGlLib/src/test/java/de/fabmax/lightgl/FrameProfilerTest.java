@@ -0,0 +1,190 @@
+package de.fabmax.lightgl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Ring buffer and percentile tests for {@link FrameProfiler}. Frames are recorded with counter
+ * values as deterministic data, timings depend on the system clock and are only checked for
+ * consistency.
+ *
+ * @author fabmax
+ */
+public class FrameProfilerTest {
+
+    @Test
+    public void emptyProfiler() {
+        FrameProfiler profiler = new FrameProfiler(8);
+        assertEquals(0, profiler.getFrameCount());
+        assertEquals(0, profiler.getAvailableFrameCount());
+        assertEquals(0, profiler.getCountPercentile(FrameProfiler.COUNTER_DRAW_CALLS, 0.5f));
+        assertEquals(0, profiler.getTimePercentile(FrameProfiler.PHASE_FRAME, 0.5f));
+        try {
+            profiler.getCount(FrameProfiler.COUNTER_DRAW_CALLS, 0);
+            fail("no frame recorded yet");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void countersOfRecordedFrames() {
+        FrameProfiler profiler = new FrameProfiler(8);
+        profiler.beginFrame();
+        profiler.countDrawCall(12);
+        profiler.countDrawCall(30);
+        profiler.count(FrameProfiler.COUNTER_SHADER_BINDS, 3);
+        profiler.count(FrameProfiler.COUNTER_SHADER_BINDS, 1);
+        profiler.endFrame();
+
+        assertEquals(1, profiler.getFrameCount());
+        assertEquals(2, profiler.getCount(FrameProfiler.COUNTER_DRAW_CALLS, 0));
+        assertEquals(42, profiler.getCount(FrameProfiler.COUNTER_TRIANGLES, 0));
+        assertEquals(4, profiler.getCount(FrameProfiler.COUNTER_SHADER_BINDS, 0));
+        assertEquals(0, profiler.getCount(FrameProfiler.COUNTER_TEXTURE_BINDS, 0));
+
+        // counters are reset for every frame
+        profiler.beginFrame();
+        profiler.countDrawCall(1);
+        profiler.endFrame();
+        assertEquals(1, profiler.getCount(FrameProfiler.COUNTER_DRAW_CALLS, 0));
+        assertEquals(2, profiler.getCount(FrameProfiler.COUNTER_DRAW_CALLS, 1));
+    }
+
+    @Test
+    public void ringBufferWraps() {
+        FrameProfiler profiler = new FrameProfiler(5);
+        for (int i = 1; i <= 13; i++) {
+            recordFrame(profiler, i);
+        }
+        assertEquals(13, profiler.getFrameCount());
+        assertEquals(5, profiler.getAvailableFrameCount());
+        // the last 5 frames are available, newest first
+        for (int i = 0; i < 5; i++) {
+            assertEquals(13 - i, profiler.getCount(FrameProfiler.COUNTER_DRAW_CALLS, i));
+        }
+        try {
+            profiler.getCount(FrameProfiler.COUNTER_DRAW_CALLS, 5);
+            fail("frame 5 was overwritten");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        try {
+            profiler.getCount(FrameProfiler.COUNTER_DRAW_CALLS, -1);
+            fail("negative frame index");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void nearestRankPercentiles() {
+        FrameProfiler profiler = new FrameProfiler(100);
+        // record 1..100 in shuffled order
+        for (int i = 0; i < 100; i++) {
+            recordFrame(profiler, (i * 37) % 100 + 1);
+        }
+        int counter = FrameProfiler.COUNTER_DRAW_CALLS;
+        assertEquals(1, profiler.getCountPercentile(counter, 0));
+        assertEquals(1, profiler.getCountPercentile(counter, 0.01f));
+        assertEquals(50, profiler.getCountPercentile(counter, 0.5f));
+        assertEquals(95, profiler.getCountPercentile(counter, 0.95f));
+        assertEquals(99, profiler.getCountPercentile(counter, 0.99f));
+        assertEquals(100, profiler.getCountPercentile(counter, 1));
+
+        // percentiles must not modify the recorded frames
+        assertEquals((99 * 37) % 100 + 1, profiler.getCount(counter, 0));
+    }
+
+    @Test
+    public void percentilesOfPartiallyFilledBuffer() {
+        FrameProfiler profiler = new FrameProfiler(100);
+        recordFrame(profiler, 10);
+        recordFrame(profiler, 30);
+        recordFrame(profiler, 20);
+        int counter = FrameProfiler.COUNTER_DRAW_CALLS;
+        // nearest rank: ceil(p * 3)
+        assertEquals(10, profiler.getCountPercentile(counter, 0.33f));
+        assertEquals(20, profiler.getCountPercentile(counter, 0.5f));
+        assertEquals(30, profiler.getCountPercentile(counter, 0.67f));
+        assertEquals(30, profiler.getCountPercentile(counter, 0.99f));
+    }
+
+    @Test
+    public void percentilesAfterWrap() {
+        FrameProfiler profiler = new FrameProfiler(10);
+        // old frames with large values are overwritten and must not affect the percentiles
+        for (int i = 0; i < 10; i++) {
+            recordFrame(profiler, 1000);
+        }
+        for (int i = 1; i <= 10; i++) {
+            recordFrame(profiler, i);
+        }
+        assertEquals(10, profiler.getCountPercentile(FrameProfiler.COUNTER_DRAW_CALLS, 1));
+        assertEquals(5, profiler.getCountPercentile(FrameProfiler.COUNTER_DRAW_CALLS, 0.5f));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPercentile() {
+        FrameProfiler profiler = new FrameProfiler(4);
+        recordFrame(profiler, 1);
+        profiler.getCountPercentile(FrameProfiler.COUNTER_DRAW_CALLS, 1.5f);
+    }
+
+    @Test
+    public void disabledProfilerRecordsNothing() {
+        FrameProfiler profiler = new FrameProfiler(4);
+        profiler.setEnabled(false);
+        recordFrame(profiler, 5);
+        assertEquals(0, profiler.getFrameCount());
+
+        profiler.setEnabled(true);
+        recordFrame(profiler, 7);
+        assertEquals(1, profiler.getFrameCount());
+        assertEquals(7, profiler.getCount(FrameProfiler.COUNTER_DRAW_CALLS, 0));
+    }
+
+    @Test
+    public void phaseTimes() {
+        FrameProfiler profiler = new FrameProfiler(16);
+        for (int i = 0; i < 16; i++) {
+            profiler.beginFrame();
+            profiler.beginPhase();
+            busyWait(20000);
+            profiler.endPhase(FrameProfiler.PHASE_LISTENER);
+            busyWait(20000);
+            profiler.endPhase(FrameProfiler.PHASE_MAIN_PASS);
+            profiler.endFrame();
+        }
+        for (int i = 0; i < 16; i++) {
+            long listener = profiler.getTime(FrameProfiler.PHASE_LISTENER, i);
+            long main = profiler.getTime(FrameProfiler.PHASE_MAIN_PASS, i);
+            long frame = profiler.getTime(FrameProfiler.PHASE_FRAME, i);
+            assertTrue(listener >= 20000);
+            assertTrue(main >= 20000);
+            assertTrue(frame >= listener + main);
+            assertEquals(0, profiler.getTime(FrameProfiler.PHASE_PRE_PASS, i));
+        }
+        long p50 = profiler.getTimePercentile(FrameProfiler.PHASE_FRAME, 0.5f);
+        long p95 = profiler.getTimePercentile(FrameProfiler.PHASE_FRAME, 0.95f);
+        long p99 = profiler.getTimePercentile(FrameProfiler.PHASE_FRAME, 0.99f);
+        assertTrue(p50 <= p95);
+        assertTrue(p95 <= p99);
+    }
+
+    private static void recordFrame(FrameProfiler profiler, int drawCalls) {
+        profiler.beginFrame();
+        profiler.count(FrameProfiler.COUNTER_DRAW_CALLS, drawCalls);
+        profiler.endFrame();
+    }
+
+    private static void busyWait(long nanos) {
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            // spin
+        }
+    }
+}
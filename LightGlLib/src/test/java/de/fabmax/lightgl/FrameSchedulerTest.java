@@ -0,0 +1,194 @@
+package de.fabmax.lightgl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pacing and delta tests for {@link FrameScheduler}. The scheduler runs on a simulated clock,
+ * which advances by a fixed step on every time query and by the requested time on every sleep.
+ *
+ * @author fabmax
+ */
+public class FrameSchedulerTest {
+
+    private static final long MS = 1000000L;
+    private static final long CLOCK_STEP = 10000L;
+    private static final float EPS = 3 * CLOCK_STEP / 1e9f;
+
+    @Test
+    public void unlimitedFrameRate() {
+        FakeScheduler scheduler = new FakeScheduler();
+        scheduler.waitForNextFrame();
+        for (int i = 0; i < 10; i++) {
+            scheduler.work(5 * MS);
+            scheduler.waitForNextFrame();
+            assertEquals(0.005f, scheduler.getDeltaT(), EPS);
+        }
+        assertEquals(0, scheduler.mSlept);
+        assertEquals(0, scheduler.getFrameInterval());
+    }
+
+    @Test
+    public void framesArePaced() {
+        FakeScheduler scheduler = new FakeScheduler();
+        scheduler.setMaximumFps(100);
+        scheduler.waitForNextFrame();
+        long start = scheduler.mTime;
+        for (int i = 0; i < 100; i++) {
+            scheduler.work(3 * MS);
+            long before = scheduler.mSlept;
+            scheduler.waitForNextFrame();
+            assertEquals(0.01f, scheduler.getDeltaT(), EPS);
+            // most of the remaining 7 ms are slept, the last 2 ms are spun
+            assertEquals(5 * MS, scheduler.mSlept - before, CLOCK_STEP);
+        }
+        // fixed cadence: the spin overshoot does not accumulate
+        assertEquals(1000 * MS, scheduler.mTime - start, 2 * CLOCK_STEP);
+        assertEquals(100, scheduler.getFps(), 1);
+    }
+
+    @Test
+    public void lateFramesAreNotCaughtUp() {
+        FakeScheduler scheduler = new FakeScheduler();
+        scheduler.setMaximumFps(100);
+        scheduler.waitForNextFrame();
+        scheduler.work(3 * MS);
+        scheduler.waitForNextFrame();
+
+        // frame takes 35 ms, the next one starts immediately
+        scheduler.work(35 * MS);
+        long before = scheduler.mSlept;
+        scheduler.waitForNextFrame();
+        assertEquals(0.035f, scheduler.getDeltaT(), EPS);
+        assertEquals(before, scheduler.mSlept);
+
+        // following frames are paced again instead of being rendered in a burst
+        for (int i = 0; i < 5; i++) {
+            scheduler.work(1 * MS);
+            scheduler.waitForNextFrame();
+            assertEquals(0.01f, scheduler.getDeltaT(), EPS);
+        }
+    }
+
+    @Test
+    public void deltaIsClamped() {
+        FakeScheduler scheduler = new FakeScheduler();
+        scheduler.waitForNextFrame();
+        scheduler.work(2000 * MS);
+        scheduler.waitForNextFrame();
+        assertEquals(0.25f, scheduler.getDeltaT(), 0);
+
+        scheduler.work(10 * MS);
+        scheduler.waitForNextFrame();
+        assertEquals(0.01f, scheduler.getDeltaT(), EPS);
+    }
+
+    @Test
+    public void resetSkipsDeltaAndWait() {
+        FakeScheduler scheduler = new FakeScheduler();
+        scheduler.setMaximumFps(100);
+        scheduler.waitForNextFrame();
+        scheduler.work(4 * MS);
+        scheduler.waitForNextFrame();
+        assertEquals(0.01f, scheduler.getDeltaT(), EPS);
+
+        // render thread is paused, the gap must not show up as frame delta
+        scheduler.reset();
+        scheduler.work(100 * MS);
+        long before = scheduler.mSlept;
+        scheduler.waitForNextFrame();
+        assertEquals(before, scheduler.mSlept);
+        assertEquals(0.01f, scheduler.getDeltaT(), EPS);
+
+        scheduler.work(4 * MS);
+        scheduler.waitForNextFrame();
+        assertEquals(0.01f, scheduler.getDeltaT(), EPS);
+    }
+
+    @Test
+    public void lowestActiveLimitIsUsed() {
+        FakeScheduler scheduler = new FakeScheduler();
+        scheduler.setMaximumFps(60);
+        scheduler.setIdleFps(20);
+        scheduler.setThrottledFps(30);
+        assertEquals(Math.round(1e9 / 60), scheduler.getFrameInterval());
+        assertEquals(60, scheduler.getMaximumFps(), 1e-3f);
+
+        scheduler.setThrottled(true);
+        assertEquals(Math.round(1e9 / 30), scheduler.getFrameInterval());
+        scheduler.setIdle(true);
+        assertEquals(Math.round(1e9 / 20), scheduler.getFrameInterval());
+        scheduler.setThrottled(false);
+        assertEquals(Math.round(1e9 / 20), scheduler.getFrameInterval());
+
+        // idle limit is ignored, if it is higher than the normal limit
+        scheduler.setIdleFps(120);
+        assertEquals(Math.round(1e9 / 60), scheduler.getFrameInterval());
+        // idle limit also applies without a normal limit
+        scheduler.setMaximumFps(0);
+        assertEquals(Math.round(1e9 / 120), scheduler.getFrameInterval());
+        scheduler.setIdle(false);
+        assertEquals(0, scheduler.getFrameInterval());
+    }
+
+    @Test
+    public void idleLimitSlowsDownPacing() {
+        FakeScheduler scheduler = new FakeScheduler();
+        scheduler.setMaximumFps(100);
+        scheduler.setIdleFps(10);
+        scheduler.waitForNextFrame();
+        scheduler.work(1 * MS);
+        scheduler.waitForNextFrame();
+        assertEquals(0.01f, scheduler.getDeltaT(), EPS);
+
+        // the interval switches with the frame after the idle state changed
+        scheduler.setIdle(true);
+        scheduler.work(1 * MS);
+        scheduler.waitForNextFrame();
+        assertEquals(0.01f, scheduler.getDeltaT(), EPS);
+        scheduler.work(1 * MS);
+        scheduler.waitForNextFrame();
+        assertEquals(0.1f, scheduler.getDeltaT(), EPS);
+        assertTrue(scheduler.isIdle());
+
+        scheduler.setIdle(false);
+        assertFalse(scheduler.isIdle());
+        scheduler.work(1 * MS);
+        scheduler.waitForNextFrame();
+        scheduler.work(1 * MS);
+        scheduler.waitForNextFrame();
+        assertEquals(0.01f, scheduler.getDeltaT(), EPS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeFps() {
+        new FrameScheduler().setMaximumFps(-1);
+    }
+
+    /**
+     * FrameScheduler with a simulated clock.
+     */
+    private static class FakeScheduler extends FrameScheduler {
+        long mTime = 1000 * MS;
+        long mSlept = 0;
+
+        void work(long nanos) {
+            mTime += nanos;
+        }
+
+        @Override
+        long nanoTime() {
+            mTime += CLOCK_STEP;
+            return mTime;
+        }
+
+        @Override
+        void sleep(long nanos) {
+            mSlept += nanos;
+            mTime += nanos;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package de.fabmax.lightgl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plane extraction and box / sphere classification tests for {@link Frustum}. Matrices are
+ * built by hand, {@link android.opengl.Matrix} is not available in unit tests.
+ *
+ * @author fabmax
+ */
+public class FrustumTest {
+
+    private static final float EPS = 1e-5f;
+
+    private final Frustum mFrustum = new Frustum();
+
+    @Before
+    public void setUp() {
+        // camera at origin looking down -z, 90 degree fov, near = 1, far = 10
+        mFrustum.setFromMatrix(perspective(90, 1, 1, 10), 0);
+    }
+
+    @Test
+    public void orthoPlanes() {
+        Frustum frustum = new Frustum();
+        // glOrtho(-1, 1, -1, 1, 1, 10) is the unit cube in clip space after the z mapping
+        frustum.setFromMatrix(ortho(-1, 1, -1, 1, 1, 10), 0);
+        float[] p = frustum.getPlanes();
+        assertPlane(p, Frustum.LEFT, 1, 0, 0, 1);
+        assertPlane(p, Frustum.RIGHT, -1, 0, 0, 1);
+        assertPlane(p, Frustum.BOTTOM, 0, 1, 0, 1);
+        assertPlane(p, Frustum.TOP, 0, -1, 0, 1);
+        assertPlane(p, Frustum.NEAR, 0, 0, -1, -1);
+        assertPlane(p, Frustum.FAR, 0, 0, 1, 10);
+    }
+
+    @Test
+    public void perspectivePlanes() {
+        float[] p = mFrustum.getPlanes();
+        float s = (float) Math.sqrt(0.5);
+        assertPlane(p, Frustum.LEFT, s, 0, -s, 0);
+        assertPlane(p, Frustum.RIGHT, -s, 0, -s, 0);
+        assertPlane(p, Frustum.BOTTOM, 0, s, -s, 0);
+        assertPlane(p, Frustum.TOP, 0, -s, -s, 0);
+        assertPlane(p, Frustum.NEAR, 0, 0, -1, -1);
+        assertPlane(p, Frustum.FAR, 0, 0, 1, 10);
+    }
+
+    @Test
+    public void planesAreExtractedWithOffset() {
+        float[] m = perspective(90, 1, 1, 10);
+        float[] shifted = new float[m.length + 16];
+        System.arraycopy(m, 0, shifted, 16, m.length);
+        Frustum frustum = new Frustum();
+        frustum.setFromMatrix(shifted, 16);
+        float[] expected = mFrustum.getPlanes();
+        float[] actual = frustum.getPlanes();
+        for (int i = 0; i < 24; i++) {
+            assertEquals(expected[i], actual[i], EPS);
+        }
+    }
+
+    @Test
+    public void planesInModelSpace() {
+        // model matrix translates by (0, 0, -100), i.e. the frustum in model space is shifted by
+        // +100 along z
+        float[] model = identity();
+        model[14] = -100;
+        mFrustum.setFromMatrix(multiply(perspective(90, 1, 1, 10), model), 0);
+        assertEquals(Frustum.INSIDE, mFrustum.classifySphere(0, 0, 95, 0.5f));
+        assertEquals(Frustum.OUTSIDE, mFrustum.classifySphere(0, 0, -5, 0.5f));
+    }
+
+    @Test
+    public void boxClassification() {
+        assertEquals(Frustum.INSIDE, mFrustum.classify(new BoundingBox(-1, 1, -1, 1, -6, -4)));
+        // crosses near plane
+        assertEquals(Frustum.INTERSECTING, mFrustum.classify(new BoundingBox(-0.1f, 0.1f, -0.1f, 0.1f, -2, 0)));
+        // crosses left plane
+        assertEquals(Frustum.INTERSECTING, mFrustum.classify(new BoundingBox(-6, -4, -1, 1, -6, -4)));
+        // contains the whole frustum
+        assertEquals(Frustum.INTERSECTING, mFrustum.classify(new BoundingBox(-100, 100, -100, 100, -100, 100)));
+        // behind the camera, beyond far plane, left and above
+        assertEquals(Frustum.OUTSIDE, mFrustum.classify(new BoundingBox(-1, 1, -1, 1, 1, 3)));
+        assertEquals(Frustum.OUTSIDE, mFrustum.classify(new BoundingBox(-1, 1, -1, 1, -20, -11)));
+        assertEquals(Frustum.OUTSIDE, mFrustum.classify(new BoundingBox(-9, -7, -1, 1, -6, -4)));
+        assertEquals(Frustum.OUTSIDE, mFrustum.classify(new BoundingBox(-1, 1, 7, 9, -6, -4)));
+        assertTrue(mFrustum.isVisible(new BoundingBox(0, 0, -5)));
+        assertFalse(mFrustum.isVisible(new BoundingBox(0, 0, 5)));
+    }
+
+    @Test
+    public void sphereClassification() {
+        assertEquals(Frustum.INSIDE, mFrustum.classifySphere(0, 0, -5, 1));
+        assertEquals(Frustum.INTERSECTING, mFrustum.classifySphere(0, 0, -1, 0.5f));
+        assertEquals(Frustum.INTERSECTING, mFrustum.classifySphere(0, 0, -10, 0.5f));
+        assertEquals(Frustum.INTERSECTING, mFrustum.classifySphere(5, 0, -5, 0.5f));
+        assertEquals(Frustum.OUTSIDE, mFrustum.classifySphere(0, 0, 2, 0.5f));
+        assertEquals(Frustum.OUTSIDE, mFrustum.classifySphere(0, 0, -12, 1));
+        // distance of (8, 0, -5) to the right plane is 3 * sqrt(0.5) = 2.12
+        assertEquals(Frustum.OUTSIDE, mFrustum.classifySphere(8, 0, -5, 2));
+        assertEquals(Frustum.INTERSECTING, mFrustum.classifySphere(8, 0, -5, 2.2f));
+    }
+
+    private static void assertPlane(float[] planes, int plane, float a, float b, float c, float d) {
+        int o = plane * 4;
+        assertEquals("a of plane " + plane, a, planes[o], EPS);
+        assertEquals("b of plane " + plane, b, planes[o + 1], EPS);
+        assertEquals("c of plane " + plane, c, planes[o + 2], EPS);
+        assertEquals("d of plane " + plane, d, planes[o + 3], EPS);
+    }
+
+    /**
+     * Column-major perspective projection, same as Matrix.perspectiveM.
+     */
+    private static float[] perspective(float fovy, float aspect, float near, float far) {
+        float f = 1.0f / (float) Math.tan(Math.toRadians(fovy / 2));
+        float[] m = new float[16];
+        m[0] = f / aspect;
+        m[5] = f;
+        m[10] = (far + near) / (near - far);
+        m[11] = -1;
+        m[14] = 2 * far * near / (near - far);
+        return m;
+    }
+
+    /**
+     * Column-major orthographic projection, same as Matrix.orthoM.
+     */
+    private static float[] ortho(float l, float r, float b, float t, float n, float f) {
+        float[] m = new float[16];
+        m[0] = 2 / (r - l);
+        m[5] = 2 / (t - b);
+        m[10] = -2 / (f - n);
+        m[12] = -(r + l) / (r - l);
+        m[13] = -(t + b) / (t - b);
+        m[14] = -(f + n) / (f - n);
+        m[15] = 1;
+        return m;
+    }
+
+    private static float[] identity() {
+        float[] m = new float[16];
+        m[0] = m[5] = m[10] = m[15] = 1;
+        return m;
+    }
+
+    private static float[] multiply(float[] a, float[] b) {
+        float[] m = new float[16];
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 4; row++) {
+                float sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += a[k * 4 + row] * b[col * 4 + k];
+                }
+                m[col * 4 + row] = sum;
+            }
+        }
+        return m;
+    }
+}
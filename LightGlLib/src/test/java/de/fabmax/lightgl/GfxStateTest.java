@@ -0,0 +1,96 @@
+package de.fabmax.lightgl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Model matrix stack tests for {@link GfxState}.
+ *
+ * @author fabmax
+ */
+public class GfxStateTest {
+
+    @Test
+    public void deepStackRestoresMatrices() {
+        GfxState state = createState();
+        float[] model = state.getModelMatrix();
+        int depth = GfxState.MODEL_MATRIX_STACK_SIZE * 10;
+
+        for (int i = 0; i < depth; i++) {
+            state.setModelMatrix(matrix(i));
+            state.pushModelMatrix();
+            assertEquals(i + 1, state.getModelMatrixStackDepth());
+            // pushed matrix is kept as current matrix
+            assertArrayEquals(matrix(i), state.getModelMatrix(), 0);
+        }
+        state.setModelMatrix(matrix(depth));
+        for (int i = depth - 1; i >= 0; i--) {
+            state.popModelMatrix();
+            assertEquals(i, state.getModelMatrixStackDepth());
+            assertArrayEquals(matrix(i), state.getModelMatrix(), 0);
+        }
+        // the current model matrix is returned by reference and stays the same array
+        assertSame(model, state.getModelMatrix());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void stackUnderflow() {
+        GfxState state = createState();
+        state.pushModelMatrix();
+        state.popModelMatrix();
+        state.popModelMatrix();
+    }
+
+    @Test
+    public void matrixStackBenchmark() {
+        MicroBenchmark.assumeEnabled();
+
+        final GfxState state = createState();
+        final float[] transform = matrix(1);
+        final int depth = 64;
+        final int rounds = 20000;
+        MicroBenchmark.measure("matrix stack push / pop, depth " + depth, new Runnable() {
+            @Override
+            public void run() {
+                for (int r = 0; r < rounds; r++) {
+                    for (int i = 0; i < depth; i++) {
+                        state.pushModelMatrix();
+                    }
+                    for (int i = 0; i < depth; i++) {
+                        state.popModelMatrix();
+                    }
+                }
+            }
+        });
+        MicroBenchmark.measure("matrix stack transform / MVP, depth " + depth, new Runnable() {
+            @Override
+            public void run() {
+                for (int r = 0; r < rounds; r++) {
+                    for (int i = 0; i < depth; i++) {
+                        state.pushModelMatrix(transform, 0);
+                    }
+                    // MVP is only computed where a shader reads it, i.e. at the leaf
+                    state.getMvpMatrix();
+                    for (int i = 0; i < depth; i++) {
+                        state.popModelMatrix();
+                    }
+                }
+            }
+        });
+    }
+
+    private static GfxState createState() {
+        return new GfxState(new ShaderManager(null, new FrameProfiler(4)));
+    }
+
+    private static float[] matrix(int seed) {
+        float[] m = new float[16];
+        for (int i = 0; i < 16; i++) {
+            m[i] = seed * 16 + i;
+        }
+        return m;
+    }
+}
@@ -0,0 +1,174 @@
+package de.fabmax.lightgl;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link ImageConverter}. The output must be byte-exact to the straightforward
+ * per-pixel conversion, which was used before the converter was introduced.
+ *
+ * @author fabmax
+ */
+public class ImageConverterTest {
+
+    @Test
+    public void premultipliedMatchesReference() {
+        ImageConverter converter = new ImageConverter();
+        Random rnd = new Random(1);
+        // small images are converted in one band, large ones in parallel bands
+        int[][] sizes = { { 1, 1 }, { 17, 5 }, { 256, 256 }, { 301, 257 }, { 1024, 3 } };
+        for (int[] size : sizes) {
+            int[] pixels = randomPremultiplied(rnd, size[0] * size[1]);
+            for (int alpha = 0; alpha < 2; alpha++) {
+                ByteBuffer out = converter.convert(pixels, size[0], size[1], alpha == 1, true);
+                byte[] expected = referencePremultiplied(pixels, alpha == 1);
+                assertBytes(size[0] + "x" + size[1], expected, out);
+                converter.release(out);
+            }
+        }
+    }
+
+    @Test
+    public void argbMatchesReference() {
+        ImageConverter converter = new ImageConverter();
+        Random rnd = new Random(2);
+        int[][] sizes = { { 1, 1 }, { 17, 5 }, { 301, 257 } };
+        for (int[] size : sizes) {
+            int[] pixels = new int[size[0] * size[1]];
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = rnd.nextInt();
+            }
+            for (int alpha = 0; alpha < 2; alpha++) {
+                ByteBuffer out = converter.convert(pixels, size[0], size[1], alpha == 1, false);
+                byte[] expected = referenceArgb(pixels, alpha == 1);
+                assertBytes(size[0] + "x" + size[1], expected, out);
+                converter.release(out);
+            }
+        }
+    }
+
+    @Test
+    public void allPremultipliedValues() {
+        // every valid combination of alpha and premultiplied color
+        int[] pixels = new int[256 * 256];
+        int n = 0;
+        for (int a = 0; a < 256; a++) {
+            for (int c = 0; c <= a; c++) {
+                pixels[n++] = (a << 24) | (c << 16) | (c << 8) | c;
+            }
+        }
+        ByteBuffer out = new ImageConverter().convert(pixels, 256, 256, true, true);
+        assertBytes("all values", referencePremultiplied(pixels, true), out);
+    }
+
+    @Test
+    public void buffersArePooledAndTrimmed() {
+        ImageConverter converter = new ImageConverter();
+        int[] pixels = new int[64 * 64];
+        ByteBuffer out = converter.convert(pixels, 64, 64, true, true);
+        converter.release(out);
+
+        // smaller images reuse the pooled buffer
+        ByteBuffer out2 = converter.convert(pixels, 32, 32, true, true);
+        assertSame(out, out2);
+        assertEquals(32 * 32 * 4, out2.limit());
+        converter.release(out2);
+
+        converter.trim();
+        ByteBuffer out3 = converter.convert(pixels, 32, 32, true, true);
+        assertNotSame(out, out3);
+    }
+
+    @Test
+    public void conversionBenchmark() {
+        MicroBenchmark.assumeEnabled();
+
+        final ImageConverter converter = new ImageConverter();
+        final int size = 2048;
+        final int[] pixels = randomPremultiplied(new Random(3), size * size);
+        MicroBenchmark.measure("reference conversion " + size + "x" + size, new Runnable() {
+            @Override
+            public void run() {
+                ByteBuffer buf = ByteBuffer.allocateDirect(size * size * 4);
+                buf.put(referencePremultiplied(pixels, true));
+            }
+        });
+        MicroBenchmark.measure("ImageConverter " + size + "x" + size, new Runnable() {
+            @Override
+            public void run() {
+                converter.release(converter.convert(pixels, size, size, true, true));
+            }
+        });
+    }
+
+    private static void assertBytes(String msg, byte[] expected, ByteBuffer actual) {
+        assertEquals(msg, expected.length, actual.remaining());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(msg + ", byte " + i, expected[i], actual.get(i));
+        }
+    }
+
+    /**
+     * Random premultiplied pixels in memory order (RGBA bytes as little endian int), including
+     * fully transparent and opaque pixels.
+     */
+    private static int[] randomPremultiplied(Random rnd, int count) {
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++) {
+            int a = rnd.nextInt(4) == 0 ? (rnd.nextBoolean() ? 0 : 255) : rnd.nextInt(256);
+            int r = rnd.nextInt(a + 1);
+            int g = rnd.nextInt(a + 1);
+            int b = rnd.nextInt(a + 1);
+            pixels[i] = (a << 24) | (b << 16) | (g << 8) | r;
+        }
+        return pixels;
+    }
+
+    /**
+     * Per-pixel un-premultiply conversion of ARGB_8888 bitmaps as done by the original
+     * TextureManager.convertImage().
+     */
+    private static byte[] referencePremultiplied(int[] pixels, boolean alpha) {
+        int stride = alpha ? 4 : 3;
+        byte[] buf = new byte[pixels.length * stride];
+        for (int i = 0, j = 0; i < pixels.length; i++, j += stride) {
+            int px = pixels[i];
+            int pa = ((px >> 24) & 0xff);
+            if (pa > 0) {
+                float fa = 255.0f / pa;
+                buf[j]     = (byte) (( px        & 0xff) * fa);
+                buf[j + 1] = (byte) (((px >> 8)  & 0xff) * fa);
+                buf[j + 2] = (byte) (((px >> 16) & 0xff) * fa);
+            }
+            if (alpha) {
+                buf[j + 3] = (byte) pa;
+            }
+        }
+        return buf;
+    }
+
+    /**
+     * Per-pixel conversion of other bitmap formats as done by the original
+     * TextureManager.convertImage().
+     */
+    private static byte[] referenceArgb(int[] pixels, boolean alpha) {
+        int stride = alpha ? 4 : 3;
+        byte[] buf = new byte[pixels.length * stride];
+        for (int i = 0; i < pixels.length; i++) {
+            int px = pixels[i];
+            buf[i * stride]     = (byte) ((px >> 16) & 0xff);
+            buf[i * stride + 1] = (byte) ((px >>  8) & 0xff);
+            buf[i * stride + 2] = (byte) (px & 0xff);
+            if (alpha) {
+                buf[i * stride + 3] = (byte) ((px >> 24) & 0xff);
+            }
+        }
+        return buf;
+    }
+}
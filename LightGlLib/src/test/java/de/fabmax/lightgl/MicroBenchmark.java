@@ -0,0 +1,46 @@
+package de.fabmax.lightgl;
+
+import org.junit.Assume;
+
+/**
+ * Minimal micro benchmark harness for unit tests. Benchmarks are skipped unless the system
+ * property lightgl.benchmark is set to true, e.g. with
+ * {@code ./gradlew :LightGlLib:testDebugUnitTest -Dlightgl.benchmark=true}.
+ *
+ * @author fabmax
+ */
+public class MicroBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURE_ROUNDS = 5;
+
+    /**
+     * Skips the calling test if benchmarks are not enabled.
+     */
+    public static void assumeEnabled() {
+        Assume.assumeTrue("benchmarks disabled", Boolean.getBoolean("lightgl.benchmark"));
+    }
+
+    /**
+     * Runs the given task a few times for warm up and returns the best time of several measured
+     * rounds in milliseconds. The result is printed together with the given name.
+     *
+     * @param name    name printed with the result
+     * @param task    task to measure
+     * @return the best measured time in milliseconds
+     */
+    public static double measure(String name, Runnable task) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            task.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURE_ROUNDS; i++) {
+            long t = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - t);
+        }
+        double ms = best / 1e6;
+        System.out.println(String.format("%-40s %10.3f ms", name, ms));
+        return ms;
+    }
+}
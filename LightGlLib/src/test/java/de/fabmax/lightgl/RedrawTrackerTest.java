@@ -0,0 +1,123 @@
+package de.fabmax.lightgl;
+
+import org.junit.Test;
+
+import de.fabmax.lightgl.scene.DynamicMesh;
+import de.fabmax.lightgl.scene.Group;
+import de.fabmax.lightgl.scene.TransformGroup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Redraw decision tests for {@link RedrawTracker}.
+ *
+ * @author fabmax
+ */
+public class RedrawTrackerTest {
+
+    @Test
+    public void firstFrameIsAlwaysRendered() {
+        RedrawTracker tracker = new RedrawTracker();
+        assertTrue(tracker.endFrame(false, false));
+        assertFalse(tracker.endFrame(false, false));
+    }
+
+    @Test
+    public void changesTriggerOneRedraw() {
+        RedrawTracker tracker = idleTracker();
+        RedrawTracker.notifyChanged();
+        RedrawTracker.notifyChanged();
+        assertTrue(tracker.endFrame(false, false));
+        assertFalse(tracker.endFrame(false, false));
+    }
+
+    @Test
+    public void requestedRedraw() {
+        RedrawTracker tracker = idleTracker();
+        tracker.requestRedraw();
+        assertTrue(tracker.endFrame(false, false));
+        assertFalse(tracker.endFrame(false, false));
+    }
+
+    @Test
+    public void animationAndPhysicsKeepRendering() {
+        RedrawTracker tracker = idleTracker();
+        assertTrue(tracker.endFrame(true, false));
+        assertTrue(tracker.endFrame(false, true));
+        assertFalse(tracker.endFrame(false, false));
+    }
+
+    @Test
+    public void changesAreSeenByAllTrackers() {
+        RedrawTracker tracker1 = idleTracker();
+        RedrawTracker tracker2 = idleTracker();
+        RedrawTracker.notifyChanged();
+        assertTrue(tracker1.endFrame(false, false));
+        assertTrue(tracker2.endFrame(false, false));
+    }
+
+    @Test
+    public void sceneGraphModificationsAreTracked() {
+        Group group = new Group();
+        TransformGroup tg = new TransformGroup();
+        RedrawTracker tracker = idleTracker();
+
+        group.addChild(tg);
+        assertTrue(tracker.endFrame(false, false));
+        assertFalse(tracker.endFrame(false, false));
+
+        tg.translate(1, 0, 0);
+        assertTrue(tracker.endFrame(false, false));
+        group.removeChild(tg);
+        assertTrue(tracker.endFrame(false, false));
+        assertFalse(tracker.endFrame(false, false));
+    }
+
+    @Test
+    public void dynamicMeshReportsModificationOnce() {
+        int before = RedrawTracker.getChangeCount();
+        DynamicMesh mesh = new DynamicMesh(300, 300, false, false, true);
+        float[] pos = new float[3];
+        float[] color = { 1, 1, 1, 1 };
+        for (int i = 0; i < 300; i++) {
+            mesh.addVertex(pos, 0, color, 0);
+            mesh.addElementIndex(i);
+        }
+        mesh.clear();
+        mesh.invalidate();
+        // the mesh was not drawn in between, creating and filling it is a single change
+        assertEquals(1, RedrawTracker.getChangeCount() - before);
+    }
+
+    @Test
+    public void concurrentChangesAreCounted() throws InterruptedException {
+        final int threads = 4;
+        final int changesPerThread = 20000;
+        int before = RedrawTracker.getChangeCount();
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < changesPerThread; j++) {
+                        RedrawTracker.notifyChanged();
+                    }
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(threads * changesPerThread, RedrawTracker.getChangeCount() - before);
+    }
+
+    private static RedrawTracker idleTracker() {
+        RedrawTracker tracker = new RedrawTracker();
+        tracker.endFrame(false, false);
+        return tracker;
+    }
+}
@@ -0,0 +1,130 @@
+package de.fabmax.lightgl;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sort order and statistics tests for {@link RenderQueue}. Items are added without meshes and
+ * shaders, only their sort attributes are used.
+ *
+ * @author fabmax
+ */
+public class RenderQueueTest {
+
+    private static final float[] IDENTITY = {
+            1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, 1, 0,
+            0, 0, 0, 1
+    };
+
+    @Test
+    public void keyOrder() {
+        RenderQueue queue = new RenderQueue();
+        // layer, transparent, shader, texture, depth
+        add(queue, 1, false, 1, 1, 5);      // 0
+        add(queue, 0, true, 1, 1, 5);       // 1
+        add(queue, 0, false, 2, 1, 1);      // 2
+        add(queue, 0, false, 1, 2, 1);      // 3
+        add(queue, 0, false, 1, 1, 9);      // 4
+        add(queue, 0, false, 1, 1, 2);      // 5
+        add(queue, 0, true, 2, 2, 9);       // 6
+        add(queue, 0, true, 1, 1, 1);       // 7
+        queue.sort();
+
+        // layer 0 opaque: by shader, texture and front to back, then layer 0 transparent: back
+        // to front, then layer 1
+        int[] expected = { 5, 4, 3, 2, 6, 1, 7, 0 };
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("item " + i, expected[i], queue.getSortedItem(i));
+        }
+    }
+
+    @Test
+    public void equalKeysKeepInsertionOrder() {
+        RenderQueue queue = new RenderQueue();
+        for (int i = 0; i < 10; i++) {
+            add(queue, 0, false, 3, 3, 4);
+        }
+        queue.sort();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, queue.getSortedItem(i));
+        }
+    }
+
+    @Test
+    public void depthKeyIsMonotonic() {
+        assertEquals(0, RenderQueue.depthKey(-1));
+        assertEquals(0, RenderQueue.depthKey(0));
+        assertEquals(0, RenderQueue.depthKey(Float.NaN));
+
+        Random rnd = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            float a = rnd.nextFloat() * 1000;
+            float b = a + rnd.nextFloat() * 10;
+            assertTrue(RenderQueue.depthKey(a) <= RenderQueue.depthKey(b));
+        }
+        // depth keys use 24 bits, they must not overflow into the shader / texture bits
+        assertTrue(RenderQueue.depthKey(Float.MAX_VALUE) < (1 << 24));
+        long near = RenderQueue.computeKey(0, false, 1, 1, RenderQueue.depthKey(0.5f), 0);
+        long far = RenderQueue.computeKey(0, false, 1, 1, RenderQueue.depthKey(Float.MAX_VALUE), 0);
+        long nextTex = RenderQueue.computeKey(0, false, 1, 2, RenderQueue.depthKey(0.5f), 0);
+        assertTrue(near < far);
+        assertTrue(far < nextTex);
+    }
+
+    @Test
+    public void savedStateChanges() {
+        RenderQueue queue = new RenderQueue();
+        // traversal order alternates between two shaders and two textures
+        for (int i = 0; i < 8; i++) {
+            add(queue, 0, false, 1 + i % 2, 10 + (i + i / 2) % 2, i);
+        }
+        queue.sort();
+
+        assertEquals(8, queue.getItemCount());
+        // sorted: shader 1 / tex 10, shader 1 / tex 11, shader 2 / tex 10, shader 2 / tex 11
+        assertEquals(2, queue.getShaderChanges());
+        assertEquals(4, queue.getTextureChanges());
+        assertEquals(8 - 2, queue.getSavedShaderChanges());
+        assertEquals(5 - 4, queue.getSavedTextureChanges());
+
+        // statistics accumulate over multiple flushes until they are reset
+        queue.clear();
+        add(queue, 0, false, 1, 10, 1);
+        queue.sort();
+        assertEquals(9, queue.getItemCount());
+        assertEquals(3, queue.getShaderChanges());
+
+        queue.clear();
+        queue.resetStatistics();
+        assertEquals(0, queue.getItemCount());
+        assertEquals(0, queue.getShaderChanges());
+        assertEquals(0, queue.getTextureChanges());
+        assertEquals(0, queue.getSavedShaderChanges());
+        assertEquals(0, queue.getSavedTextureChanges());
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() {
+        RenderQueue queue = new RenderQueue();
+        for (int i = 0; i < 1000; i++) {
+            add(queue, 0, false, 1, 1, 1000 - i);
+        }
+        queue.sort();
+        // all items have the same shader and texture, hence they are sorted front to back
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(999 - i, queue.getSortedItem(i));
+        }
+    }
+
+    private static void add(RenderQueue queue, int layer, boolean transparent, int shaderId,
+                            int texHandle, float depth) {
+        queue.addItem(null, null, shaderId, texHandle, layer, transparent,
+                RenderQueue.depthKey(depth), IDENTITY);
+    }
+}
@@ -0,0 +1,76 @@
+package de.fabmax.lightgl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for binding shaders with the {@link ShaderManager}.
+ *
+ * @author fabmax
+ */
+public class ShaderManagerTest {
+
+    @Test
+    public void failedShaderIsNotBound() {
+        ShaderManager shaderMgr = new ShaderManager(null, new FrameProfiler(4));
+        FailingShader shader = new FailingShader(shaderMgr);
+
+        shaderMgr.bindShader(null, shader);
+        assertEquals(1, shader.mLoadAttempts);
+        assertEquals(0, shader.mBindCount);
+        assertNull(shaderMgr.getBoundShader());
+
+        // loading is retried on the next bind
+        shaderMgr.bindShader(null, shader);
+        assertEquals(2, shader.mLoadAttempts);
+        assertEquals(0, shader.mBindCount);
+    }
+
+    @Test
+    public void sortIdsFitIntoSortKey() {
+        ShaderManager shaderMgr = new ShaderManager(null, new FrameProfiler(4));
+        int last = new FailingShader(shaderMgr).getSortId();
+        for (int i = 0; i < Shader.MAX_SORT_ID + 10; i++) {
+            int id = new FailingShader(shaderMgr).getSortId();
+            assertTrue("sort ID out of range: " + id, id >= 1 && id <= Shader.MAX_SORT_ID);
+            // consecutive IDs, which wrap around after MAX_SORT_ID
+            assertEquals(last % Shader.MAX_SORT_ID + 1, id);
+            last = id;
+        }
+
+        // counter overflow
+        assertEquals(Shader.MAX_SORT_ID, Shader.toSortId(Shader.MAX_SORT_ID - 1));
+        assertEquals(1, Shader.toSortId(Shader.MAX_SORT_ID));
+        int id = Shader.toSortId(Integer.MIN_VALUE);
+        assertTrue(id >= 1 && id <= Shader.MAX_SORT_ID);
+    }
+
+    /**
+     * Shader, which fails to load, e.g. because of a compile error.
+     */
+    private static class FailingShader extends Shader {
+        int mLoadAttempts = 0;
+        int mBindCount = 0;
+
+        FailingShader(ShaderManager shaderMgr) {
+            super(shaderMgr);
+        }
+
+        @Override
+        public void loadShader(ShaderManager shaderMgr) {
+            mLoadAttempts++;
+        }
+
+        @Override
+        protected void onBind(LightGlContext glContext) {
+            mBindCount++;
+        }
+
+        @Override
+        public void onMatrixUpdate(GfxState state) {
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package de.fabmax.lightgl;
+
+import android.opengl.GLES20;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Memory budget and LRU eviction tests for {@link TextureManager}. GL calls have no effect in unit
+ * tests, only the book keeping of the texture manager is checked. Textures are created from
+ * buffers and marked as asset textures by hand, evicted textures are never bound because
+ * reloading requires the asset manager.
+ *
+ * @author fabmax
+ */
+public class TextureManagerTest {
+
+    private static final int PLACEHOLDER_SIZE = 4;
+
+    private TextureManager mTexManager;
+    private TextureProperties mLinear;
+
+    @Before
+    public void setUp() {
+        mTexManager = new TextureManager(null, new FrameProfiler(4));
+        mLinear = new TextureProperties();
+        mLinear.minFilter = TextureProperties.MinFilterMethod.LINEAR;
+    }
+
+    @Test
+    public void residentBytesAccounting() {
+        assertEquals(0, mTexManager.getResidentBytes());
+        Texture rgba = createTexture(64, 64, true, mLinear);
+        assertEquals(64 * 64 * 4, rgba.getSizeBytes());
+        Texture rgb = createTexture(32, 32, false, mLinear);
+        assertEquals(32 * 32 * 3, rgb.getSizeBytes());
+        // mipmaps add a third of the base level
+        Texture mipmapped = createTexture(64, 64, true, new TextureProperties());
+        assertEquals(64 * 64 * 4 * 4 / 3, mipmapped.getSizeBytes());
+        assertEquals(rgba.getSizeBytes() + rgb.getSizeBytes() + mipmapped.getSizeBytes(),
+                mTexManager.getResidentBytes());
+
+        mTexManager.removeTexture(rgb);
+        assertEquals(rgba.getSizeBytes() + mipmapped.getSizeBytes(), mTexManager.getResidentBytes());
+        mTexManager.removeTexture(rgba);
+        mTexManager.removeTexture(mipmapped);
+        assertEquals(0, mTexManager.getResidentBytes());
+
+        // removing a texture twice must not change the resident size
+        mTexManager.removeTexture(rgb);
+        assertEquals(0, mTexManager.getResidentBytes());
+    }
+
+    @Test
+    public void leastRecentlyUsedTexturesAreEvictedFirst() {
+        Texture[] textures = new Texture[4];
+        for (int i = 0; i < textures.length; i++) {
+            textures[i] = createAssetTexture("tex" + i, 64, 64);
+        }
+        int size = 64 * 64 * 4;
+
+        // use order: 2, 0, 3, 1
+        int[] useOrder = { 2, 0, 3, 1 };
+        for (int i : useOrder) {
+            mTexManager.beginFrame();
+            mTexManager.bindTexture(textures[i]);
+        }
+        // textures used in the last two frames can't be evicted
+        mTexManager.beginFrame();
+        mTexManager.beginFrame();
+
+        // budget leaves room for two textures
+        mTexManager.setMemoryBudget(2 * size + 2 * PLACEHOLDER_SIZE);
+        mTexManager.beginFrame();
+        assertEquals(2, mTexManager.getEvictionCount());
+        assertTrue(textures[2].isEvicted());
+        assertTrue(textures[0].isEvicted());
+        assertFalse(textures[3].isEvicted());
+        assertFalse(textures[1].isEvicted());
+        assertEquals(PLACEHOLDER_SIZE, textures[2].getSizeBytes());
+        assertEquals(2 * size + 2 * PLACEHOLDER_SIZE, mTexManager.getResidentBytes());
+
+        // budget is met, nothing else is evicted
+        mTexManager.beginFrame();
+        assertEquals(2, mTexManager.getEvictionCount());
+    }
+
+    @Test
+    public void recentlyUsedTexturesAreNotEvicted() {
+        Texture a = createAssetTexture("a", 32, 32);
+        Texture b = createAssetTexture("b", 32, 32);
+        mTexManager.setMemoryBudget(1);
+
+        mTexManager.beginFrame();
+        mTexManager.bindTexture(a);
+        mTexManager.bindTexture(b);
+        mTexManager.beginFrame();
+        assertEquals(0, mTexManager.getEvictionCount());
+
+        mTexManager.bindTexture(b);
+        mTexManager.beginFrame();
+        // a was last used two frames ago, b in the last frame
+        assertTrue(a.isEvicted());
+        assertFalse(b.isEvicted());
+
+        mTexManager.beginFrame();
+        assertTrue(b.isEvicted());
+        assertEquals(2 * PLACEHOLDER_SIZE, mTexManager.getResidentBytes());
+    }
+
+    @Test
+    public void texturesWithoutAssetAreNotEvicted() {
+        Texture buffer = createTexture(64, 64, true, mLinear);
+        Texture asset = createAssetTexture("asset", 64, 64);
+        mTexManager.setMemoryBudget(1);
+        for (int i = 0; i < 3; i++) {
+            mTexManager.beginFrame();
+        }
+        assertFalse(buffer.isEvicted());
+        assertTrue(asset.isEvicted());
+        assertEquals(1, mTexManager.getEvictionCount());
+        // the budget is a soft limit
+        assertEquals(64 * 64 * 4 + PLACEHOLDER_SIZE, mTexManager.getResidentBytes());
+    }
+
+    @Test
+    public void zeroBudgetDisablesEviction() {
+        Texture tex = createAssetTexture("tex", 64, 64);
+        for (int i = 0; i < 3; i++) {
+            mTexManager.beginFrame();
+        }
+        assertFalse(tex.isEvicted());
+        assertEquals(0, mTexManager.getEvictionCount());
+    }
+
+    @Test
+    public void cacheHitsAreCounted() {
+        Texture tex = createAssetTexture("tex", 16, 16);
+        mTexManager.beginFrame();
+        mTexManager.bindTexture(tex);
+        mTexManager.bindTexture(tex, GLES20.GL_TEXTURE1);
+        assertEquals(2, mTexManager.getCacheHits());
+        assertEquals(0, mTexManager.getCacheMisses());
+        assertEquals(1, tex.getLastUsedFrame());
+
+        mTexManager.resetStatistics();
+        assertEquals(0, mTexManager.getCacheHits());
+    }
+
+    @Test
+    public void rgbUploadsUseByteAlignment() {
+        final ArrayList<Integer> alignments = new ArrayList<>();
+        TextureManager texManager = new TextureManager(null, new FrameProfiler(4)) {
+            @Override
+            void setUnpackAlignment(int alignment) {
+                alignments.add(alignment);
+            }
+        };
+        // 30 * 3 bytes per row are not a multiple of 4
+        texManager.createTextureFromBuffer(ByteBuffer.allocateDirect(30 * 7 * 3), 30, 7, false, mLinear);
+        assertEquals(Arrays.asList(1, 4), alignments);
+
+        // RGBA rows are always 4-byte aligned
+        alignments.clear();
+        texManager.createTextureFromBuffer(ByteBuffer.allocateDirect(30 * 7 * 4), 30, 7, true, mLinear);
+        assertTrue(alignments.isEmpty());
+    }
+
+    private Texture createAssetTexture(String assetPath, int width, int height) {
+        Texture tex = createTexture(width, height, true, mLinear);
+        tex.setSource(assetPath, mLinear);
+        return tex;
+    }
+
+    private Texture createTexture(int width, int height, boolean alpha, TextureProperties props) {
+        ByteBuffer data = ByteBuffer.allocateDirect(width * height * (alpha ? 4 : 3));
+        return mTexManager.createTextureFromBuffer(data, width, height, alpha, props);
+    }
+}
@@ -0,0 +1,132 @@
+package de.fabmax.lightgl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link UniformCache}: redundant uploads must be skipped and every issued upload must
+ * be counted as {@link FrameProfiler#COUNTER_UNIFORM_UPLOADS}.
+ *
+ * @author fabmax
+ */
+public class UniformCacheTest {
+
+    private final FrameProfiler mProfiler = new FrameProfiler(4);
+    private final UniformCache mCache = new UniformCache(mProfiler);
+
+    @Before
+    public void setUp() {
+        mProfiler.beginFrame();
+    }
+
+    @Test
+    public void unchangedValuesAreNotUploaded() {
+        mCache.setUniform1f(1, 0.5f);
+        mCache.setUniform1f(1, 0.5f);
+        mCache.setUniform1i(2, 3);
+        mCache.setUniform1i(2, 3);
+        mCache.setUniform3f(3, 1, 2, 3);
+        mCache.setUniform3f(3, 1, 2, 3);
+        mCache.setUniform4f(4, 1, 2, 3, 4);
+        mCache.setUniform4f(4, 1, 2, 3, 4);
+        assertEquals(4, uploads());
+
+        mCache.setUniform1f(1, 0.25f);
+        mCache.setUniform3f(3, 1, 2, 4);
+        mCache.setUniform4f(4, 1, 2, 3, 5);
+        assertEquals(7, uploads());
+    }
+
+    @Test
+    public void unusedUniformsAreNotUploaded() {
+        mCache.setUniform1f(-1, 1);
+        mCache.setUniform4f(-1, 1, 2, 3, 4);
+        mCache.setUniformMatrix4fv(-1, identity(), 0);
+        mCache.setUniformMatrix4fv(-1, identity(), 0, 5);
+        mCache.setUniform4fv(-1, 1, new float[4], 0);
+        assertEquals(0, uploads());
+    }
+
+    @Test
+    public void matricesAreComparedByValue() {
+        float[] m = identity();
+        mCache.setUniformMatrix4fv(0, m, 0);
+        mCache.setUniformMatrix4fv(0, m, 0);
+        assertEquals(1, uploads());
+        m[12] = 1;
+        mCache.setUniformMatrix4fv(0, m, 0);
+        assertEquals(2, uploads());
+
+        // same values at an offset
+        float[] shifted = new float[32];
+        System.arraycopy(m, 0, shifted, 16, 16);
+        mCache.setUniformMatrix4fv(0, shifted, 16);
+        assertEquals(2, uploads());
+    }
+
+    @Test
+    public void matricesAreTrackedByVersion() {
+        float[] m = identity();
+        mCache.setUniformMatrix4fv(0, m, 0, 1);
+        mCache.setUniformMatrix4fv(0, m, 0, 1);
+        assertEquals(1, uploads());
+        mCache.setUniformMatrix4fv(0, m, 0, 2);
+        assertEquals(2, uploads());
+
+        // a value upload invalidates the version and vice versa
+        mCache.setUniformMatrix4fv(0, m, 0);
+        mCache.setUniformMatrix4fv(0, m, 0, 2);
+        assertEquals(4, uploads());
+    }
+
+    @Test
+    public void arraysAreAlwaysUploaded() {
+        float[] values = new float[32];
+        mCache.setUniform4fv(0, 8, values, 0);
+        mCache.setUniform4fv(0, 8, values, 0);
+        mCache.setUniformMatrix4fv(1, 2, values, 0);
+        mCache.setUniformMatrix4fv(1, 2, values, 0);
+        assertEquals(4, uploads());
+    }
+
+    @Test
+    public void largeLocationsAreNotCached() {
+        mCache.setUniform1f(1000, 1);
+        mCache.setUniform1f(1000, 1);
+        assertEquals(2, uploads());
+        // the cache still works for small locations
+        mCache.setUniform1f(0, 1);
+        mCache.setUniform1f(0, 1);
+        assertEquals(3, uploads());
+    }
+
+    @Test
+    public void uploadsArePerFrame() {
+        mCache.setUniform1f(0, 1);
+        mProfiler.endFrame();
+        assertEquals(1, mProfiler.getCount(FrameProfiler.COUNTER_UNIFORM_UPLOADS, 0));
+
+        // values stay cached over frames, an unchanged frame issues no uploads
+        mProfiler.beginFrame();
+        mCache.setUniform1f(0, 1);
+        mProfiler.endFrame();
+        assertEquals(0, mProfiler.getCount(FrameProfiler.COUNTER_UNIFORM_UPLOADS, 0));
+    }
+
+    private int uploads() {
+        // counters of the current frame are only visible after the frame ended
+        mProfiler.endFrame();
+        int count = mProfiler.getCount(FrameProfiler.COUNTER_UNIFORM_UPLOADS, 0);
+        mProfiler.beginFrame();
+        mProfiler.count(FrameProfiler.COUNTER_UNIFORM_UPLOADS, count);
+        return count;
+    }
+
+    private static float[] identity() {
+        float[] m = new float[16];
+        m[0] = m[5] = m[10] = m[15] = 1;
+        return m;
+    }
+}
@@ -0,0 +1,136 @@
+package de.fabmax.lightgl.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Overlap and density tests for {@link AtlasPacker}.
+ *
+ * @author fabmax
+ */
+public class AtlasPackerTest {
+
+    @Test
+    public void randomRectsDoNotOverlap() {
+        Random rnd = new Random(1);
+        AtlasPacker packer = new AtlasPacker(512, 512);
+        boolean[] used = new boolean[512 * 512];
+        int[] pos = new int[2];
+        long area = 0;
+        int packed = 0;
+        for (int i = 0; i < 2000; i++) {
+            int w = 1 + rnd.nextInt(40);
+            int h = 1 + rnd.nextInt(40);
+            if (!packer.insert(w, h, pos, 0)) {
+                continue;
+            }
+            packed++;
+            area += w * h;
+            assertTrue("inside x", pos[0] >= 0 && pos[0] + w <= 512);
+            assertTrue("inside y", pos[1] >= 0 && pos[1] + h <= 512);
+            for (int y = pos[1]; y < pos[1] + h; y++) {
+                for (int x = pos[0]; x < pos[0] + w; x++) {
+                    assertFalse("overlap at " + x + ", " + y, used[y * 512 + x]);
+                    used[y * 512 + x] = true;
+                }
+            }
+        }
+        assertTrue(packed > 0);
+        assertEquals((float) area / (512 * 512), packer.getOccupancy(), 1e-6f);
+    }
+
+    @Test
+    public void randomRectsArePackedDensely() {
+        Random rnd = new Random(2);
+        AtlasPacker packer = new AtlasPacker(1024, 1024);
+        int[] pos = new int[2];
+        int failed = 0;
+        // fill until a couple of rectangles in a row don't fit anymore
+        while (failed < 20) {
+            if (packer.insert(8 + rnd.nextInt(57), 8 + rnd.nextInt(57), pos, 0)) {
+                failed = 0;
+            } else {
+                failed++;
+            }
+        }
+        assertTrue("occupancy: " + packer.getOccupancy(), packer.getOccupancy() > 0.8f);
+    }
+
+    @Test
+    public void equalSquaresFillPageCompletely() {
+        AtlasPacker packer = new AtlasPacker(256, 256);
+        int[] pos = new int[2 * 16];
+        for (int i = 0; i < 16; i++) {
+            assertTrue(packer.insert(64, 64, pos, i * 2));
+        }
+        assertEquals(1, packer.getOccupancy(), 0);
+        assertFalse(packer.insert(1, 1, pos, 0));
+
+        // every grid cell is used exactly once
+        boolean[] cells = new boolean[16];
+        for (int i = 0; i < 16; i++) {
+            assertEquals(0, pos[i * 2] % 64);
+            assertEquals(0, pos[i * 2 + 1] % 64);
+            int cell = pos[i * 2 + 1] / 64 * 4 + pos[i * 2] / 64;
+            assertFalse(cells[cell]);
+            cells[cell] = true;
+        }
+    }
+
+    @Test
+    public void tooLargeRectIsRejected() {
+        AtlasPacker packer = new AtlasPacker(128, 64);
+        int[] pos = { -1, -1 };
+        assertFalse(packer.insert(129, 1, pos, 0));
+        assertFalse(packer.insert(1, 65, pos, 0));
+        // result is untouched if the rectangle doesn't fit
+        assertEquals(-1, pos[0]);
+        assertEquals(-1, pos[1]);
+        assertTrue(packer.insert(128, 64, pos, 0));
+        assertEquals(0, pos[0]);
+        assertEquals(0, pos[1]);
+    }
+
+    @Test
+    public void clearResetsPacker() {
+        AtlasPacker packer = new AtlasPacker(64, 64);
+        int[] pos = new int[2];
+        assertTrue(packer.insert(64, 64, pos, 0));
+        assertFalse(packer.insert(1, 1, pos, 0));
+
+        packer.clear();
+        assertEquals(0, packer.getOccupancy(), 0);
+        assertTrue(packer.insert(32, 64, pos, 0));
+        assertEquals(0, pos[0]);
+        assertEquals(0, pos[1]);
+        assertTrue(packer.insert(32, 64, pos, 0));
+        assertEquals(32, pos[0]);
+        assertEquals(0, pos[1]);
+    }
+
+    @Test
+    public void invalidSizes() {
+        AtlasPacker packer = new AtlasPacker(64, 64);
+        int[][] sizes = { { 0, 1 }, { 1, 0 }, { -1, 5 } };
+        for (int[] size : sizes) {
+            try {
+                packer.insert(size[0], size[1], new int[2], 0);
+                fail("invalid size " + size[0] + "x" + size[1]);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        try {
+            new AtlasPacker(0, 64);
+            fail("invalid atlas size");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package de.fabmax.lightgl.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ChunkGuard}, which makes failed concurrent batch operations wait for their
+ * running chunks.
+ *
+ * @author fabmax
+ */
+public class ChunkGuardTest {
+
+    @Test
+    public void abortSkipsChunksThatDidNotStart() {
+        ChunkGuard guard = new ChunkGuard();
+        assertTrue(guard.enter());
+        guard.exit();
+        guard.abort();
+        assertFalse(guard.enter());
+    }
+
+    @Test
+    public void abortWaitsForRunningChunks() throws InterruptedException {
+        final ChunkGuard guard = new ChunkGuard();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean finished = new AtomicBoolean(false);
+
+        Thread chunk = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (guard.enter()) {
+                    entered.countDown();
+                    try {
+                        release.await();
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        // exit
+                    }
+                    finished.set(true);
+                    guard.exit();
+                }
+            }
+        });
+        chunk.start();
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+        // an interrupt must neither stop the waiting nor get lost
+        Thread.currentThread().interrupt();
+        release.countDown();
+        guard.abort();
+        assertTrue(finished.get());
+        assertTrue(Thread.interrupted());
+        chunk.join();
+    }
+}
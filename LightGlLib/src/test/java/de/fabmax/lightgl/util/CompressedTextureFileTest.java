@@ -0,0 +1,247 @@
+package de.fabmax.lightgl.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * KTX and PKM header parsing tests for {@link CompressedTextureFile}. Test files are built in
+ * memory, level data is filled with the level index to check the level offsets.
+ *
+ * @author fabmax
+ */
+public class CompressedTextureFileTest {
+
+    private static final byte[] KTX_IDENTIFIER = {
+            (byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'
+    };
+
+    @Test
+    public void ktxLittleEndian() throws IOException {
+        checkEtc1MipChain(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    public void ktxBigEndian() throws IOException {
+        checkEtc1MipChain(ByteOrder.BIG_ENDIAN);
+    }
+
+    private void checkEtc1MipChain(ByteOrder order) throws IOException {
+        // 16x8 ETC1: 4x2, 2x1 and 1x1 blocks of 8 bytes
+        int[] sizes = { 64, 16, 8, 8, 8 };
+        CompressedTextureFile file = CompressedTextureFile.fromBuffer(
+                ktx(order, 0, CompressedTextureFile.GL_ETC1_RGB8, 16, 8, 1, 0, 1, 5, 0, sizes));
+        assertEquals(CompressedTextureFile.GL_ETC1_RGB8, file.getFormat());
+        assertTrue(file.isEtc1());
+        assertEquals(16, file.getWidth());
+        assertEquals(8, file.getHeight());
+        assertEquals(5, file.getLevelCount());
+        int[] widths = { 16, 8, 4, 2, 1 };
+        int[] heights = { 8, 4, 2, 1, 1 };
+        for (int i = 0; i < sizes.length; i++) {
+            assertEquals(widths[i], file.getLevelWidth(i));
+            assertEquals(heights[i], file.getLevelHeight(i));
+            assertLevel(file, i, sizes[i]);
+        }
+    }
+
+    @Test
+    public void ktxKeyValueDataAndMipPadding() throws IOException {
+        // odd level sizes are padded to 4 bytes
+        int[] sizes = { 21, 7, 1 };
+        CompressedTextureFile file = CompressedTextureFile.fromBuffer(
+                ktx(ByteOrder.LITTLE_ENDIAN, 0, CompressedTextureFile.GL_COMPRESSED_RGBA_ASTC_4x4,
+                        4, 4, 0, 0, 1, 3, 36, sizes));
+        assertEquals(CompressedTextureFile.GL_COMPRESSED_RGBA_ASTC_4x4, file.getFormat());
+        assertFalse(file.isEtc1());
+        assertEquals(3, file.getLevelCount());
+        for (int i = 0; i < sizes.length; i++) {
+            assertLevel(file, i, sizes[i]);
+        }
+    }
+
+    @Test
+    public void ktxWithoutMipLevelCount() throws IOException {
+        // numberOfMipmapLevels = 0 means a single level, mipmaps are generated at load time
+        CompressedTextureFile file = CompressedTextureFile.fromBuffer(
+                ktx(ByteOrder.LITTLE_ENDIAN, 0, CompressedTextureFile.GL_COMPRESSED_RGB8_ETC2,
+                        8, 8, 0, 0, 1, 0, 0, new int[] { 32 }));
+        assertEquals(1, file.getLevelCount());
+        assertLevel(file, 0, 32);
+    }
+
+    @Test
+    public void ktxAtBufferOffset() throws IOException {
+        ByteBuffer ktx = ktx(ByteOrder.LITTLE_ENDIAN, 0, CompressedTextureFile.GL_ETC1_RGB8,
+                4, 4, 0, 0, 1, 1, 0, new int[] { 8 });
+        ByteBuffer shifted = ByteBuffer.allocate(ktx.capacity() + 10);
+        shifted.position(10);
+        shifted.put(ktx);
+        shifted.position(10);
+        CompressedTextureFile file = CompressedTextureFile.fromBuffer(shifted);
+        assertEquals(4, file.getWidth());
+        assertLevel(file, 0, 8);
+    }
+
+    @Test
+    public void ktxRejectsTruncatedFiles() {
+        ByteBuffer ktx = ktx(ByteOrder.LITTLE_ENDIAN, 0, CompressedTextureFile.GL_ETC1_RGB8,
+                16, 8, 0, 0, 1, 3, 8, new int[] { 64, 16, 8 });
+        int complete = ktx.capacity();
+        // cut within the header, key value data, an imageSize field and level data
+        int[] cuts = { 20, 63, 64 + 4, 64 + 8 + 2, 64 + 8 + 4 + 63, complete - 1 };
+        for (int cut : cuts) {
+            assertRejected("cut at " + cut, truncate(ktx, cut));
+        }
+    }
+
+    @Test
+    public void ktxRejectsUnsupportedTextures() {
+        ByteOrder le = ByteOrder.LITTLE_ENDIAN;
+        int etc1 = CompressedTextureFile.GL_ETC1_RGB8;
+        int[] sizes = { 8 };
+        // uncompressed: glType = GL_UNSIGNED_BYTE
+        assertRejected("uncompressed", ktx(le, 0x1401, etc1, 4, 4, 0, 0, 1, 1, 0, sizes));
+        assertRejected("3D texture", ktx(le, 0, etc1, 4, 4, 4, 0, 1, 1, 0, sizes));
+        assertRejected("array texture", ktx(le, 0, etc1, 4, 4, 0, 2, 1, 1, 0, sizes));
+        assertRejected("cube map", ktx(le, 0, etc1, 4, 4, 0, 0, 6, 1, 0, sizes));
+        assertRejected("zero width", ktx(le, 0, etc1, 0, 4, 0, 0, 1, 1, 0, sizes));
+
+        ByteBuffer corrupt = ktx(le, 0, etc1, 4, 4, 0, 0, 1, 1, 0, sizes);
+        corrupt.putInt(12, 0x01020305);
+        assertRejected("endianness", corrupt);
+        ByteBuffer wrongId = ktx(le, 0, etc1, 4, 4, 0, 0, 1, 1, 0, sizes);
+        wrongId.put(5, (byte) '2');
+        assertRejected("identifier", wrongId);
+    }
+
+    @Test
+    public void pkmEtc1() throws IOException {
+        // 13x6 image is stored in 16x8 pixels: 4x2 blocks
+        CompressedTextureFile file = CompressedTextureFile.fromBuffer(pkm('1', 0, 16, 8, 13, 6, 64));
+        assertEquals(CompressedTextureFile.GL_ETC1_RGB8, file.getFormat());
+        assertEquals(13, file.getWidth());
+        assertEquals(6, file.getHeight());
+        assertEquals(1, file.getLevelCount());
+        assertLevel(file, 0, 64);
+    }
+
+    @Test
+    public void pkmEtc2Formats() throws IOException {
+        CompressedTextureFile rgb = CompressedTextureFile.fromBuffer(pkm('2', 1, 8, 8, 8, 8, 32));
+        assertEquals(CompressedTextureFile.GL_COMPRESSED_RGB8_ETC2, rgb.getFormat());
+        assertLevel(rgb, 0, 32);
+
+        // RGBA blocks have 16 bytes
+        CompressedTextureFile rgba = CompressedTextureFile.fromBuffer(pkm('2', 3, 8, 8, 8, 8, 64));
+        assertEquals(CompressedTextureFile.GL_COMPRESSED_RGBA8_ETC2_EAC, rgba.getFormat());
+        assertLevel(rgba, 0, 64);
+
+        CompressedTextureFile rgba1 = CompressedTextureFile.fromBuffer(pkm('2', 4, 8, 8, 8, 8, 32));
+        assertEquals(CompressedTextureFile.GL_COMPRESSED_RGB8_PUNCHTHROUGH_ALPHA1_ETC2,
+                rgba1.getFormat());
+    }
+
+    @Test
+    public void pkmRejectsInvalidFiles() {
+        ByteBuffer pkm = pkm('1', 0, 16, 8, 16, 8, 64);
+        assertRejected("header", truncate(pkm, 15));
+        assertRejected("data", truncate(pkm, 16 + 63));
+        assertRejected("format", pkm('2', 2, 8, 8, 8, 8, 32));
+        assertRejected("zero size", pkm('1', 0, 8, 8, 0, 8, 32));
+        assertRejected("no texture", ByteBuffer.allocate(100));
+    }
+
+    private static void assertLevel(CompressedTextureFile file, int level, int size) {
+        ByteBuffer data = file.getLevelData(level);
+        assertEquals(0, data.position());
+        assertEquals("size of level " + level, size, data.remaining());
+        for (int i = 0; i < size; i++) {
+            assertEquals("data of level " + level, level + 1, data.get(i));
+        }
+    }
+
+    private static void assertRejected(String msg, ByteBuffer data) {
+        try {
+            CompressedTextureFile.fromBuffer(data);
+            fail("Accepted invalid file: " + msg);
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static ByteBuffer truncate(ByteBuffer data, int length) {
+        ByteBuffer dup = data.duplicate();
+        dup.position(0);
+        dup.limit(length);
+        return dup.slice();
+    }
+
+    /**
+     * Builds a KTX file. Level data is filled with level index + 1 and padded to 4 bytes.
+     */
+    private static ByteBuffer ktx(ByteOrder order, int glType, int format, int width, int height,
+                                  int depth, int arrayElements, int faces, int levels,
+                                  int keyValueBytes, int[] levelSizes) {
+        int size = 64 + keyValueBytes;
+        for (int levelSize : levelSizes) {
+            size += 4 + ((levelSize + 3) & ~3);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size).order(order);
+        buf.put(KTX_IDENTIFIER);
+        buf.putInt(0x04030201);
+        buf.putInt(glType);
+        buf.putInt(1);                              // glTypeSize
+        buf.putInt(0);                              // glFormat
+        buf.putInt(format);                         // glInternalFormat
+        buf.putInt(0);                              // glBaseInternalFormat
+        buf.putInt(width);
+        buf.putInt(height);
+        buf.putInt(depth);
+        buf.putInt(arrayElements);
+        buf.putInt(faces);
+        buf.putInt(levels);
+        buf.putInt(keyValueBytes);
+        for (int i = 0; i < keyValueBytes; i++) {
+            buf.put((byte) 0x55);
+        }
+        for (int i = 0; i < levelSizes.length; i++) {
+            buf.putInt(levelSizes[i]);
+            for (int j = 0; j < levelSizes[i]; j++) {
+                buf.put((byte) (i + 1));
+            }
+            while ((buf.position() & 3) != 0) {
+                buf.put((byte) 0);
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Builds a PKM file, the header is always big endian.
+     */
+    private static ByteBuffer pkm(char version, int format, int extWidth, int extHeight,
+                                  int width, int height, int dataSize) {
+        ByteBuffer buf = ByteBuffer.allocate(16 + dataSize);
+        buf.put((byte) 'P').put((byte) 'K').put((byte) 'M').put((byte) ' ');
+        buf.put((byte) version).put((byte) '0');
+        buf.putShort((short) format);
+        buf.putShort((short) extWidth);
+        buf.putShort((short) extHeight);
+        buf.putShort((short) width);
+        buf.putShort((short) height);
+        for (int i = 0; i < dataSize; i++) {
+            buf.put((byte) 1);
+        }
+        buf.flip();
+        return buf;
+    }
+}
@@ -0,0 +1,152 @@
+package de.fabmax.lightgl.util;
+
+import org.junit.Test;
+
+import de.fabmax.lightgl.scene.Group;
+import de.fabmax.lightgl.scene.Mesh;
+import de.fabmax.lightgl.scene.Node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Mesh splitting tests for {@link MeshFactory} on large generated grids: split parts must keep
+ * every triangle, must not exceed the vertex limit and their remapped indices must address the
+ * same vertex attributes as the original indices.
+ *
+ * @author fabmax
+ */
+public class MeshFactoryTest {
+
+    @Test
+    public void largeGridIsSplitForShortIndices() {
+        // 301 x 301 = 90601 vertices, too many for 16-bit indices
+        MeshData grid = createGrid(300);
+        MeshData[] parts = MeshFactory.splitMeshData(grid, MeshFactory.MAX_SHORT_INDEX_VERTICES);
+        assertEquals(2, parts.length);
+        assertPartsMatch(grid, parts, MeshFactory.MAX_SHORT_INDEX_VERTICES);
+    }
+
+    @Test
+    public void optimizedGridIsSplitCoherently() {
+        MeshData grid = createGrid(128);
+        MeshOptimizer.optimize(grid);
+        MeshData[] parts = MeshFactory.splitMeshData(grid, 1000);
+        assertPartsMatch(grid, parts, 1000);
+
+        // parts are spatially coherent, only vertices on part borders are duplicated
+        int splitVerts = 0;
+        for (MeshData part : parts) {
+            splitVerts += part.getVertexCount();
+        }
+        assertTrue("too many duplicated vertices: " + splitVerts,
+                splitVerts < grid.getVertexCount() * 1.25f);
+    }
+
+    @Test
+    public void minimalPartSize() {
+        MeshData grid = createGrid(8);
+        MeshData[] parts = MeshFactory.splitMeshData(grid, 3);
+        // every triangle ends up in its own part
+        assertEquals(grid.indices.length / 3, parts.length);
+        assertPartsMatch(grid, parts, 3);
+    }
+
+    @Test
+    public void smallMeshIsNotSplit() {
+        MeshData grid = createGrid(16);
+        MeshData[] parts = MeshFactory.splitMeshData(grid, grid.getVertexCount());
+        assertEquals(1, parts.length);
+        assertSame(grid, parts[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPartSize() {
+        MeshFactory.splitMeshData(createGrid(2), 2);
+    }
+
+    @Test
+    public void largeGridNodeIsGroupOfMeshes() {
+        Node node = MeshFactory.createStaticMeshNode(createGrid(300), null);
+        assertTrue(node instanceof Group);
+        Group group = (Group) node;
+        assertEquals(2, group.getChildren().size());
+        for (Node child : group.getChildren()) {
+            assertTrue(child instanceof Mesh);
+        }
+
+        assertTrue(MeshFactory.createStaticMeshNode(createGrid(100), null) instanceof Mesh);
+    }
+
+    /**
+     * Checks that the parts contain exactly the triangles of the source mesh in the same order
+     * with equal vertex attributes and that no part exceeds the vertex limit.
+     */
+    private static void assertPartsMatch(MeshData src, MeshData[] parts, int maxVertices) {
+        int srcTri = 0;
+        for (MeshData part : parts) {
+            int vertCount = part.getVertexCount();
+            assertTrue("too many vertices: " + vertCount, vertCount <= maxVertices);
+            assertEquals(0, part.indices.length % 3);
+            boolean[] used = new boolean[vertCount];
+            for (int i = 0; i < part.indices.length; i++) {
+                int v = part.indices[i];
+                int s = src.indices[srcTri * 3 + i];
+                assertTrue("index out of range: " + v, v >= 0 && v < vertCount);
+                used[v] = true;
+                assertAttributeEquals(src.positions, s, part.positions, v, 3);
+                assertAttributeEquals(src.normals, s, part.normals, v, 3);
+                assertAttributeEquals(src.texCoords, s, part.texCoords, v, 2);
+            }
+            // parts don't contain unreferenced vertices
+            for (boolean u : used) {
+                assertTrue(u);
+            }
+            srcTri += part.indices.length / 3;
+        }
+        assertEquals("triangles lost", src.indices.length / 3, srcTri);
+    }
+
+    private static void assertAttributeEquals(float[] src, int srcIdx, float[] dst, int dstIdx,
+                                              int elems) {
+        for (int i = 0; i < elems; i++) {
+            assertEquals(src[srcIdx * elems + i], dst[dstIdx * elems + i], 0);
+        }
+    }
+
+    /**
+     * Creates a flat grid with size x size quads and shared vertices.
+     */
+    private static MeshData createGrid(int size) {
+        int n = size + 1;
+        MeshData data = new MeshData();
+        data.positions = new float[n * n * 3];
+        data.normals = new float[n * n * 3];
+        data.texCoords = new float[n * n * 2];
+        for (int y = 0; y < n; y++) {
+            for (int x = 0; x < n; x++) {
+                int v = y * n + x;
+                data.positions[v * 3] = x;
+                data.positions[v * 3 + 1] = y;
+                data.normals[v * 3 + 2] = 1;
+                data.texCoords[v * 2] = (float) x / size;
+                data.texCoords[v * 2 + 1] = (float) y / size;
+            }
+        }
+        data.indices = new int[size * size * 6];
+        int i = 0;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int v = y * n + x;
+                data.indices[i++] = v;
+                data.indices[i++] = v + 1;
+                data.indices[i++] = v + n + 1;
+                data.indices[i++] = v;
+                data.indices[i++] = v + n + 1;
+                data.indices[i++] = v + n;
+            }
+        }
+        return data;
+    }
+}
@@ -0,0 +1,334 @@
+package de.fabmax.lightgl.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+
+import de.fabmax.lightgl.LightGlException;
+import de.fabmax.lightgl.MicroBenchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Round trip and corrupt file tests for {@link MeshFile} and {@link MeshCache}, and a load time
+ * benchmark of cached mesh files against OBJ parsing.
+ *
+ * @author fabmax
+ */
+public class MeshFileTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    @Rule
+    public final TemporaryFolder mTmp = new TemporaryFolder();
+
+    @Test
+    public void roundTripShortIndices() throws IOException {
+        MeshData mesh = createGrid(20, true);
+        File file = mTmp.newFile("grid.mesh");
+        MeshFile.create(mesh, "grid", 1234L).write(file);
+
+        MeshFile loaded = MeshFile.map(file);
+        assertEquals("grid", loaded.getSourceKey());
+        assertEquals(1234L, loaded.getSourceStamp());
+        assertTrue(loaded.getIndices() instanceof ShortBuffer);
+        assertMeshEquals(mesh, loaded);
+    }
+
+    @Test
+    public void roundTripIntIndices() throws IOException {
+        // 301 x 301 vertices need 32-bit indices
+        MeshData mesh = createGrid(300, false);
+        File file = mTmp.newFile("large.mesh");
+        MeshFile.create(mesh, "large \u00e4\u00f6\u00fc", -1L).write(file);
+
+        MeshFile loaded = MeshFile.map(file);
+        assertEquals("large \u00e4\u00f6\u00fc", loaded.getSourceKey());
+        assertEquals(-1L, loaded.getSourceStamp());
+        assertTrue(loaded.getIndices() instanceof IntBuffer);
+        assertMeshEquals(mesh, loaded);
+    }
+
+    @Test
+    public void truncatedFilesAreRejected() throws IOException {
+        byte[] data = toBytes(MeshFile.create(createGrid(4, true), "key", 0));
+        // cut inside the fixed header, the key, the vertex data and the index data
+        int[] cuts = { 0, 4, 31, 34, 40, data.length / 2, data.length - 1 };
+        for (int cut : cuts) {
+            expectInvalid(Arrays.copyOf(data, cut), "cut at " + cut);
+        }
+    }
+
+    @Test
+    public void corruptHeadersAreRejected() throws IOException {
+        byte[] data = toBytes(MeshFile.create(createGrid(4, true), "key", 0));
+        // magic, version, vertex count, index count, key length
+        expectInvalid(withInt(data, 0, 0x12345678), "magic");
+        expectInvalid(withInt(data, 4, 2), "version");
+        expectInvalid(withInt(data, 12, -1), "negative vertex count");
+        expectInvalid(withInt(data, 16, -1), "negative index count");
+        expectInvalid(withInt(data, 28, -1), "negative key length");
+        expectInvalid(withInt(data, 28, Integer.MAX_VALUE), "key length");
+        expectInvalid(withInt(data, 16, Integer.MAX_VALUE), "index count");
+
+        // with normals and texture coordinates the vertex stride is 32 bytes: 2^27 vertices need
+        // 2^32 bytes, which wraps to 0 in int arithmetic
+        byte[] noColors = toBytes(MeshFile.create(createGrid(4, false), "key", 0));
+        expectInvalid(withInt(noColors, 12, 1 << 27), "wrapping vertex count");
+    }
+
+    @Test
+    public void cacheStoresAndReloadsModels() throws Exception {
+        File dir = mTmp.newFolder("cache");
+        File obj = writeObj(mTmp.newFile("grid.obj"), 10);
+
+        MeshCache cache = new MeshCache(dir);
+        MeshFile first = cache.prepareObj(obj);
+        assertEquals(1, countMeshFiles(dir));
+
+        MeshFile second = new MeshCache(dir).prepareObj(obj);
+        assertEquals(first.getSourceKey(), second.getSourceKey());
+        assertEquals(first.getIndexCount(), second.getIndexCount());
+        assertEquals(first.getVertices().vertexCount, second.getVertices().vertexCount);
+
+        cache.clear();
+        assertEquals(0, countMeshFiles(dir));
+    }
+
+    @Test
+    public void cacheKeysWithEqualHashCodesDontCollide() throws Exception {
+        // "Aa" and "BB" have the same hash code, so do both file keys
+        File dir = mTmp.newFolder("cache");
+        File objA = writeObj(new File(mTmp.getRoot(), "Aa.obj"), 4);
+        File objB = writeObj(new File(mTmp.getRoot(), "BB.obj"), 6);
+        assertEquals(("file:" + objA.getAbsolutePath()).hashCode(),
+                ("file:" + objB.getAbsolutePath()).hashCode());
+        // both files must have the same stamp
+        assertTrue(objB.setLastModified(objA.lastModified()));
+
+        MeshCache cache = new MeshCache(dir);
+        MeshFile a = cache.prepareObj(objA);
+        MeshFile b = cache.prepareObj(objB);
+        assertNotEquals(a.getIndexCount(), b.getIndexCount());
+        assertEquals(2, countMeshFiles(dir));
+
+        // both entries are loaded from the cache and return their own mesh
+        MeshCache reloaded = new MeshCache(dir);
+        assertEquals(a.getIndexCount(), reloaded.prepareObj(objA).getIndexCount());
+        assertEquals(b.getIndexCount(), reloaded.prepareObj(objB).getIndexCount());
+        assertEquals(2, countMeshFiles(dir));
+    }
+
+    @Test
+    public void benchmarkLoadTime() throws Exception {
+        MicroBenchmark.assumeEnabled();
+
+        final int size = 300;
+        File objFile = writeObj(mTmp.newFile("bench.obj"), size);
+        final byte[] obj = Files.readAllBytes(objFile.toPath());
+        final File meshFile = mTmp.newFile("bench.mesh");
+        MeshData meshData = ObjLoader.loadObjData(new ByteArrayInputStream(obj));
+        MeshOptimizer.optimize(meshData);
+        MeshFile.create(meshData, "bench", 0).write(meshFile);
+
+        MicroBenchmark.measure("OBJ parsing " + size + "x" + size, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ObjLoader.loadObjData(new ByteArrayInputStream(obj));
+                } catch (LightGlException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        MicroBenchmark.measure("MeshFile map " + size + "x" + size, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    MeshFile loaded = MeshFile.map(meshFile);
+                    // touch all vertex data, as the upload would
+                    FloatBuffer data = loaded.getVertices().data;
+                    float sum = 0;
+                    for (int i = 0; i < data.limit(); i++) {
+                        sum += data.get(i);
+                    }
+                    assertTrue(sum > 0);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    private static void assertMeshEquals(MeshData expected, MeshFile actual) {
+        PackedVertexBuffer vertices = actual.getVertices();
+        assertEquals(expected.getVertexCount(), vertices.vertexCount);
+        assertEquals(expected.hasColors(), vertices.hasColors());
+        int stride = vertices.strideBytes / 4;
+        for (int v = 0; v < vertices.vertexCount; v++) {
+            assertAttribute(expected.positions, v, 3, vertices, v * stride + vertices.offsetPositions);
+            assertAttribute(expected.normals, v, 3, vertices, v * stride + vertices.offsetNormals);
+            assertAttribute(expected.texCoords, v, 2, vertices, v * stride + vertices.offsetTexCoords);
+            if (expected.hasColors()) {
+                assertAttribute(expected.colors, v, 4, vertices, v * stride + vertices.offsetColors);
+            }
+        }
+
+        assertEquals(expected.indices.length, actual.getIndexCount());
+        Buffer indices = actual.getIndices();
+        for (int i = 0; i < expected.indices.length; i++) {
+            int idx;
+            if (indices instanceof ShortBuffer) {
+                idx = ((ShortBuffer) indices).get(i) & 0xffff;
+            } else {
+                idx = ((IntBuffer) indices).get(i);
+            }
+            assertEquals(expected.indices[i], idx);
+        }
+    }
+
+    private static void assertAttribute(float[] expected, int vertex, int elems,
+                                        PackedVertexBuffer vertices, int off) {
+        for (int i = 0; i < elems; i++) {
+            assertEquals(expected[vertex * elems + i], vertices.data.get(off + i), 0);
+        }
+    }
+
+    private void expectInvalid(byte[] data, String msg) throws IOException {
+        File file = mTmp.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        try {
+            MeshFile.map(file);
+            fail("invalid mesh file accepted: " + msg);
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static byte[] toBytes(MeshFile meshFile) throws IOException {
+        File file = File.createTempFile("mesh", null);
+        try {
+            meshFile.write(file);
+            return Files.readAllBytes(file.toPath());
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    private static byte[] withInt(byte[] data, int offset, int value) {
+        byte[] copy = data.clone();
+        ByteBuffer.wrap(copy).order(ByteOrder.nativeOrder()).putInt(offset, value);
+        return copy;
+    }
+
+    private static int countMeshFiles(File dir) {
+        String[] names = dir.list();
+        int count = 0;
+        for (String name : names) {
+            if (name.endsWith(".mesh")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes a flat OBJ grid with size x size quads, positions, texture coordinates and normals.
+     */
+    private static File writeObj(File file, int size) throws IOException {
+        StringBuilder obj = new StringBuilder();
+        int n = size + 1;
+        for (int y = 0; y < n; y++) {
+            for (int x = 0; x < n; x++) {
+                obj.append(String.format(Locale.ENGLISH, "v %d %d %.4f\n", x, y, (x * 7 + y * 3) % 5 * 0.1f));
+                obj.append(String.format(Locale.ENGLISH, "vt %.5f %.5f\n", (float) x / size, (float) y / size));
+            }
+        }
+        obj.append("vn 0 0 1\n");
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int v = y * n + x + 1;
+                appendFace(obj, v, v + 1, v + n + 1);
+                appendFace(obj, v, v + n + 1, v + n);
+            }
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(obj.toString().getBytes(ASCII));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static void appendFace(StringBuilder obj, int a, int b, int c) {
+        obj.append("f ").append(a).append('/').append(a).append("/1 ")
+                .append(b).append('/').append(b).append("/1 ")
+                .append(c).append('/').append(c).append("/1\n");
+    }
+
+    /**
+     * Creates a flat grid with size x size quads, normals, texture coordinates and optionally
+     * colors.
+     */
+    private static MeshData createGrid(int size, boolean colors) {
+        int n = size + 1;
+        MeshData data = new MeshData();
+        data.positions = new float[n * n * 3];
+        data.normals = new float[n * n * 3];
+        data.texCoords = new float[n * n * 2];
+        data.colors = colors ? new float[n * n * 4] : null;
+        for (int y = 0; y < n; y++) {
+            for (int x = 0; x < n; x++) {
+                int v = y * n + x;
+                data.positions[v * 3] = x;
+                data.positions[v * 3 + 1] = y;
+                data.positions[v * 3 + 2] = (x * 7 + y * 3) % 5;
+                data.normals[v * 3 + 2] = 1;
+                data.texCoords[v * 2] = (float) x / size;
+                data.texCoords[v * 2 + 1] = (float) y / size;
+                if (colors) {
+                    data.colors[v * 4] = (float) x / size;
+                    data.colors[v * 4 + 3] = 1;
+                }
+            }
+        }
+        data.indices = new int[size * size * 6];
+        int i = 0;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int v = y * n + x;
+                data.indices[i++] = v;
+                data.indices[i++] = v + 1;
+                data.indices[i++] = v + n + 1;
+                data.indices[i++] = v;
+                data.indices[i++] = v + n + 1;
+                data.indices[i++] = v + n;
+            }
+        }
+        return data;
+    }
+}
@@ -0,0 +1,235 @@
+package de.fabmax.lightgl.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link MeshOptimizer} on generated grids. The optimizer is pure Java, no GL context
+ * is needed.
+ *
+ * @author fabmax
+ */
+public class MeshOptimizerTest {
+
+    private static final int CACHE_SIZE = MeshOptimizer.DEFAULT_CACHE_SIZE;
+
+    @Test
+    public void acmrOfKnownIndexLists() {
+        // a single triangle always needs 3 transformations
+        assertEquals(3, MeshOptimizer.computeAcmr(new int[] { 0, 1, 2 }, 3, CACHE_SIZE), 0);
+        // two triangles sharing an edge
+        assertEquals(2, MeshOptimizer.computeAcmr(new int[] { 0, 1, 2, 0, 2, 3 }, 4, CACHE_SIZE), 0);
+        // a cache of size 3 evicts vertex 0 before it is used again
+        assertEquals(3, MeshOptimizer.computeAcmr(new int[] { 0, 1, 2, 3, 4, 5, 0, 1, 2 }, 6, 3), 0);
+        assertEquals(0, MeshOptimizer.computeAcmr(new int[0], 0, CACHE_SIZE), 0);
+    }
+
+    @Test
+    public void acmrDecreasesOnGrid() {
+        MeshData grid = createGrid(64);
+        int n = grid.getVertexCount();
+        float rowMajor = MeshOptimizer.computeAcmr(grid.indices, n, CACHE_SIZE);
+        MeshOptimizer.optimizeVertexCache(grid.indices, n, CACHE_SIZE);
+        float optimized = MeshOptimizer.computeAcmr(grid.indices, n, CACHE_SIZE);
+        assertTrue("ACMR " + rowMajor + " -> " + optimized, optimized < rowMajor);
+        assertTrue("ACMR " + optimized, optimized < 0.8f);
+
+        // shuffled triangles are close to the worst case before the optimization
+        MeshData shuffled = createGrid(64);
+        shuffleTriangles(shuffled.indices, new Random(1));
+        float before = MeshOptimizer.computeAcmr(shuffled.indices, n, CACHE_SIZE);
+        MeshOptimizer.optimizeVertexCache(shuffled.indices, n, CACHE_SIZE);
+        float after = MeshOptimizer.computeAcmr(shuffled.indices, n, CACHE_SIZE);
+        assertTrue("ACMR " + before, before > 2.5f);
+        assertTrue("ACMR " + before + " -> " + after, after < 0.8f);
+    }
+
+    @Test
+    public void triangleSetIsPreserved() {
+        MeshData grid = createGrid(32);
+        shuffleTriangles(grid.indices, new Random(2));
+        List<String> expected = triangleKeys(grid);
+
+        MeshOptimizer.optimize(grid);
+        List<String> actual = triangleKeys(grid);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void vertexFetchRemapKeepsAttributes() {
+        MeshData grid = createGrid(16);
+        shuffleTriangles(grid.indices, new Random(3));
+        // add an unreferenced vertex at the front, it must be moved to the end
+        grid.positions = prepend(grid.positions, new float[] { -1, -1, -1 });
+        grid.normals = prepend(grid.normals, new float[] { 1, 0, 0 });
+        grid.texCoords = prepend(grid.texCoords, new float[] { -1, -1 });
+        grid.colors = prepend(grid.colors, new float[] { 0.5f, 0.5f, 0.5f, 0.5f });
+        for (int i = 0; i < grid.indices.length; i++) {
+            grid.indices[i]++;
+        }
+        MeshData original = copy(grid);
+
+        MeshOptimizer.optimizeVertexFetch(grid);
+        assertEquals(original.getVertexCount(), grid.getVertexCount());
+
+        // every triangle corner references the same attributes as before
+        for (int i = 0; i < grid.indices.length; i++) {
+            int o = original.indices[i];
+            int v = grid.indices[i];
+            assertAttributeEquals(original.positions, o, grid.positions, v, 3);
+            assertAttributeEquals(original.normals, o, grid.normals, v, 3);
+            assertAttributeEquals(original.texCoords, o, grid.texCoords, v, 2);
+            assertAttributeEquals(original.colors, o, grid.colors, v, 4);
+        }
+
+        // vertices are ordered by first use
+        int next = 0;
+        for (int idx : grid.indices) {
+            assertTrue(idx <= next);
+            if (idx == next) {
+                next++;
+            }
+        }
+        assertEquals(grid.getVertexCount() - 1, next);
+        assertAttributeEquals(original.positions, 0, grid.positions, next, 3);
+    }
+
+    @Test
+    public void emptyAndDegenerateInput() {
+        // empty mesh data is left untouched
+        MeshData empty = new MeshData();
+        MeshOptimizer.optimize(empty);
+        assertNull(empty.indices);
+        empty.indices = new int[0];
+        empty.positions = new float[0];
+        MeshOptimizer.optimize(empty);
+        assertEquals(0, empty.indices.length);
+
+        // a single triangle is not reordered, its vertices are ordered by first use
+        MeshData single = new MeshData();
+        single.indices = new int[] { 2, 1, 0 };
+        single.positions = new float[] { 0, 0, 0, 1, 0, 0, 1, 1, 0 };
+        MeshOptimizer.optimize(single);
+        assertArrayEquals(new int[] { 0, 1, 2 }, single.indices);
+        assertArrayEquals(new float[] { 1, 1, 0, 1, 0, 0, 0, 0, 0 }, single.positions, 0);
+
+        // degenerate and duplicate triangles are kept
+        MeshData degenerate = createGrid(4);
+        int[] indices = new int[degenerate.indices.length + 9];
+        System.arraycopy(degenerate.indices, 0, indices, 0, degenerate.indices.length);
+        int[] extra = { 3, 3, 3, 5, 5, 6, degenerate.indices[0], degenerate.indices[1], degenerate.indices[2] };
+        System.arraycopy(extra, 0, indices, degenerate.indices.length, extra.length);
+        degenerate.indices = indices;
+        List<String> expected = triangleKeys(degenerate);
+        MeshOptimizer.optimize(degenerate);
+        assertEquals(expected, triangleKeys(degenerate));
+    }
+
+    /**
+     * Returns the sorted list of triangles as position strings. Vertex order within a triangle is
+     * kept, only rotated to start with the smallest key, so that changed winding is detected.
+     */
+    private static List<String> triangleKeys(MeshData data) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < data.indices.length; i += 3) {
+            String[] corners = new String[3];
+            for (int j = 0; j < 3; j++) {
+                int v = data.indices[i + j] * 3;
+                corners[j] = data.positions[v] + "," + data.positions[v + 1] + "," + data.positions[v + 2];
+            }
+            int first = 0;
+            for (int j = 1; j < 3; j++) {
+                if (corners[j].compareTo(corners[first]) < 0) {
+                    first = j;
+                }
+            }
+            keys.add(corners[first] + " " + corners[(first + 1) % 3] + " " + corners[(first + 2) % 3]);
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    private static void assertAttributeEquals(float[] src, int srcIdx, float[] dst, int dstIdx,
+                                              int elems) {
+        for (int i = 0; i < elems; i++) {
+            assertEquals(src[srcIdx * elems + i], dst[dstIdx * elems + i], 0);
+        }
+    }
+
+    private static void shuffleTriangles(int[] indices, Random rnd) {
+        for (int t = indices.length / 3 - 1; t > 0; t--) {
+            int s = rnd.nextInt(t + 1);
+            for (int j = 0; j < 3; j++) {
+                int tmp = indices[t * 3 + j];
+                indices[t * 3 + j] = indices[s * 3 + j];
+                indices[s * 3 + j] = tmp;
+            }
+        }
+    }
+
+    private static float[] prepend(float[] attrib, float[] values) {
+        float[] result = new float[attrib.length + values.length];
+        System.arraycopy(values, 0, result, 0, values.length);
+        System.arraycopy(attrib, 0, result, values.length, attrib.length);
+        return result;
+    }
+
+    private static MeshData copy(MeshData src) {
+        MeshData data = new MeshData();
+        data.indices = src.indices.clone();
+        data.positions = src.positions.clone();
+        data.normals = src.normals.clone();
+        data.texCoords = src.texCoords.clone();
+        data.colors = src.colors.clone();
+        return data;
+    }
+
+    /**
+     * Creates a grid with size x size quads in row-major triangle order. Every vertex has a
+     * distinct normal, texture coordinate and color.
+     */
+    private static MeshData createGrid(int size) {
+        int n = size + 1;
+        MeshData data = new MeshData();
+        data.positions = new float[n * n * 3];
+        data.normals = new float[n * n * 3];
+        data.texCoords = new float[n * n * 2];
+        data.colors = new float[n * n * 4];
+        for (int y = 0; y < n; y++) {
+            for (int x = 0; x < n; x++) {
+                int v = y * n + x;
+                data.positions[v * 3] = x;
+                data.positions[v * 3 + 1] = y;
+                data.normals[v * 3] = x;
+                data.normals[v * 3 + 2] = y;
+                data.texCoords[v * 2] = (float) x / size;
+                data.texCoords[v * 2 + 1] = (float) y / size;
+                data.colors[v * 4] = v;
+                data.colors[v * 4 + 3] = 1;
+            }
+        }
+        data.indices = new int[size * size * 6];
+        int i = 0;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int v = y * n + x;
+                data.indices[i++] = v;
+                data.indices[i++] = v + 1;
+                data.indices[i++] = v + n + 1;
+                data.indices[i++] = v;
+                data.indices[i++] = v + n + 1;
+                data.indices[i++] = v + n;
+            }
+        }
+        return data;
+    }
+}
@@ -0,0 +1,225 @@
+package de.fabmax.lightgl.util;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link MeshSimplifier}.
+ *
+ * @author fabmax
+ */
+public class MeshSimplifierTest {
+
+    private static final int GRID_SIZE = 32;
+
+    @Test
+    public void noReductionNeeded() {
+        MeshData grid = createGrid(4, false, false, 0);
+        MeshData result = MeshSimplifier.simplify(grid, 1000);
+        assertEquals(grid.indices.length, result.indices.length);
+        assertEquals(grid.getVertexCount(), result.getVertexCount());
+    }
+
+    @Test
+    public void planeKeepsShapeAndBorder() {
+        MeshData grid = createGrid(GRID_SIZE, false, false, 0);
+        int target = triCount(grid) / 10;
+        MeshData result = MeshSimplifier.simplify(grid, target);
+
+        assertTrue("too many triangles: " + triCount(result), triCount(result) <= target + target / 10);
+        for (int i = 0; i < result.positions.length; i += 3) {
+            assertEquals(0, result.positions[i + 2], 0);
+        }
+        // border positions only slide along the border and no triangle folds over: the area of
+        // the unit square is preserved
+        assertEquals(1, totalArea(result), 1e-4);
+    }
+
+    @Test
+    public void flatShadedMeshSimplifies() {
+        // every triangle has its own vertices with the face normal, i.e. every position is split
+        MeshData terrain = createGrid(GRID_SIZE, true, false, 0.05f);
+        int target = triCount(terrain) / 4;
+        MeshData result = MeshSimplifier.simplify(terrain, target);
+
+        assertTrue("too many triangles: " + triCount(result), triCount(result) <= target + target / 10);
+        // attributes are never interpolated, all output values exist in the input
+        Set<String> normals = attributeSet(terrain.normals, 3);
+        Set<String> positions = attributeSet(terrain.positions, 3);
+        for (int v = 0; v < result.getVertexCount(); v++) {
+            assertTrue(normals.contains(key(result.normals, v * 3, 3)));
+            assertTrue(positions.contains(key(result.positions, v * 3, 3)));
+        }
+    }
+
+    @Test
+    public void textureSeamsArePreserved() {
+        MeshData grid = createGrid(GRID_SIZE, false, true, 0);
+        int target = triCount(grid) / 5;
+        MeshData result = MeshSimplifier.simplify(grid, target);
+
+        assertTrue("too many triangles: " + triCount(result), triCount(result) <= target + target / 5);
+        assertEquals(1, totalArea(result), 1e-4);
+        for (int t = 0; t < result.indices.length; t += 3) {
+            boolean rightChart = result.texCoords[result.indices[t] * 2] >= 5;
+            for (int j = 0; j < 3; j++) {
+                int v = result.indices[t + j];
+                float x = result.positions[v * 3];
+                float y = result.positions[v * 3 + 1];
+                float u = result.texCoords[v * 2];
+                // no triangle spans both texture charts and texture coordinates still match the
+                // chart mapping of the vertex position
+                assertEquals(rightChart, u >= 5);
+                assertEquals(rightChart ? x + 10 : x, u, 1e-6);
+                assertEquals(y, result.texCoords[v * 2 + 1], 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void inconsistentWindingSimplifies() {
+        MeshData terrain = createGrid(GRID_SIZE, false, false, 0.05f);
+        Random rnd = new Random(7);
+        for (int t = 0; t < terrain.indices.length; t += 3) {
+            if (rnd.nextBoolean()) {
+                int tmp = terrain.indices[t + 1];
+                terrain.indices[t + 1] = terrain.indices[t + 2];
+                terrain.indices[t + 2] = tmp;
+            }
+        }
+        int target = triCount(terrain) / 4;
+        MeshData result = MeshSimplifier.simplify(terrain, target);
+        assertTrue("too many triangles: " + triCount(result), triCount(result) <= target + target / 10);
+    }
+
+    @Test
+    public void lodChain() {
+        MeshData terrain = createGrid(GRID_SIZE, false, false, 0.05f);
+        MeshData[] lods = MeshSimplifier.createLods(terrain, new float[] { 0.5f, 0.25f, 0.1f });
+        assertEquals(4, lods.length);
+        for (int i = 1; i < lods.length; i++) {
+            assertTrue(triCount(lods[i]) < triCount(lods[i - 1]));
+        }
+    }
+
+    /**
+     * Creates a grid of size x size quads in the unit square. If splitVertices is set, every
+     * triangle gets its own vertices and face normal. If splitUvs is set, the texture coordinates
+     * of the right half are offset by 10 in u, i.e. there is a texture seam at x = 0.5.
+     */
+    private static MeshData createGrid(int size, boolean splitVertices, boolean splitUvs,
+                                       float bumpHeight) {
+        FloatList positions = new FloatList();
+        FloatList normals = new FloatList();
+        FloatList texCoords = new FloatList();
+        IntList indices = new IntList();
+        Random rnd = new Random(1);
+        float[] heights = new float[(size + 1) * (size + 1)];
+        for (int i = 0; i < heights.length; i++) {
+            heights[i] = rnd.nextFloat() * bumpHeight;
+        }
+
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int[][] tris = {
+                        { x, y, x + 1, y, x + 1, y + 1 },
+                        { x, y, x + 1, y + 1, x, y + 1 }
+                };
+                for (int[] tri : tris) {
+                    float[] p = new float[9];
+                    for (int j = 0; j < 3; j++) {
+                        int gx = tri[j * 2], gy = tri[j * 2 + 1];
+                        p[j * 3] = (float) gx / size;
+                        p[j * 3 + 1] = (float) gy / size;
+                        p[j * 3 + 2] = heights[gy * (size + 1) + gx];
+                    }
+                    float[] n = faceNormal(p);
+                    // texture chart of the triangle, the seam runs along x = 0.5
+                    boolean rightChart = splitUvs && x >= size / 2;
+                    for (int j = 0; j < 3; j++) {
+                        float px = p[j * 3], py = p[j * 3 + 1];
+                        int vert = splitVertices ? -1 : findVertex(positions, texCoords, p, j,
+                                rightChart ? px + 10 : px);
+                        if (vert < 0) {
+                            vert = positions.size() / 3;
+                            positions.add(px);
+                            positions.add(py);
+                            positions.add(p[j * 3 + 2]);
+                            normals.add(splitVertices ? n[0] : 0);
+                            normals.add(splitVertices ? n[1] : 0);
+                            normals.add(splitVertices ? n[2] : 1);
+                            texCoords.add(rightChart ? px + 10 : px);
+                            texCoords.add(py);
+                        }
+                        indices.add(vert);
+                    }
+                }
+            }
+        }
+
+        MeshData data = new MeshData();
+        data.positions = positions.asArray();
+        data.normals = normals.asArray();
+        data.texCoords = texCoords.asArray();
+        data.indices = indices.asArray();
+        return data;
+    }
+
+    private static int findVertex(FloatList positions, FloatList texCoords, float[] p, int j,
+                                  float u) {
+        for (int v = 0; v < positions.size() / 3; v++) {
+            if (positions.get(v * 3) == p[j * 3] && positions.get(v * 3 + 1) == p[j * 3 + 1] &&
+                    texCoords.get(v * 2) == u) {
+                return v;
+            }
+        }
+        return -1;
+    }
+
+    private static float[] faceNormal(float[] p) {
+        float e1x = p[3] - p[0], e1y = p[4] - p[1], e1z = p[5] - p[2];
+        float e2x = p[6] - p[0], e2y = p[7] - p[1], e2z = p[8] - p[2];
+        float nx = e1y * e2z - e1z * e2y, ny = e1z * e2x - e1x * e2z, nz = e1x * e2y - e1y * e2x;
+        float len = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        return new float[] { nx / len, ny / len, nz / len };
+    }
+
+    private static double totalArea(MeshData data) {
+        double area = 0;
+        float[] p = new float[9];
+        for (int t = 0; t < data.indices.length; t += 3) {
+            for (int j = 0; j < 3; j++) {
+                System.arraycopy(data.positions, data.indices[t + j] * 3, p, j * 3, 3);
+            }
+            // signed area in the xy plane, folded triangles would cancel out
+            area += 0.5 * ((p[3] - p[0]) * (p[7] - p[1]) - (p[6] - p[0]) * (p[4] - p[1]));
+        }
+        return area;
+    }
+
+    private static int triCount(MeshData data) {
+        return data.indices.length / 3;
+    }
+
+    private static Set<String> attributeSet(float[] attrib, int elems) {
+        Set<String> set = new HashSet<>();
+        for (int i = 0; i < attrib.length; i += elems) {
+            set.add(key(attrib, i, elems));
+        }
+        return set;
+    }
+
+    private static String key(float[] attrib, int off, int elems) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < elems; i++) {
+            sb.append(attrib[off + i]).append(';');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,329 @@
+package de.fabmax.lightgl.util;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import de.fabmax.lightgl.LightGlException;
+import de.fabmax.lightgl.MicroBenchmark;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link ObjParser} and {@link ObjLoader}.
+ *
+ * @author fabmax
+ */
+public class ObjParserTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    @Test
+    public void parseElements() throws Exception {
+        ObjParser parser = parse(
+                "# comment\n" +
+                "o object\n" +
+                "v 1 2 3\n" +
+                "v -1.5 +2.25 3e2\n" +
+                "v\t0.5\t1E-1 -2.5e+1 1.0\n" +
+                "vt 0.25 0.75 0\n" +
+                "vn 0 0 1\n" +
+                "f 1/1/1 2/1/1 3/1/1\n" +
+                "f 1//1 2//1 3//1 # trailing comment\r\n" +
+                "f -3 -2 -1\n" +
+                "f 1/1 2/1 3/1");
+
+        assertArrayEquals(new float[] { 1, 2, 3, -1.5f, 2.25f, 300, 0.5f, 0.1f, -25 },
+                parser.getPositions().asArray(), 0);
+        assertArrayEquals(new float[] { 0.25f, 0.75f }, parser.getTexCoords().asArray(), 0);
+        assertArrayEquals(new float[] { 0, 0, 1 }, parser.getNormals().asArray(), 0);
+        assertEquals(4, parser.getFaceCount());
+        assertArrayEquals(new int[] {
+                0, 0, 0, 1, 0, 0, 2, 0, 0,
+                0, -1, 0, 1, -1, 0, 2, -1, 0,
+                0, -1, -1, 1, -1, -1, 2, -1, -1,
+                0, 0, -1, 1, 0, -1, 2, 0, -1
+        }, parser.getFaceIndices().asArray());
+    }
+
+    @Test
+    public void parseDecimalsLikeFloatParseFloat() throws Exception {
+        Random rnd = new Random(3);
+        StringBuilder obj = new StringBuilder();
+        float[] expected = new float[3000];
+        for (int i = 0; i < expected.length; i++) {
+            String s;
+            switch (i % 4) {
+                case 0:
+                    s = Float.toString((rnd.nextFloat() - 0.5f) * 1000);
+                    break;
+                case 1:
+                    s = String.format(Locale.ENGLISH, "%.6f", rnd.nextGaussian());
+                    break;
+                case 2:
+                    s = String.format(Locale.ENGLISH, "%.7e", rnd.nextGaussian() * 1e-20);
+                    break;
+                default:
+                    s = Integer.toString(rnd.nextInt());
+                    break;
+            }
+            expected[i] = Float.parseFloat(s);
+            obj.append(i % 3 == 0 ? "v " : " ").append(s).append(i % 3 == 2 ? "\n" : "");
+        }
+
+        float[] parsed = parse(obj.toString()).getPositions().asArray();
+        assertEquals(expected.length, parsed.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], parsed[i], Math.ulp(expected[i]));
+        }
+    }
+
+    @Test
+    public void parseSpecialFloats() throws Exception {
+        float[] v = parse(
+                "v nan -nan(ind) NaN\n" +
+                "v inf -INF Infinity\n" +
+                "v 1.#INF -1.#IND 1.#QNAN\n" +
+                "v 0x1p3 2.5f 1d\n").getPositions().asArray();
+
+        assertTrue(Float.isNaN(v[0]));
+        assertTrue(Float.isNaN(v[1]));
+        assertTrue(Float.isNaN(v[2]));
+        assertEquals(Float.POSITIVE_INFINITY, v[3], 0);
+        assertEquals(Float.NEGATIVE_INFINITY, v[4], 0);
+        assertEquals(Float.POSITIVE_INFINITY, v[5], 0);
+        assertEquals(Float.POSITIVE_INFINITY, v[6], 0);
+        assertTrue(Float.isNaN(v[7]));
+        assertTrue(Float.isNaN(v[8]));
+        assertEquals(8, v[9], 0);
+        assertEquals(2.5f, v[10], 0);
+        assertEquals(1, v[11], 0);
+    }
+
+    @Test
+    public void streamMatchesArray() throws Exception {
+        StringBuilder obj = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            obj.append("v ").append(i).append(" 0.5 -").append(i).append(".25\n");
+        }
+        for (int i = 0; i < 10000; i++) {
+            obj.append("f ").append(i + 1).append(' ').append(i + 2).append(' ').append(i + 3);
+            obj.append('\n');
+        }
+        byte[] data = obj.toString().getBytes(ASCII);
+
+        ObjParser fromArray = new ObjParser();
+        fromArray.parse(data, 0, data.length);
+        ObjParser fromStream = new ObjParser();
+        fromStream.parse(new ByteArrayInputStream(data));
+
+        assertArrayEquals(fromArray.getPositions().asArray(), fromStream.getPositions().asArray(), 0);
+        assertArrayEquals(fromArray.getFaceIndices().asArray(),
+                fromStream.getFaceIndices().asArray());
+    }
+
+    @Test
+    public void parallelMatchesSequential() throws Exception {
+        // about 8 MB, large enough to be split into several chunks
+        Random rnd = new Random(5);
+        StringBuilder obj = new StringBuilder();
+        int positions = 0;
+        int texCoords = 0;
+        int normals = 0;
+        while (obj.length() < 8 * 1024 * 1024) {
+            // elements interleaved with faces, which use absolute and relative indices
+            for (int i = 0; i < 3; i++) {
+                obj.append(String.format(Locale.ENGLISH, "v %.5f %.5f %.5f%n",
+                        rnd.nextFloat(), rnd.nextFloat(), rnd.nextFloat()));
+                obj.append(String.format(Locale.ENGLISH, "vt %.4f %.4f%n",
+                        rnd.nextFloat(), rnd.nextFloat()));
+                obj.append("vn 0 1 0\n");
+                positions++;
+                texCoords++;
+                normals++;
+            }
+            if (rnd.nextBoolean()) {
+                obj.append("f -3/-3/-3 -2/-2/-2 -1/-1/-1\n");
+            } else {
+                obj.append("f ").append(rnd.nextInt(positions) + 1).append('/')
+                        .append(rnd.nextInt(texCoords) + 1).append(" -1//-2 ")
+                        .append(positions).append("//").append(normals).append('\n');
+            }
+        }
+        byte[] data = obj.toString().getBytes(ASCII);
+
+        ObjParser sequential = new ObjParser();
+        sequential.parse(data, 0, data.length);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ObjParser parallel = ObjParser.parseParallel(data, 0, data.length, executor);
+            assertParsersEqual(sequential, parallel);
+
+            MeshData seqMesh = ObjLoader.loadObjData(new ByteArrayInputStream(data));
+            MeshData parMesh = ObjLoader.loadObjData(new ByteArrayInputStream(data), executor);
+            assertArrayEquals(seqMesh.indices, parMesh.indices);
+            assertArrayEquals(seqMesh.positions, parMesh.positions, 0);
+            assertArrayEquals(seqMesh.texCoords, parMesh.texCoords, 0);
+            assertArrayEquals(seqMesh.normals, parMesh.normals, 0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void malformedInput() {
+        expectError("v 1 abc 3\n", "Invalid float value \"abc\" in line 1");
+        expectError("v 1 2 3\nv 1 2 3\nf 1 2 0\n", "Invalid index 0 in line 3");
+        expectError("v 1 2 3\nf 1 1 1 1\n", "No support for more than 3 vertex indices per face (line 2)");
+        expectError("v 1 2 3\nf 1 x 1\n", "Expected integer value in line 2");
+    }
+
+    @Test
+    public void loaderWrapsErrorsOnce() {
+        try {
+            ObjLoader.loadObjData(new ByteArrayInputStream("v 1 2 3\nv 1 2\n".getBytes(ASCII)));
+            fail("LightGlException expected");
+        } catch (LightGlException e) {
+            assertEquals("Expected float value in line 2", e.getMessage());
+            assertNull(e.getCause());
+        }
+    }
+
+    @Test
+    public void benchmarkParser() throws Exception {
+        MicroBenchmark.assumeEnabled();
+
+        // grid with 200 x 200 quads and per-vertex positions, texture coordinates and normals
+        int size = 200;
+        int n = size + 1;
+        Random rnd = new Random(7);
+        StringBuilder obj = new StringBuilder();
+        for (int i = 0; i < n * n; i++) {
+            obj.append(String.format(Locale.ENGLISH, "v %.6f %.6f %.6f%n",
+                    (float) (i % n), (float) (i / n), rnd.nextFloat()));
+            obj.append(String.format(Locale.ENGLISH, "vt %.6f %.6f%n",
+                    (float) (i % n) / size, (float) (i / n) / size));
+            obj.append(String.format(Locale.ENGLISH, "vn %.6f %.6f %.6f%n",
+                    rnd.nextFloat(), rnd.nextFloat(), 1f));
+        }
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int v = y * n + x + 1;
+                obj.append(String.format(Locale.ENGLISH, "f %d/%d/%d %d/%d/%d %d/%d/%d%n",
+                        v, v, v, v + 1, v + 1, v + 1, v + n + 1, v + n + 1, v + n + 1));
+                obj.append(String.format(Locale.ENGLISH, "f %d/%d/%d %d/%d/%d %d/%d/%d%n",
+                        v, v, v, v + n + 1, v + n + 1, v + n + 1, v + n, v + n, v + n));
+            }
+        }
+        final byte[] data = obj.toString().getBytes(ASCII);
+
+        // both parsers must produce the same elements
+        ObjParser parser = new ObjParser();
+        parser.parse(new ByteArrayInputStream(data));
+        FloatList positions = new FloatList();
+        IntList indices = new IntList();
+        parseLineBased(data, positions, indices);
+        assertArrayEquals(positions.asArray(), parser.getPositions().asArray(), 0);
+        assertEquals(indices.size(), parser.getFaceIndices().size());
+
+        MicroBenchmark.measure("line based parser " + data.length / 1024 + " kB", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    parseLineBased(data, new FloatList(), new IntList());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        MicroBenchmark.measure("ObjParser " + data.length / 1024 + " kB", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    new ObjParser().parse(new ByteArrayInputStream(data));
+                } catch (IOException | LightGlException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Parses positions, texture coordinates, normals and face indices line by line with
+     * StringTokenizer and Float.parseFloat, the way ObjLoader parsed OBJ files before ObjParser.
+     * Used as benchmark reference.
+     */
+    private static void parseLineBased(byte[] data, FloatList positions, IntList indices)
+            throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(data), ASCII));
+        FloatList texCoords = new FloatList();
+        FloatList normals = new FloatList();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("v ")) {
+                parseFloats(line, 3, positions);
+            } else if (line.startsWith("vt ")) {
+                parseFloats(line, 2, texCoords);
+            } else if (line.startsWith("vn ")) {
+                parseFloats(line, 3, normals);
+            } else if (line.startsWith("f ")) {
+                StringTokenizer tok = new StringTokenizer(line, " ");
+                tok.nextToken();
+                for (int i = 0; i < 3; i++) {
+                    StringTokenizer tok2 = new StringTokenizer(tok.nextToken(), "/");
+                    while (tok2.hasMoreTokens()) {
+                        indices.add(Integer.parseInt(tok2.nextToken()) - 1);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void parseFloats(String line, int count, FloatList dst) {
+        StringTokenizer tok = new StringTokenizer(line, " ");
+        tok.nextToken();
+        for (int i = 0; i < count; i++) {
+            dst.add(Float.parseFloat(tok.nextToken()));
+        }
+    }
+
+    private static void assertParsersEqual(ObjParser expected, ObjParser actual) {
+        assertArrayEquals(expected.getPositions().asArray(), actual.getPositions().asArray(), 0);
+        assertArrayEquals(expected.getTexCoords().asArray(), actual.getTexCoords().asArray(), 0);
+        assertArrayEquals(expected.getNormals().asArray(), actual.getNormals().asArray(), 0);
+        assertArrayEquals(expected.getFaceIndices().asArray(), actual.getFaceIndices().asArray());
+    }
+
+    private static void expectError(String obj, String message) {
+        try {
+            parse(obj);
+            fail("LightGlException expected");
+        } catch (LightGlException e) {
+            assertEquals(message, e.getMessage());
+            assertFalse(e.getCause() instanceof LightGlException);
+        }
+    }
+
+    private static ObjParser parse(String obj) throws LightGlException {
+        byte[] data = obj.getBytes(ASCII);
+        ObjParser parser = new ObjParser();
+        parser.parse(data, 0, data.length);
+        return parser;
+    }
+}
@@ -0,0 +1,157 @@
+package de.fabmax.lightgl.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trip accuracy tests for {@link QuantizedVertexBuffer}.
+ *
+ * @author fabmax
+ */
+public class QuantizedVertexBufferTest {
+
+    @Test
+    public void layout() {
+        QuantizedVertexBuffer buf = new QuantizedVertexBuffer(10,
+                QuantizedVertexBuffer.PositionFormat.SHORT, true, true, true);
+        assertEquals(20, buf.strideBytes);
+        assertEquals(2, buf.offsetNormals);
+        assertEquals(3, buf.offsetTexCoords);
+        assertEquals(4, buf.offsetColors);
+
+        buf = new QuantizedVertexBuffer(10, QuantizedVertexBuffer.PositionFormat.FLOAT, true,
+                false, false);
+        assertEquals(16, buf.strideBytes);
+        assertEquals(-1, buf.offsetTexCoords);
+    }
+
+    @Test
+    public void halfFloatRoundTrip() {
+        // every finite half float converts to a float and back unchanged
+        for (int h = 0; h < 0x10000; h++) {
+            short half = (short) h;
+            if ((h & 0x7c00) == 0x7c00 && (h & 0x3ff) != 0) {
+                // NaN, only check that it stays NaN
+                assertTrue(Float.isNaN(QuantizedVertexBuffer.halfToFloat(half)));
+                continue;
+            }
+            float f = QuantizedVertexBuffer.halfToFloat(half);
+            assertEquals("half " + Integer.toHexString(h), half, QuantizedVertexBuffer.floatToHalf(f));
+        }
+        assertEquals(65504, QuantizedVertexBuffer.halfToFloat(QuantizedVertexBuffer.floatToHalf(65504)), 0);
+        assertEquals(Float.POSITIVE_INFINITY,
+                QuantizedVertexBuffer.halfToFloat(QuantizedVertexBuffer.floatToHalf(1e6f)), 0);
+        assertEquals(0, QuantizedVertexBuffer.halfToFloat(QuantizedVertexBuffer.floatToHalf(1e-9f)), 0);
+    }
+
+    @Test
+    public void halfFloatRounding() {
+        Random rnd = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            float f = (rnd.nextFloat() - 0.5f) * 2000;
+            float restored = QuantizedVertexBuffer.halfToFloat(QuantizedVertexBuffer.floatToHalf(f));
+            // 11 significant bits, round to nearest: relative error <= 2^-11
+            assertEquals(f, restored, Math.abs(f) / 2048);
+        }
+    }
+
+    @Test
+    public void floatPositionsAreExact() {
+        MeshData mesh = randomMesh(new Random(2), 1000, 100, 0, 1);
+        MeshData restored = roundTrip(mesh, QuantizedVertexBuffer.PositionFormat.FLOAT);
+        assertArrayEquals(mesh.positions, restored.positions, 0);
+    }
+
+    @Test
+    public void shortPositions() {
+        MeshData mesh = randomMesh(new Random(3), 1000, 250, 0, 1);
+        MeshData restored = roundTrip(mesh, QuantizedVertexBuffer.PositionFormat.SHORT);
+        // 16 bits over the largest extent of 500 units
+        assertMaxError(mesh.positions, restored.positions, 500f / 65535 * 0.5f + 1e-4f);
+    }
+
+    @Test
+    public void normalsColorsAndTexCoords() {
+        MeshData mesh = randomMesh(new Random(4), 1000, 10, 0, 1);
+        MeshData restored = roundTrip(mesh, QuantizedVertexBuffer.PositionFormat.HALF_FLOAT);
+        // signed 8 bit normals: step 2 / 255
+        assertMaxError(mesh.normals, restored.normals, 1f / 255 + 1e-6f);
+        // unsigned 8 bit colors: step 1 / 255
+        assertMaxError(mesh.colors, restored.colors, 0.5f / 255 + 1e-6f);
+        // unsigned 16 bit texture coordinates in [0, 1]: step 1 / 65535
+        assertMaxError(mesh.texCoords, restored.texCoords, 0.5f / 65535 + 1e-6f);
+    }
+
+    @Test
+    public void tiledTexCoordsAreNotClamped() {
+        MeshData mesh = randomMesh(new Random(5), 1000, 10, -3, 5);
+        QuantizedVertexBuffer buf = new QuantizedVertexBuffer(mesh,
+                QuantizedVertexBuffer.PositionFormat.FLOAT);
+        assertTrue(buf.texCoordOffset[0] < -2.9f && buf.texCoordOffset[0] >= -3);
+        assertTrue(buf.texCoordScale[0] > 7.9f && buf.texCoordScale[0] <= 8);
+
+        MeshData restored = new MeshData();
+        buf.unpack(restored);
+        // 16 bits over a range of 8
+        assertMaxError(mesh.texCoords, restored.texCoords, 8f / 65535 * 0.5f + 1e-5f);
+    }
+
+    @Test
+    public void unitTexCoordsKeepIdentityTransform() {
+        MeshData mesh = randomMesh(new Random(6), 100, 10, 0.25f, 0.75f);
+        QuantizedVertexBuffer buf = new QuantizedVertexBuffer(mesh,
+                QuantizedVertexBuffer.PositionFormat.FLOAT);
+        assertArrayEquals(new float[] { 1, 1 }, buf.texCoordScale, 0);
+        assertArrayEquals(new float[] { 0, 0 }, buf.texCoordOffset, 0);
+    }
+
+    private static MeshData roundTrip(MeshData mesh, QuantizedVertexBuffer.PositionFormat format) {
+        QuantizedVertexBuffer buf = new QuantizedVertexBuffer(mesh, format);
+        MeshData restored = new MeshData();
+        buf.unpack(restored);
+        return restored;
+    }
+
+    private static void assertMaxError(float[] expected, float[] actual, float maxError) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("element " + i, expected[i], actual[i], maxError);
+        }
+    }
+
+    private static MeshData randomMesh(Random rnd, int vertices, float posRange, float uvMin,
+                                       float uvMax) {
+        MeshData mesh = new MeshData();
+        mesh.positions = new float[vertices * 3];
+        mesh.normals = new float[vertices * 3];
+        mesh.texCoords = new float[vertices * 2];
+        mesh.colors = new float[vertices * 4];
+        // vertex count is only defined for meshes with indices
+        mesh.indices = new int[vertices];
+        for (int i = 0; i < vertices; i++) {
+            float nx = (float) rnd.nextGaussian();
+            float ny = (float) rnd.nextGaussian();
+            float nz = (float) rnd.nextGaussian();
+            float len = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+            for (int c = 0; c < 3; c++) {
+                mesh.positions[i * 3 + c] = (rnd.nextFloat() * 2 - 1) * posRange;
+            }
+            mesh.normals[i * 3] = nx / len;
+            mesh.normals[i * 3 + 1] = ny / len;
+            mesh.normals[i * 3 + 2] = nz / len;
+            for (int c = 0; c < 2; c++) {
+                mesh.texCoords[i * 2 + c] = uvMin + rnd.nextFloat() * (uvMax - uvMin);
+            }
+            for (int c = 0; c < 4; c++) {
+                mesh.colors[i * 4 + c] = rnd.nextFloat();
+            }
+            mesh.indices[i] = i;
+        }
+        return mesh;
+    }
+}
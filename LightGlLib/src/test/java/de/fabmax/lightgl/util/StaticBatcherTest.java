@@ -0,0 +1,259 @@
+package de.fabmax.lightgl.util;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import de.fabmax.lightgl.scene.Group;
+import de.fabmax.lightgl.scene.Mesh;
+import de.fabmax.lightgl.scene.Node;
+import de.fabmax.lightgl.scene.TransformGroup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CPU side tests for {@link StaticBatcher}: merged vertices must equal the transformed vertices
+ * of the original meshes.
+ *
+ * @author fabmax
+ */
+public class StaticBatcherTest {
+
+    private static final float EPS = 1e-5f;
+
+    @Test
+    public void mergedVerticesEqualTransformedOriginals() {
+        MeshData quad = createTiltedQuad();
+        // rotation around z by 30 degrees, non-uniform scale and translation
+        float[] t1 = multiply(translation(1, 2, 3), multiply(rotationZ(30), scale(2, 0.5f, 1)));
+        float[] t2 = translation(-4, 0, 1);
+        float[] t2Child = scale(1, 3, 1);
+
+        Group root = new Group();
+        root.addChild(transformGroup(t1, mesh(quad)));
+        TransformGroup tg2 = transformGroup(t2, mesh(quad));
+        tg2.addChild(transformGroup(t2Child, mesh(quad)));
+        root.addChild(tg2);
+
+        StaticBatcher batcher = new StaticBatcher();
+        batcher.add(root);
+        List<StaticBatcher.Batch> batches = batcher.getBatches();
+        assertEquals(1, batches.size());
+        assertTrue(batcher.getUnbatchedNodes().isEmpty());
+
+        MeshData merged = batches.get(0).builder.build();
+        assertEquals(quad.getVertexCount() * 3, merged.getVertexCount());
+        assertEquals(quad.indices.length * 3, merged.indices.length);
+
+        float[][] transforms = { t1, t2, multiply(t2, t2Child) };
+        int n = quad.getVertexCount();
+        for (int m = 0; m < transforms.length; m++) {
+            for (int i = 0; i < n; i++) {
+                float[] expected = transformPoint(transforms[m], quad.positions, i * 3);
+                int v = m * n + i;
+                assertEquals(expected[0], merged.positions[v * 3], EPS);
+                assertEquals(expected[1], merged.positions[v * 3 + 1], EPS);
+                assertEquals(expected[2], merged.positions[v * 3 + 2], EPS);
+                assertEquals(quad.texCoords[i * 2], merged.texCoords[v * 2], 0);
+                assertEquals(quad.texCoords[i * 2 + 1], merged.texCoords[v * 2 + 1], 0);
+                for (int c = 0; c < 4; c++) {
+                    assertEquals(quad.colors[i * 4 + c], merged.colors[v * 4 + c], 0);
+                }
+            }
+        }
+        assertNormalsMatchFaces(merged);
+    }
+
+    @Test
+    public void mirroredTransformFlipsWinding() {
+        MeshData quad = createTiltedQuad();
+        Group root = new Group();
+        root.addChild(transformGroup(scale(-1, 1, 1), mesh(quad)));
+
+        StaticBatcher batcher = new StaticBatcher();
+        batcher.add(root);
+        MeshData merged = batcher.getBatches().get(0).builder.build();
+
+        // first triangle is 0, 1, 2 in the original mesh, winding is flipped to 0, 2, 1
+        assertEquals(quad.indices[0], merged.indices[0]);
+        assertEquals(quad.indices[2], merged.indices[1]);
+        assertEquals(quad.indices[1], merged.indices[2]);
+        assertNormalsMatchFaces(merged);
+    }
+
+    @Test
+    public void meshesAreGroupedByProperties() {
+        MeshData quad = createTiltedQuad();
+        Mesh layer0 = mesh(quad);
+        Mesh layer1 = mesh(quad);
+        layer1.setRenderLayer(1);
+        Mesh transparent = mesh(quad);
+        transparent.setTransparent(true);
+        // meshes without CPU side data can't be merged
+        Mesh noData = new Mesh();
+
+        Group root = new Group();
+        root.addChild(layer0);
+        root.addChild(layer1);
+        root.addChild(mesh(quad));
+        root.addChild(transparent);
+        root.addChild(transformGroup(translation(1, 0, 0), noData));
+
+        StaticBatcher batcher = new StaticBatcher();
+        batcher.add(root);
+        List<StaticBatcher.Batch> batches = batcher.getBatches();
+        assertEquals(3, batches.size());
+        assertEquals(quad.getVertexCount() * 2, batches.get(0).builder.getVertexCount());
+        assertEquals(1, batches.get(1).renderLayer);
+        assertTrue(batches.get(2).transparent);
+
+        // the unbatched mesh keeps its accumulated transform
+        assertEquals(1, batcher.getUnbatchedNodes().size());
+        Node unbatched = batcher.getUnbatchedNodes().get(0);
+        assertTrue(unbatched instanceof TransformGroup);
+        assertEquals(1, ((TransformGroup) unbatched).getTransformation()[12], 0);
+        assertSame(noData, ((TransformGroup) unbatched).getChildren().get(0));
+    }
+
+    @Test
+    public void texCoordTransformIsBaked() {
+        MeshData quad = createTiltedQuad();
+        Mesh plain = mesh(quad);
+        Mesh tiled = mesh(quad);
+        tiled.setTexCoordTransform(2, 0.5f, 0.25f, -1);
+
+        Group root = new Group();
+        root.addChild(plain);
+        root.addChild(tiled);
+        StaticBatcher batcher = new StaticBatcher();
+        batcher.add(root);
+
+        // both meshes share a batch, the transform is applied to the merged texture coordinates
+        assertEquals(1, batcher.getBatches().size());
+        MeshData merged = batcher.getBatches().get(0).builder.build();
+        int n = quad.getVertexCount();
+        for (int i = 0; i < n; i++) {
+            assertEquals(quad.texCoords[i * 2], merged.texCoords[i * 2], EPS);
+            assertEquals(quad.texCoords[i * 2 + 1], merged.texCoords[i * 2 + 1], EPS);
+            assertEquals(quad.texCoords[i * 2] * 2 + 0.25f, merged.texCoords[(n + i) * 2], EPS);
+            assertEquals(quad.texCoords[i * 2 + 1] * 0.5f - 1, merged.texCoords[(n + i) * 2 + 1], EPS);
+        }
+        // the source mesh data is not modified
+        assertEquals(1, quad.texCoords[2], 0);
+    }
+
+    /**
+     * Checks that every vertex normal points in the direction of the face normal given by the
+     * triangle winding. The test mesh is planar, so normals and face normals must be equal.
+     */
+    private static void assertNormalsMatchFaces(MeshData data) {
+        float[] p = data.positions;
+        for (int t = 0; t < data.indices.length; t += 3) {
+            int i0 = data.indices[t] * 3, i1 = data.indices[t + 1] * 3, i2 = data.indices[t + 2] * 3;
+            float[] e1 = { p[i1] - p[i0], p[i1 + 1] - p[i0 + 1], p[i1 + 2] - p[i0 + 2] };
+            float[] e2 = { p[i2] - p[i0], p[i2 + 1] - p[i0 + 1], p[i2 + 2] - p[i0 + 2] };
+            float[] face = new float[3];
+            GlMath.crossVector(face, 0, e1, 0, e2, 0);
+            GlMath.normalize(face, 0);
+            for (int j = 0; j < 3; j++) {
+                int v = data.indices[t + j] * 3;
+                float len = (float) Math.sqrt(GlMath.dotVector(data.normals, v, data.normals, v));
+                assertEquals("normal length", 1, len, EPS);
+                assertEquals("normal direction", 1, GlMath.dotVector(face, 0, data.normals, v), 1e-4f);
+            }
+        }
+    }
+
+    /**
+     * Creates a planar quad, which is tilted against all axes. Normals are the face normal.
+     */
+    private static MeshData createTiltedQuad() {
+        MeshData data = new MeshData();
+        data.positions = new float[] {
+                0, 0, 0,
+                1, 0, 0.5f,
+                1, 1, 1.5f,
+                0, 1, 1
+        };
+        float[] n = { -0.5f, -1, 1 };
+        GlMath.normalize(n, 0);
+        data.normals = new float[12];
+        for (int i = 0; i < 4; i++) {
+            System.arraycopy(n, 0, data.normals, i * 3, 3);
+        }
+        data.texCoords = new float[] { 0, 0, 1, 0, 1, 1, 0, 1 };
+        data.colors = new float[] {
+                1, 0, 0, 1,
+                0, 1, 0, 1,
+                0, 0, 1, 1,
+                1, 1, 1, 0.5f
+        };
+        data.indices = new int[] { 0, 1, 2, 0, 2, 3 };
+        return data;
+    }
+
+    private static Mesh mesh(MeshData data) {
+        Mesh mesh = new Mesh();
+        mesh.setMeshData(data);
+        return mesh;
+    }
+
+    private static TransformGroup transformGroup(float[] transform, Node child) {
+        TransformGroup tg = new TransformGroup();
+        tg.setTransformation(transform);
+        tg.addChild(child);
+        return tg;
+    }
+
+    private static float[] transformPoint(float[] m, float[] p, int off) {
+        float[] r = new float[3];
+        for (int i = 0; i < 3; i++) {
+            r[i] = m[i] * p[off] + m[4 + i] * p[off + 1] + m[8 + i] * p[off + 2] + m[12 + i];
+        }
+        return r;
+    }
+
+    private static float[] translation(float x, float y, float z) {
+        float[] m = scale(1, 1, 1);
+        m[12] = x;
+        m[13] = y;
+        m[14] = z;
+        return m;
+    }
+
+    private static float[] scale(float x, float y, float z) {
+        float[] m = new float[16];
+        m[0] = x;
+        m[5] = y;
+        m[10] = z;
+        m[15] = 1;
+        return m;
+    }
+
+    private static float[] rotationZ(float deg) {
+        float[] m = scale(1, 1, 1);
+        float c = (float) Math.cos(Math.toRadians(deg));
+        float s = (float) Math.sin(Math.toRadians(deg));
+        m[0] = c;
+        m[1] = s;
+        m[4] = -s;
+        m[5] = c;
+        return m;
+    }
+
+    private static float[] multiply(float[] a, float[] b) {
+        float[] m = new float[16];
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 4; row++) {
+                float sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += a[k * 4 + row] * b[col * 4 + k];
+                }
+                m[col * 4 + row] = sum;
+            }
+        }
+        return m;
+    }
+}
@@ -0,0 +1,287 @@
+package de.fabmax.lightgl.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import de.fabmax.lightgl.MicroBenchmark;
+import de.fabmax.lightgl.Ray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Compares TriangleKdTree hit tests with a brute force reference.
+ *
+ * @author fabmax
+ */
+public class TriangleKdTreeTest {
+
+    private static final float EPS = 1e-4f;
+
+    @Test
+    public void emptyTree() {
+        TriangleKdTree tree = new TriangleKdTree(new float[0], new int[0]);
+        TriangleKdTree.HitTestResult result = new TriangleKdTree.HitTestResult();
+        tree.hitTest(ray(0, 0, -5, 0, 0, 1), result);
+        assertFalse(result.isHit());
+    }
+
+    @Test
+    public void singleTriangle() {
+        float[] points = { -1, -1, 0, 1, -1, 0, 0, 1, 0 };
+        TriangleKdTree tree = new TriangleKdTree(points, new int[] { 0, 1, 2 });
+        TriangleKdTree.HitTestResult result = new TriangleKdTree.HitTestResult();
+
+        tree.hitTest(ray(0, 0, -5, 0, 0, 1), result);
+        assertTrue(result.isHit());
+        assertEquals(5, result.distance, EPS);
+        assertEquals(0, result.point[2], EPS);
+        assertEquals(1, Math.abs(result.normal[2]), EPS);
+
+        tree.hitTest(ray(0, 0, -5, 0, 0, -1), result);
+        assertFalse(result.isHit());
+        tree.hitTest(ray(3, 0, -5, 0, 0, 1), result);
+        assertFalse(result.isHit());
+    }
+
+    @Test
+    public void medianMatchesBruteForce() {
+        checkAgainstBruteForce(TriangleKdTree.SplitMethod.MEDIAN);
+    }
+
+    @Test
+    public void surfaceAreaMatchesBruteForce() {
+        checkAgainstBruteForce(TriangleKdTree.SplitMethod.SURFACE_AREA);
+    }
+
+    @Test
+    public void batchMatchesSingleRays() throws InterruptedException {
+        float[] points = randomPoints(new Random(7), 3000);
+        int[] indices = sequence(points.length / 3);
+        TriangleKdTree tree = new TriangleKdTree(points, indices,
+                TriangleKdTree.SplitMethod.SURFACE_AREA);
+
+        int count = 5000;
+        float[] origins = new float[count * 3];
+        float[] dirs = new float[count * 3];
+        randomRays(new Random(8), origins, dirs, count);
+
+        float[] distSeq = new float[count];
+        float[] pointsSeq = new float[count * 3];
+        int hitsSeq = tree.hitTest(origins, dirs, count, distSeq, pointsSeq, null);
+
+        float[] distPar = new float[count];
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        int hitsPar;
+        try {
+            hitsPar = tree.hitTest(origins, dirs, count, distPar, null, null, executor);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(hitsSeq, hitsPar);
+
+        TriangleKdTree.HitTestResult result = new TriangleKdTree.HitTestResult();
+        Ray ray = new Ray();
+        for (int i = 0; i < count; i++) {
+            ray.setOrigin(origins[i * 3], origins[i * 3 + 1], origins[i * 3 + 2]);
+            ray.setDirection(dirs[i * 3], dirs[i * 3 + 1], dirs[i * 3 + 2]);
+            tree.hitTest(ray, result);
+            assertEquals(result.distance, distSeq[i], 0);
+            assertEquals(result.distance, distPar[i], 0);
+            if (result.isHit()) {
+                assertEquals(result.point[0], pointsSeq[i * 3], 0);
+            }
+        }
+    }
+
+    @Test
+    public void interruptedBatchSkipsPendingChunks() throws InterruptedException {
+        float[] points = randomPoints(new Random(9), 1000);
+        TriangleKdTree tree = new TriangleKdTree(points, sequence(points.length / 3),
+                TriangleKdTree.SplitMethod.MEDIAN);
+        int count = 5000;
+        float[] origins = new float[count * 3];
+        float[] dirs = new float[count * 3];
+        randomRays(new Random(10), origins, dirs, count);
+        float[] distances = new float[count];
+        Arrays.fill(distances, -1);
+
+        // block the only executor thread, so that all chunks stay queued
+        final CountDownLatch blocker = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    // exit
+                }
+            }
+        });
+
+        try {
+            Thread.currentThread().interrupt();
+            tree.hitTest(origins, dirs, count, distances, null, null, executor);
+            fail("InterruptedException expected");
+        } catch (InterruptedException e) {
+            // expected
+        } finally {
+            Thread.interrupted();
+            blocker.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+
+        // the first chunk is processed by the caller, the queued chunks never wrote any results
+        assertTrue(distances[0] >= 0);
+        assertEquals(-1, distances[count - 1], 0);
+    }
+
+    @Test
+    public void surfaceAreaBenchmark() {
+        MicroBenchmark.assumeEnabled();
+
+        final float[] points = randomPoints(new Random(1), 200000);
+        final int[] indices = sequence(points.length / 3);
+        final int count = 100000;
+        final float[] origins = new float[count * 3];
+        final float[] dirs = new float[count * 3];
+        final float[] dists = new float[count];
+        randomRays(new Random(2), origins, dirs, count);
+
+        for (final TriangleKdTree.SplitMethod method : TriangleKdTree.SplitMethod.values()) {
+            MicroBenchmark.measure("kd-tree build " + method, new Runnable() {
+                @Override
+                public void run() {
+                    new TriangleKdTree(points, indices, method);
+                }
+            });
+            final TriangleKdTree tree = new TriangleKdTree(points, indices, method);
+            MicroBenchmark.measure("kd-tree " + count + " rays " + method, new Runnable() {
+                @Override
+                public void run() {
+                    tree.hitTest(origins, dirs, count, dists, null, null);
+                }
+            });
+        }
+    }
+
+    private static void checkAgainstBruteForce(TriangleKdTree.SplitMethod method) {
+        Random rnd = new Random(42);
+        float[] points = randomPoints(rnd, 2000);
+        int[] indices = sequence(points.length / 3);
+        TriangleKdTree tree = new TriangleKdTree(points, indices, method);
+        TriangleKdTree.HitTestResult result = new TriangleKdTree.HitTestResult();
+
+        int count = 2000;
+        float[] origins = new float[count * 3];
+        float[] dirs = new float[count * 3];
+        randomRays(rnd, origins, dirs, count);
+
+        int hits = 0;
+        Ray ray = new Ray();
+        for (int i = 0; i < count; i++) {
+            ray.setOrigin(origins[i * 3], origins[i * 3 + 1], origins[i * 3 + 2]);
+            ray.setDirection(dirs[i * 3], dirs[i * 3 + 1], dirs[i * 3 + 2]);
+            tree.hitTest(ray, result);
+
+            float expected = bruteForce(points, ray);
+            if (expected == Float.MAX_VALUE) {
+                assertFalse("ray " + i, result.isHit());
+            } else {
+                assertTrue("ray " + i, result.isHit());
+                assertEquals("ray " + i, expected, result.distance, EPS);
+                hits++;
+            }
+        }
+        // make sure the test actually exercises hits
+        assertTrue(hits > count / 4);
+    }
+
+    private static float bruteForce(float[] pts, Ray ray) {
+        float best = Float.MAX_VALUE;
+        float[] o = ray.origin;
+        float[] d = ray.direction;
+        for (int i = 0; i < pts.length; i += 9) {
+            float e1x = pts[i + 3] - pts[i], e1y = pts[i + 4] - pts[i + 1], e1z = pts[i + 5] - pts[i + 2];
+            float e2x = pts[i + 6] - pts[i], e2y = pts[i + 7] - pts[i + 1], e2z = pts[i + 8] - pts[i + 2];
+            float px = d[1] * e2z - d[2] * e2y;
+            float py = d[2] * e2x - d[0] * e2z;
+            float pz = d[0] * e2y - d[1] * e2x;
+            float det = px * e1x + py * e1y + pz * e1z;
+            if (det == 0) {
+                continue;
+            }
+            float f = 1 / det;
+            float sx = o[0] - pts[i], sy = o[1] - pts[i + 1], sz = o[2] - pts[i + 2];
+            float u = f * (px * sx + py * sy + pz * sz);
+            if (u < 0 || u > 1) {
+                continue;
+            }
+            float qx = sy * e1z - sz * e1y;
+            float qy = sz * e1x - sx * e1z;
+            float qz = sx * e1y - sy * e1x;
+            float v = f * (qx * d[0] + qy * d[1] + qz * d[2]);
+            if (v < 0 || u + v > 1) {
+                continue;
+            }
+            float t = f * (qx * e2x + qy * e2y + qz * e2z);
+            if (t >= 0 && t < best) {
+                best = t;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Creates small random triangles within the unit cube, 9 floats per triangle.
+     */
+    private static float[] randomPoints(Random rnd, int triangles) {
+        float[] points = new float[triangles * 9];
+        for (int i = 0; i < triangles; i++) {
+            float cx = rnd.nextFloat(), cy = rnd.nextFloat(), cz = rnd.nextFloat();
+            for (int j = 0; j < 9; j += 3) {
+                points[i * 9 + j] = cx + (rnd.nextFloat() - 0.5f) * 0.1f;
+                points[i * 9 + j + 1] = cy + (rnd.nextFloat() - 0.5f) * 0.1f;
+                points[i * 9 + j + 2] = cz + (rnd.nextFloat() - 0.5f) * 0.1f;
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Creates rays starting outside the unit cube, which point at a random point inside it.
+     */
+    private static void randomRays(Random rnd, float[] origins, float[] dirs, int count) {
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < 3; j++) {
+                origins[i * 3 + j] = rnd.nextFloat() * 4 - 1.5f;
+                dirs[i * 3 + j] = rnd.nextFloat() - origins[i * 3 + j];
+            }
+        }
+    }
+
+    private static int[] sequence(int n) {
+        int[] seq = new int[n];
+        for (int i = 0; i < n; i++) {
+            seq[i] = i;
+        }
+        return seq;
+    }
+
+    private static Ray ray(float ox, float oy, float oz, float dx, float dy, float dz) {
+        Ray ray = new Ray();
+        ray.setOrigin(ox, oy, oz);
+        ray.setDirection(dx, dy, dz);
+        return ray;
+    }
+}
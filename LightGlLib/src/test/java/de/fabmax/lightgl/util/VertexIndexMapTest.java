@@ -0,0 +1,116 @@
+package de.fabmax.lightgl.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link VertexIndexMap} and the vertex deduplication in {@link ObjLoader}.
+ *
+ * @author fabmax
+ */
+public class VertexIndexMapTest {
+
+    @Test
+    public void putAndGet() {
+        VertexIndexMap map = new VertexIndexMap(1);
+        assertEquals(-1, map.get(1, 2, 3));
+        assertEquals(-1, map.putIfAbsent(1, 2, 3, 0));
+        assertEquals(0, map.putIfAbsent(1, 2, 3, 5));
+        assertEquals(0, map.get(1, 2, 3));
+        assertEquals(-1, map.putIfAbsent(-1, -1, 7, 1));
+        assertEquals(1, map.get(-1, -1, 7));
+        assertEquals(2, map.size());
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(-1, map.get(1, 2, 3));
+    }
+
+    @Test
+    public void matchesHashMap() {
+        Random rnd = new Random(11);
+        VertexIndexMap map = new VertexIndexMap(16);
+        HashMap<String, Integer> reference = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            int a = rnd.nextInt(2000);
+            int b = rnd.nextInt(50) - 1;
+            int c = rnd.nextInt(50) - 1;
+            String key = a + "/" + b + "/" + c;
+            Integer expected = reference.get(key);
+            if (expected == null) {
+                reference.put(key, reference.size());
+            }
+            int existing = map.putIfAbsent(a, b, c, reference.get(key));
+            assertEquals(expected == null ? -1 : expected, existing);
+        }
+        assertEquals(reference.size(), map.size());
+    }
+
+    /**
+     * The old hash key ip ^ (in << 16) ^ (it << 8) mapped all of these triples to the same value,
+     * which merged different vertices.
+     */
+    @Test
+    public void noMergeOfFormerlyCollidingTriples() {
+        int[][] triples = { { 256, 0, 0 }, { 0, 1, 0 }, { 65536, 0, 0 }, { 0, 0, 1 }, { 0, 256, 0 } };
+        VertexIndexMap map = new VertexIndexMap();
+        for (int i = 0; i < triples.length; i++) {
+            assertEquals(-1, map.putIfAbsent(triples[i][0], triples[i][1], triples[i][2], i));
+        }
+        for (int i = 0; i < triples.length; i++) {
+            assertEquals(i, map.get(triples[i][0], triples[i][1], triples[i][2]));
+        }
+    }
+
+    /**
+     * Loads an OBJ model, whose face vertices use distinct index triples, which collided with
+     * the old hash key. Vertex count must equal the number of distinct triples before and after
+     * loading.
+     */
+    @Test
+    public void objLoaderKeepsDistinctVertices() throws Exception {
+        int n = 300;
+        StringBuilder obj = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            obj.append("v ").append(i).append(" 0 0\n");
+            obj.append("vt ").append(i).append(" 0\n");
+            obj.append("vn 0 0 ").append(i).append('\n');
+        }
+        // every triangle uses triples (i, j, k), which share positions, tex coords and normals
+        // with other triangles but are never equal
+        int triangles = 0;
+        HashMap<String, Boolean> distinct = new HashMap<>();
+        for (int i = 1; i + 2 <= n; i += 3) {
+            for (int shift = 0; shift < 3; shift++) {
+                obj.append('f');
+                for (int j = 0; j < 3; j++) {
+                    int p = i + j;
+                    int t = (i + j + shift) % n + 1;
+                    int nrm = (i + 2 * j + shift) % n + 1;
+                    obj.append(' ').append(p).append('/').append(t).append('/').append(nrm);
+                    distinct.put(p + "/" + t + "/" + nrm, true);
+                }
+                obj.append('\n');
+                triangles++;
+            }
+        }
+
+        MeshData data = ObjLoader.loadObjData(new ByteArrayInputStream(
+                obj.toString().getBytes(Charset.forName("US-ASCII"))));
+        assertEquals(distinct.size(), data.getVertexCount());
+        assertEquals(triangles * 3, data.indices.length);
+
+        // every vertex still references its own attributes
+        for (int i = 0; i < data.indices.length; i++) {
+            int v = data.indices[i];
+            float x = data.positions[v * 3];
+            assertEquals(i / 9 * 3 + i % 3 + 1, (int) x + 1);
+        }
+    }
+}